@@ -0,0 +1,61 @@
+package slatepowered.inset.bson;
+
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pools the output buffers used to stream encode documents, so the
+ * internal byte arrays are reused instead of regrown for every document.
+ */
+final class BsonBufferPool {
+
+    private BsonBufferPool() { throw new UnsupportedOperationException("Utility class"); }
+
+    // The maximum amount of pooled buffers
+    static final int MAX_POOLED = 64;
+
+    // The maximum size of a buffer to be returned to the pool,
+    // larger buffers are left to be garbage collected
+    static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    private static final ConcurrentLinkedQueue<BasicOutputBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    /**
+     * Get a pooled empty buffer or create a new one.
+     *
+     * @return The buffer.
+     */
+    static BasicOutputBuffer acquire() {
+        BasicOutputBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            return new BasicOutputBuffer();
+        }
+
+        POOLED.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Return the given buffer to the pool, the buffer
+     * must not be used after this.
+     *
+     * @param buffer The buffer.
+     */
+    static void release(BasicOutputBuffer buffer) {
+        if (buffer.getSize() > MAX_RETAINED_SIZE) {
+            return;
+        }
+
+        if (POOLED.incrementAndGet() > MAX_POOLED) {
+            POOLED.decrementAndGet();
+            return;
+        }
+
+        buffer.truncateToPosition(0);
+        POOL.offer(buffer);
+    }
+
+}
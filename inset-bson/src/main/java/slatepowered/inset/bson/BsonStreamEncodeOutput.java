@@ -0,0 +1,218 @@
+package slatepowered.inset.bson;
+
+import lombok.Getter;
+import org.bson.*;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.codec.support.ClassTreeInfo;
+import slatepowered.inset.codec.support.PotentiallyTransient;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Writes data directly as binary BSON through a {@link BsonWriter}.
+ *
+ * Unlike the {@link DocumentEncodeOutput} no intermediate tree of {@link BsonValue}s
+ * is built, every value is written to a pooled output buffer as it is set and nested
+ * objects are written into the same buffer. The result is a {@link RawBsonDocument}
+ * which can be sent to the database without being serialized again.
+ *
+ * The encoding is the same as that of the {@link DocumentEncodeOutput}, except that
+ * fields are written in the order they are set and can not be overwritten.
+ */
+public class BsonStreamEncodeOutput extends EncodeOutput {
+
+    static final BsonValueCodec BSON_VALUE_CODEC = new BsonValueCodec();
+    static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    @Getter
+    protected final String keyFieldOverride;
+
+    /**
+     * The writer to write the document to.
+     */
+    @Getter
+    protected final BsonWriter writer;
+
+    // The buffer written to, only set on the root output
+    private BasicOutputBuffer buffer;
+
+    // The finished document
+    private RawBsonDocument document;
+
+    public BsonStreamEncodeOutput(String keyFieldOverride) {
+        this.keyFieldOverride = keyFieldOverride;
+        this.buffer = BsonBufferPool.acquire();
+        this.writer = new BsonBinaryWriter(buffer);
+        writer.writeStartDocument();
+    }
+
+    // creates an output for a nested document which is
+    // written to the given writer by the parent output
+    protected BsonStreamEncodeOutput(String keyFieldOverride, BsonWriter writer) {
+        this.keyFieldOverride = keyFieldOverride;
+        this.writer = writer;
+    }
+
+    /**
+     * Finish writing the document and get the result, after this
+     * no more values can be set and the buffer is returned to the pool.
+     *
+     * @return The encoded document.
+     */
+    public RawBsonDocument finish() {
+        if (document == null) {
+            if (buffer == null) {
+                throw new IllegalStateException("Can not finish a nested document output");
+            }
+
+            writer.writeEndDocument();
+            document = new RawBsonDocument(buffer.toByteArray());
+            BsonBufferPool.release(buffer);
+            buffer = null;
+        }
+
+        return document;
+    }
+
+    // write the given value to the writer, the name has
+    // to be written before unless writing an array element
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void writeValue(CodecContext context, Object value, Type definedType) {
+        /* Null */
+        if (value == null) {
+            writer.writeNull();
+            return;
+        }
+
+        /* Complex Types */
+        Class<?> klass = value.getClass();
+        final ClassTreeInfo treeInfo = ClassTreeInfo.forClass(klass);
+
+        if (Enum.class.isAssignableFrom(klass)) {
+            Class<?> enumDeclClass = klass.isEnum() ? klass : klass.getSuperclass();
+            writer.writeString(treeInfo.shouldWriteSeparateClassName() ?
+                    context.encodeClass(enumDeclClass) + ":" + ((Enum) value).name() : /* encode as class:name */
+                    ((Enum) value).name()); /* encode as name */
+        } else if (klass.isArray()) {
+            int l = Array.getLength(value);
+            writer.writeStartArray();
+            for (int i = 0; i < l; i++) {
+                writeValue(context, Array.get(value, i), null);
+            }
+
+            writer.writeEndArray();
+        } else if (value instanceof Collection) {
+            // try to find accurate element type
+            Type definedElementType = Object.class;
+            if (definedType instanceof ParameterizedType) {
+                definedElementType = ((ParameterizedType) definedType).getActualTypeArguments()[0];
+            }
+
+            writer.writeStartArray();
+            for (Object o : (Collection<?>) value) {
+                if (o instanceof PotentiallyTransient && ((PotentiallyTransient) o).isTransient()) {
+                    continue;
+                }
+
+                writeValue(context, o, definedElementType);
+            }
+
+            writer.writeEndArray();
+        } else if (value instanceof Map) {
+            /*
+             * Maps are encoded as arrays of key-value pairs,
+             * see DocumentEncodeOutput#encodeValue
+             */
+
+            writer.writeStartArray();
+            ((Map<?, ?>) value).forEach((k, v) -> {
+                if (v instanceof PotentiallyTransient && ((PotentiallyTransient) v).isTransient()) {
+                    return;
+                }
+
+                writer.writeStartArray();
+                writeValue(context, k, null);
+                writeValue(context, v, null);
+                writer.writeEndArray();
+            });
+
+            writer.writeEndArray();
+        }
+
+        /* Primitives */
+        else if (value instanceof Long) writer.writeInt64((Long) value);
+        else if (value instanceof Integer) writer.writeInt32((Integer) value);
+        else if (value instanceof Number) writer.writeDouble(((Number) value).doubleValue());
+        else if (value instanceof String) writer.writeString((String) value);
+        else if (value instanceof Boolean) writer.writeBoolean((Boolean) value);
+        else if (value instanceof Date) writer.writeDateTime(((Date) value).getTime());
+        else if (value instanceof OffsetDateTime) writer.writeDateTime(((OffsetDateTime) value).toInstant().toEpochMilli());
+        else if (value instanceof Instant) writer.writeDateTime(((Instant) value).toEpochMilli());
+        else if (value instanceof UUID) writer.writeBinaryData(DocumentEncodeOutput.encodeUUID((UUID) value));
+        else if (value instanceof BsonValue) BSON_VALUE_CODEC.encode(writer, (BsonValue) value, ENCODER_CONTEXT);
+
+        /* Objects */
+        else {
+            writer.writeStartDocument();
+            BsonStreamEncodeOutput output = new BsonStreamEncodeOutput(keyFieldOverride, writer);
+            context.findCodec((Class<Object>) klass).encode(context, value, output);
+
+            if (treeInfo.shouldWriteSeparateClassName()) {
+                writer.writeString(BsonCodecs.CLASS_NAME_FIELD, context.encodeClass(klass));
+            }
+
+            writer.writeEndDocument();
+        }
+    }
+
+    @Override
+    protected void registerKey(CodecContext context, String name, Object key) {
+        setKeyField = keyFieldOverride != null ? keyFieldOverride : setKeyField;
+        writer.writeName(setKeyField);
+        writeValue(context, key, null);
+    }
+
+    @Override
+    public void set(CodecContext context, String field, Object value, Type definedType) {
+        writer.writeName(field);
+        writeValue(context, value, definedType);
+    }
+
+    @Override
+    public void setInt(CodecContext context, String field, int value) {
+        writer.writeInt32(field, value);
+    }
+
+    @Override
+    public void setLong(CodecContext context, String field, long value) {
+        writer.writeInt64(field, value);
+    }
+
+    @Override
+    public void setDouble(CodecContext context, String field, double value) {
+        writer.writeDouble(field, value);
+    }
+
+    @Override
+    public void setFloat(CodecContext context, String field, float value) {
+        writer.writeDouble(field, value);
+    }
+
+    @Override
+    public void setBoolean(CodecContext context, String field, boolean value) {
+        writer.writeBoolean(field, value);
+    }
+
+}
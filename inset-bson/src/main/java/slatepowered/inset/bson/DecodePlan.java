@@ -0,0 +1,514 @@
+package slatepowered.inset.bson;
+
+import org.bson.Document;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.CodecException;
+import slatepowered.inset.codec.ExpectedType;
+import slatepowered.inset.codec.ValueCodec;
+import slatepowered.inset.codec.support.ClassDistinctionOverride;
+import slatepowered.inset.codec.support.ClassTreeInfo;
+import slatepowered.inset.util.EnumLookup;
+import slatepowered.inset.util.Reflections;
+import slatepowered.inset.util.ValueUtils;
+import slatepowered.veru.reflect.ReflectUtil;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A plan for decoding values retrieved from a BSON document into an expected type.
+ *
+ * Everything which only depends on the expected type, like the expected class and its
+ * tree info, the kind of collection or map to create and the plans for the elements,
+ * is resolved once when the plan is compiled for the type,
+ * so decoding a value only has to dispatch on the kind of value retrieved. The plans
+ * for element types are linked on first use, as element types may refer to the type
+ * itself (like {@code Object} for lists of unknown elements). The plans for the fields
+ * of codecs are kept with the {@link ExpectedType} of the field, so they are only looked
+ * up once per field.
+ *
+ * The context of an error is only built when decoding actually fails.
+ */
+final class DecodePlan {
+
+    // The compiled plans by expected type, stored per owner class (see ownerClass)
+    // so the plans do not keep classes of other class loaders alive
+    private static final ClassValue<Map<Type, DecodePlan>> PLANS = new ClassValue<Map<Type, DecodePlan>>() {
+        @Override
+        protected Map<Type, DecodePlan> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Get or compile the decode plan for the given expected type.
+     *
+     * @param type The expected type.
+     * @return The plan.
+     */
+    static DecodePlan forType(Type type) {
+        Map<Type, DecodePlan> plans = PLANS.get(ownerClass(type));
+        DecodePlan plan = plans.get(type);
+        if (plan == null) {
+            plan = new DecodePlan(type);
+            DecodePlan existing = plans.putIfAbsent(type, plan);
+            if (existing != null) plan = existing;
+        }
+
+        return plan;
+    }
+
+    /**
+     * Get the decode plan for the given expected type of a field, which is
+     * only looked up on the first call and then kept with the expected type.
+     *
+     * @param expectedType The expected type.
+     * @return The plan.
+     */
+    static DecodePlan forType(ExpectedType expectedType) {
+        Object plan = expectedType.getPlan();
+        if (plan instanceof DecodePlan) {
+            return (DecodePlan) plan;
+        }
+
+        DecodePlan resolved = forType(expectedType.getType());
+        expectedType.setPlan(resolved);
+        return resolved;
+    }
+
+    // get the class to store the plan for the given type under, which is the
+    // first class in the type not loaded by the bootstrap loader, so that the
+    // plan for a type like List<Foo> is dropped together with Foo
+    private static Class<?> ownerClass(Type type) {
+        Class<?> rawClass = ReflectUtil.getClassForType(type);
+        if (rawClass.getClassLoader() != null || !(type instanceof ParameterizedType)) {
+            return rawClass;
+        }
+
+        for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+            Class<?> owner = ownerClass(argument);
+            if (owner.getClassLoader() != null) {
+                return owner;
+            }
+        }
+
+        return rawClass;
+    }
+
+    /* Collection implementations */
+    static final int COLLECTION_ARRAY_LIST = 0;
+    static final int COLLECTION_VECTOR = 1;
+    static final int COLLECTION_LINKED_LIST = 2;
+    static final int COLLECTION_HASH_SET = 3;
+
+    /* Map implementations */
+    static final int MAP_HASH_MAP = 0;
+    static final int MAP_CONCURRENT_HASH_MAP = 1;
+    static final int MAP_WEAK_HASH_MAP = 2;
+    static final int MAP_LINKED_HASH_MAP = 3;
+
+    final Type expectedType;
+    final Class<?> expectedClass;
+    final ClassTreeInfo expectedClassInfo;
+    final ClassDistinctionOverride distinctionOverride;
+
+    final boolean isList;
+    final boolean isMap;
+    final boolean isArray;
+    final boolean isEnum;
+    final boolean isNumber;
+    final boolean isPrimitive;
+    final boolean writesSeparateClassName;
+
+    final int collectionKind;
+    final int mapKind;
+
+    // The classes of the collections and maps created,
+    // existing values of these classes can be reused
+    final Class<?> collectionClass;
+    final Class<?> mapClass;
+
+    // The element or key and value types
+    final Type elementType;
+    final Type keyType;
+    final Type valueType;
+    final Class<?> keyClass;
+
+    // The plans for the element or key and value types, linked on first
+    // use and volatile so the linked plans are safely published
+    private volatile DecodePlan elementPlan;
+    private volatile DecodePlan keyPlan;
+    private volatile DecodePlan valuePlan;
+
+    private DecodePlan(Type expectedType) {
+        this.expectedType = expectedType;
+        this.expectedClass = ReflectUtil.getClassForType(expectedType);
+        this.expectedClassInfo = ClassTreeInfo.forClass(expectedClass);
+        this.distinctionOverride = expectedClassInfo != null ? expectedClassInfo.getClassDistinctionOverride() : null;
+        this.writesSeparateClassName = expectedClassInfo != null && expectedClassInfo.shouldWriteSeparateClassName();
+
+        this.isList = List.class.isAssignableFrom(expectedClass);
+        this.isMap = Map.class.isAssignableFrom(expectedClass);
+        this.isArray = expectedClass.isArray();
+        this.isEnum = expectedClass.isEnum();
+        this.isNumber = Number.class.isAssignableFrom(expectedClass);
+        this.isPrimitive = expectedClass.isPrimitive();
+
+        if (Vector.class.isAssignableFrom(expectedClass)) collectionKind = COLLECTION_VECTOR;
+        else if (LinkedList.class.isAssignableFrom(expectedClass)) collectionKind = COLLECTION_LINKED_LIST;
+        else if (Set.class.isAssignableFrom(expectedClass)) collectionKind = COLLECTION_HASH_SET;
+        else collectionKind = COLLECTION_ARRAY_LIST;
+
+        if (ConcurrentHashMap.class.isAssignableFrom(expectedClass)) mapKind = MAP_CONCURRENT_HASH_MAP;
+        else if (WeakHashMap.class.isAssignableFrom(expectedClass)) mapKind = MAP_WEAK_HASH_MAP;
+        else if (LinkedHashMap.class.isAssignableFrom(expectedClass)) mapKind = MAP_LINKED_HASH_MAP;
+        else mapKind = MAP_HASH_MAP;
+
+        switch (collectionKind) {
+            case COLLECTION_VECTOR: collectionClass = Vector.class; break;
+            case COLLECTION_LINKED_LIST: collectionClass = LinkedList.class; break;
+            case COLLECTION_HASH_SET: collectionClass = HashSet.class; break;
+            default: collectionClass = ArrayList.class;
+        }
+
+        switch (mapKind) {
+            case MAP_CONCURRENT_HASH_MAP: mapClass = ConcurrentHashMap.class; break;
+            case MAP_WEAK_HASH_MAP: mapClass = WeakHashMap.class; break;
+            case MAP_LINKED_HASH_MAP: mapClass = LinkedHashMap.class; break;
+            default: mapClass = HashMap.class;
+        }
+
+        Type[] typeArguments = expectedType instanceof ParameterizedType ?
+                ((ParameterizedType) expectedType).getActualTypeArguments() : null;
+        if (isArray) {
+            elementType = expectedClass.getComponentType();
+        } else {
+            elementType = typeArguments != null ? typeArguments[0] : Object.class;
+        }
+
+        if (isMap && typeArguments != null) {
+            keyType = typeArguments[0];
+            valueType = typeArguments[1];
+        } else {
+            keyType = Object.class;
+            valueType = Object.class;
+        }
+
+        keyClass = ReflectUtil.getClassForType(keyType);
+    }
+
+    DecodePlan elementPlan() {
+        DecodePlan plan = elementPlan;
+        if (plan == null) elementPlan = plan = forType(elementType);
+        return plan;
+    }
+
+    DecodePlan keyPlan() {
+        DecodePlan plan = keyPlan;
+        if (plan == null) keyPlan = plan = forType(keyType);
+        return plan;
+    }
+
+    DecodePlan valuePlan() {
+        DecodePlan plan = valuePlan;
+        if (plan == null) valuePlan = plan = forType(valueType);
+        return plan;
+    }
+
+    /**
+     * Create the exception for a failed decode of a value, only
+     * called when decoding failed so the context is built lazily.
+     */
+    static CodecException failed(String name, Type expectedType, CodecContext context, Throwable cause) {
+        return new CodecException("In decode of BSON document value named(" + name + ") expectedType(" + expectedType + ") context(" + context + ")", cause);
+    }
+
+    /* The kinds of nested values, used to name the value when decoding fails */
+    static final int NESTED_MAP_KEY = 0;
+    static final int NESTED_MAP_VALUE = 1;
+    static final int NESTED_ELEMENT = 2;
+
+    // decode the given nested value with the given plan, wrapping any
+    // error with the name of the value which is only built on failure
+    private static Object decodeNested(DecodePlan plan, DocumentDecodeInput input, CodecContext context, Object value,
+                                       int kind, int index, Object key) {
+        try {
+            return plan.decode(input, context, value);
+        } catch (Exception e) {
+            String name = kind == NESTED_MAP_KEY ? "key" : kind == NESTED_MAP_VALUE ? "key '" + key + "'" : "index " + index;
+            throw failed(name, plan.expectedType, context, e);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Collection newCollection(int size) {
+        switch (collectionKind) {
+            case COLLECTION_VECTOR: return new Vector(size);
+            case COLLECTION_LINKED_LIST: return new LinkedList();
+            case COLLECTION_HASH_SET: return new HashSet<>();
+            default: return new ArrayList(size);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Map newMap() {
+        switch (mapKind) {
+            case MAP_CONCURRENT_HASH_MAP: return new ConcurrentHashMap();
+            case MAP_WEAK_HASH_MAP: return new WeakHashMap();
+            case MAP_LINKED_HASH_MAP: return new LinkedHashMap();
+            default: return new HashMap();
+        }
+    }
+
+    // clear and reuse the given existing value if it is a collection
+    // of the implementation which would be created, otherwise create one
+    @SuppressWarnings("rawtypes")
+    private Collection reuseOrNewCollection(Object existing, int size) {
+        if (existing != null && existing.getClass() == collectionClass) {
+            Collection collection = (Collection) existing;
+            collection.clear();
+            return collection;
+        }
+
+        return newCollection(size);
+    }
+
+    // clear and reuse the given existing value if it is a map
+    // of the implementation which would be created, otherwise create one
+    @SuppressWarnings("rawtypes")
+    private Map reuseOrNewMap(Object existing) {
+        if (existing != null && existing.getClass() == mapClass) {
+            Map map = (Map) existing;
+            map.clear();
+            return map;
+        }
+
+        return newMap();
+    }
+
+    // resolve an enum constant encoded as `class:name`, where the class
+    // is either a type tag or a class name, the plans are shared between data
+    // managers so the resolved constants are not cached by the encoded value
+    private Object resolveQualifiedEnum(CodecContext context, String value) {
+        int separator = value.indexOf(':');
+        String enumDeclClassName = value.substring(0, separator);
+        String enumConstantName = value.substring(separator + 1);
+
+        Class<?> enumDeclClass = context != null ? context.decodeClass(enumDeclClassName) : Reflections.findClass(enumDeclClassName);
+
+        Object constant = enumDeclClass != null ? EnumLookup.find(enumDeclClass, enumConstantName) : null;
+        if (constant != null) {
+            return constant;
+        }
+
+        throw new IllegalArgumentException("Could not resolve `" + value + "` to an enum value of " + enumDeclClass);
+    }
+
+    // decodes a map-valid key retrieved from a bson document
+    private Object decodeDocumentKey(String value) {
+        if (keyClass == String.class) {
+            return value;
+        }
+
+        /* Convert floating point numbers */
+        if (
+                keyClass == Float.class || keyClass == Double.class ||
+                keyClass == float.class || keyClass == double.class
+        ) {
+            return Double.longBitsToDouble(Long.parseLong(value));
+        }
+
+        /* Convert boxed numbers */
+        if (Number.class.isAssignableFrom(keyClass)) {
+            return ValueUtils.castBoxedNumber(Long.parseLong(value), keyClass);
+        }
+
+        /* Convert primitive numbers */
+        if (keyClass.isPrimitive()) {
+            return ValueUtils.castBoxedPrimitive(Long.parseLong(value), keyClass);
+        }
+
+        throw new IllegalArgumentException("Got unsupported map key type to decode: " + value.getClass());
+    }
+
+    /**
+     * Decode the given value retrieved from a BSON document.
+     *
+     * @param input The input the value was read from.
+     * @param context The codec context, null if decoding a primary key.
+     * @param value The value.
+     * @return The decoded value.
+     */
+    Object decode(DocumentDecodeInput input, CodecContext context, Object value) {
+        return decode(input, context, value, null);
+    }
+
+    /**
+     * Decode the given value retrieved from a BSON document into the given existing
+     * value where possible. Existing collections and maps of the implementation which
+     * would be created are cleared and refilled, and existing objects of the decoded
+     * class are decoded in place if their codec supports it.
+     *
+     * @param input The input the value was read from.
+     * @param context The codec context, null if decoding a primary key.
+     * @param value The value.
+     * @param existing The existing value, may be null.
+     * @return The decoded value, which may be the existing value.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object decode(DocumentDecodeInput input, CodecContext context, Object value, Object existing) {
+        if (value == null) {
+            if (isList) {
+                return reuseOrNewCollection(existing, 0);
+            } else if (isMap) {
+                return reuseOrNewMap(existing);
+            } else if (isArray) {
+                return Array.newInstance(expectedClass.getComponentType(), 0);
+            }
+
+            return null;
+        }
+
+        // check for list value before checking for direct primitives
+        // because it is the only collection type generated by bson
+        if (value instanceof List) {
+            List list = (List) value;
+            final int length = list.size();
+
+            if (isMap) {
+                /*
+                 * Maps are encoded as arrays with each entry being a pair of key and value
+                 * represented in BSON as another array, see DocumentEncodeOutput#encodeValue
+                 */
+                final DecodePlan keyPlan = keyPlan();
+                final DecodePlan valuePlan = valuePlan();
+
+                Map convertedMap = reuseOrNewMap(existing);
+                for (int i = 0; i < length; i++) {
+                    List pair = (List) list.get(i);
+                    Object k = pair.get(0);
+                    convertedMap.put(
+                            decodeNested(keyPlan, input, context, k, NESTED_MAP_KEY, 0, null),
+                            decodeNested(valuePlan, input, context, pair.get(1), NESTED_MAP_VALUE, 0, k)
+                    );
+                }
+
+                return convertedMap;
+            }
+
+            if (context == null) {
+                throw new IllegalArgumentException("Document contains non-primitive value for key field");
+            }
+
+            final DecodePlan elementPlan = elementPlan();
+
+            // check if we expect an array
+            if (isArray) {
+                Object array = Array.newInstance(expectedClass.getComponentType(), length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, decodeNested(elementPlan, input, context, list.get(i), NESTED_ELEMENT, i, null));
+                }
+
+                return array;
+            }
+
+            Collection newList = reuseOrNewCollection(existing, length);
+            for (int i = 0; i < length; i++) {
+                newList.add(decodeNested(elementPlan, input, context, list.get(i), NESTED_ELEMENT, i, null));
+            }
+
+            return newList;
+        }
+
+        // primitives which can represent complex definitions
+        if (expectedClass.isInstance(value)) {
+            return value;
+        }
+
+        // simple enum class
+        if (isEnum && value instanceof String) {
+            String str = (String) value;
+            if (str.contains(":")) {
+                return resolveQualifiedEnum(context, str);
+            }
+
+            Object constant = EnumLookup.find(expectedClass, str);
+            if (constant != null) {
+                return constant;
+            }
+
+            throw new IllegalArgumentException("Could not resolve `" + value + "` to an enum value of " + expectedClass);
+        }
+
+        // complex enum declaration
+        if (value instanceof String && writesSeparateClassName) {
+            return resolveQualifiedEnum(context, (String) value);
+        }
+
+        /* Complex objects */
+        //  only support primitives if context is
+        //  null, because this is only ever used to decode
+        //  the primary key field
+        if (value instanceof Document) {
+            if (context == null) {
+                throw new IllegalArgumentException("Document contains non-primitive value for key field");
+            }
+
+            Document doc = (Document) value;
+            final String keyFieldOverride = input.getKeyFieldOverride();
+
+            // check for map
+            if (isMap) {
+                final DecodePlan valuePlan = valuePlan();
+
+                Map map = new HashMap();
+                for (Map.Entry<String, Object> entry : doc.entrySet()) {
+                    String k = entry.getKey();
+                    map.put(decodeDocumentKey(k), decodeNested(valuePlan, input, context, entry.getValue(), NESTED_MAP_VALUE, 0, k));
+                }
+
+                return map;
+            }
+
+            if (distinctionOverride != null) {
+                Object classKey = doc.get(distinctionOverride.value());
+                Class<?> klass = context.findClassDistinctionReader(expectedClass).findClass(classKey);
+                return context.findCodec(klass).constructAndDecode(context, new DocumentDecodeInput(keyFieldOverride, doc));
+            }
+
+            // decode nested object, with an alternate
+            // target type if a class name is present
+            Class<?> klass = expectedClass;
+            String className = doc.getString(BsonCodecs.CLASS_NAME_FIELD);
+            if (className != null) {
+                Class<?> namedClass = context.decodeClass(className);
+                if (namedClass != null) {
+                    klass = namedClass;
+                }
+            }
+
+            ValueCodec codec = context.findCodec(klass);
+            DocumentDecodeInput nestedInput = new DocumentDecodeInput(keyFieldOverride, doc);
+            if (existing != null && existing.getClass() == klass && codec.decodeInPlace(context, existing, nestedInput)) {
+                return existing;
+            }
+
+            return codec.constructAndDecode(context, nestedInput);
+        }
+
+        /* Primitives */
+        if (isNumber) {
+            return ValueUtils.castBoxedNumber((Number) value, expectedClass);
+        }
+
+        if (isPrimitive) {
+            return ValueUtils.castBoxedPrimitive(value, expectedClass);
+        }
+
+        return value;
+    }
+
+}
@@ -4,20 +4,12 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.bson.Document;
 import slatepowered.inset.codec.CodecException;
-import slatepowered.inset.codec.support.ClassDistinctionOverride;
 import slatepowered.inset.codec.CodecContext;
 import slatepowered.inset.codec.DecodeInput;
-import slatepowered.inset.codec.support.ClassTreeInfo;
+import slatepowered.inset.codec.ExpectedType;
 import slatepowered.inset.util.DebugLogging;
-import slatepowered.inset.util.Reflections;
-import slatepowered.inset.util.ValueUtils;
-import slatepowered.veru.reflect.ReflectUtil;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Reads data from a {@link Document} input.
@@ -33,295 +25,144 @@ public class DocumentDecodeInput extends DecodeInput implements DebugLogging {
      */
     final Document document;
 
-    // decodes a map-valid key retrieved from a bson document
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private Object decodeDocumentKey(CodecContext context, String value, Type expectedType, Class<?> expectedClass) {
-        if (expectedClass == String.class) {
-            return value;
-        }
-
-        /* Convert floating point numbers */
-        if (
-                expectedClass == Float.class || expectedClass == Double.class ||
-                expectedClass == float.class || expectedClass == double.class
-        ) {
-            return Double.longBitsToDouble(Long.parseLong(value));
-        }
+    /**
+     * Decode the given value retrieved from the document for the given field.
+     *
+     * @param context The context.
+     * @param field The field name.
+     * @param value The value.
+     * @param expectedType The expected type.
+     * @return The decoded value.
+     */
+    protected Object decodeField(CodecContext context, String field, Object value, Type expectedType) {
+        return decodeField(context, field, value, expectedType, null);
+    }
 
-        /* Convert boxed numbers */
-        if (Number.class.isAssignableFrom(expectedClass)) {
-            return ValueUtils.castBoxedNumber(Long.parseLong(value), expectedClass);
+    /**
+     * Decode the given value retrieved from the document for the given
+     * field into the given existing value where possible.
+     *
+     * @param context The context.
+     * @param field The field name.
+     * @param value The value.
+     * @param expectedType The expected type.
+     * @param existing The existing value, may be null.
+     * @return The decoded value.
+     */
+    protected Object decodeField(CodecContext context, String field, Object value, Type expectedType, Object existing) {
+        try {
+            return DecodePlan.forType(expectedType).decode(this, context, value, existing);
+        } catch (Exception e) {
+            throw DecodePlan.failed("field " + field, expectedType, context, e);
         }
+    }
 
-        /* Convert primitive numbers */
-        if (expectedClass.isPrimitive()) {
-            return ValueUtils.castBoxedPrimitive(Long.parseLong(value), expectedClass);
+    /**
+     * Decode the given value retrieved from the document for the given field into
+     * the given existing value where possible, with the plan kept by the expected type.
+     *
+     * @param context The context.
+     * @param field The field name.
+     * @param value The value.
+     * @param expectedType The expected type of the field.
+     * @param existing The existing value, may be null.
+     * @return The decoded value.
+     */
+    protected Object decodeField(CodecContext context, String field, Object value, ExpectedType expectedType, Object existing) {
+        try {
+            return DecodePlan.forType(expectedType).decode(this, context, value, existing);
+        } catch (Exception e) {
+            throw DecodePlan.failed("field " + field, expectedType.getType(), context, e);
         }
-
-        throw new IllegalArgumentException("Got unsupported map key type to decode: " + value.getClass());
     }
 
-    // decodes a value retrieved from a bson document
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private Object decodeDocumentValue(CodecContext context, String name, Object value, Type expectedType, Class<?> expectedClass) {
+    /**
+     * Decode the given primary key value retrieved from the document.
+     *
+     * @param value The value.
+     * @param expectedType The expected type.
+     * @return The decoded key.
+     */
+    protected Object decodeKey(Object value, Type expectedType) {
         try {
-            final ClassTreeInfo expectedClassInfo = ClassTreeInfo.forClass(expectedClass);
-
-            if (DEBUG_LOGGING_LEVEL >= TRACE)
-                log("decodeDocumentValue(" + compactString(value) + ", expected: " + compactString(expectedType) + ")");
-
-            if (value == null) {
-                if (List.class.isAssignableFrom(expectedClass)) {
-                    return new ArrayList<>();
-                } else if (Map.class.isAssignableFrom(expectedClass)) {
-                    return new HashMap<>();
-                } else if (expectedClass.isArray()) {
-                    return Array.newInstance(expectedClass.getComponentType(), 0);
-                }
-
-                return null;
-            }
-
-            // check for list value before checking for direct primitives
-            // because it is the only collection type generated by bson
-            if (value instanceof List) {
-                if (Map.class.isAssignableFrom(expectedClass)) {
-                    List<List> encodedMap = (List<List>) value;
-                    if (DEBUG_LOGGING_LEVEL >= TRACE)
-                        log(" Decoding list into map, enc = " + compactString(encodedMap));
-
-                    /*
-                     * Maps are encoded as arrays with each entry being a pair of key and value
-                     * represented in BSON as another array:
-                     *
-                     * { a = 6, b = 7 }
-                     * becomes
-                     * [ ["a", 6], ["b", 7] ]
-                     */
-
-                    // check for parameter types
-                    Type expectedKeyType;
-                    Type expectedValueType;
-                    if (Map.class.isAssignableFrom(expectedClass) && expectedType instanceof ParameterizedType) {
-                        expectedKeyType = ((ParameterizedType) expectedType).getActualTypeArguments()[0];
-                        expectedValueType = ((ParameterizedType) expectedType).getActualTypeArguments()[1];
-                    } else {
-                        expectedKeyType = Object.class;
-                        expectedValueType = Object.class;
-                    }
-
-                    final Class<?> expectedKeyClass = ReflectUtil.getClassForType(expectedKeyType);
-                    final Class<?> expectedValueClass = ReflectUtil.getClassForType(expectedValueType);
-
-                    /* determine map type */
-                    Map convertedMap;
-                    if (ConcurrentHashMap.class.isAssignableFrom(expectedClass)) convertedMap = new ConcurrentHashMap();
-                    else if (WeakHashMap.class.isAssignableFrom(expectedClass)) convertedMap = new WeakHashMap();
-                    else if (LinkedHashMap.class.isAssignableFrom(expectedClass)) convertedMap = new LinkedHashMap();
-                    else convertedMap = new HashMap();
-
-                    encodedMap.forEach(pair -> convertedMap.put(
-                            decodeDocumentValue(context, "key", pair.get(0), expectedKeyType, expectedKeyClass),    // key
-                            decodeDocumentValue(context, "key '" + pair.get(0) + "'", pair.get(1), expectedValueType, expectedValueClass) // value
-                    ));
-
-                    return convertedMap;
-                }
-
-                if (context == null) {
-                    throw new IllegalArgumentException("Document contains non-primitive value for key field");
-                }
-
-                // check if we expect an array
-                if (expectedClass.isArray()) {
-                    Type expectedElementType = expectedClass.getComponentType();
-                    Class<?> expectedElementClass = ReflectUtil.getClassForType(expectedElementType);
-
-                    List list = (List) value;
-                    final int length = list.size();
-                    Object array = Array.newInstance(expectedClass.getComponentType(), length);
-
-                    for (int i = 0; i < length; i++) {
-                        Array.set(array, i, decodeDocumentValue(context, "index " + i, Array.get(array, i), expectedElementType, expectedElementClass));
-                    }
-
-                    return array;
-                }
-
-                // try to find accurate element type
-                Type expectedElementType = Object.class;
-                if (expectedType instanceof ParameterizedType) {
-                    expectedElementType = ((ParameterizedType) expectedType).getActualTypeArguments()[0];
-                }
-
-                Class<?> expectedElementClass = ReflectUtil.getClassForType(expectedElementType);
-
-                // decode list
-                List list = (List) value;
-                final int length = list.size();
-
-                /* determine collection type */
-                Collection newList;
-                if (Vector.class.isAssignableFrom(expectedClass)) newList = new Vector();
-                else if (LinkedList.class.isAssignableFrom(expectedClass)) newList = new LinkedList();
-                else if (Set.class.isAssignableFrom(expectedClass)) newList = new HashSet<>();
-                else newList = new ArrayList();
-
-                for (int i = 0; i < length; i++) {
-                    newList.add(decodeDocumentValue(context, "index " + i, list.get(i), expectedElementType, expectedElementClass));
-                }
-
-                return newList;
-            }
-
-            // primitives which can represent complex definitions
-            if (expectedClass.isInstance(value)) {
-                return value;
-            }
-
-            // simple enum class
-            if (expectedClass.isEnum() && value instanceof String) {
-                String str = (String) value;
-
-                if (str.contains(":")) {
-                    String[] strings = ((String) value).split(":");
-                    String enumDeclClassName = strings[0];
-                    String enumConstantName = strings[1];
-
-                    Class<?> enumDeclClass = Reflections.findClass(enumDeclClassName);
-
-                    for (Object constant : enumDeclClass.getEnumConstants()) {
-                        if (((Enum) constant).name().equalsIgnoreCase(enumConstantName)) {
-                            return constant;
-                        }
-                    }
-
-                    throw new IllegalArgumentException("Could not resolve `" + value + "` to an enum value of " + enumDeclClass);
-                }
-
-                for (Object constant : expectedClass.getEnumConstants()) {
-                    if (((Enum) constant).name().equalsIgnoreCase(str)) {
-                        return constant;
-                    }
-                }
-
-                throw new IllegalArgumentException("Could not resolve `" + value + "` to an enum value of " + expectedClass);
-            }
-
-            // complex enum declaration
-            if (value instanceof String && expectedClassInfo != null && expectedClassInfo.shouldWriteSeparateClassName()) {
-                String[] strings = ((String) value).split(":");
-                String enumDeclClassName = strings[0];
-                String enumConstantName = strings[1];
-
-                Class<?> enumDeclClass = Reflections.findClass(enumDeclClassName);
-
-                for (Object constant : enumDeclClass.getEnumConstants()) {
-                    if (((Enum) constant).name().equalsIgnoreCase(enumConstantName)) {
-                        return constant;
-                    }
-                }
-
-                throw new IllegalArgumentException("Could not resolve `" + value + "` to an enum value of " + enumDeclClass);
-            }
-
-            /* Complex objects */
-            //  only support primitives if context is
-            //  null, because this is only ever used to decode
-            //  the primary key field
-            if (value instanceof Document) {
-                if (context == null) {
-                    throw new IllegalArgumentException("Document contains non-primitive value for key field");
-                }
-
-                Document doc = (Document) value;
-
-                // check for map
-                if (Map.class.isAssignableFrom(expectedClass)) {
-                    // check for parameter types
-                    Type expectedKeyType;
-                    Type expectedValueType;
-                    if (expectedType instanceof ParameterizedType) {
-                        expectedKeyType = ((ParameterizedType) expectedType).getActualTypeArguments()[0];
-                        expectedValueType = ((ParameterizedType) expectedType).getActualTypeArguments()[1];
-                    } else {
-                        expectedKeyType = Object.class;
-                        expectedValueType = Object.class;
-                    }
-
-                    Class<?> expectedKeyClass = ReflectUtil.getClassForType(expectedKeyType);
-                    Class<?> expectedValueClass = ReflectUtil.getClassForType(expectedValueType);
-
-                    Map map = new HashMap();
-                    doc.forEach((k, v) -> map.put(
-                            decodeDocumentKey(context, k, expectedKeyType, expectedKeyClass),
-                            decodeDocumentValue(context, "key '" + k + "'", v, expectedValueType, expectedValueClass)
-                    ));
+            return DecodePlan.forType(expectedType).decode(this, null, value);
+        } catch (Exception e) {
+            throw DecodePlan.failed("primary key", expectedType, null, e);
+        }
+    }
 
-                    return map;
-                }
+    @Override
+    public Object read(CodecContext context, String field, Type expectedType) {
+        Object value = document.get(field);
+        if (DEBUG_LOGGING_LEVEL >= TRACE) log("Decoding value for `" + field + "` expected: " + expectedType + " from value `" + compactString(value) + "`");
+        Object v = decodeField(context, field, value, expectedType);
+        if (DEBUG_LOGGING_LEVEL >= TRACE) log(" Finished decode v = " + compactString(v));
+        return v;
+    }
 
-                ClassDistinctionOverride distinctionOverride = expectedClassInfo != null ? expectedClassInfo.getClassDistinctionOverride() : null;
-                if (distinctionOverride != null) {
-                    Object classKey = doc.get(distinctionOverride.value());
-                    Class<?> klass = context.findClassDistinctionReader(expectedClass).findClass(classKey);
+    @Override
+    public Object readInto(CodecContext context, String field, Type expectedType, Object existing) {
+        return decodeField(context, field, document.get(field), expectedType, existing);
+    }
 
-                    DocumentDecodeInput input = new DocumentDecodeInput(keyFieldOverride, doc);
-                    return context.findCodec(klass).constructAndDecode(context, input);
-                }
+    @Override
+    public Object read(CodecContext context, String field, ExpectedType expectedType) {
+        return decodeField(context, field, document.get(field), expectedType, null);
+    }
 
-                // decode nested object
-                String className = doc.getString(BsonCodecs.CLASS_NAME_FIELD);
-                if (DEBUG_LOGGING_LEVEL >= TRACE)
-                    log("  Decoding document value " + compactString(doc) + " into explicit class " + compactString(className));
-                if (className != null) {
-                    // decode with an alternate target type
-                    Class<?> klass = Reflections.findClass(className);
-                    if (klass != null) {
-                        DocumentDecodeInput input = new DocumentDecodeInput(keyFieldOverride, doc);
-                        return context.findCodec(klass).constructAndDecode(context, input);
-                    }
+    @Override
+    public Object readInto(CodecContext context, String field, ExpectedType expectedType, Object existing) {
+        return decodeField(context, field, document.get(field), expectedType, existing);
+    }
 
-                    if (DEBUG_LOGGING_LEVEL >= TRACE)
-                        log("  Could not resolve class from " + compactString(className) + ", decoding into expected " + compactString(expectedType));
-                }
+    // get the numeric value of the given field, the document already holds
+    // boxed values so these can be unboxed without allocating
+    private Number readNumber(String field) {
+        Object value = document.get(field);
+        if (value == null || value instanceof Number) {
+            return (Number) value;
+        }
 
-                DocumentDecodeInput input = new DocumentDecodeInput(keyFieldOverride, doc);
-                return context.findCodec(expectedClass).constructAndDecode(context, input);
-            }
+        throw new CodecException("In decode of BSON document value named(field " + field + "), expected a number but got " + value.getClass().getName());
+    }
 
-            /* Primitives */
-            else {
-                if (Number.class.isAssignableFrom(expectedClass)) {
-                    return ValueUtils.castBoxedNumber((Number) value, expectedClass);
-                }
+    @Override
+    public int readInt(CodecContext context, String field, int defaultValue) {
+        Number value = readNumber(field);
+        return value != null ? value.intValue() : defaultValue;
+    }
 
-                if (expectedClass.isPrimitive()) {
-                    return ValueUtils.castBoxedPrimitive(value, expectedClass);
-                }
+    @Override
+    public long readLong(CodecContext context, String field, long defaultValue) {
+        Number value = readNumber(field);
+        return value != null ? value.longValue() : defaultValue;
+    }
 
-                return value;
-            }
-        } catch (Exception e) {
-            throw new CodecException("In decode of BSON document value named(" + name + ") expectedType(" + expectedType + ") context(" + context + ")", e);
-        }
+    @Override
+    public double readDouble(CodecContext context, String field, double defaultValue) {
+        Number value = readNumber(field);
+        return value != null ? value.doubleValue() : defaultValue;
+    }
 
-//        throw new IllegalArgumentException("Got unsupported value type to decode: " + value.getClass());
+    @Override
+    public float readFloat(CodecContext context, String field, float defaultValue) {
+        Number value = readNumber(field);
+        return value != null ? value.floatValue() : defaultValue;
     }
 
     @Override
-    public Object read(CodecContext context, String field, Type expectedType) {
+    public boolean readBoolean(CodecContext context, String field, boolean defaultValue) {
         Object value = document.get(field);
-        if (DEBUG_LOGGING_LEVEL >= TRACE) log("Decoding value for `" + field + "` expected: " + expectedType + " from value `" + compactString(value) + "`");
-        Object v = decodeDocumentValue(context, "field " + field, value, expectedType, ReflectUtil.getClassForType(expectedType));
-        if (DEBUG_LOGGING_LEVEL >= TRACE) log(" Finished decode v = " + compactString(v));
-        return v;
+        if (value == null) return defaultValue;
+        if (value instanceof Boolean) return (Boolean) value;
+
+        throw new CodecException("In decode of BSON document value named(field " + field + "), expected a boolean but got " + value.getClass().getName());
     }
 
     @Override
     public Object readKey(String field, Type expectedType) {
         Object value = document.get(keyFieldOverride != null ? keyFieldOverride : field);
-        return decodeDocumentValue(null, "primary key", value, expectedType, ReflectUtil.getClassForType(expectedType));
+        return decodeKey(value, expectedType);
     }
 
 }
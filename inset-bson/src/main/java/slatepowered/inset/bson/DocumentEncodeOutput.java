@@ -62,7 +62,7 @@ public class DocumentEncodeOutput extends EncodeOutput {
         if (Enum.class.isAssignableFrom(klass)) {
             Class<?> enumDeclClass = klass.isEnum() ? klass : klass.getSuperclass();
             return treeInfo.shouldWriteSeparateClassName() ?
-                    new BsonString(enumDeclClass.getName() + ":" + ((Enum)value).name()) : /* encode as class:name */
+                    new BsonString(context.encodeClass(enumDeclClass) + ":" + ((Enum)value).name()) : /* encode as class:name */
                     new BsonString(((Enum)value).name()); /* encode as name */
         } else if (klass.isArray()) {
             // todo: work with defined types and PotentiallyTransient
@@ -144,7 +144,7 @@ public class DocumentEncodeOutput extends EncodeOutput {
             context.findCodec((Class<Object>) klass).encode(context, value, output);
 
             if (treeInfo.shouldWriteSeparateClassName()) {
-                document.put(BsonCodecs.CLASS_NAME_FIELD, new BsonString(klass.getName()));
+                document.put(BsonCodecs.CLASS_NAME_FIELD, new BsonString(context.encodeClass(klass)));
             }
 
             return document;
@@ -164,7 +164,7 @@ public class DocumentEncodeOutput extends EncodeOutput {
         bytes[offset] = (byte) (0xFFL & (x >> 56));
     }
 
-    private static BsonValue encodeUUID(UUID uuid) {
+    static BsonBinary encodeUUID(UUID uuid) {
         byte[] binaryData = new byte[16];
         writeLongToArrayBigEndian(binaryData, 0, uuid.getMostSignificantBits());
         writeLongToArrayBigEndian(binaryData, 8, uuid.getLeastSignificantBits());
@@ -182,4 +182,29 @@ public class DocumentEncodeOutput extends EncodeOutput {
         outputDocument.append(field, encodeValue(context, value, definedType, ReflectUtil.getClassForType(definedType)));
     }
 
+    @Override
+    public void setInt(CodecContext context, String field, int value) {
+        outputDocument.append(field, new BsonInt32(value));
+    }
+
+    @Override
+    public void setLong(CodecContext context, String field, long value) {
+        outputDocument.append(field, new BsonInt64(value));
+    }
+
+    @Override
+    public void setDouble(CodecContext context, String field, double value) {
+        outputDocument.append(field, new BsonDouble(value));
+    }
+
+    @Override
+    public void setFloat(CodecContext context, String field, float value) {
+        outputDocument.append(field, new BsonDouble(value));
+    }
+
+    @Override
+    public void setBoolean(CodecContext context, String field, boolean value) {
+        outputDocument.append(field, value ? BsonBoolean.TRUE : BsonBoolean.FALSE);
+    }
+
 }
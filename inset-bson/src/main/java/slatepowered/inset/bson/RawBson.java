@@ -0,0 +1,264 @@
+package slatepowered.inset.bson;
+
+import org.bson.*;
+import org.bson.types.*;
+import slatepowered.inset.codec.CodecException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads elements of binary BSON documents directly from a buffer, using
+ * absolute offsets so no state has to be kept and elements can be skipped
+ * without decoding them.
+ *
+ * Values are read to the same objects the driver decodes a {@link Document} to.
+ */
+final class RawBson {
+
+    private RawBson() { throw new UnsupportedOperationException("Utility class"); }
+
+    /* Element types */
+    static final byte TYPE_END = 0x00;
+    static final byte TYPE_DOUBLE = 0x01;
+    static final byte TYPE_STRING = 0x02;
+    static final byte TYPE_DOCUMENT = 0x03;
+    static final byte TYPE_ARRAY = 0x04;
+    static final byte TYPE_BINARY = 0x05;
+    static final byte TYPE_UNDEFINED = 0x06;
+    static final byte TYPE_OBJECT_ID = 0x07;
+    static final byte TYPE_BOOLEAN = 0x08;
+    static final byte TYPE_DATE_TIME = 0x09;
+    static final byte TYPE_NULL = 0x0A;
+    static final byte TYPE_REGEX = 0x0B;
+    static final byte TYPE_DB_POINTER = 0x0C;
+    static final byte TYPE_JAVASCRIPT = 0x0D;
+    static final byte TYPE_SYMBOL = 0x0E;
+    static final byte TYPE_JAVASCRIPT_WITH_SCOPE = 0x0F;
+    static final byte TYPE_INT32 = 0x10;
+    static final byte TYPE_TIMESTAMP = 0x11;
+    static final byte TYPE_INT64 = 0x12;
+    static final byte TYPE_DECIMAL128 = 0x13;
+    static final byte TYPE_MIN_KEY = (byte) 0xFF;
+    static final byte TYPE_MAX_KEY = 0x7F;
+
+    /**
+     * Wrap the bytes of the given document in a little endian buffer.
+     */
+    static ByteBuffer wrap(RawBsonDocument document) {
+        return document.getByteBuffer().asNIO().slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Get the offset of the first element of the document at the given offset.
+     */
+    static int firstElement(int documentOffset) {
+        return documentOffset + 4;
+    }
+
+    /**
+     * Get the offset of the end of the C string starting at the given offset,
+     * which is the offset of the terminating zero byte.
+     */
+    static int cstringEnd(ByteBuffer buf, int offset) {
+        while (buf.get(offset) != 0) offset++;
+        return offset;
+    }
+
+    /**
+     * Get the offset of the value of the element at the given offset.
+     */
+    static int valueOffset(ByteBuffer buf, int elementOffset) {
+        return cstringEnd(buf, elementOffset + 1) + 1;
+    }
+
+    /**
+     * Check whether the name of the element at the given offset equals the given
+     * name, ASCII names are compared without decoding the name.
+     */
+    static boolean nameEquals(ByteBuffer buf, int elementOffset, String name) {
+        int offset = elementOffset + 1;
+        final int len = name.length();
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                return readName(buf, elementOffset).equals(name);
+            }
+
+            if (buf.get(offset + i) != c) {
+                return false;
+            }
+        }
+
+        return buf.get(offset + len) == 0;
+    }
+
+    /**
+     * Read the name of the element at the given offset.
+     */
+    static String readName(ByteBuffer buf, int elementOffset) {
+        int start = elementOffset + 1;
+        return readUtf8(buf, start, cstringEnd(buf, start) - start);
+    }
+
+    static String readUtf8(ByteBuffer buf, int offset, int length) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buf.get(offset + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static byte[] readBytes(ByteBuffer buf, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buf.get(offset + i);
+        return bytes;
+    }
+
+    /**
+     * Get the size in bytes of the value of the given type at the given offset.
+     */
+    static int valueSize(ByteBuffer buf, byte type, int offset) {
+        switch (type) {
+            case TYPE_UNDEFINED:
+            case TYPE_NULL:
+            case TYPE_MIN_KEY:
+            case TYPE_MAX_KEY:
+                return 0;
+            case TYPE_BOOLEAN: return 1;
+            case TYPE_INT32: return 4;
+            case TYPE_DOUBLE:
+            case TYPE_DATE_TIME:
+            case TYPE_TIMESTAMP:
+            case TYPE_INT64:
+                return 8;
+            case TYPE_OBJECT_ID: return 12;
+            case TYPE_DECIMAL128: return 16;
+            case TYPE_STRING:
+            case TYPE_JAVASCRIPT:
+            case TYPE_SYMBOL:
+                return 4 + buf.getInt(offset);
+            case TYPE_DOCUMENT:
+            case TYPE_ARRAY:
+            case TYPE_JAVASCRIPT_WITH_SCOPE:
+                return buf.getInt(offset);
+            case TYPE_BINARY: return 4 + 1 + buf.getInt(offset);
+            case TYPE_DB_POINTER: return 4 + buf.getInt(offset) + 12;
+            case TYPE_REGEX: {
+                int optionsEnd = cstringEnd(buf, cstringEnd(buf, offset) + 1);
+                return optionsEnd + 1 - offset;
+            }
+        }
+
+        throw new CodecException("Unknown BSON element type 0x" + Integer.toHexString(type & 0xFF));
+    }
+
+    /**
+     * Get the offset of the element following the element at the given offset.
+     */
+    static int nextElement(ByteBuffer buf, int elementOffset) {
+        int valueOffset = valueOffset(buf, elementOffset);
+        return valueOffset + valueSize(buf, buf.get(elementOffset), valueOffset);
+    }
+
+    private static Decimal128 readDecimal128(ByteBuffer buf, int offset) {
+        return Decimal128.fromIEEE754BIDEncoding(buf.getLong(offset + 8), buf.getLong(offset));
+    }
+
+    private static long readLongBigEndian(ByteBuffer buf, int offset) {
+        long x = 0;
+        for (int i = 0; i < 8; i++) {
+            x = (x << 8) | (buf.get(offset + i) & 0xFFL);
+        }
+
+        return x;
+    }
+
+    /**
+     * Read the value of the given type at the given offset.
+     *
+     * @return The value, decoded like the driver would for a {@link Document}.
+     */
+    static Object readValue(ByteBuffer buf, byte type, int offset) {
+        switch (type) {
+            case TYPE_UNDEFINED:
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN: return buf.get(offset) != 0;
+            case TYPE_INT32: return buf.getInt(offset);
+            case TYPE_INT64: return buf.getLong(offset);
+            case TYPE_DOUBLE: return buf.getDouble(offset);
+            case TYPE_DATE_TIME: return new Date(buf.getLong(offset));
+            case TYPE_STRING: return readUtf8(buf, offset + 4, buf.getInt(offset) - 1);
+            case TYPE_DOCUMENT: return readDocument(buf, offset);
+            case TYPE_ARRAY: return readArray(buf, offset);
+            case TYPE_OBJECT_ID: return new ObjectId(readBytes(buf, offset, 12));
+            case TYPE_DECIMAL128: return readDecimal128(buf, offset);
+            case TYPE_MIN_KEY: return new MinKey();
+            case TYPE_MAX_KEY: return new MaxKey();
+            case TYPE_JAVASCRIPT: return new Code(readUtf8(buf, offset + 4, buf.getInt(offset) - 1));
+            case TYPE_SYMBOL: return new Symbol(readUtf8(buf, offset + 4, buf.getInt(offset) - 1));
+            case TYPE_TIMESTAMP: return new BsonTimestamp(buf.getInt(offset + 4), buf.getInt(offset));
+            case TYPE_BINARY: {
+                int length = buf.getInt(offset);
+                byte subtype = buf.get(offset + 4);
+                if (subtype == BsonBinarySubType.UUID_STANDARD.getValue() && length == 16) {
+                    return new UUID(readLongBigEndian(buf, offset + 5), readLongBigEndian(buf, offset + 13));
+                }
+
+                return new Binary(subtype, readBytes(buf, offset + 5, length));
+            }
+            case TYPE_REGEX: {
+                int patternEnd = cstringEnd(buf, offset);
+                int optionsEnd = cstringEnd(buf, patternEnd + 1);
+                return new BsonRegularExpression(readUtf8(buf, offset, patternEnd - offset),
+                        readUtf8(buf, patternEnd + 1, optionsEnd - patternEnd - 1));
+            }
+            case TYPE_DB_POINTER: {
+                int length = buf.getInt(offset);
+                return new BsonDbPointer(readUtf8(buf, offset + 4, length - 1), new ObjectId(readBytes(buf, offset + 4 + length, 12)));
+            }
+            case TYPE_JAVASCRIPT_WITH_SCOPE: {
+                int codeLength = buf.getInt(offset + 4);
+                String code = readUtf8(buf, offset + 8, codeLength - 1);
+                return new CodeWithScope(code, readDocument(buf, offset + 8 + codeLength));
+            }
+        }
+
+        throw new CodecException("Unknown BSON element type 0x" + Integer.toHexString(type & 0xFF));
+    }
+
+    /**
+     * Read the document at the given offset.
+     */
+    static Document readDocument(ByteBuffer buf, int offset) {
+        Document document = new Document();
+        for (int element = firstElement(offset); buf.get(element) != TYPE_END; element = nextElement(buf, element)) {
+            byte type = buf.get(element);
+            int valueOffset = valueOffset(buf, element);
+            document.put(readUtf8(buf, element + 1, valueOffset - element - 2), readValue(buf, type, valueOffset));
+        }
+
+        return document;
+    }
+
+    /**
+     * Read the array at the given offset.
+     */
+    static List<Object> readArray(ByteBuffer buf, int offset) {
+        List<Object> list = new ArrayList<>();
+        for (int element = firstElement(offset); buf.get(element) != TYPE_END; element = nextElement(buf, element)) {
+            list.add(readValue(buf, buf.get(element), valueOffset(buf, element)));
+        }
+
+        return list;
+    }
+
+}
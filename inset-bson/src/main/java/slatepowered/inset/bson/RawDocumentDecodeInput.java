@@ -0,0 +1,314 @@
+package slatepowered.inset.bson;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.CodecException;
+import slatepowered.inset.codec.ExpectedType;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static slatepowered.inset.bson.RawBson.*;
+
+/**
+ * Reads data directly from the bytes of a {@link RawBsonDocument}.
+ *
+ * Fields are read lazily, only the elements which are requested are decoded. When the
+ * fields are read in the order they were written, which is the case for documents written
+ * by the codecs, each field is found at the element following the last read one so the
+ * document is read in a single pass. The first out of order read builds an index of the
+ * element offsets by name, after which every field is located without scanning, which
+ * makes reading single fields (e.g. for sorting or keys) cheap. Primitive values are read
+ * directly from the bytes without boxing and no intermediate {@link Document} is built.
+ */
+public class RawDocumentDecodeInput extends DocumentDecodeInput {
+
+    /**
+     * The raw document to read from, this is null if the input
+     * was created over a buffer until it is requested.
+     */
+    protected RawBsonDocument rawDocument;
+
+    // The little endian buffer of the document bytes
+    protected final ByteBuffer buffer;
+
+    // The offset of the element following the last read element
+    private int cursor;
+
+    // The index of the element offsets, an open addressing table by
+    // the hash code of the element names, built on the first out of
+    // order read
+    private int[] indexOffsets;
+    private int[] indexHashes;
+
+    // The fully decoded document, only created if requested
+    private Document decodedDocument;
+
+    public RawDocumentDecodeInput(String keyFieldOverride, RawBsonDocument rawDocument) {
+        super(keyFieldOverride, null);
+        this.rawDocument = rawDocument;
+        this.buffer = wrap(rawDocument);
+        this.cursor = firstElement(0);
+    }
+
+    /**
+     * Create an input reading directly from the document at the position of the
+     * given buffer, without copying the bytes. This allows reading documents
+     * from e.g. memory mapped files.
+     *
+     * @param keyFieldOverride The key field override.
+     * @param documentBuffer The buffer positioned at the start of the document.
+     */
+    public RawDocumentDecodeInput(String keyFieldOverride, ByteBuffer documentBuffer) {
+        super(keyFieldOverride, null);
+        this.rawDocument = null;
+        this.buffer = documentBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.cursor = firstElement(0);
+    }
+
+    /**
+     * Get the raw document read by this input, if the input was created
+     * over a buffer the bytes of the document are copied.
+     *
+     * @return The raw document.
+     */
+    public RawBsonDocument getRawDocument() {
+        if (rawDocument == null) {
+            rawDocument = new RawBsonDocument(readBytes(buffer, 0, buffer.getInt(0)));
+        }
+
+        return rawDocument;
+    }
+
+    /**
+     * Get the fully decoded document, this decodes all
+     * values so it should be avoided where possible.
+     *
+     * @return The document.
+     */
+    @Override
+    public Document getDocument() {
+        if (decodedDocument == null) {
+            decodedDocument = readDocument(buffer, 0);
+        }
+
+        return decodedDocument;
+    }
+
+    // get the hash code of the name of the element at the given offset,
+    // equal to the hash code of the name string without decoding ASCII names
+    private int nameHash(int element) {
+        int hash = 0;
+        for (int offset = element + 1;; offset++) {
+            byte b = buffer.get(offset);
+            if (b == 0) return hash;
+            if (b < 0) return readName(buffer, element).hashCode();
+            hash = 31 * hash + b;
+        }
+    }
+
+    // build the index of the element offsets
+    private void buildIndex() {
+        final int start = firstElement(0);
+        int count = 0;
+        for (int element = start; buffer.get(element) != TYPE_END; element = nextElement(buffer, element)) {
+            count++;
+        }
+
+        final int capacity = Integer.highestOneBit(count * 2 + 1) << 1;
+        final int mask = capacity - 1;
+        int[] offsets = new int[capacity];
+        int[] hashes = new int[capacity];
+        Arrays.fill(offsets, -1);
+
+        for (int element = start; buffer.get(element) != TYPE_END; element = nextElement(buffer, element)) {
+            int hash = nameHash(element);
+            int i = hash & mask;
+            while (offsets[i] != -1) {
+                // the first element with a name is kept, like a sequential scan would find
+                if (hashes[i] == hash && nameEquals(buffer, offsets[i], readName(buffer, element))) break;
+                i = (i + 1) & mask;
+            }
+
+            if (offsets[i] == -1) {
+                offsets[i] = element;
+                hashes[i] = hash;
+            }
+        }
+
+        indexOffsets = offsets;
+        indexHashes = hashes;
+    }
+
+    // look up the offset of the element with the given name in the index
+    private int lookup(String field) {
+        if (indexOffsets == null) {
+            buildIndex();
+        }
+
+        final int hash = field.hashCode();
+        final int mask = indexOffsets.length - 1;
+        for (int i = hash & mask, element; (element = indexOffsets[i]) != -1; i = (i + 1) & mask) {
+            if (indexHashes[i] == hash && nameEquals(buffer, element, field)) {
+                return element;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Find the offset of the element with the given name, checking the
+     * element following the last read element before using the index.
+     *
+     * @param field The field name.
+     * @return The offset of the element or -1 if absent.
+     */
+    protected int findElement(String field) {
+        int element;
+        if (buffer.get(cursor) != TYPE_END && nameEquals(buffer, cursor, field)) {
+            element = cursor;
+        } else {
+            element = lookup(field);
+        }
+
+        if (element != -1) {
+            cursor = nextElement(buffer, element);
+        }
+
+        return element;
+    }
+
+    /**
+     * Check whether the document contains an element with the given name,
+     * which may have a null value.
+     *
+     * @param field The field name.
+     * @return Whether the field is present.
+     */
+    public boolean contains(String field) {
+        return findElement(field) != -1;
+    }
+
+    /**
+     * Read the value of the given field as it would be present in a {@link Document}.
+     *
+     * @param field The field name.
+     * @return The value or null if absent.
+     */
+    public Object readRaw(String field) {
+        int element = findElement(field);
+        return element == -1 ? null : readValue(buffer, buffer.get(element), valueOffset(buffer, element));
+    }
+
+    @Override
+    public Object read(CodecContext context, String field, Type expectedType) {
+        return decodeField(context, field, readRaw(field), expectedType);
+    }
+
+    @Override
+    public Object readInto(CodecContext context, String field, Type expectedType, Object existing) {
+        return decodeField(context, field, readRaw(field), expectedType, existing);
+    }
+
+    @Override
+    public Object read(CodecContext context, String field, ExpectedType expectedType) {
+        return decodeField(context, field, readRaw(field), expectedType, null);
+    }
+
+    @Override
+    public Object readInto(CodecContext context, String field, ExpectedType expectedType, Object existing) {
+        return decodeField(context, field, readRaw(field), expectedType, existing);
+    }
+
+    @Override
+    public Object readKey(String field, Type expectedType) {
+        Object value = readRaw(keyFieldOverride != null ? keyFieldOverride : field);
+        return decodeKey(value, expectedType);
+    }
+
+    // find the numeric element for the given field
+    // returning -1 if the field is absent or null
+    private int findNumber(String field) {
+        int element = findElement(field);
+        if (element == -1) {
+            return -1;
+        }
+
+        switch (buffer.get(element)) {
+            case TYPE_INT32:
+            case TYPE_INT64:
+            case TYPE_DOUBLE:
+                return element;
+            case TYPE_NULL:
+            case TYPE_UNDEFINED:
+                return -1;
+        }
+
+        throw new CodecException("In decode of BSON document value named(field " + field + "), expected a number but got type 0x" +
+                Integer.toHexString(buffer.get(element) & 0xFF));
+    }
+
+    private long longValue(int element) {
+        int offset = valueOffset(buffer, element);
+        switch (buffer.get(element)) {
+            case TYPE_INT32: return buffer.getInt(offset);
+            case TYPE_INT64: return buffer.getLong(offset);
+            default: return (long) buffer.getDouble(offset);
+        }
+    }
+
+    private double doubleValue(int element) {
+        int offset = valueOffset(buffer, element);
+        switch (buffer.get(element)) {
+            case TYPE_INT32: return buffer.getInt(offset);
+            case TYPE_INT64: return buffer.getLong(offset);
+            default: return buffer.getDouble(offset);
+        }
+    }
+
+    @Override
+    public int readInt(CodecContext context, String field, int defaultValue) {
+        int element = findNumber(field);
+        if (element == -1) return defaultValue;
+        return buffer.get(element) == TYPE_DOUBLE ? (int) doubleValue(element) : (int) longValue(element);
+    }
+
+    @Override
+    public long readLong(CodecContext context, String field, long defaultValue) {
+        int element = findNumber(field);
+        return element != -1 ? longValue(element) : defaultValue;
+    }
+
+    @Override
+    public double readDouble(CodecContext context, String field, double defaultValue) {
+        int element = findNumber(field);
+        return element != -1 ? doubleValue(element) : defaultValue;
+    }
+
+    @Override
+    public float readFloat(CodecContext context, String field, float defaultValue) {
+        int element = findNumber(field);
+        return element != -1 ? (float) doubleValue(element) : defaultValue;
+    }
+
+    @Override
+    public boolean readBoolean(CodecContext context, String field, boolean defaultValue) {
+        int element = findElement(field);
+        if (element == -1) return defaultValue;
+
+        switch (buffer.get(element)) {
+            case TYPE_BOOLEAN: return buffer.get(valueOffset(buffer, element)) != 0;
+            case TYPE_NULL:
+            case TYPE_UNDEFINED:
+                return defaultValue;
+        }
+
+        throw new CodecException("In decode of BSON document value named(field " + field + "), expected a boolean but got type 0x" +
+                Integer.toHexString(buffer.get(element) & 0xFF));
+    }
+
+}
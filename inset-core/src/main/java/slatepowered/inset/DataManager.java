@@ -3,6 +3,7 @@ package slatepowered.inset;
 import lombok.Builder;
 import lombok.Getter;
 import slatepowered.inset.codec.support.ClassDistinctionReader;
+import slatepowered.inset.codec.support.TypeRegistry;
 import slatepowered.inset.codec.CodecRegistry;
 import slatepowered.inset.codec.DataCodec;
 import slatepowered.inset.datastore.Datastore;
@@ -38,6 +39,12 @@ public class DataManager {
     @Getter
     protected final Map<Class, ClassDistinctionReader> classDistinctionReaders = new HashMap<>();
 
+    /**
+     * The registry of type tags written instead of class names.
+     */
+    @Getter
+    protected final TypeRegistry typeRegistry = new TypeRegistry();
+
     /**
      * Await all ongoing queries and their handlers to finish
      * before continuing this thread.
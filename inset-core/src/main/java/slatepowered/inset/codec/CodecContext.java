@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import slatepowered.inset.DataManager;
 import slatepowered.inset.codec.support.ClassDistinctionReader;
+import slatepowered.inset.codec.support.TypeRegistry;
 
 /**
  * The context in which data serialization/marshalling occurs.
@@ -30,4 +31,26 @@ public class CodecContext {
         return dataManager.getClassDistinctionReaders().get(baseClass);
     }
 
+    /**
+     * Get the name to encode to distinguish the given class, see
+     * {@link TypeRegistry#encodeClass(Class)}.
+     *
+     * @param klass The class.
+     * @return The encoded name.
+     */
+    public String encodeClass(Class<?> klass) {
+        return dataManager.getTypeRegistry().encodeClass(klass);
+    }
+
+    /**
+     * Resolve the class for the given encoded name, see
+     * {@link TypeRegistry#decodeClass(String)}.
+     *
+     * @param name The encoded name.
+     * @return The class or null if it could not be resolved.
+     */
+    public Class<?> decodeClass(String name) {
+        return dataManager.getTypeRegistry().decodeClass(name);
+    }
+
 }
@@ -0,0 +1,19 @@
+package slatepowered.inset.codec;
+
+/**
+ * An index of codecs generated at compile time, which are registered to a
+ * {@link CodecRegistry} without any reflection.
+ *
+ * Implementations are generated by the annotation processor and
+ * discovered through the {@link java.util.ServiceLoader}.
+ */
+public interface CodecIndex {
+
+    /**
+     * Register all indexed codecs to the given registry.
+     *
+     * @param registry The registry.
+     */
+    void registerAll(CodecRegistry registry);
+
+}
@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 
@@ -34,4 +35,29 @@ public class CodecRegistry {
         return this;
     }
 
+    /**
+     * Register all codecs generated at compile time which are indexed
+     * by a {@link CodecIndex} visible to the given class loader.
+     *
+     * @param classLoader The class loader.
+     * @return This.
+     */
+    public CodecRegistry registerGenerated(ClassLoader classLoader) {
+        for (CodecIndex index : ServiceLoader.load(CodecIndex.class, classLoader)) {
+            index.registerAll(this);
+        }
+
+        return this;
+    }
+
+    /**
+     * Register all codecs generated at compile time which are indexed
+     * by a {@link CodecIndex} visible to the context class loader.
+     *
+     * @return This.
+     */
+    public CodecRegistry registerGenerated() {
+        return registerGenerated(Thread.currentThread().getContextClassLoader());
+    }
+
 }
@@ -2,9 +2,12 @@ package slatepowered.inset.codec;
 
 import slatepowered.inset.datastore.DataItem;
 import slatepowered.inset.internal.ProjectionType;
+import slatepowered.inset.operation.IndexDefinition;
 import slatepowered.inset.operation.Projection;
 import slatepowered.inset.query.Query;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Predicate;
 
 /**
@@ -49,4 +52,14 @@ public interface DataCodec<K, T> extends ValueCodec<T>, ProjectionType {
      */
     Predicate<T> getFilterPredicate(Query query);
 
+    /**
+     * Get the indexes declared on the data type, which the source
+     * tables of datastores using this codec should create.
+     *
+     * @return The index definitions.
+     */
+    default List<IndexDefinition> getIndexDefinitions() {
+        return Collections.emptyList();
+    }
+
 }
@@ -20,6 +20,87 @@ public abstract class DecodeInput {
      */
     public abstract Object read(CodecContext context, String field, Type expectedType);
 
+    /**
+     * Read the value of the given field name in the given context, decoding it into
+     * the given existing value where possible instead of creating a new one. Existing
+     * collections and maps are cleared and refilled, existing objects of the decoded
+     * class are decoded in place.
+     *
+     * By default this ignores the existing value and delegates to {@link #read(CodecContext, String, Type)}.
+     *
+     * @param context The context.
+     * @param field The field.
+     * @param expectedType The expected generic type.
+     * @param existing The existing value, may be null.
+     * @return The value of the field, which may be the existing value, or null if absent.
+     */
+    public Object readInto(CodecContext context, String field, Type expectedType, Object existing) {
+        return read(context, field, expectedType);
+    }
+
+    /**
+     * Read the value of the given field name in the given context, the expected type
+     * being resolved once for the field so inputs can keep their compiled state with it.
+     *
+     * By default this delegates to {@link #read(CodecContext, String, Type)}.
+     *
+     * @param context The context.
+     * @param field The field.
+     * @param expectedType The expected type of the field.
+     * @return The value of the field or null if absent.
+     */
+    public Object read(CodecContext context, String field, ExpectedType expectedType) {
+        return read(context, field, expectedType.getType());
+    }
+
+    /**
+     * Read the value of the given field name in the given context into the given existing
+     * value where possible, like {@link #readInto(CodecContext, String, Type, Object)}.
+     *
+     * By default this delegates to {@link #readInto(CodecContext, String, Type, Object)}.
+     *
+     * @param context The context.
+     * @param field The field.
+     * @param expectedType The expected type of the field.
+     * @param existing The existing value, may be null.
+     * @return The value of the field, which may be the existing value, or null if absent.
+     */
+    public Object readInto(CodecContext context, String field, ExpectedType expectedType, Object existing) {
+        return readInto(context, field, expectedType.getType(), existing);
+    }
+
+    /*
+     * Primitive overloads of read(...) which allow inputs to read primitive
+     * values without boxing them, the given default value is returned if the
+     * field is absent or null. By default these delegate to the generic method
+     * and unbox the result.
+     */
+
+    public int readInt(CodecContext context, String field, int defaultValue) {
+        Object value = read(context, field, int.class);
+        return value != null ? ((Number) value).intValue() : defaultValue;
+    }
+
+    public long readLong(CodecContext context, String field, long defaultValue) {
+        Object value = read(context, field, long.class);
+        return value != null ? ((Number) value).longValue() : defaultValue;
+    }
+
+    public double readDouble(CodecContext context, String field, double defaultValue) {
+        Object value = read(context, field, double.class);
+        return value != null ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    public float readFloat(CodecContext context, String field, float defaultValue) {
+        Object value = read(context, field, float.class);
+        return value != null ? ((Number) value).floatValue() : defaultValue;
+    }
+
+    public boolean readBoolean(CodecContext context, String field, boolean defaultValue) {
+        Object value = read(context, field, boolean.class);
+        return value != null ? (Boolean) value : defaultValue;
+    }
+
     /**
      * Get or read the key from this input.
      *
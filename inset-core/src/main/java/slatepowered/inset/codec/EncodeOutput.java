@@ -42,6 +42,46 @@ public abstract class EncodeOutput {
      */
     public abstract void set(CodecContext context, String field, Object value, Type definedType);
 
+    /*
+     * Primitive overloads of set(...) which allow outputs to store
+     * primitive values without boxing them, by default these
+     * box the value and delegate to the generic method.
+     */
+
+    public void setInt(CodecContext context, String field, int value) {
+        set(context, field, value, int.class);
+    }
+
+    public void setLong(CodecContext context, String field, long value) {
+        set(context, field, value, long.class);
+    }
+
+    public void setDouble(CodecContext context, String field, double value) {
+        set(context, field, value, double.class);
+    }
+
+    public void setFloat(CodecContext context, String field, float value) {
+        set(context, field, value, float.class);
+    }
+
+    public void setBoolean(CodecContext context, String field, boolean value) {
+        set(context, field, value, boolean.class);
+    }
+
+    /*
+     * Boxed shorts and bytes are stored as doubles by the BSON outputs, so
+     * these are passed as they were before the primitive overloads existed
+     * instead of through setInt(...), which would change the stored type.
+     */
+
+    public void setShort(CodecContext context, String field, short value) {
+        set(context, field, value, short.class);
+    }
+
+    public void setByte(CodecContext context, String field, byte value) {
+        set(context, field, value, byte.class);
+    }
+
     @SuppressWarnings("unchecked")
     public <R extends EncodeOutput> R requireType(Class<R> rClass) {
         if (!rClass.isInstance(this))
@@ -0,0 +1,37 @@
+package slatepowered.inset.codec;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.lang.reflect.Type;
+
+/**
+ * The expected type of the values of a field, created once for each field
+ * when its codec is created, see {@link DecodeInput#read(CodecContext, String, ExpectedType)}.
+ *
+ * Decode inputs can keep the state they compiled for decoding values of the type
+ * in the plan of this type, so it is resolved once per field instead of being
+ * looked up by the type on every read.
+ */
+@RequiredArgsConstructor
+@Getter
+public final class ExpectedType {
+
+    /**
+     * The generic type.
+     */
+    private final Type type;
+
+    /**
+     * The state compiled by the decode input for this type, or null if not compiled yet.
+     */
+    @Setter
+    private volatile Object plan;
+
+    @Override
+    public String toString() {
+        return type.getTypeName();
+    }
+
+}
@@ -0,0 +1,21 @@
+package slatepowered.inset.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a data class to have its codec generated at compile time
+ * by the inset annotation processor.
+ *
+ * The generated codec accesses the fields of the class directly, so all
+ * serialized fields must not be private or final and the class must have a
+ * non-private no-args constructor. Generated codecs are registered through
+ * {@link CodecRegistry#registerGenerated()}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec {
+
+}
@@ -1,5 +1,7 @@
 package slatepowered.inset.codec;
 
+import java.util.Collection;
+
 /**
  * Serializes/deserializes data of type {@code T} to/from serialization
  * outputs and inputs.
@@ -61,6 +63,56 @@ public interface ValueCodec<T> {
      */
     <V> V getField(T instance, String field);
 
+    /**
+     * Deserialize the fields of the given existing instance from the given input,
+     * reusing the values held by the instance, like collections and maps, where possible.
+     *
+     * If the input can not be decoded into the given instance, for example because it
+     * encodes a different subclass or the codec does not support it, this returns false
+     * and the caller should fall back to {@link #constructAndDecode(CodecContext, DecodeInput)}.
+     *
+     * @param context The context.
+     * @param instance The existing instance.
+     * @param input The input.
+     * @return Whether the input was decoded into the instance.
+     */
+    default boolean decodeInPlace(CodecContext context, T instance, DecodeInput input) {
+        return false;
+    }
+
+    /**
+     * Deserialize only the given fields of the given existing instance from the given
+     * partial input, leaving all other fields of the instance unchanged.
+     *
+     * This is used to merge the fields retrieved with an inclusive projection into a
+     * copy of a complete cached value, see {@link #copy(CodecContext, Object)}, so the
+     * decoded fields are set to new values instead of being decoded into their current
+     * values, which may be shared with the copied instance. If the input can not be
+     * decoded into the given instance this returns false and the instance should not
+     * be used as a complete value.
+     *
+     * @param context The context.
+     * @param instance The existing instance.
+     * @param input The partial input.
+     * @param serializedFields The serialized names of the fields to decode.
+     * @return Whether the fields were decoded into the instance.
+     */
+    default boolean decodePartial(CodecContext context, T instance, DecodeInput input, Collection<String> serializedFields) {
+        return false;
+    }
+
+    /**
+     * Create a shallow copy of the given instance, holding the same values in all
+     * serialized fields, so it can be modified without modifying the given instance.
+     *
+     * @param context The context.
+     * @param instance The instance.
+     * @return The copy or null if the instance can not be copied by this codec.
+     */
+    default T copy(CodecContext context, T instance) {
+        return null;
+    }
+
     default T constructAndDecode(CodecContext context, DecodeInput input) {
         T instance = construct(context, input);
         decode(context, instance, input);
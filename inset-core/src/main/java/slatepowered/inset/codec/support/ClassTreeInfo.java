@@ -8,7 +8,6 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 /**
  * Information on the class tree of a class.
@@ -17,7 +16,14 @@ import java.util.WeakHashMap;
 @Getter
 public class ClassTreeInfo {
 
-    static final WeakHashMap<Class<?>, ClassTreeInfo> MAP = new WeakHashMap<>();
+    // The computed info by class, a class value is safe to be read concurrently
+    // without contention and does not keep the classes or their loaders alive
+    static final ClassValue<ClassTreeInfo> CACHE = new ClassValue<ClassTreeInfo>() {
+        @Override
+        protected ClassTreeInfo computeValue(Class<?> type) {
+            return compute(type);
+        }
+    };
 
     static boolean hasAbstractParentsOrIsAbstract(Class<?> klass) {
         if ((
@@ -41,18 +47,17 @@ public class ClassTreeInfo {
             return null;
         }
 
-        ClassTreeInfo info = MAP.get(klass);
-        if (info != null) {
-            return info;
-        }
+        return CACHE.get(klass);
+    }
 
-        info = new ClassTreeInfo(klass);
+    private static ClassTreeInfo compute(Class<?> klass) {
+        ClassTreeInfo info = new ClassTreeInfo(klass);
 
         // parse own properties
         info.abstractOrHasAbstractParents = hasAbstractParentsOrIsAbstract(klass);
         info.classDistinctionOverride = klass.getAnnotation(ClassDistinctionOverride.class);
         for (Annotation ann : klass.getAnnotations()) {
-            info.annotationMap.put(ann.getClass(), ann);
+            info.annotationMap.put(ann.annotationType(), ann);
         }
 
         // load superclass properties
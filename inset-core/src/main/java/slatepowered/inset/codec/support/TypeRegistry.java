@@ -0,0 +1,119 @@
+package slatepowered.inset.codec.support;
+
+import slatepowered.inset.util.Reflections;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns short stable tags to classes which are written instead of the fully
+ * qualified class names where the concrete class of a value has to be encoded,
+ * so polymorphic values take less space and are resolved through a lookup table
+ * when decoded.
+ *
+ * Classes without a tag are still encoded by their class name, and encoded class
+ * names are still resolved when decoding, so tags can be introduced to existing data.
+ */
+public class TypeRegistry {
+
+    // The registered classes by tag
+    private final Map<String, Class<?>> classesByTag = new ConcurrentHashMap<>();
+
+    // The registered tags by class
+    private final Map<Class<?>, String> tagsByClass = new ConcurrentHashMap<>();
+
+    /**
+     * Register the given class with the tag from its {@link TypeTag} annotation.
+     *
+     * @param klass The class.
+     * @return This.
+     * @throws IllegalArgumentException If the class is not annotated or the tag is taken.
+     */
+    public TypeRegistry register(Class<?> klass) {
+        TypeTag typeTag = klass.getAnnotation(TypeTag.class);
+        if (typeTag == null) {
+            throw new IllegalArgumentException("Class " + klass.getName() + " is not annotated with @TypeTag");
+        }
+
+        return register(klass, typeTag.value());
+    }
+
+    /**
+     * Register the given class with the given tag.
+     *
+     * @param klass The class.
+     * @param tag The tag.
+     * @return This.
+     * @throws IllegalArgumentException If the tag is already registered to another class.
+     */
+    public synchronized TypeRegistry register(Class<?> klass, String tag) {
+        if (tag.isEmpty() || tag.indexOf(':') != -1) {
+            throw new IllegalArgumentException("Invalid type tag `" + tag + "` for " + klass.getName());
+        }
+
+        Class<?> existing = classesByTag.get(tag);
+        if (existing != null && existing != klass) {
+            throw new IllegalArgumentException("Type tag `" + tag + "` is already registered to " + existing.getName());
+        }
+
+        String oldTag = tagsByClass.put(klass, tag);
+        if (oldTag != null) classesByTag.remove(oldTag);
+        classesByTag.put(tag, klass);
+        return this;
+    }
+
+    /**
+     * Get the tag registered for the given class.
+     *
+     * @param klass The class.
+     * @return The tag or null if absent.
+     */
+    public String getTag(Class<?> klass) {
+        return tagsByClass.get(klass);
+    }
+
+    /**
+     * Get the class registered under the given tag.
+     *
+     * @param tag The tag.
+     * @return The class or null if absent.
+     */
+    public Class<?> findTaggedClass(String tag) {
+        return classesByTag.get(tag);
+    }
+
+    /**
+     * Get the name to encode to distinguish the given class,
+     * which is its tag if registered or its class name otherwise.
+     *
+     * @param klass The class.
+     * @return The encoded name.
+     */
+    public String encodeClass(Class<?> klass) {
+        String tag = tagsByClass.get(klass);
+        return tag != null ? tag : klass.getName();
+    }
+
+    /**
+     * Resolve the class for the given encoded name, which
+     * is either a registered tag or a class name.
+     *
+     * @param name The encoded name.
+     * @return The class or null if it could not be resolved.
+     */
+    public Class<?> decodeClass(String name) {
+        Class<?> klass = classesByTag.get(name);
+        return klass != null ? klass : Reflections.findClass(name);
+    }
+
+    /**
+     * Create a class distinction reader which resolves the values of
+     * a {@link ClassDistinctionOverride} field through this registry.
+     *
+     * @return The reader.
+     */
+    public ClassDistinctionReader asDistinctionReader() {
+        return val -> val instanceof String ? decodeClass((String) val) : null;
+    }
+
+}
@@ -0,0 +1,22 @@
+package slatepowered.inset.codec.support;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Assigns a short stable tag to a class, which is encoded instead of the
+ * fully qualified class name to distinguish subclasses or enum declarations.
+ *
+ * The class has to be registered to the {@link TypeRegistry} before
+ * values of it can be decoded.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface TypeTag {
+    /**
+     * The encoded tag, this should never change once data is stored.
+     */
+    String value();
+}
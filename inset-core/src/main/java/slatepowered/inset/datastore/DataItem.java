@@ -5,7 +5,8 @@ import slatepowered.inset.codec.DecodeInput;
 import slatepowered.inset.codec.EncodeOutput;
 import slatepowered.inset.codec.support.PotentiallyTransient;
 import slatepowered.inset.internal.ProjectionInterface;
-import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.internal.ProjectionTypes;
+import slatepowered.inset.operation.Projection;
 import slatepowered.inset.query.FindOperation;
 import slatepowered.inset.query.FindResult;
 import slatepowered.inset.query.Query;
@@ -14,6 +15,7 @@ import slatepowered.inset.source.DataTable;
 
 import java.lang.reflect.Type;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
@@ -48,6 +50,12 @@ public class DataItem<K, T> extends PartialItem<K, T> {
      */
     private volatile T value;
 
+    /**
+     * The value replaced by the last refresh, which is decoded in place by the
+     * next refresh if the datastore refreshes in place, or null if absent.
+     */
+    private T spare;
+
     /**
      * The creation time as in {@link System#currentTimeMillis()}.
      */
@@ -130,6 +138,7 @@ public class DataItem<K, T> extends PartialItem<K, T> {
      */
     public synchronized DataItem<K, T> set(T value) {
         this.value = value;
+        this.spare = null;
         return this;
     }
 
@@ -239,12 +248,29 @@ public class DataItem<K, T> extends PartialItem<K, T> {
      * @return This.
      */
     public DataItem<K, T> saveSync() {
-        if (value == null) {
+        EncodeOutput output = encode();
+        if (output == null) {
             return this;
         }
 
+        // perform update
+        datastore.getSourceTable().replaceOneSync(output);
+        return this;
+    }
+
+    /**
+     * Serialize the value of this item to a new output for the source
+     * table of the datastore, without updating the remote data storage.
+     *
+     * @return The output or null if there is nothing to save.
+     */
+    public EncodeOutput encode() {
+        if (value == null) {
+            return null;
+        }
+
         if (isTransient()) {
-            return this;
+            return null;
         }
 
         DataTable table = datastore.getSourceTable();
@@ -254,10 +280,7 @@ public class DataItem<K, T> extends PartialItem<K, T> {
         CodecContext context = new CodecContext(datastore.getDataManager());
         output.setSetKey(context, datastore.getDataCodec().getPrimaryKeyFieldName(), key);
         datastore.getDataCodec().encode(context, value, output);
-
-        // perform update
-        table.replaceOneSync(output);
-        return this;
+        return output;
     }
 
     /**
@@ -277,6 +300,12 @@ public class DataItem<K, T> extends PartialItem<K, T> {
     /**
      * Decode the value for this item for the given nullable input.
      *
+     * The current value may be read by other threads, so it is never modified,
+     * the input is decoded into a new or spare instance which only replaces
+     * the value once it is complete. If the datastore refreshes in place the
+     * replaced value is kept as the spare instance for the next refresh.
+     *
+     * @see Datastore#isInPlaceRefresh()
      * @param input The input.
      * @return This.
      */
@@ -287,13 +316,59 @@ public class DataItem<K, T> extends PartialItem<K, T> {
 
         DataCodec<K, T> myCodec = datastore.getDataCodec();
         CodecContext context = datastore.newCodecContext();
-        T value = myCodec.construct(context, input);
-        myCodec.decode(context, value, input);
+
+        // a failed decode leaves the spare instance partially decoded, so it is dropped
+        T spare = this.spare;
+        this.spare = null;
+
+        T value;
+        if (spare != null && myCodec.decodeInPlace(context, spare, input)) {
+            value = spare;
+        } else {
+            value = myCodec.construct(context, input);
+            myCodec.decode(context, value, input);
+        }
+
+        T previous = this.value;
         this.value = value;
+        if (datastore.isInPlaceRefresh() && previous != value) {
+            this.spare = previous;
+        }
 
         return this;
     }
 
+    /**
+     * Decode the given fields of the present value of this item from the
+     * given partial input, leaving the other fields unchanged.
+     *
+     * The fields are merged into a copy of the present value which then
+     * replaces it, so the published value is never modified.
+     *
+     * @see ValueCodec#copy(CodecContext, Object)
+     * @see ValueCodec#decodePartial(CodecContext, Object, DecodeInput, Collection)
+     * @param input The partial input.
+     * @param serializedFields The serialized names of the fields to decode.
+     * @return Whether the fields were merged into the value.
+     */
+    public synchronized boolean decodePartial(DecodeInput input, Collection<String> serializedFields) {
+        T current = this.value;
+        if (input == null || current == null) {
+            return false;
+        }
+
+        DataCodec<K, T> myCodec = datastore.getDataCodec();
+        CodecContext context = datastore.newCodecContext();
+        T copy = myCodec.copy(context, current);
+        if (copy == null || !myCodec.decodePartial(context, copy, input, serializedFields)) {
+            return false;
+        }
+
+        this.value = copy;
+        this.spare = null; // shares field values with the new value
+        return true;
+    }
+
     /**
      * Synchronously fetch and decode the value for this data item.
      *
@@ -353,7 +428,7 @@ public class DataItem<K, T> extends PartialItem<K, T> {
         }
 
         final DataCodec<K, T> codec = datastore.getDataCodec();
-        return (V) projectionInterface.createProxy(() -> key, (runtimeName, __, type) -> codec.getField(value, runtimeName));
+        return (V) projectionInterface.createProjection(() -> key, (runtimeName, __, type) -> codec.getField(value, runtimeName));
     }
 
     /**
@@ -367,21 +442,65 @@ public class DataItem<K, T> extends PartialItem<K, T> {
                 .thenApply(result -> this.decode(result.input()).fetchedNow());
     }
 
-    @Override
-    public double[] createFastOrderCoefficients(String[] fields, Sorting sorting) {
-        final int len = fields.length;
-        final double[] arr = new double[len];
-        final DataCodec<K, T> codec = datastore.getDataCodec();
+    /**
+     * Asynchronously fetch only the fields included by the given projection
+     * and merge them into the present value of this item, leaving the other
+     * fields unchanged.
+     *
+     * If the value is absent, the projection does not include a known set of
+     * fields or the codec can not merge partial data, the complete value is
+     * fetched instead. If the item does not exist in the source table anymore
+     * the value of this item is cleared, so it is absent.
+     *
+     * @param projection The projection.
+     * @return The future.
+     */
+    public CompletableFuture<DataItem<K, T>> fetchAsync(Projection projection) {
+        final Collection<String> fields = Datastore.includedFields(projection);
+        if (value == null || fields == null) {
+            return fetchAsync();
+        }
 
-        for (int i = 0; i < len; i++) {
-            String field = fields[i];
-            Object obj = codec.getField(value, field);
+        return datastore.getSourceTable()
+                .findOneAsync(Query.byKey(key).qualify(datastore), projection)
+                .thenCompose(result -> {
+                    if (!result.found()) {
+                        // the merged fields would be stale
+                        return CompletableFuture.completedFuture(this.absent().fetchedNow());
+                    }
+
+                    return this.decodePartial(result.input(), fields) ?
+                            CompletableFuture.completedFuture(this) : fetchAsync();
+                });
+    }
+
+    // clear the value of this item as it does not exist in the source table
+    private synchronized DataItem<K, T> absent() {
+        this.value = null;
+        this.spare = null;
+        return this;
+    }
 
-            if (obj instanceof Number)
-                arr[i] = ((Number) obj).doubleValue();
+    /**
+     * Asynchronously fetch only the fields of the given data class or
+     * projection interface and merge them into the present value of this item.
+     *
+     * @see #fetchAsync(Projection)
+     * @param vClass The data class.
+     * @return The future.
+     */
+    public <V> CompletableFuture<DataItem<K, T>> fetchAsync(Class<V> vClass) {
+        return fetchAsync(ProjectionTypes.getProjectionType(vClass, datastore).createExclusiveProjection(null));
+    }
+
+    @Override
+    public Object readOrderValue(String fieldName) {
+        final DataCodec<K, T> codec = datastore.getDataCodec();
+        if (codec.getPrimaryKeyFieldName().equals(fieldName)) {
+            return key;
         }
 
-        return arr;
+        return value != null ? codec.getField(value, fieldName) : null;
     }
 
     // Update the lastReferenceTime to represent the
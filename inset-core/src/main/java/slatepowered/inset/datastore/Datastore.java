@@ -6,17 +6,29 @@ import slatepowered.inset.DataManager;
 import slatepowered.inset.cache.DataCache;
 import slatepowered.inset.codec.*;
 import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.internal.Aggregator;
+import slatepowered.inset.internal.ProjectionTypes;
+import slatepowered.inset.operation.AggregateGroup;
+import slatepowered.inset.operation.AggregateOperation;
+import slatepowered.inset.operation.Aggregation;
+import slatepowered.inset.operation.CommonProjection;
 import slatepowered.inset.operation.DeleteAllOperation;
+import slatepowered.inset.operation.Projection;
 import slatepowered.inset.query.FindAllOperation;
 import slatepowered.inset.query.Query;
 import slatepowered.inset.query.FindResult;
 import slatepowered.inset.query.FindOperation;
 import slatepowered.inset.source.DataTable;
+import slatepowered.inset.source.SourcedItem;
 import slatepowered.inset.util.DebugLogging;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -34,12 +46,33 @@ public class Datastore<K, T> implements DebugLogging {
                      DataManager dataManager,
                      Class<K> keyClass,
                      DataTable sourceTable,
-                     DataCodec<K, T> dataCodec) {
+                     DataCodec<K, T> dataCodec,
+                     boolean inPlaceRefresh,
+                     boolean authoritativeCache) {
         this.dataCache = dataCache;
         this.dataManager = dataManager;
         this.keyClass = keyClass;
         this.sourceTable = sourceTable;
         this.dataCodec = dataCodec;
+        this.inPlaceRefresh = inPlaceRefresh;
+        this.authoritativeCache = authoritativeCache;
+    }
+
+    public Datastore(DataCache<K, T> dataCache,
+                     DataManager dataManager,
+                     Class<K> keyClass,
+                     DataTable sourceTable,
+                     DataCodec<K, T> dataCodec,
+                     boolean inPlaceRefresh) {
+        this(dataCache, dataManager, keyClass, sourceTable, dataCodec, inPlaceRefresh, false);
+    }
+
+    public Datastore(DataCache<K, T> dataCache,
+                     DataManager dataManager,
+                     Class<K> keyClass,
+                     DataTable sourceTable,
+                     DataCodec<K, T> dataCodec) {
+        this(dataCache, dataManager, keyClass, sourceTable, dataCodec, false, false);
     }
 
     /** The data caching provider. */
@@ -63,6 +96,32 @@ public class Datastore<K, T> implements DebugLogging {
     @Getter
     protected final DataCodec<K, T> dataCodec;
 
+    /**
+     * Whether refreshed values should be decoded into a spare instance of the item,
+     * reusing its collections and maps, instead of constructing a new value.
+     *
+     * The value is never modified while it is published: the spare instance is
+     * the value which was replaced by the previous refresh, it is decoded in place
+     * and then replaces the current value, which becomes the next spare instance.
+     * So refreshing cached items creates little garbage, but a value must not be
+     * retained and read across two refreshes of its item, as it is reused by the
+     * second one. Read the value through {@link DataItem#get()} instead.
+     *
+     * @see ValueCodec#decodeInPlace(CodecContext, Object, DecodeInput)
+     */
+    @Getter
+    protected final boolean inPlaceRefresh;
+
+    /**
+     * Whether the cache holds every item stored in the source table, for example
+     * because all items are loaded on startup and this datastore is the only writer.
+     *
+     * Existence checks and counts are then answered from the cache without
+     * querying the source table.
+     */
+    @Getter
+    protected final boolean authoritativeCache;
+
     /**
      * Get the codec registry to be used by this datastore
      * and it's operations.
@@ -94,6 +153,28 @@ public class Datastore<K, T> implements DebugLogging {
         return new CodecContext(dataManager);
     }
 
+    /**
+     * Synchronously create the indexes declared by the data codec in the
+     * source table if they do not exist yet, see {@link DataCodec#getIndexDefinitions()}.
+     *
+     * This may take long on large tables and fails if a declared index
+     * conflicts with an existing index, so it is not done automatically.
+     */
+    public void ensureIndexes() {
+        sourceTable.ensureIndexes(dataCodec);
+    }
+
+    /**
+     * Asynchronously create the indexes declared by the data codec
+     * in the source table if they do not exist yet.
+     *
+     * @see #ensureIndexes()
+     * @return The result future.
+     */
+    public CompletableFuture<Void> ensureIndexesAsync() {
+        return CompletableFuture.runAsync(this::ensureIndexes, getExecutorService());
+    }
+
     /**
      * Get or create a reference data item for the given key.
      *
@@ -260,6 +341,147 @@ public class Datastore<K, T> implements DebugLogging {
         return findOne(Query.byKey(key).withExecutor(executor));
     }
 
+    /**
+     * Potentially asynchronously find an item for the given query, only
+     * retrieving the fields included by the given projection from the database.
+     *
+     * A present cached item matching the query is returned as is, otherwise the
+     * projection is pushed down to the source table and the partial item is returned.
+     * If a complete item with the same key is cached, the retrieved fields are also
+     * merged into it, see {@link DataItem#decodePartial(DecodeInput, Collection)}.
+     *
+     * @param query The query.
+     * @param projection The projection.
+     * @return The future of the item if found.
+     */
+    public CompletableFuture<Optional<PartialItem<K, T>>> findOnePartial(Query query, Projection projection) {
+        DataItem<K, T> cachedItem = findOneCached(query);
+        if (cachedItem != null) {
+            return CompletableFuture.completedFuture(Optional.of(cachedItem));
+        }
+
+        final Collection<String> fields = includedFields(projection);
+        return sourceTable.findOneAsync(query.qualify(this), projection).thenApply(result -> {
+            if (!result.found()) {
+                return Optional.empty();
+            }
+
+            SourcedItem<K, T> item = SourcedItem.of(result, projection != null).qualify(this);
+            if (fields != null) {
+                // refresh the fetched fields of the cached item
+                DataItem<K, T> existing = dataCache.getOrNull(item.getKey());
+                if (existing != null) {
+                    existing.decodePartial(item.input(), fields);
+                }
+            }
+
+            return Optional.<PartialItem<K, T>>of(item);
+        });
+    }
+
+    /**
+     * Potentially asynchronously find an item for the given query, only retrieving
+     * the fields of the given data class or projection interface from the database.
+     *
+     * Use {@link PartialItem#project(Class)} to read the item as the given type.
+     *
+     * @see #findOnePartial(Query, Projection)
+     * @param query The query.
+     * @param vClass The data class.
+     * @return The future of the item if found.
+     */
+    public <V> CompletableFuture<Optional<PartialItem<K, T>>> findOne(Query query, Class<V> vClass) {
+        return findOnePartial(query, ProjectionTypes.getProjectionType(vClass, this).createExclusiveProjection(null));
+    }
+
+    // get the fields included by the given projection,
+    // or null if they are not known
+    static Collection<String> includedFields(Projection projection) {
+        if (!(projection instanceof CommonProjection)) {
+            return null;
+        }
+
+        CommonProjection commonProjection = (CommonProjection) projection;
+        return commonProjection.getAction() == CommonProjection.Action.INCLUDE ? commonProjection.getFieldNames() : null;
+    }
+
+    /**
+     * The maximum amount of keys loaded by one query when resolving items.
+     */
+    public static final int RESOLVE_BATCH_SIZE = 1000;
+
+    /**
+     * Synchronously resolve the given potentially partial items to complete
+     * data items, in the same order.
+     *
+     * Complete items are decoded without querying the database, partial items
+     * are served from the cache if present and otherwise loaded with one query
+     * for each batch of up to {@link #RESOLVE_BATCH_SIZE} keys, instead of one
+     * query per item. Items which no longer exist in the database are omitted.
+     *
+     * @param items The items to resolve.
+     * @return The resolved data items.
+     */
+    public List<DataItem<K, T>> resolveAll(Collection<? extends PartialItem<K, T>> items) {
+        Map<K, DataItem<K, T>> resolved = new HashMap<>();
+        List<K> missingKeys = new ArrayList<>();
+        for (PartialItem<K, T> item : items) {
+            if (item instanceof DataItem) {
+                continue;
+            }
+
+            if (!item.isPartial()) {
+                DataItem<K, T> dataItem = decodeFetched(item.input());
+                resolved.put(dataItem.getKey(), dataItem);
+                continue;
+            }
+
+            K key = item.getKey();
+            DataItem<K, T> cachedItem = findOneCached(Query.byKey(key));
+            if (cachedItem != null) {
+                resolved.put(key, cachedItem);
+            } else if (!resolved.containsKey(key)) {
+                resolved.put(key, null); // loaded below
+                missingKeys.add(key);
+            }
+        }
+
+        // load the missing items in batches
+        final String keyField = dataCodec.getPrimaryKeyFieldName();
+        for (int start = 0; start < missingKeys.size(); start += RESOLVE_BATCH_SIZE) {
+            List<K> batch = missingKeys.subList(start, Math.min(missingKeys.size(), start + RESOLVE_BATCH_SIZE));
+            Query query = Query.builder().oneOf(keyField, batch).build().qualify(this);
+            try (Stream<SourcedItem<?, ?>> stream = sourceTable.findAllSync(query).stream()) {
+                stream.forEach(sourcedItem -> {
+                    DataItem<K, T> dataItem = decodeFetched(sourcedItem.input());
+                    resolved.put(dataItem.getKey(), dataItem);
+                });
+            }
+        }
+
+        List<DataItem<K, T>> list = new ArrayList<>(items.size());
+        for (PartialItem<K, T> item : items) {
+            DataItem<K, T> dataItem = item instanceof DataItem ? (DataItem<K, T>) item : resolved.get(item.getKey());
+            if (dataItem != null) {
+                list.add(dataItem);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Asynchronously resolve the given potentially partial items to
+     * complete data items, in the same order.
+     *
+     * @see #resolveAll(Collection)
+     * @param items The items to resolve.
+     * @return The future of the resolved data items.
+     */
+    public CompletableFuture<List<DataItem<K, T>>> resolveAllAsync(Collection<? extends PartialItem<K, T>> items) {
+        return CompletableFuture.supplyAsync(() -> resolveAll(items), getExecutorService());
+    }
+
     /**
      * Find all cached items matching the given query in the datastore.
      *
@@ -344,6 +566,67 @@ public class Datastore<K, T> implements DebugLogging {
         return status;
     }
 
+    /**
+     * Compute the given aggregation over all cached items matching the given query.
+     *
+     * This action is always performed synchronously.
+     *
+     * @param query The filter query.
+     * @param aggregation The aggregation.
+     * @return The result groups.
+     */
+    public List<AggregateGroup> aggregateCached(Query query, Aggregation aggregation) {
+        Aggregator aggregator = new Aggregator(aggregation);
+
+        // iterate over each item and accumulate the
+        // values of the items matching the query
+        Predicate<T> predicate = query.fieldConstraintCount() > 0 ? dataCodec.getFilterPredicate(query) : __ -> true;
+        for (DataItem<K, T> item : dataCache) {
+            if (item.isPresent() && predicate.test(item.get())) {
+                aggregator.add(item);
+            }
+        }
+
+        return aggregator.finish();
+    }
+
+    /**
+     * Compute the given aggregation over all items matching the given query.
+     *
+     * If this datastore has a source table the aggregation is performed by the
+     * data source, which should push it down to the database so no items have
+     * to be transferred or decoded. Otherwise it is computed over the cache.
+     *
+     * @param query The filter query.
+     * @param aggregation The aggregation.
+     * @return The status of the operation.
+     */
+    public AggregateOperation<K, T> aggregate(Query query, Aggregation aggregation) {
+        query = query.qualify(this);
+        AggregateOperation<K, T> operation = new AggregateOperation<>(this, query, aggregation);
+
+        if (sourceTable == null) {
+            try {
+                operation.completeSuccessfully(aggregateCached(query, aggregation));
+            } catch (Throwable t) {
+                operation.completeFailed(t);
+            }
+
+            return operation;
+        }
+
+        sourceTable.aggregateAsync(query, aggregation).whenComplete((groups, throwable) -> {
+            if (throwable != null) {
+                operation.completeFailed(throwable);
+                return;
+            }
+
+            operation.completeSuccessfully(groups);
+        });
+
+        return operation;
+    }
+
     /**
      * Find all items matching the given query and drop them from the cache,
      * then instruct the database or other remote data storage to delete
@@ -369,6 +652,120 @@ public class Datastore<K, T> implements DebugLogging {
         return operation;
     }
 
+    /**
+     * Synchronously serialize all the given items and update them in
+     * the remote data storage, in batches if supported by the source table.
+     *
+     * @param items The items to save.
+     */
+    public void saveAllSync(Collection<DataItem<K, T>> items) {
+        List<EncodeOutput> outputs = new ArrayList<>(items.size());
+        for (DataItem<K, T> item : items) {
+            EncodeOutput output = item.encode();
+            if (output != null) {
+                outputs.add(output);
+            }
+        }
+
+        if (!outputs.isEmpty()) {
+            sourceTable.replaceManySync(outputs);
+        }
+    }
+
+    /**
+     * Asynchronously serialize all the given items and update them in
+     * the remote data storage.
+     *
+     * @see #saveAllSync(Collection)
+     * @param items The items to save.
+     * @return The result future.
+     */
+    public CompletableFuture<Void> saveAllAsync(Collection<DataItem<K, T>> items) {
+        return CompletableFuture.runAsync(() -> saveAllSync(items), getExecutorService());
+    }
+
+    /**
+     * Count the present cached items matching the given query.
+     *
+     * This action is always performed synchronously.
+     *
+     * @param query The filter query.
+     * @return The count of matching cached items.
+     */
+    public long countCached(Query query) {
+        Predicate<T> predicate = query.fieldConstraintCount() > 0 ? dataCodec.getFilterPredicate(query) : __ -> true;
+        long count = 0;
+        for (DataItem<K, T> item : dataCache) {
+            if (item.isPresent() && predicate.test(item.get())) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Check whether any item matches the given query.
+     *
+     * A present cached item matching the query answers this immediately, otherwise
+     * the source table is asked, which should only check for the existence of an item
+     * without transferring or decoding it. If the cache is authoritative, the source
+     * table is never queried.
+     *
+     * @param query The query.
+     * @return Future returning whether a matching item exists.
+     */
+    public CompletableFuture<Boolean> exists(Query query) {
+        if (findOneCached(query) != null) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        if (authoritativeCache || sourceTable == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return sourceTable.existsAsync(query.qualify(this));
+    }
+
+    /**
+     * Count the items matching the given query.
+     *
+     * If the cache is authoritative the matching cached items are counted,
+     * otherwise the count is performed by the source table.
+     *
+     * @param query The query.
+     * @return Future returning the count of matching items.
+     */
+    public CompletableFuture<Long> count(Query query) {
+        query = query.qualify(this);
+        if (authoritativeCache || sourceTable == null) {
+            return CompletableFuture.completedFuture(countCached(query));
+        }
+
+        return sourceTable.countAsync(query);
+    }
+
+    /**
+     * Estimate the amount of items in this datastore.
+     *
+     * If the cache is authoritative this is the amount of present cached items,
+     * otherwise it is estimated from the metadata of the source table. If the
+     * source table can not estimate its size the items are counted.
+     *
+     * @see DataTable#estimatedCount()
+     * @return Future returning the estimated count.
+     */
+    public CompletableFuture<Long> estimatedCount() {
+        if (authoritativeCache || sourceTable == null) {
+            return CompletableFuture.completedFuture(countCached(Query.all()));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            long count = sourceTable.estimatedCount();
+            return count >= 0 ? count : sourceTable.count(Query.all().qualify(this));
+        }, getExecutorService());
+    }
+
     /**
      * Get the key from the given input, reference the data item,
      * decode the input into the referenced data item and finally
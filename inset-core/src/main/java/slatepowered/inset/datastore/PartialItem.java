@@ -6,6 +6,7 @@ import slatepowered.inset.codec.DecodeInput;
 import slatepowered.inset.internal.ProjectionInterface;
 import slatepowered.inset.internal.ProjectionType;
 import slatepowered.inset.internal.ProjectionTypes;
+import slatepowered.inset.internal.SortKeys;
 import slatepowered.inset.operation.Sorting;
 import slatepowered.inset.query.FindOperation;
 import slatepowered.inset.query.Query;
@@ -25,8 +26,8 @@ import java.util.concurrent.CompletableFuture;
 public abstract class PartialItem<K, T> {
 
     protected DecodeInput cachedInput; // The cached input, used by this class to read partial data
-    private double[] cachedOrderCoefficients; // The cached order coefficient array
-    private Sorting cachedSort; // The ID the cached order coefficient is for
+    private long[] cachedOrderKey; // The cached sort key
+    private Sorting cachedSort; // The sorting the cached sort key is for
 
     /**
      * Assert this item has been qualified and return the source of the
@@ -125,27 +126,47 @@ public abstract class PartialItem<K, T> {
     public abstract Optional<DataItem<K, T>> findCached();
 
     /**
-     * Create an array of numbers easily comparable to other numbers
-     * of the same data which is to represent the order.
+     * Read the value of the given field to be used to order or aggregate
+     * this item, for the primary key field this should return the key.
      *
-     * @return The numbers representing the order.
+     * @param fieldName The runtime field name.
+     * @return The value or null if absent.
      */
-    public abstract double[] createFastOrderCoefficients(String[] fields, Sorting sorting);
+    public abstract Object readOrderValue(String fieldName);
 
     /**
-     * Get or create an array of packed number easily comparable to other numbers
-     * of the same data which is to represent the order.
+     * Create a sort key representing the order of this item for the given
+     * fields, which can be compared to the keys of other items of the same
+     * data using {@link SortKeys#compare(long[], long[])}.
      *
-     * @return The numbers representing the order.
+     * @param fields The runtime field names.
+     * @param descending Whether each field is sorted in descending order.
+     * @return The sort key.
      */
-    public double[] getFastOrderCoefficients(String[] fields, Sorting sorting) {
-        if (cachedOrderCoefficients != null && cachedSort == sorting) {
-            return cachedOrderCoefficients;
+    public long[] createFastOrderKey(String[] fields, boolean[] descending) {
+        final SortKeys.Encoder encoder = new SortKeys.Encoder();
+        for (int i = 0; i < fields.length; i++) {
+            encoder.append(readOrderValue(fields[i]), descending[i]);
         }
 
-        cachedOrderCoefficients = createFastOrderCoefficients(fields, sorting);
+        return encoder.toArray();
+    }
+
+    /**
+     * Get or create the sort key representing the order of this item
+     * for the given sorting.
+     *
+     * @see #createFastOrderKey(String[], boolean[])
+     * @return The sort key.
+     */
+    public long[] getFastOrderKey(String[] fields, boolean[] descending, Sorting sorting) {
+        if (cachedOrderKey != null && cachedSort == sorting) {
+            return cachedOrderKey;
+        }
+
+        cachedOrderKey = createFastOrderKey(fields, descending);
         cachedSort = sorting;
-        return cachedOrderCoefficients;
+        return cachedOrderKey;
     }
 
     /**
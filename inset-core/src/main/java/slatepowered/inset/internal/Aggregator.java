@@ -0,0 +1,191 @@
+package slatepowered.inset.internal;
+
+import slatepowered.inset.datastore.PartialItem;
+import slatepowered.inset.operation.Accumulator;
+import slatepowered.inset.operation.AggregateGroup;
+import slatepowered.inset.operation.Aggregation;
+
+import java.util.*;
+
+/**
+ * Computes an {@link Aggregation} client-side by reducing items one at a time,
+ * the state of each accumulator is kept in primitive fields so no intermediate
+ * values are retained.
+ *
+ * The results follow the semantics of the MongoDB accumulators: sums and averages
+ * ignore non-numeric values and the minimum and maximum ignore null values. Numeric
+ * results are normalized by {@link #normalizeResult(Object)}, so results of data
+ * sources computing the aggregation themselves can be normalized to the same types.
+ */
+public final class Aggregator {
+
+    // The state of one accumulator in one group
+    static final class State {
+        long count;         // The amount of values accumulated
+        long longSum;       // The sum of the integral values
+        double doubleSum;   // The sum of the floating point values
+        boolean floating;   // Whether any floating point values were summed
+        Object extreme;     // The current minimum or maximum
+    }
+
+    private final String[] groupFields;
+    private final Accumulator[] accumulators;
+
+    // The states by group values
+    private final Map<List<Object>, State[]> groups = new LinkedHashMap<>();
+
+    public Aggregator(Aggregation aggregation) {
+        this.groupFields = aggregation.getGroupFieldNames().toArray(new String[0]);
+        this.accumulators = aggregation.getAccumulators().toArray(new Accumulator[0]);
+    }
+
+    /**
+     * Accumulate the given item into its group.
+     *
+     * @param item The item.
+     */
+    public void add(PartialItem<?, ?> item) {
+        // find the group for the item
+        List<Object> groupKey;
+        if (groupFields.length == 0) {
+            groupKey = Collections.emptyList();
+        } else {
+            Object[] groupValues = new Object[groupFields.length];
+            for (int i = 0; i < groupFields.length; i++) {
+                groupValues[i] = item.readOrderValue(groupFields[i]);
+            }
+
+            groupKey = Arrays.asList(groupValues);
+        }
+
+        State[] states = groups.get(groupKey);
+        if (states == null) {
+            states = new State[accumulators.length];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new State();
+            }
+
+            groups.put(groupKey, states);
+        }
+
+        // update the accumulators
+        for (int i = 0; i < accumulators.length; i++) {
+            Accumulator accumulator = accumulators[i];
+            State state = states[i];
+
+            if (accumulator.getType() == Accumulator.Type.COUNT) {
+                state.count++;
+                continue;
+            }
+
+            Object value = item.readOrderValue(accumulator.getFieldName());
+            switch (accumulator.getType()) {
+                case SUM:
+                case AVG: {
+                    if (!(value instanceof Number)) break;
+                    state.count++;
+                    if (isIntegral(value)) {
+                        state.longSum += ((Number) value).longValue();
+                    } else {
+                        state.doubleSum += ((Number) value).doubleValue();
+                        state.floating = true;
+                    }
+
+                    break;
+                }
+
+                case MIN: {
+                    if (value != null && (state.extreme == null || compareValues(value, state.extreme) < 0))
+                        state.extreme = value;
+                    break;
+                }
+
+                case MAX: {
+                    if (value != null && (state.extreme == null || compareValues(value, state.extreme) > 0))
+                        state.extreme = value;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the result groups from the current state.
+     *
+     * @return The groups.
+     */
+    public List<AggregateGroup> finish() {
+        List<AggregateGroup> result = new ArrayList<>(groups.size());
+        for (Map.Entry<List<Object>, State[]> entry : groups.entrySet()) {
+            Map<String, Object> groupValues = new LinkedHashMap<>();
+            List<Object> groupKey = entry.getKey();
+            for (int i = 0; i < groupFields.length; i++) {
+                groupValues.put(groupFields[i], groupKey.get(i));
+            }
+
+            Map<String, Object> results = new LinkedHashMap<>();
+            State[] states = entry.getValue();
+            for (int i = 0; i < accumulators.length; i++) {
+                Accumulator accumulator = accumulators[i];
+                State state = states[i];
+
+                Object value;
+                switch (accumulator.getType()) {
+                    case COUNT: value = state.count; break;
+                    case SUM: value = state.floating ? (Object) (state.doubleSum + state.longSum) : (Object) state.longSum; break;
+                    case AVG: value = state.count == 0 ? null : (state.doubleSum + state.longSum) / state.count; break;
+                    default: value = normalizeResult(state.extreme); break;
+                }
+
+                results.put(accumulator.getName(), value);
+            }
+
+            result.add(new AggregateGroup(groupValues, results));
+        }
+
+        return result;
+    }
+
+    /**
+     * Normalize the given numeric result of an accumulator, integral
+     * numbers are converted to a {@code Long} and all other numbers to a
+     * {@code Double}, other values are returned unchanged.
+     *
+     * @param value The result.
+     * @return The normalized result.
+     */
+    public static Object normalizeResult(Object value) {
+        if (!(value instanceof Number) || value instanceof Long || value instanceof Double) {
+            return value;
+        }
+
+        return isIntegral(value) ? (Object) ((Number) value).longValue() : (Object) ((Number) value).doubleValue();
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    // compare the given non-null values
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            if (isIntegral(a) && isIntegral(b)) {
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            }
+
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable) a).compareTo(b);
+        }
+
+        // fall back to the type order of sort keys
+        return SortKeys.compare(
+                new SortKeys.Encoder().append(a, false).toArray(),
+                new SortKeys.Encoder().append(b, false).toArray()
+        );
+    }
+
+}
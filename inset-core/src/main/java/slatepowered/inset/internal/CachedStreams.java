@@ -1,14 +1,20 @@
 package slatepowered.inset.internal;
 
+import slatepowered.inset.datastore.DataItem;
 import slatepowered.inset.datastore.Datastore;
 import slatepowered.inset.operation.FieldOrderSorting;
 import slatepowered.inset.operation.FieldOrdering;
 import slatepowered.inset.operation.Sorting;
 import slatepowered.inset.datastore.PartialItem;
+import slatepowered.inset.query.PageToken;
+import slatepowered.inset.util.KeySet;
 
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Support for working with (partially) cached streams.
@@ -18,44 +24,242 @@ public final class CachedStreams {
     private CachedStreams() { throw new UnsupportedOperationException("Utility class"); }
 
     /**
-     * Combine the given streams into one exclusive stream (no duplicates)
+     * Create a stream which is only evaluated when a terminal operation
+     * is performed on it, this allows the supplied stream to depend on
+     * state which may still change before that happens. Closing the
+     * lazy stream closes the supplied stream if it was created.
      *
-     * @param priorityStream The priority base stream.
-     * @param addedStream The added stream.
+     * @param supplier The stream supplier.
+     * @param <E> The element type.
+     * @return The lazy stream.
+     */
+    public static <E> Stream<E> lazy(Supplier<? extends Stream<? extends E>> supplier) {
+        final AtomicReference<Stream<? extends E>> supplied = new AtomicReference<>();
+        return StreamSupport.stream(() -> {
+            Stream<? extends E> stream = supplier.get();
+            supplied.set(stream);
+
+            @SuppressWarnings("unchecked")
+            Spliterator<E> spliterator = (Spliterator<E>) stream.spliterator();
+            return spliterator;
+        }, Spliterator.ORDERED, false).onClose(() -> {
+            Stream<? extends E> stream = supplied.get();
+            if (stream != null) {
+                stream.close();
+            }
+        });
+    }
+
+    /**
+     * Collect the given stream of cached items into an array, sorting
+     * it once if a comparator is provided.
+     *
+     * @param cachedStream The stream of cached items.
+     * @param comparator The comparator representing the sort order, may be null.
      * @param <K> The key type.
      * @param <T> The value type.
-     * @return The stream.
+     * @return The (sorted) array of cached items.
      */
-    public static <K, T> Stream<? extends PartialItem<K, T>> zipStreamsDistinct(Stream<? extends PartialItem<K, T>> priorityStream,
-                                                                                Stream<? extends PartialItem<K, T>> addedStream) {
-        if (priorityStream == null) return addedStream;
-        if (addedStream == null) return priorityStream;
-        return Stream.concat(priorityStream, addedStream).distinct();
+    public static <K, T> DataItem<K, T>[] collectCached(Stream<? extends DataItem<K, T>> cachedStream,
+                                                       Comparator<PartialItem<K, T>> comparator) {
+        return collectCached(cachedStream, comparator, -1);
     }
 
     /**
-     * Sort a partially cached stream according to the given sorting in the
-     * context of the given datastore.
+     * Collect at most the first {@code bound} items in the given stream of
+     * cached items into a sorted array.
+     *
+     * If a comparator is provided only the smallest items are retained while
+     * collecting, so this costs {@code O(n log bound)} time and {@code O(bound)}
+     * memory instead of sorting all cached items.
      *
+     * @param cachedStream The stream of cached items.
+     * @param comparator The comparator representing the sort order, may be null.
+     * @param bound The maximum amount of items to collect, or -1 for no limit.
      * @param <K> The key type.
      * @param <T> The value type.
-     * @param datastore The datastore.
-     * @param stream The partially cached stream.
-     * @param sorting The sorting.
-     * @param cachedStream The cached stream.
-     * @param iterableStream The iterable result stream.
+     * @return The (sorted) array of cached items.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, T> DataItem<K, T>[] collectCached(Stream<? extends DataItem<K, T>> cachedStream,
+                                                       Comparator<PartialItem<K, T>> comparator,
+                                                       int bound) {
+        if (bound < 0) {
+            DataItem<K, T>[] cachedItems = cachedStream.toArray(DataItem[]::new);
+            if (comparator != null) {
+                Arrays.sort(cachedItems, comparator);
+            }
+
+            return cachedItems;
+        }
+
+        if (comparator == null) {
+            return cachedStream.limit(bound).toArray(DataItem[]::new);
+        }
+
+        // keep the smallest items in a max-heap of the bound size
+        final PriorityQueue<DataItem<K, T>> heap = new PriorityQueue<>(Math.max(1, bound + 1), comparator.reversed());
+        cachedStream.forEach(item -> {
+            if (bound == 0) return;
+            if (heap.size() < bound) {
+                heap.add(item);
+            } else if (comparator.compare(item, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(item);
+            }
+        });
+
+        DataItem<K, T>[] cachedItems = heap.toArray(new DataItem[0]);
+        Arrays.sort(cachedItems, comparator);
+        return cachedItems;
+    }
+
+    /**
+     * Collect the keys of the given cached items into a key set, which
+     * can be used by the data source to exclude the items already served
+     * from the cache without decoding them.
+     *
+     * @param cachedItems The cached items.
+     * @return The key set.
+     */
+    public static KeySet collectKeys(DataItem<?, ?>[] cachedItems) {
+        KeySet keySet = new KeySet();
+        for (DataItem<?, ?> item : cachedItems) {
+            keySet.add(item.key());
+        }
+
+        return keySet;
+    }
+
+    /**
+     * Merge the given cached items with the given stream of source items into
+     * one stream, the source stream should already exclude all items which
+     * are present in the cached items, see {@link #collectKeys(DataItem[])}.
+     *
+     * If a comparator is provided the cached items should already be sorted
+     * and they are merged one element at a time with the source stream, which
+     * is expected to already be sorted by the data source. Otherwise all cached
+     * items precede the source items.
+     *
+     * Only the cached items are kept in memory, the source stream is consumed lazily
+     * and closed when the merged stream is closed.
+     *
+     * @param cachedItems The (sorted) priority cached items.
+     * @param sourceStream The (sorted) stream of source items, may be null.
+     * @param comparator The comparator representing the sort order, may be null.
+     * @param <K> The key type.
+     * @param <T> The value type.
+     * @return The merged stream.
      */
-    public static <K, T> Stream<? extends PartialItem<K, T>> sortPartialStream(Datastore<K, T> datastore,
-                                                                               Stream<? extends PartialItem<K, T>> stream,
-                                                                               Sorting sorting,
-                                                                               Stream<? extends PartialItem<K, T>> cachedStream,
-                                                                               Stream<? extends PartialItem<K, T>> iterableStream) {
-        final Comparator<PartialItem<K, T>> fastComparator = createFastComparator(datastore, sorting);
-
-        // TODO: this is slow and inefficient, preferably, since the iterable
-        //  stream has been sorted server side, sort the cached stream and combine
-        //  the two sorted streams removing duplicates, i assume that would be faster
-        return stream.sorted(fastComparator);
+    @SuppressWarnings("unchecked")
+    public static <K, T> Stream<PartialItem<K, T>> mergeDistinct(DataItem<K, T>[] cachedItems,
+                                                                 Stream<? extends PartialItem<K, T>> sourceStream,
+                                                                 Comparator<PartialItem<K, T>> comparator) {
+        if (sourceStream == null) {
+            return Arrays.<PartialItem<K, T>>stream(cachedItems);
+        }
+
+        Iterator<PartialItem<K, T>> sourceIterator = ((Stream<PartialItem<K, T>>) sourceStream).iterator();
+        Iterator<PartialItem<K, T>> cachedIterator = Arrays.<PartialItem<K, T>>asList(cachedItems).iterator();
+
+        Iterator<PartialItem<K, T>> iterator = comparator != null ?
+                new SortedMergeIterator<>(cachedIterator, sourceIterator, comparator) :
+                new ConcatIterator<>(cachedIterator, sourceIterator);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(sourceStream::close);
+    }
+
+    /**
+     * Iterates over the elements of two sorted iterators in order,
+     * preferring the elements of the first iterator when equal.
+     */
+    static final class SortedMergeIterator<E> implements Iterator<E> {
+        final Iterator<? extends E> first;
+        final Iterator<? extends E> second;
+        final Comparator<? super E> comparator;
+
+        E nextFirst;  // The buffered head of the first iterator
+        E nextSecond; // The buffered head of the second iterator
+
+        SortedMergeIterator(Iterator<? extends E> first, Iterator<? extends E> second, Comparator<? super E> comparator) {
+            this.first = first;
+            this.second = second;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextFirst != null || nextSecond != null || first.hasNext() || second.hasNext();
+        }
+
+        @Override
+        public E next() {
+            if (nextFirst == null && first.hasNext()) nextFirst = first.next();
+            if (nextSecond == null && second.hasNext()) nextSecond = second.next();
+
+            E result;
+            if (nextFirst == null) {
+                if (nextSecond == null) throw new NoSuchElementException();
+                result = nextSecond;
+                nextSecond = null;
+            } else if (nextSecond == null || comparator.compare(nextFirst, nextSecond) <= 0) {
+                result = nextFirst;
+                nextFirst = null;
+            } else {
+                result = nextSecond;
+                nextSecond = null;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Iterates over all elements of the first iterator, then all
+     * elements of the second iterator.
+     */
+    static final class ConcatIterator<E> implements Iterator<E> {
+        final Iterator<? extends E> first;
+        final Iterator<? extends E> second;
+
+        ConcatIterator(Iterator<? extends E> first, Iterator<? extends E> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return first.hasNext() || second.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return first.hasNext() ? first.next() : second.next();
+        }
+    }
+
+    // get the field names of the given sorting as an array
+    private static String[] sortedFields(Sorting sorting) {
+        return asFieldOrderSorting(sorting).getFieldNames().toArray(new String[0]);
+    }
+
+    // get whether each field of the given sorting is descending
+    private static boolean[] descendingFields(Sorting sorting) {
+        final List<FieldOrdering> orderings = asFieldOrderSorting(sorting).getFieldOrderings();
+        final boolean[] descending = new boolean[orderings.size()];
+        for (int i = 0; i < descending.length; i++) {
+            descending[i] = orderings.get(i) == FieldOrdering.DESCENDING;
+        }
+
+        return descending;
+    }
+
+    private static FieldOrderSorting asFieldOrderSorting(Sorting sorting) {
+        if (!(sorting instanceof FieldOrderSorting)) {
+            throw new UnsupportedOperationException("Unsupported sorting type for fast comparator: " + sorting.getClass().getName());
+        }
+
+        return (FieldOrderSorting) sorting;
     }
 
     /**
@@ -70,36 +274,34 @@ public final class CachedStreams {
      */
     public static <K, T> Comparator<PartialItem<K, T>> createFastComparator(final Datastore<K, T> datastore,
                                                                             final Sorting sorting) {
-        if (!(sorting instanceof FieldOrderSorting)) {
-            throw new UnsupportedOperationException("Unsupported sorting type for fast comparator: " + sorting.getClass().getName());
-        }
+        final String[] fields = sortedFields(sorting);
+        final boolean[] descending = descendingFields(sorting);
 
-        FieldOrderSorting fieldOrderSorting = (FieldOrderSorting) sorting;
-        final String[] fields = fieldOrderSorting.getFieldNames().toArray(new String[0]);
-        final int fieldCount = fields.length;
-        final List<FieldOrdering> orderings = fieldOrderSorting.getFieldOrderings();
-        final int[] orderingFactors = new int[fieldCount];
-        for (int i = 0; i < fieldCount; i++) {
-            orderingFactors[i] = orderings.get(i).getFactor();
-        }
-
-        return (first, second) -> {
-            double[] firstArr = first.getFastOrderCoefficients(fields, sorting);
-            double[] secondArr = second.getFastOrderCoefficients(fields, sorting);
-            final int count = firstArr.length;
-            if (count != secondArr.length || count != fieldCount)
-                throw new IllegalStateException("Ordering coefficient array length mismatch");
-
-            for (int i = 0; i < count; i++) {
-                double a = firstArr[i];
-                double b = secondArr[i];
+        // the sort keys already account for the direction
+        // of each field so they can be compared directly
+        return (first, second) -> SortKeys.compare(
+                first.getFastOrderKey(fields, descending, sorting),
+                second.getFastOrderKey(fields, descending, sorting)
+        );
+    }
 
-                if (a < b) return -orderingFactors[i];
-                else if (a > b) return orderingFactors[i];
-            }
+    /**
+     * Create a predicate which accepts only the items positioned after the given
+     * page token in the given sorting, which should end with the primary key field.
+     *
+     * @param sorting The sorting.
+     * @param token The page token.
+     * @param <K> The key type.
+     * @param <T> The value type.
+     * @return The predicate.
+     */
+    public static <K, T> Predicate<PartialItem<K, T>> createAfterFilter(final Sorting sorting,
+                                                                        final PageToken token) {
+        final String[] fields = sortedFields(sorting);
+        final boolean[] descending = descendingFields(sorting);
+        final long[] tokenKey = token.toSortKey(descending);
 
-            return 0;
-        };
+        return item -> SortKeys.compare(item.getFastOrderKey(fields, descending, sorting), tokenKey) > 0;
     }
 
 }
@@ -0,0 +1,101 @@
+package slatepowered.inset.internal;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The base class of the projection interface implementations generated
+ * at runtime, see {@link ProjectionClassGenerator}.
+ *
+ * If the values are not cached the generated methods read the value through the
+ * field getter on every call, like a proxy would, so projections of items reflect
+ * changes to the item value. Otherwise each value is read once into a generated
+ * field, which is used for projections of immutable inputs. The names of the methods of this class start with {@code $} so they do not
+ * collide with the methods of the implemented interface.
+ */
+public abstract class GeneratedProjection {
+
+    /**
+     * The projection interface this implements.
+     */
+    protected final ProjectionInterface projectionInterface;
+
+    /**
+     * The supplier of the key.
+     */
+    protected final Supplier<Object> keySupplier;
+
+    /**
+     * The getter of the field values.
+     */
+    protected final ProjectionInterface.FieldGetter fieldGetter;
+
+    /**
+     * Whether the values read through the field getter are cached.
+     */
+    protected final boolean cacheValues;
+
+    protected GeneratedProjection(ProjectionInterface projectionInterface,
+                                  Supplier<Object> keySupplier,
+                                  ProjectionInterface.FieldGetter fieldGetter,
+                                  boolean cacheValues) {
+        this.projectionInterface = projectionInterface;
+        this.keySupplier = keySupplier;
+        this.fieldGetter = fieldGetter;
+        this.cacheValues = cacheValues;
+    }
+
+    /**
+     * Create a new instance of the generated class with the given parameters.
+     *
+     * @param keySupplier The key supplier.
+     * @param fieldGetter The field getter.
+     * @param cacheValues Whether to cache the values read through the field getter.
+     * @return The instance.
+     */
+    public abstract GeneratedProjection $new(Supplier<Object> keySupplier,
+                                             ProjectionInterface.FieldGetter fieldGetter,
+                                             boolean cacheValues);
+
+    /**
+     * Get the key of the projected item.
+     *
+     * @return The key.
+     */
+    public final Object $key() {
+        return keySupplier.get();
+    }
+
+    /**
+     * Read the value of the field method at the given index.
+     *
+     * @param index The index in the field methods of the interface.
+     * @return The value.
+     */
+    protected final Object $read(int index) {
+        return fieldGetter.getField(
+                projectionInterface.fieldRuntimeNames[index],
+                projectionInterface.fieldSerializedNames[index],
+                projectionInterface.fieldTypes[index]
+        );
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GeneratedProjection)) return false;
+        GeneratedProjection other = (GeneratedProjection) o;
+        return projectionInterface == other.projectionInterface && Objects.equals($key(), other.$key());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode($key());
+    }
+
+    @Override
+    public String toString() {
+        return "partial projection of key " + $key();
+    }
+
+}
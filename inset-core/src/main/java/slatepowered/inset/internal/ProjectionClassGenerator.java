@@ -0,0 +1,210 @@
+package slatepowered.inset.internal;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates the implementation classes of projection interfaces at runtime.
+ *
+ * Each field method reads the value through {@link GeneratedProjection#$read(int)} and
+ * unboxes or casts it to the return type. If {@link GeneratedProjection#cacheValues} is
+ * set the value is stored in a field of the return type on the first call, guarded by a
+ * volatile decoded flag, otherwise it is read on every call so a projection of an item
+ * reads its current value. The key method returns the key from
+ * {@link GeneratedProjection#$key()}, default methods are inherited from the interface.
+ */
+final class ProjectionClassGenerator {
+
+    private ProjectionClassGenerator() { throw new UnsupportedOperationException("Utility class"); }
+
+    static final String GENERATED_PACKAGE = "slatepowered/inset/generated/";
+    static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    /* Internal names and descriptors */
+    static final String BASE = "slatepowered/inset/internal/GeneratedProjection";
+    static final String PROJECTION_INTERFACE_DESC = "Lslatepowered/inset/internal/ProjectionInterface;";
+    static final String SUPPLIER_DESC = "Ljava/util/function/Supplier;";
+    static final String FIELD_GETTER_DESC = "Lslatepowered/inset/internal/ProjectionInterface$FieldGetter;";
+    static final String VALUE_FIELD = "$value";
+    static final String DECODED_FIELD = "$decoded";
+
+    /**
+     * Loads the generated classes, the parent is the loader of the interface so
+     * the interface and the types it references can be resolved, the classes
+     * of this library are resolved through the loader of this library.
+     */
+    static final class ProjectionClassLoader extends ClassLoader {
+        ProjectionClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            return GeneratedProjection.class.getClassLoader().loadClass(name);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Generate the implementation of the given projection interface and
+     * create the prototype instance which is used to create instances.
+     *
+     * @param projectionInterface The projection interface.
+     * @param fieldMethods The field methods, in the order of the field indices.
+     * @return The prototype instance.
+     */
+    static GeneratedProjection generate(ProjectionInterface projectionInterface, Method[] fieldMethods) throws ReflectiveOperationException {
+        final Class<?> klass = projectionInterface.getKlass();
+        final Method keyMethod = projectionInterface.getKeyMethod();
+        final String className = GENERATED_PACKAGE + klass.getSimpleName() + "$Projection" + CLASS_COUNTER.incrementAndGet();
+        final String constructorDesc = "(" + PROJECTION_INTERFACE_DESC + SUPPLIER_DESC + FIELD_GETTER_DESC + "Z)V";
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // no merged locals are generated
+                return "java/lang/Object";
+            }
+        };
+
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, BASE, new String[] { Type.getInternalName(klass) });
+
+        // constructor, passing the arguments to the base class
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitVarInsn(ILOAD, 4);
+        mv.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", constructorDesc, false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // $new(Supplier keySupplier, FieldGetter fieldGetter, boolean cacheValues)
+        mv = cw.visitMethod(ACC_PUBLIC, "$new", "(" + SUPPLIER_DESC + FIELD_GETTER_DESC + "Z)L" + BASE + ";", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, className);
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE, "projectionInterface", PROJECTION_INTERFACE_DESC);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitVarInsn(ILOAD, 3);
+        mv.visitMethodInsn(INVOKESPECIAL, className, "<init>", constructorDesc, false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // the key method
+        if (keyMethod != null) {
+            mv = cw.visitMethod(ACC_PUBLIC, keyMethod.getName(), Type.getMethodDescriptor(keyMethod), null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, BASE, "$key", "()Ljava/lang/Object;", false);
+            visitUnboxOrCast(mv, keyMethod.getReturnType());
+            mv.visitInsn(Type.getType(keyMethod.getReturnType()).getOpcode(IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        // the field methods
+        for (int i = 0; i < fieldMethods.length; i++) {
+            final Method method = fieldMethods[i];
+            final Class<?> returnType = method.getReturnType();
+            if (returnType == void.class) {
+                throw new IllegalArgumentException("Projection method " + method + " has no return type");
+            }
+
+            // the cached value and whether it was decoded, the value is
+            // written before the volatile flag so it is safely published
+            final String valueField = VALUE_FIELD + i;
+            final String decodedField = DECODED_FIELD + i;
+            final String valueDesc = Type.getDescriptor(returnType);
+            cw.visitField(ACC_PRIVATE, valueField, valueDesc, null, null).visitEnd();
+            cw.visitField(ACC_PRIVATE | ACC_VOLATILE, decodedField, "Z", null, null).visitEnd();
+
+            mv = cw.visitMethod(ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), null, null);
+            mv.visitCode();
+            Label cached = new Label();
+            Label decoded = new Label();
+
+            // read the value on every call if not cached
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE, "cacheValues", "Z");
+            mv.visitJumpInsn(IFNE, cached);
+            visitRead(mv, i, returnType);
+            mv.visitInsn(Type.getType(returnType).getOpcode(IRETURN));
+
+            // read the value into the field once
+            mv.visitLabel(cached);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, className, decodedField, "Z");
+            mv.visitJumpInsn(IFNE, decoded);
+            mv.visitVarInsn(ALOAD, 0);
+            visitRead(mv, i, returnType);
+            mv.visitFieldInsn(PUTFIELD, className, valueField, valueDesc);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInsn(ICONST_1);
+            mv.visitFieldInsn(PUTFIELD, className, decodedField, "Z");
+
+            mv.visitLabel(decoded);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, className, valueField, valueDesc);
+            mv.visitInsn(Type.getType(returnType).getOpcode(IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+
+        ProjectionClassLoader classLoader = new ProjectionClassLoader(klass.getClassLoader());
+        Class<?> generated = classLoader.define(className.replace('/', '.'), cw.toByteArray());
+        return (GeneratedProjection) generated
+                .getConstructor(ProjectionInterface.class, Supplier.class, ProjectionInterface.FieldGetter.class, boolean.class)
+                .newInstance(projectionInterface, null, null, false);
+    }
+
+    // read the value of the field method at the given index
+    // and unbox or cast it to the given return type
+    private static void visitRead(MethodVisitor mv, int index, Class<?> returnType) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitLdcInsn(index);
+        mv.visitMethodInsn(INVOKEVIRTUAL, BASE, "$read", "(I)Ljava/lang/Object;", false);
+        visitUnboxOrCast(mv, returnType);
+    }
+
+    // unbox or cast the object on the stack to the given type, numbers
+    // are converted through Number so any numeric box is accepted
+    private static void visitUnboxOrCast(MethodVisitor mv, Class<?> type) {
+        if (type == Object.class) {
+            return;
+        }
+
+        if (!type.isPrimitive()) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+        } else if (type == boolean.class) {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z", false);
+        } else if (type == char.class) {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Character");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Character", "charValue", "()C", false);
+        } else {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Number");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Number", type.getName() + "Value", "()" + Type.getDescriptor(type), false);
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package slatepowered.inset.internal;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import slatepowered.inset.operation.Projection;
@@ -8,13 +9,10 @@ import slatepowered.veru.functional.TriFunction;
 import slatepowered.veru.reflect.ReflectUtil;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.function.BiFunction;
+import java.util.*;
 import java.util.function.Supplier;
 
 @RequiredArgsConstructor
@@ -47,6 +45,104 @@ public class ProjectionInterface implements ProjectionType {
      */
     protected final Map<Method, String> namesByMethod = new HashMap<>();
 
+    /* The runtime names, serialized names and types of the field
+     * methods by index, set before the implementation is generated */
+    @Getter(AccessLevel.NONE) String[] fieldRuntimeNames;
+    @Getter(AccessLevel.NONE) String[] fieldSerializedNames;
+    @Getter(AccessLevel.NONE) Type[] fieldTypes;
+
+    // The prototype of the generated implementation, used to create
+    // new instances, or null if not generated yet
+    @Getter(AccessLevel.NONE)
+    private volatile GeneratedProjection prototype;
+
+    // Whether generating the implementation failed, in which
+    // case proxies are created
+    @Getter(AccessLevel.NONE)
+    private volatile boolean generationFailed;
+
+    // generate the implementation class of this interface
+    private synchronized GeneratedProjection generate() {
+        if (prototype != null || generationFailed) {
+            return prototype;
+        }
+
+        try {
+            // only abstract methods are implemented, default
+            // methods are inherited from the interface
+            List<Method> methods = new ArrayList<>();
+            Set<String> signatures = new HashSet<>();
+            for (Method method : fieldMethods) {
+                if (method.isDefault() || Modifier.isStatic(method.getModifiers()) || method.equals(keyMethod)) continue;
+                if (!signatures.add(method.getName() + Arrays.toString(method.getParameterTypes()))) continue;
+                methods.add(method);
+            }
+
+            final int count = methods.size();
+            fieldRuntimeNames = new String[count];
+            fieldSerializedNames = new String[count];
+            fieldTypes = new Type[count];
+            for (int i = 0; i < count; i++) {
+                Method method = methods.get(i);
+                String nameOverride = namesByMethod.get(method);
+                fieldRuntimeNames[i] = method.getName();
+                fieldSerializedNames[i] = nameOverride != null ? nameOverride : method.getName();
+                fieldTypes[i] = method.getGenericReturnType();
+            }
+
+            return prototype = ProjectionClassGenerator.generate(this, methods.toArray(new Method[0]));
+        } catch (LinkageError | ReflectiveOperationException e) {
+            // fall back to proxies, the class can fail to link for
+            // example if the interface is not accessible from it
+            System.err.println("Failed to generate projection implementation for " + klass.getName() + ", using proxies instead");
+            e.printStackTrace();
+            generationFailed = true;
+            return null;
+        }
+    }
+
+    /**
+     * Create a new instance of this interface with the given parameters.
+     *
+     * The instance is created from the implementation class generated for this interface,
+     * which reads the field through the given field getter every time a method is called,
+     * so it behaves like the proxy without the reflective invocation. If no implementation
+     * could be generated a proxy is created instead.
+     *
+     * @see #createProxy(Supplier, FieldGetter)
+     * @return The instance.
+     */
+    public Object createProjection(Supplier<Object> keySupplier,
+                                   FieldGetter fieldGetter) {
+        return createProjection(keySupplier, fieldGetter, false);
+    }
+
+    /**
+     * Create a new instance of this interface with the given parameters.
+     *
+     * If the values are cached each field is read through the field getter only once
+     * by the generated implementation, which should only be used if the values returned
+     * by the field getter never change, for example when decoded from an immutable input.
+     *
+     * @see #createProjection(Supplier, FieldGetter)
+     * @param cacheValues Whether to cache the values read through the field getter.
+     * @return The instance.
+     */
+    public Object createProjection(Supplier<Object> keySupplier,
+                                   FieldGetter fieldGetter,
+                                   boolean cacheValues) {
+        GeneratedProjection prototype = this.prototype;
+        if (prototype == null && !generationFailed) {
+            prototype = generate();
+        }
+
+        if (prototype != null) {
+            return prototype.$new(keySupplier, fieldGetter, cacheValues);
+        }
+
+        return createProxy(keySupplier, fieldGetter);
+    }
+
     /**
      * Create a new proxy for this interface with the given parameters.
      *
@@ -0,0 +1,252 @@
+package slatepowered.inset.internal;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Encodes field values into sort keys, arrays of longs which compare in the same
+ * order as MongoDB would sort the values using unsigned comparison of each element.
+ *
+ * Each field is encoded as a type class (following the MongoDB type comparison order)
+ * followed by the type specific value slots. Integral numbers are kept exact, strings
+ * are encoded as their UTF-8 bytes (binary collation), UUIDs as binary data and dates as
+ * epoch milliseconds. Descending fields have all their slots inverted, so two keys can
+ * always be compared element by element without knowing the sort directions.
+ */
+public final class SortKeys {
+
+    private SortKeys() { throw new UnsupportedOperationException("Utility class"); }
+
+    /* Type classes, in the MongoDB comparison order */
+    static final long TYPE_NULL = 1;
+    static final long TYPE_NUMBER = 2;
+    static final long TYPE_STRING = 3;
+    static final long TYPE_OBJECT = 4;
+    static final long TYPE_ARRAY = 5;
+    static final long TYPE_BINARY = 6;
+    static final long TYPE_BOOLEAN = 8;
+    static final long TYPE_DATE = 9;
+
+    // The binary subtypes used for encoded binary data
+    static final long BINARY_SUBTYPE_GENERIC = 0;
+    static final long BINARY_SUBTYPE_UUID = 4;
+
+    // The slots reserved below all fractions of finite numbers
+    static final long FRACTION_NAN = 0;
+    static final long FRACTION_NEGATIVE_INFINITY = 1;
+    static final long FRACTION_OFFSET = 2;
+
+    // The amount of bytes packed into one string slot, the lowest byte is
+    // used as a marker for either the amount of bytes or a continuation
+    static final int STRING_CHUNK_BYTES = 7;
+    static final long STRING_CONTINUED = 0xFF;
+
+    /**
+     * Compare the two given sort keys.
+     *
+     * @param a The first key.
+     * @param b The second key.
+     * @return Negative if a precedes b, positive if b precedes a, 0 if equal.
+     */
+    public static int compare(long[] a, long[] b) {
+        final int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            long x = a[i];
+            long y = b[i];
+            if (x != y) {
+                return Long.compareUnsigned(x, y);
+            }
+        }
+
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * Builds sort keys by appending field values in order.
+     */
+    public static final class Encoder {
+        private long[] slots = new long[8];
+        private int size;
+        private boolean descending; // Whether the field currently being encoded is descending
+
+        private void put(long slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+
+            slots[size++] = descending ? ~slot : slot;
+        }
+
+        /**
+         * Append the given field value to the sort key.
+         *
+         * @param value The value, may be null.
+         * @param descending Whether the field is sorted in descending order.
+         * @return This.
+         */
+        public Encoder append(Object value, boolean descending) {
+            this.descending = descending;
+
+            if (value == null) {
+                put(TYPE_NULL);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                appendLong(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                appendDouble(((Number) value).doubleValue());
+            } else if (value instanceof CharSequence) {
+                appendString((CharSequence) value);
+            } else if (value instanceof Character) {
+                appendString(value.toString());
+            } else if (value instanceof Enum) {
+                appendString(((Enum<?>) value).name());
+            } else if (value instanceof UUID) {
+                put(TYPE_BINARY);
+                put(16);
+                put(BINARY_SUBTYPE_UUID);
+                put(((UUID) value).getMostSignificantBits());
+                put(((UUID) value).getLeastSignificantBits());
+            } else if (value instanceof byte[]) {
+                appendBinary((byte[]) value);
+            } else if (value instanceof Boolean) {
+                put(TYPE_BOOLEAN);
+                put((Boolean) value ? 1 : 0);
+            } else if (value instanceof Date) {
+                appendDate(((Date) value).getTime());
+            } else if (value instanceof Instant) {
+                appendDate(((Instant) value).toEpochMilli());
+            } else if (value instanceof OffsetDateTime) {
+                appendDate(((OffsetDateTime) value).toInstant().toEpochMilli());
+            } else if (value instanceof ZonedDateTime) {
+                appendDate(((ZonedDateTime) value).toInstant().toEpochMilli());
+            } else if (value instanceof Collection || value.getClass().isArray()) {
+                put(TYPE_ARRAY);
+            } else {
+                // maps and nested objects are only ordered by their type class
+                put(TYPE_OBJECT);
+            }
+
+            return this;
+        }
+
+        private void appendLong(long value) {
+            put(TYPE_NUMBER);
+            put(value ^ Long.MIN_VALUE);
+            put(FRACTION_OFFSET);
+        }
+
+        private void appendDouble(double value) {
+            put(TYPE_NUMBER);
+
+            if (Double.isNaN(value)) {
+                put(0);
+                put(FRACTION_NAN);
+                return;
+            }
+
+            double floor = Math.floor(value);
+            if (floor < -9.223372036854775807E18) {
+                put(0);
+                put(FRACTION_NEGATIVE_INFINITY);
+            } else if (floor >= 9.223372036854775807E18) {
+                put(-1L);
+                put(-1L);
+            } else {
+                // the fraction is always in the range [0, 1) and the
+                // bits of positive doubles are ordered like the values
+                put(((long) floor) ^ Long.MIN_VALUE);
+                put(Double.doubleToLongBits(value - floor) + FRACTION_OFFSET);
+            }
+        }
+
+        private void appendDate(long millis) {
+            put(TYPE_DATE);
+            put(millis ^ Long.MIN_VALUE);
+        }
+
+        private void appendBinary(byte[] bytes) {
+            put(TYPE_BINARY);
+            put(bytes.length);
+            put(BINARY_SUBTYPE_GENERIC);
+
+            long chunk = 0;
+            int count = 0;
+            for (byte b : bytes) {
+                chunk = (chunk << 8) | (b & 0xFF);
+                if (++count == 8) {
+                    put(chunk);
+                    chunk = 0;
+                    count = 0;
+                }
+            }
+
+            if (count != 0) {
+                put(chunk << ((8 - count) * 8));
+            }
+        }
+
+        // the encoded string is built from chunks of 7 UTF-8 bytes followed by a
+        // marker byte, which is either the amount of bytes in the final chunk or
+        // a continuation marker, this keeps the binary order without the
+        // encoding of one field bleeding into the next
+        private long chunk;
+        private int chunkBytes;
+
+        private void appendStringByte(int b) {
+            chunk = (chunk << 8) | (b & 0xFF);
+            if (++chunkBytes == STRING_CHUNK_BYTES) {
+                put((chunk << 8) | STRING_CONTINUED);
+                chunk = 0;
+                chunkBytes = 0;
+            }
+        }
+
+        private void appendString(CharSequence str) {
+            put(TYPE_STRING);
+            chunk = 0;
+            chunkBytes = 0;
+
+            final int len = str.length();
+            for (int i = 0; i < len; i++) {
+                int c = str.charAt(i);
+                if (Character.isHighSurrogate((char) c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    c = Character.toCodePoint((char) c, str.charAt(++i));
+                }
+
+                // encode the code point as UTF-8
+                if (c < 0x80) {
+                    appendStringByte(c);
+                } else if (c < 0x800) {
+                    appendStringByte(0xC0 | (c >> 6));
+                    appendStringByte(0x80 | (c & 0x3F));
+                } else if (c < 0x10000) {
+                    appendStringByte(0xE0 | (c >> 12));
+                    appendStringByte(0x80 | ((c >> 6) & 0x3F));
+                    appendStringByte(0x80 | (c & 0x3F));
+                } else {
+                    appendStringByte(0xF0 | (c >> 18));
+                    appendStringByte(0x80 | ((c >> 12) & 0x3F));
+                    appendStringByte(0x80 | ((c >> 6) & 0x3F));
+                    appendStringByte(0x80 | (c & 0x3F));
+                }
+            }
+
+            // write the final chunk, padded with zeroes
+            put((chunk << ((STRING_CHUNK_BYTES - chunkBytes) * 8 + 8)) | chunkBytes);
+        }
+
+        /**
+         * Get the encoded sort key.
+         *
+         * @return The sort key.
+         */
+        public long[] toArray() {
+            return Arrays.copyOf(slots, size);
+        }
+    }
+
+}
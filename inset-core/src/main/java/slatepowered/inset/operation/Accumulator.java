@@ -0,0 +1,64 @@
+package slatepowered.inset.operation;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Represents an accumulator in an {@link Aggregation}, which reduces
+ * the values of a field over all items in a group to one result.
+ */
+@RequiredArgsConstructor
+@Getter
+public class Accumulator {
+
+    /**
+     * The type of reduction performed by an accumulator.
+     */
+    public enum Type {
+
+        /**
+         * Count the items in the group, this has no field operand.
+         */
+        COUNT,
+
+        /**
+         * Sum the numeric values of the field, the result is a {@code Long}
+         * if all values are integral and a {@code Double} otherwise.
+         */
+        SUM,
+
+        /**
+         * Average the numeric values of the field.
+         */
+        AVG,
+
+        /**
+         * The smallest non-null value of the field, numbers
+         * are returned as a {@code Long} or {@code Double}.
+         */
+        MIN,
+
+        /**
+         * The largest non-null value of the field, numbers
+         * are returned as a {@code Long} or {@code Double}.
+         */
+        MAX
+
+    }
+
+    /**
+     * The name of the result in the {@link AggregateGroup}.
+     */
+    protected final String name;
+
+    /**
+     * The type of reduction to perform.
+     */
+    protected final Type type;
+
+    /**
+     * The runtime name of the field to reduce, null for {@link Type#COUNT}.
+     */
+    protected final String fieldName;
+
+}
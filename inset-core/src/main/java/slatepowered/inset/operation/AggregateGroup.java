@@ -0,0 +1,69 @@
+package slatepowered.inset.operation;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * One group of results of an {@link Aggregation}.
+ */
+@RequiredArgsConstructor
+@Getter
+public class AggregateGroup {
+
+    /**
+     * The name reserved for the group key by data sources.
+     */
+    public static final String GROUP_FIELD = "_id";
+
+    /**
+     * The values of the group fields for this group, by runtime field name.
+     */
+    protected final Map<String, Object> groupValues;
+
+    /**
+     * The results of the accumulators, by accumulator name.
+     */
+    protected final Map<String, Object> results;
+
+    /**
+     * Get the value of the given group field for this group.
+     *
+     * @param fieldName The runtime field name.
+     * @param <V> The value type.
+     * @return The value.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V getGroupValue(String fieldName) {
+        return (V) groupValues.get(fieldName);
+    }
+
+    /**
+     * Get the result of the accumulator with the given name.
+     *
+     * @param name The accumulator name.
+     * @param <V> The value type.
+     * @return The result or null if absent.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String name) {
+        return (V) results.get(name);
+    }
+
+    public long getLong(String name) {
+        Object value = results.get(name);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    public double getDouble(String name) {
+        Object value = results.get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregateGroup(" + groupValues + " -> " + results + ")";
+    }
+
+}
@@ -0,0 +1,71 @@
+package slatepowered.inset.operation;
+
+import lombok.Getter;
+import slatepowered.inset.datastore.Datastore;
+import slatepowered.inset.datastore.OperationStatus;
+import slatepowered.inset.query.Query;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Describes an aggregation over all items in a datastore matching a certain filter.
+ *
+ * @param <K> The key type.
+ * @param <T> The data value type.
+ */
+public class AggregateOperation<K, T> extends OperationStatus<K, T, AggregateOperation<K, T>> {
+
+    /**
+     * The aggregation performed.
+     */
+    @Getter
+    protected final Aggregation aggregation;
+
+    /**
+     * The resulting groups.
+     */
+    protected volatile List<AggregateGroup> groups;
+
+    public AggregateOperation(Datastore<K, T> datastore, Query query, Aggregation aggregation) {
+        super(datastore, query);
+        this.aggregation = aggregation;
+    }
+
+    @Override
+    protected String describeOperation() {
+        return "aggregating";
+    }
+
+    /**
+     * Get the resulting groups, this is null if not completed successfully.
+     *
+     * @return The groups.
+     */
+    public List<AggregateGroup> groups() {
+        return groups;
+    }
+
+    /**
+     * Get the single result group of an aggregation without
+     * group fields, this is empty if no items matched.
+     *
+     * @return The group if present.
+     */
+    public Optional<AggregateGroup> single() {
+        return groups == null || groups.isEmpty() ? Optional.empty() : Optional.of(groups.get(0));
+    }
+
+    public synchronized AggregateOperation<K, T> completeSuccessfully(List<AggregateGroup> groups) {
+        this.groups = groups;
+        completeInternal(this);
+        return this;
+    }
+
+    public synchronized AggregateOperation<K, T> completeFailed(Object error) {
+        this.error = error;
+        completeInternal(this);
+        return this;
+    }
+
+}
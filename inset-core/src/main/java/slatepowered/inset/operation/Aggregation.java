@@ -0,0 +1,89 @@
+package slatepowered.inset.operation;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Specifies an aggregation over the items matching a query, grouping the
+ * items by the values of a set of fields and reducing each group with
+ * a list of accumulators.
+ */
+@RequiredArgsConstructor
+@Getter
+public class Aggregation {
+
+    /**
+     * The runtime names of the fields to group by, when empty all
+     * items are reduced into one group.
+     */
+    protected final List<String> groupFieldNames;
+
+    /**
+     * The accumulators to compute for each group.
+     */
+    protected final List<Accumulator> accumulators;
+
+    /**
+     * Create a builder for an aggregation.
+     *
+     * @return The builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds an {@link Aggregation}.
+     */
+    public static class Builder {
+        protected List<String> groupFieldNames = new ArrayList<>();
+        protected List<Accumulator> accumulators = new ArrayList<>();
+
+        public Builder groupBy(String... fields) {
+            groupFieldNames.addAll(Arrays.asList(fields));
+            return this;
+        }
+
+        public Builder accumulate(String name, Accumulator.Type type, String field) {
+            if (name.equals(AggregateGroup.GROUP_FIELD) || name.indexOf('.') != -1 || name.startsWith("$")) {
+                throw new IllegalArgumentException("Invalid accumulator name `" + name + "`");
+            }
+
+            accumulators.add(new Accumulator(name, type, field));
+            return this;
+        }
+
+        public Builder count(String name) {
+            return accumulate(name, Accumulator.Type.COUNT, null);
+        }
+
+        public Builder sum(String name, String field) {
+            return accumulate(name, Accumulator.Type.SUM, field);
+        }
+
+        public Builder avg(String name, String field) {
+            return accumulate(name, Accumulator.Type.AVG, field);
+        }
+
+        public Builder min(String name, String field) {
+            return accumulate(name, Accumulator.Type.MIN, field);
+        }
+
+        public Builder max(String name, String field) {
+            return accumulate(name, Accumulator.Type.MAX, field);
+        }
+
+        public Aggregation build() {
+            if (accumulators.isEmpty() && groupFieldNames.isEmpty()) {
+                throw new IllegalStateException("An aggregation needs at least one group field or accumulator");
+            }
+
+            return new Aggregation(groupFieldNames, accumulators);
+        }
+    }
+
+}
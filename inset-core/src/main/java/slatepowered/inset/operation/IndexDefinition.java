@@ -0,0 +1,107 @@
+package slatepowered.inset.operation;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declares an index on one or more fields of a data type, which data
+ * tables supporting indexes should create.
+ */
+@RequiredArgsConstructor
+@Getter
+public class IndexDefinition {
+
+    /**
+     * The name of the index or null to let the data source name it.
+     */
+    protected final String name;
+
+    /**
+     * The runtime names of the indexed fields in order.
+     */
+    protected final List<String> fieldNames;
+
+    /**
+     * The ordering of each indexed field.
+     */
+    protected final List<FieldOrdering> fieldOrderings;
+
+    /**
+     * Whether the indexed values have to be unique.
+     */
+    protected final boolean unique;
+
+    /**
+     * The amount of seconds after the date in the indexed field at which
+     * items expire, or a negative value for no expiry.
+     */
+    protected final long expireAfterSeconds;
+
+    /**
+     * Get the amount of indexed fields.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return fieldNames.size();
+    }
+
+    /**
+     * Creates a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds an {@link IndexDefinition}.
+     */
+    public static class Builder {
+        protected String name;
+        protected List<String> fieldNames = new ArrayList<>();
+        protected List<FieldOrdering> fieldOrderings = new ArrayList<>();
+        protected boolean unique;
+        protected long expireAfterSeconds = -1;
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder order(String field, FieldOrdering ordering) {
+            fieldNames.add(field);
+            fieldOrderings.add(ordering);
+            return this;
+        }
+
+        public Builder ascend(String field) {
+            return order(field, FieldOrdering.ASCENDING);
+        }
+
+        public Builder descend(String field) {
+            return order(field, FieldOrdering.DESCENDING);
+        }
+
+        public Builder unique(boolean unique) {
+            this.unique = unique;
+            return this;
+        }
+
+        public Builder expireAfterSeconds(long expireAfterSeconds) {
+            this.expireAfterSeconds = expireAfterSeconds;
+            return this;
+        }
+
+        public IndexDefinition build() {
+            if (fieldNames.isEmpty())
+                throw new IllegalArgumentException("An index requires at least one field");
+            if (expireAfterSeconds >= 0 && fieldNames.size() > 1)
+                throw new IllegalArgumentException("Only single field indexes can expire");
+            return new IndexDefinition(name, fieldNames, fieldOrderings, unique, expireAfterSeconds);
+        }
+    }
+
+}
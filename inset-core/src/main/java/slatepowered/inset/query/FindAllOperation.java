@@ -9,11 +9,15 @@ import slatepowered.inset.datastore.PartialItem;
 import slatepowered.inset.internal.CachedStreams;
 import slatepowered.inset.internal.ProjectionType;
 import slatepowered.inset.internal.ProjectionTypes;
+import slatepowered.inset.operation.FieldOrderSorting;
 import slatepowered.inset.operation.Projection;
 import slatepowered.inset.operation.Sorting;
 import slatepowered.inset.source.DataSourceBulkIterable;
 import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.KeySet;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
@@ -47,11 +51,6 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      */
     protected DataSourceBulkIterable iterable;
 
-    /**
-     * Whether the source iterable had any items.
-     */
-    protected boolean sourceHadAny;
-
     /**
      * The stream of cached items, this will be null if
      * no cached items are used in this query.
@@ -59,9 +58,21 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
     protected Stream<? extends DataItem<K, T>> cachedStream;
 
     /**
-     * THe stream of items as a result of the data source iterable.
+     * The sorting applied to this operation, used to merge the
+     * cached items with the source items in order.
      */
-    protected Stream<? extends PartialItem<K, T>> iterableStream;
+    protected Sorting sorting;
+
+    /**
+     * The page token the results should start after, this will be
+     * null if no keyset pagination is applied.
+     */
+    protected PageToken pageToken;
+
+    // The limit and total skipped amount applied to the stream, used
+    // to bound the amount of cached items which have to be sorted
+    protected int limit = -1;
+    protected int skipped;
 
     /**
      * The stream of items.
@@ -124,8 +135,12 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      * @return This.
      */
     public FindAllOperation<K, T> limit(int size) {
+        this.limit = limit < 0 ? size : Math.min(limit, size);
         updateStream(stream.limit(size));
-        iterable = iterable.limit(size);
+
+        // with cached items the skip is applied to the merged stream, so
+        // the source has to provide the skipped items on top of the limit
+        iterable = iterable.limit(cachedStream != null ? skipped + size : size);
         return this;
     }
 
@@ -175,16 +190,82 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      */
     public FindAllOperation<K, T> sort(Sorting sorting) {
         iterable = iterable.sort(sorting);
-        if (cachedStream != null) {
-            updateStream(CachedStreams.sortPartialStream(
-                    datastore, stream,
-                    sorting,
-                    cachedStream, iterableStream));
+        this.sorting = sorting; // applied lazily when merging with the cached items
+        return this;
+    }
+
+    /**
+     * Only return the items positioned after the item the given page token was
+     * created for, see {@link #pageToken(PartialItem)}.
+     *
+     * This appends the primary key in ascending order to the current sorting
+     * (if not already present, otherwise its direction is kept) so the order is
+     * always unique, and is pushed down to the data source as a range filter so
+     * previous pages never have to be scanned. Pass null to retrieve the first
+     * page with the same order.
+     *
+     * Usage: {@code findAll(query).sort(sorting).after(token).limit(pageSize)}
+     *
+     * @param token The page token or null for the first page.
+     * @return This.
+     * @throws IllegalArgumentException If the token does not match the sorting.
+     */
+    public FindAllOperation<K, T> after(PageToken token) {
+        FieldOrderSorting keyedSorting = withKeyOrder(sorting);
+        if (token != null && token.getValues().length != keyedSorting.size() - 1) {
+            throw new IllegalArgumentException("Page token with " + token.getValues().length + " values does not match sorting on " + keyedSorting.getFieldNames());
         }
 
+        iterable = iterable.after(keyedSorting, token);
+        this.sorting = keyedSorting;
+        this.pageToken = token;
         return this;
     }
 
+    /**
+     * Create the page token for the given item in the sorting of this
+     * operation, to be passed to {@link #after(PageToken)} to retrieve
+     * the items following it.
+     *
+     * @param item The item, usually the last item of a page.
+     * @return The page token.
+     */
+    public PageToken pageToken(PartialItem<K, T> item) {
+        List<String> fieldNames = withKeyOrder(sorting).getFieldNames();
+        Object[] values = new Object[fieldNames.size() - 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = item.readOrderValue(fieldNames.get(i));
+        }
+
+        return PageToken.of(values, item.getKey(), datastore.getDataManager().getTypeRegistry());
+    }
+
+    // get the given sorting with the primary key appended in ascending
+    // order to break ties between items, if not already present
+    private FieldOrderSorting withKeyOrder(Sorting sorting) {
+        final String keyField = datastore.getDataCodec().getPrimaryKeyFieldName();
+        if (sorting == null) {
+            return Sorting.builder().ascend(keyField).build();
+        }
+
+        if (!(sorting instanceof FieldOrderSorting)) {
+            throw new UnsupportedOperationException("Unsupported sorting type for pagination: " + sorting.getClass().getName());
+        }
+
+        FieldOrderSorting fieldOrderSorting = (FieldOrderSorting) sorting;
+        List<String> fieldNames = fieldOrderSorting.getFieldNames();
+        if (!fieldNames.isEmpty() && fieldNames.get(fieldNames.size() - 1).equals(keyField)) {
+            return fieldOrderSorting;
+        }
+
+        FieldOrderSorting.Builder builder = Sorting.builder();
+        for (int i = 0; i < fieldNames.size(); i++) {
+            builder.order(fieldNames.get(i), fieldOrderSorting.getFieldOrderings().get(i));
+        }
+
+        return builder.ascend(keyField).build();
+    }
+
     /**
      * Skip the given amount of items found by this operation.
      *
@@ -192,7 +273,10 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      * @return This.
      */
     public FindAllOperation<K, T> skip(int amount) {
-        if (cachedStream != null) stream = stream.skip(amount);
+        if (cachedStream != null) {
+            stream = stream.skip(amount);
+            skipped += amount;
+        }
         else iterable = iterable.skip(amount);
         return this;
     }
@@ -206,7 +290,18 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      * @return Whether there is another item.
      */
     public boolean hasNext() {
-        return iterable.hasNext() || cachedStream != null ? streamIterator().hasNext() : iterable.hasNext();
+        return cachedStream != null ? streamHasNext() : iterable.hasNext();
+    }
+
+    // check whether the stream iterator has another item,
+    // closing the stream once it is exhausted
+    private boolean streamHasNext() {
+        if (streamIterator().hasNext()) {
+            return true;
+        }
+
+        stream.close();
+        return false;
     }
 
     // asynchronously execute the given function
@@ -232,7 +327,7 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      */
     public Optional<? extends PartialItem<K, T>> next() {
         return cachedStream != null ?
-                streamIterator().hasNext() ? Optional.of(streamIterator().next()) : Optional.empty() :
+                streamHasNext() ? Optional.of(streamIterator().next()) : Optional.empty() :
                 iterable.next().map(this::qualify);
     }
 
@@ -261,9 +356,13 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
      * @return The item.
      */
     public Optional<? extends PartialItem<K, T>> first() {
-        return cachedStream != null ?
-                stream.findFirst() :
-                iterable.first().map(this::qualify);
+        if (cachedStream != null) {
+            try (Stream<? extends PartialItem<K, T>> stream = this.stream) {
+                return stream.findFirst();
+            }
+        }
+
+        return iterable.first().map(this::qualify);
     }
 
     /**
@@ -292,7 +391,9 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
     @SuppressWarnings("unchecked")
     public List<? extends PartialItem<K, T>> list() {
         if (cachedStream != null) {
-            return stream.collect(Collectors.toList());
+            try (Stream<? extends PartialItem<K, T>> stream = this.stream) {
+                return stream.collect(Collectors.toList());
+            }
         }
 
         List<SourcedItem<K, T>> list = (List<SourcedItem<K,T>>) (Object) iterable.list();
@@ -316,6 +417,32 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
         return async(this::list);
     }
 
+    /**
+     * Get all items resolved by this query as complete data items.
+     *
+     * Partial items are loaded in batches of keys instead of one query per
+     * item like {@link PartialItem#find()}, see {@link Datastore#resolveAll(java.util.Collection)}.
+     *
+     * This is a terminal operation, meaning after this this iterable is closed.
+     *
+     * @return The list of data items.
+     */
+    public List<DataItem<K, T>> resolveAll() {
+        return datastore.resolveAll(list());
+    }
+
+    /**
+     * Asynchronously get all items resolved by this query as complete data items.
+     *
+     * This is a terminal operation, meaning after this this iterable is closed.
+     *
+     * @see #resolveAll()
+     * @return The future of the list of data items.
+     */
+    public CompletableFuture<List<DataItem<K, T>>> resolveAllAsync() {
+        return async(this::resolveAll);
+    }
+
     /**
      * Stream the process of getting, fetching and qualifying all items
      * resolved by this query.
@@ -363,10 +490,42 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
         if (this.cachedStream != null)
             throw new IllegalStateException("Already has an attached cached stream");
         this.cachedStream = stream;
-        updateStream(CachedStreams.zipStreamsDistinct(cachedStream, this.stream));
+        updateStream(CachedStreams.lazy(this::mergeCachedStream));
         return this;
     }
 
+    // merge the cached items with the items from the source iterable,
+    // this is called when the terminal operation is performed on the stream
+    // so any sorting applied before is respected
+    private Stream<? extends PartialItem<K, T>> mergeCachedStream() {
+        Comparator<PartialItem<K, T>> comparator = sorting != null ? CachedStreams.createFastComparator(datastore, sorting) : null;
+
+        // all matching cached items are excluded from the source results, including
+        // the ones outside of this page, so their stored copies are never returned
+        // in place of the cached copies and duplicates are not decoded at all
+        DataItem<K, T>[] matchingItems = CachedStreams.collectCached(this.cachedStream, null);
+        KeySet cachedKeys = CachedStreams.collectKeys(matchingItems);
+
+        // only the items after the page token can be in this page, and
+        // at most the limited amount of them are needed to fill it
+        Stream<DataItem<K, T>> cachedStream = Arrays.stream(matchingItems);
+        if (pageToken != null) {
+            cachedStream = cachedStream.filter(CachedStreams.createAfterFilter(sorting, pageToken));
+        }
+
+        DataItem<K, T>[] cachedItems = CachedStreams.collectCached(cachedStream, comparator, limit >= 0 ? limit + skipped : -1);
+
+        Stream<SourcedItem<K, T>> sourceStream = null;
+        if (iterable != null) {
+            sourceStream = iterable
+                    .excludeKeys(cachedKeys)
+                    .stream()
+                    .map(this::qualify);
+        }
+
+        return CachedStreams.mergeDistinct(cachedItems, sourceStream, comparator);
+    }
+
     /**
      * Complete this query with the given parameters.
      */
@@ -374,13 +533,10 @@ public class FindAllOperation<K, T> extends OperationStatus<K, T, FindAllOperati
         this.iterable = iterable;
         this.error = error;
 
-        if (iterable != null) {
-            this.sourceHadAny = iterable.hasNext();
-
-            // update stream with iterable items
-            Stream<PartialItem<K, T>> iterableStream = iterable.stream().map(this::qualify);
-            this.iterableStream = iterableStream;
-            updateStream(CachedStreams.zipStreamsDistinct(this.stream, iterableStream));
+        // update stream with iterable items, if cached items are used
+        // the merged stream will pick up the iterable once evaluated
+        if (iterable != null && cachedStream == null) {
+            updateStream(CachedStreams.lazy(() -> this.iterable.stream().map(this::qualify)));
         }
 
         completeInternal(this);
@@ -0,0 +1,241 @@
+package slatepowered.inset.query;
+
+import lombok.Getter;
+import slatepowered.inset.codec.support.ClassTreeInfo;
+import slatepowered.inset.codec.support.TypeRegistry;
+import slatepowered.inset.internal.SortKeys;
+
+import java.io.*;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A token representing the position of an item in a sorted result set, used
+ * for keyset pagination through {@link FindAllOperation#after(PageToken)}.
+ *
+ * The token holds the values of the sorted fields of the last item on a page
+ * followed by its primary key, which is used to break ties so the position is
+ * always unique. It can be encoded as a URL-safe string to be passed to clients.
+ */
+@Getter
+public final class PageToken {
+
+    private static final int VERSION = 1;
+
+    /* Value type tags */
+    private static final int TAG_NULL = 0;
+    private static final int TAG_LONG = 1;
+    private static final int TAG_DOUBLE = 2;
+    private static final int TAG_STRING = 3;
+    private static final int TAG_UUID = 4;
+    private static final int TAG_BOOLEAN = 5;
+    private static final int TAG_DATE = 6;
+
+    /**
+     * The values of the sorted fields, in the order of the sorting.
+     */
+    private final Object[] values;
+
+    /**
+     * The primary key of the item.
+     */
+    private final Object key;
+
+    private PageToken(Object[] values, Object key) {
+        this.values = values;
+        this.key = key;
+    }
+
+    /**
+     * Create a page token for the given sort values and primary key.
+     *
+     * @param values The values of the sorted fields.
+     * @param key The primary key.
+     * @return The token.
+     * @throws IllegalArgumentException If a value can not be represented in a token.
+     */
+    public static PageToken of(Object[] values, Object key) {
+        return of(values, key, null);
+    }
+
+    /**
+     * Create a page token for the given sort values and primary key, encoding
+     * enum values like the codecs do, with the class name from the given type
+     * registry when the enum class requires it.
+     *
+     * @param values The values of the sorted fields.
+     * @param key The primary key.
+     * @param typeRegistry The type registry or null to only encode enum names.
+     * @return The token.
+     * @throws IllegalArgumentException If a value can not be represented in a token.
+     */
+    public static PageToken of(Object[] values, Object key, TypeRegistry typeRegistry) {
+        Object[] normalized = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            normalized[i] = normalize(values[i], typeRegistry);
+        }
+
+        return new PageToken(normalized, normalize(Objects.requireNonNull(key, "Page token key can not be null"), typeRegistry));
+    }
+
+    // normalize the given value to one of the
+    // types which can be encoded in a token
+    private static Object normalize(Object value, TypeRegistry typeRegistry) {
+        if (value == null || value instanceof Long || value instanceof Double || value instanceof String ||
+                value instanceof UUID || value instanceof Boolean || value instanceof Date) {
+            return value;
+        }
+
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) return ((Number) value).longValue();
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        if (value instanceof Enum) return normalizeEnum((Enum<?>) value, typeRegistry);
+        if (value instanceof Instant) return Date.from((Instant) value);
+        if (value instanceof OffsetDateTime) return Date.from(((OffsetDateTime) value).toInstant());
+        if (value instanceof ZonedDateTime) return Date.from(((ZonedDateTime) value).toInstant());
+
+        throw new IllegalArgumentException("Unsupported page token value type: " + value.getClass().getName());
+    }
+
+    // encode the given enum value as class:name or
+    // name, the same way the document codecs do
+    private static String normalizeEnum(Enum<?> value, TypeRegistry typeRegistry) {
+        Class<?> klass = value.getClass();
+        if (typeRegistry != null && ClassTreeInfo.forClass(klass).shouldWriteSeparateClassName()) {
+            Class<?> enumDeclClass = klass.isEnum() ? klass : klass.getSuperclass();
+            return typeRegistry.encodeClass(enumDeclClass) + ":" + value.name();
+        }
+
+        return value.name();
+    }
+
+    /**
+     * Decode a page token from the given string, created by {@link #encode()}.
+     *
+     * @param str The encoded token.
+     * @return The token.
+     * @throws IllegalArgumentException If the string is not a valid token.
+     */
+    public static PageToken decode(String str) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(str)));
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported page token version " + version);
+            }
+
+            Object[] values = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(in);
+            }
+
+            return new PageToken(values, readValue(in));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token `" + str + "`", e);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case TAG_NULL: return null;
+            case TAG_LONG: return in.readLong();
+            case TAG_DOUBLE: return in.readDouble();
+            case TAG_STRING: return in.readUTF();
+            case TAG_UUID: return new UUID(in.readLong(), in.readLong());
+            case TAG_BOOLEAN: return in.readBoolean();
+            case TAG_DATE: return new Date(in.readLong());
+        }
+
+        throw new IOException("Unknown value tag " + tag);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof UUID) {
+            out.writeByte(TAG_UUID);
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Date) {
+            out.writeByte(TAG_DATE);
+            out.writeLong(((Date) value).getTime());
+        }
+    }
+
+    /**
+     * Encode this token as a URL-safe string.
+     *
+     * @return The encoded token.
+     */
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeByte(values.length);
+            for (Object value : values) {
+                writeValue(out, value);
+            }
+
+            writeValue(out, key);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            // can not happen when writing to a byte array
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create the sort key for the position this token represents, the primary
+     * key is appended in the direction given after the sorted fields.
+     *
+     * @param descending Whether each sorted field is descending, followed by the key.
+     * @return The sort key.
+     */
+    public long[] toSortKey(boolean[] descending) {
+        SortKeys.Encoder encoder = new SortKeys.Encoder();
+        for (int i = 0; i < values.length; i++) {
+            encoder.append(values[i], descending[i]);
+        }
+
+        return encoder.append(key, descending.length > values.length && descending[values.length]).toArray();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PageToken)) return false;
+        PageToken that = (PageToken) o;
+        return Arrays.equals(values, that.values) && Objects.equals(key, that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(values) + Objects.hashCode(key);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+}
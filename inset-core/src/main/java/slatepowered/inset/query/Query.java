@@ -192,11 +192,27 @@ public interface Query {
             // The datastore this query was qualified for
             Datastore<?, ?> datastore;
 
+            // get the equality constraint on the primary key field if present,
+            // other constraints on the key field do not identify a single item
+            private CommonFieldConstraint<?> keyConstraint() {
+                String field = getKeyField();
+                if (field == null) {
+                    return null;
+                }
+
+                FieldConstraint<?> constraint = fieldConstraintMap.get(field);
+                if (constraint instanceof CommonFieldConstraint &&
+                        ((CommonFieldConstraint<?>) constraint).getType() == CommonConstraintType.EQUAL) {
+                    return (CommonFieldConstraint<?>) constraint;
+                }
+
+                return null;
+            }
+
             @Override
             public boolean hasKey() {
                 if (hasKey == null) {
-                    String field = getKeyField();
-                    hasKey = field != null && fieldConstraintMap.containsKey(field);
+                    hasKey = keyConstraint() != null;
                 }
 
                 return hasKey;
@@ -205,20 +221,13 @@ public interface Query {
             @Override
             public Object getKey() {
                 if (key == null) {
-                    String field = getKeyField();
-                    if (field == null) {
-                        return null;
-                    }
-
                     // find key from field constraints
-                    FieldConstraint<?> constraint = fieldConstraintMap.get(field);
+                    CommonFieldConstraint<?> constraint = keyConstraint();
                     if (constraint == null) {
                         return null;
                     }
 
-                    if (constraint instanceof CommonFieldConstraint) {
-                        return key = ((CommonFieldConstraint<?>)constraint).getOperand();
-                    }
+                    key = constraint.getOperand();
                 }
 
                 return key;
@@ -0,0 +1,417 @@
+package slatepowered.inset.reflective;
+
+import lombok.Builder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import slatepowered.inset.codec.CodecFactory;
+import slatepowered.inset.codec.CodecRegistry;
+import slatepowered.inset.codec.ValueCodec;
+import slatepowered.inset.util.NotNullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Constructor;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Creates value and data codecs with a class generated at runtime for each data type.
+ *
+ * The generated codecs extend the reflective codecs, but replace the loops over
+ * the field descriptors in {@code encode} and {@code decode} with straight-line
+ * code, reading and writing each field through Unsafe with the field offset as
+ * a constant, so no dispatch on the primitive type happens and the JIT can inline
+ * all field accesses. Primitive fields are passed through the primitive overloads
+ * of the input and output without boxing. If a codec can not be generated the reflective codec is used.
+ */
+@Builder
+public final class GeneratedCodecFactory implements CodecFactory {
+
+    static final String GENERATED_PACKAGE = "slatepowered/inset/generated/";
+    static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    /* Internal names and descriptors */
+    static final String UNSAFE = "sun/misc/Unsafe";
+    static final String UNSAFE_DESC = "Lsun/misc/Unsafe;";
+    static final String FIELD_DESC = "slatepowered/inset/reflective/UnsafeFieldDesc";
+    static final String VALUE_CODEC = "slatepowered/inset/reflective/UnsafeReflectiveValueCodec";
+    static final String DATA_CODEC = "slatepowered/inset/reflective/UnsafeReflectiveDataCodec";
+    static final String ENCODE_OUTPUT = "slatepowered/inset/codec/EncodeOutput";
+    static final String DECODE_INPUT = "slatepowered/inset/codec/DecodeInput";
+    static final String CODEC_CONTEXT = "slatepowered/inset/codec/CodecContext";
+    static final String EXPECTED_TYPE = "slatepowered/inset/codec/ExpectedType";
+
+    /**
+     * Loads the generated codec classes, the parent is the loader of this
+     * library so only the library and platform classes can be referenced.
+     */
+    static final class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private final GeneratedClassLoader classLoader = new GeneratedClassLoader(GeneratedCodecFactory.class.getClassLoader());
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> ValueCodec<T> create(CodecRegistry registry, Class<T> klass) {
+        UnsafeReflectiveValueCodec<T> reflective = ReflectiveCodecFactory.createReflective(klass);
+
+        try {
+            if (reflective instanceof UnsafeReflectiveDataCodec) {
+                UnsafeReflectiveDataCodec<?, T> dataCodec = (UnsafeReflectiveDataCodec<?, T>) reflective;
+                Class<?> generated = generate(klass, DATA_CODEC, dataCodec.fields, dataCodec.primaryKeyField);
+                Constructor<?> constructor = generated.getConstructor(Class.class, UnsafeFieldDesc[].class, MethodHandle.class, UnsafeFieldDesc.class);
+                return (ValueCodec<T>) constructor.newInstance(klass, dataCodec.allFields, dataCodec.constructor, dataCodec.primaryKeyField);
+            } else {
+                Class<?> generated = generate(klass, VALUE_CODEC, reflective.fields, null);
+                Constructor<?> constructor = generated.getConstructor(Class.class, UnsafeFieldDesc[].class, MethodHandle.class);
+                return (ValueCodec<T>) constructor.newInstance(klass, reflective.fields, reflective.constructor);
+            }
+        } catch (LinkageError | ReflectiveOperationException e) {
+            // fall back to the reflective codec, the class can fail to link
+            // for example if the data class is not accessible from it
+            System.err.println("Failed to generate codec for " + klass.getName() + ", using the reflective codec instead");
+            e.printStackTrace();
+            return reflective;
+        }
+    }
+
+    // generate the codec class for the given fields, the field
+    // order must be equal to the order in the constructed codec
+    private Class<?> generate(Class<?> klass, String superName, UnsafeFieldDesc[] fields, UnsafeFieldDesc primaryKeyField) {
+        final String className = GENERATED_PACKAGE + klass.getSimpleName() + "$Codec" + CLASS_COUNTER.incrementAndGet();
+        final boolean isData = primaryKeyField != null;
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // all merged locals are typed as objects
+                return "java/lang/Object";
+            }
+        };
+
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, superName, null);
+        cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "UNSAFE", UNSAFE_DESC, null, null).visitEnd();
+
+        // static initializer, obtain the Unsafe instance
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, "slatepowered/veru/reflect/UnsafeUtil", "getUnsafe", "()" + UNSAFE_DESC, false);
+        mv.visitFieldInsn(PUTSTATIC, className, "UNSAFE", UNSAFE_DESC);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // constructor, passing the arguments to the reflective codec
+        String constructorDesc = "(Ljava/lang/Class;[L" + FIELD_DESC + ";Ljava/lang/invoke/MethodHandle;" + (isData ? "L" + FIELD_DESC + ";" : "") + ")V";
+        mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitVarInsn(ALOAD, 3);
+        if (isData) mv.visitVarInsn(ALOAD, 4);
+        mv.visitMethodInsn(INVOKESPECIAL, superName, "<init>", constructorDesc, false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // encode(CodecContext context, Object value, EncodeOutput output)
+        mv = cw.visitMethod(ACC_PUBLIC, "encode", "(L" + CODEC_CONTEXT + ";Ljava/lang/Object;L" + ENCODE_OUTPUT + ";)V", null, null);
+        mv.visitCode();
+        for (int i = 0; i < fields.length; i++) {
+            UnsafeFieldDesc desc = fields[i];
+            String io = primitiveOutputName(desc.primitiveType);
+            mv.visitVarInsn(ALOAD, 3);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitLdcInsn(desc.serializedName);
+            visitGetField(mv, className, desc, 2);
+            if (io != null) {
+                // write through the primitive overload without boxing
+                mv.visitMethodInsn(INVOKEVIRTUAL, ENCODE_OUTPUT, "set" + io, "(L" + CODEC_CONTEXT + ";Ljava/lang/String;" + primitiveDesc(desc.primitiveType) + ")V", false);
+                continue;
+            }
+
+            visitBox(mv, desc.primitiveType);
+            visitFieldType(mv, i);
+            mv.visitMethodInsn(INVOKEVIRTUAL, ENCODE_OUTPUT, "set", "(L" + CODEC_CONTEXT + ";Ljava/lang/String;Ljava/lang/Object;Ljava/lang/reflect/Type;)V", false);
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // decode(CodecContext context, Object instance, DecodeInput input)
+        mv = cw.visitMethod(ACC_PUBLIC, "decode", "(L" + CODEC_CONTEXT + ";Ljava/lang/Object;L" + DECODE_INPUT + ";)V", null, null);
+        mv.visitCode();
+        for (int i = 0; i < fields.length; i++) {
+            UnsafeFieldDesc desc = fields[i];
+            if (primitiveIOName(desc.primitiveType) != null) {
+                visitReadPrimitive(mv, className, desc, (desc.etcFlags & NotNullable.FLAG) != 0);
+                continue;
+            }
+
+            mv.visitVarInsn(ALOAD, 3);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitLdcInsn(desc.serializedName);
+            visitFieldExpectedType(mv, i);
+            mv.visitMethodInsn(INVOKEVIRTUAL, DECODE_INPUT, "read", "(L" + CODEC_CONTEXT + ";Ljava/lang/String;L" + EXPECTED_TYPE + ";)Ljava/lang/Object;", false);
+            mv.visitVarInsn(ASTORE, 4);
+            visitSetField(mv, className, desc, (desc.etcFlags & NotNullable.FLAG) != 0);
+        }
+
+        if (isData) {
+            // decode primary key, this is always set
+            mv.visitVarInsn(ALOAD, 3);
+            mv.visitLdcInsn(primaryKeyField.serializedName);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, DATA_CODEC, "primaryKeyField", "L" + FIELD_DESC + ";");
+            mv.visitMethodInsn(INVOKEVIRTUAL, FIELD_DESC, "getType", "()Ljava/lang/reflect/Type;", false);
+            mv.visitMethodInsn(INVOKEVIRTUAL, DECODE_INPUT, "getOrReadKey", "(Ljava/lang/String;Ljava/lang/reflect/Type;)Ljava/lang/Object;", false);
+            mv.visitVarInsn(ASTORE, 4);
+            visitSetField(mv, className, primaryKeyField, false);
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return classLoader.define(className.replace('/', '.'), cw.toByteArray());
+    }
+
+    // push the generic type of the field at the given index in the field array
+    private static void visitFieldType(MethodVisitor mv, int index) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, VALUE_CODEC, "fields", "[L" + FIELD_DESC + ";");
+        mv.visitLdcInsn(index);
+        mv.visitInsn(AALOAD);
+        mv.visitMethodInsn(INVOKEVIRTUAL, FIELD_DESC, "getType", "()Ljava/lang/reflect/Type;", false);
+    }
+
+    // push the expected type of the field at the given index in the field array
+    private static void visitFieldExpectedType(MethodVisitor mv, int index) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, VALUE_CODEC, "fields", "[L" + FIELD_DESC + ";");
+        mv.visitLdcInsn(index);
+        mv.visitInsn(AALOAD);
+        mv.visitMethodInsn(INVOKEVIRTUAL, FIELD_DESC, "getExpectedType", "()L" + EXPECTED_TYPE + ";", false);
+    }
+
+    // get the descriptor of the primitive type
+    private static String primitiveDesc(byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_REFERENCE: return "Ljava/lang/Object;";
+            case UnsafeFieldDesc.PT_LONG: return "J";
+            case UnsafeFieldDesc.PT_INT: return "I";
+            case UnsafeFieldDesc.PT_DOUBLE: return "D";
+            case UnsafeFieldDesc.PT_FLOAT: return "F";
+            case UnsafeFieldDesc.PT_SHORT: return "S";
+            case UnsafeFieldDesc.PT_BYTE: return "B";
+            case UnsafeFieldDesc.PT_BOOLEAN: return "Z";
+            case UnsafeFieldDesc.PT_CHAR: return "C";
+        }
+
+        throw new IllegalArgumentException("Unknown primitive type " + primitiveType);
+    }
+
+    // get the name of the Unsafe accessor suffix for the primitive type
+    private static String accessorName(byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_REFERENCE: return "Object";
+            case UnsafeFieldDesc.PT_LONG: return "Long";
+            case UnsafeFieldDesc.PT_INT: return "Int";
+            case UnsafeFieldDesc.PT_DOUBLE: return "Double";
+            case UnsafeFieldDesc.PT_FLOAT: return "Float";
+            case UnsafeFieldDesc.PT_SHORT: return "Short";
+            case UnsafeFieldDesc.PT_BYTE: return "Byte";
+            case UnsafeFieldDesc.PT_BOOLEAN: return "Boolean";
+            case UnsafeFieldDesc.PT_CHAR: return "Char";
+        }
+
+        throw new IllegalArgumentException("Unknown primitive type " + primitiveType);
+    }
+
+    // get the name of the primitive overload on the input/output for the
+    // primitive type, or null if the value has to be passed as an object
+    private static String primitiveIOName(byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_LONG: return "Long";
+            case UnsafeFieldDesc.PT_INT:
+            case UnsafeFieldDesc.PT_SHORT:
+            case UnsafeFieldDesc.PT_BYTE: return "Int";
+            case UnsafeFieldDesc.PT_DOUBLE: return "Double";
+            case UnsafeFieldDesc.PT_FLOAT: return "Float";
+            case UnsafeFieldDesc.PT_BOOLEAN: return "Boolean";
+        }
+
+        return null;
+    }
+
+    // get the name of the primitive overload on the output for the primitive type,
+    // shorts and bytes have their own overloads to keep their stored type
+    private static String primitiveOutputName(byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_SHORT: return "Short";
+            case UnsafeFieldDesc.PT_BYTE: return "Byte";
+        }
+
+        return primitiveIOName(primitiveType);
+    }
+
+    // get the descriptor of the value of the primitive overload for the primitive type
+    private static String primitiveIODesc(byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_SHORT:
+            case UnsafeFieldDesc.PT_BYTE: return "I";
+        }
+
+        return primitiveDesc(primitiveType);
+    }
+
+    // get the internal name of the box class for the primitive type
+    private static String boxName(byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_LONG: return "java/lang/Long";
+            case UnsafeFieldDesc.PT_INT: return "java/lang/Integer";
+            case UnsafeFieldDesc.PT_DOUBLE: return "java/lang/Double";
+            case UnsafeFieldDesc.PT_FLOAT: return "java/lang/Float";
+            case UnsafeFieldDesc.PT_SHORT: return "java/lang/Short";
+            case UnsafeFieldDesc.PT_BYTE: return "java/lang/Byte";
+            case UnsafeFieldDesc.PT_BOOLEAN: return "java/lang/Boolean";
+            case UnsafeFieldDesc.PT_CHAR: return "java/lang/Character";
+        }
+
+        throw new IllegalArgumentException("Not a primitive type " + primitiveType);
+    }
+
+    // push the value of the field on the object in the given local
+    private static void visitGetField(MethodVisitor mv, String className, UnsafeFieldDesc desc, int objectLocal) {
+        mv.visitFieldInsn(GETSTATIC, className, "UNSAFE", UNSAFE_DESC);
+        mv.visitVarInsn(ALOAD, objectLocal);
+        mv.visitLdcInsn(desc.offset);
+        mv.visitMethodInsn(INVOKEVIRTUAL, UNSAFE, "get" + accessorName(desc.primitiveType),
+                "(Ljava/lang/Object;J)" + primitiveDesc(desc.primitiveType), false);
+    }
+
+    // box the primitive value on the stack
+    private static void visitBox(MethodVisitor mv, byte primitiveType) {
+        if (primitiveType == UnsafeFieldDesc.PT_REFERENCE) return;
+        String box = boxName(primitiveType);
+        mv.visitMethodInsn(INVOKESTATIC, box, "valueOf", "(" + primitiveDesc(primitiveType) + ")L" + box + ";", false);
+    }
+
+    // unbox the value on the stack to the primitive type, numbers
+    // are converted through Number so any numeric box is accepted
+    private static void visitUnbox(MethodVisitor mv, byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_BOOLEAN:
+                mv.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+                mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z", false);
+                break;
+            case UnsafeFieldDesc.PT_CHAR:
+                mv.visitTypeInsn(CHECKCAST, "java/lang/Character");
+                mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Character", "charValue", "()C", false);
+                break;
+            default:
+                String desc = primitiveDesc(primitiveType);
+                mv.visitTypeInsn(CHECKCAST, "java/lang/Number");
+                mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Number", accessorName(primitiveType).toLowerCase(Locale.ROOT) + "Value", "()" + desc, false);
+        }
+    }
+
+    // push the zero value of the primitive type
+    private static void visitZero(MethodVisitor mv, byte primitiveType) {
+        switch (primitiveType) {
+            case UnsafeFieldDesc.PT_LONG: mv.visitInsn(LCONST_0); break;
+            case UnsafeFieldDesc.PT_DOUBLE: mv.visitInsn(DCONST_0); break;
+            case UnsafeFieldDesc.PT_FLOAT: mv.visitInsn(FCONST_0); break;
+            default: mv.visitInsn(ICONST_0); break;
+        }
+    }
+
+    // read the primitive field through the primitive overload on the input (local 3)
+    // and set it on the instance (local 2), the default value is zero or the current
+    // value of the field if not nullable
+    private static void visitReadPrimitive(MethodVisitor mv, String className, UnsafeFieldDesc desc, boolean notNullable) {
+        final byte primitiveType = desc.primitiveType;
+        final String ioDesc = primitiveIODesc(primitiveType);
+
+        mv.visitFieldInsn(GETSTATIC, className, "UNSAFE", UNSAFE_DESC);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitLdcInsn(desc.offset);
+
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitLdcInsn(desc.serializedName);
+        if (notNullable) {
+            visitGetField(mv, className, desc, 2);
+        } else {
+            visitZero(mv, primitiveType);
+        }
+
+        mv.visitMethodInsn(INVOKEVIRTUAL, DECODE_INPUT, "read" + primitiveIOName(primitiveType),
+                "(L" + CODEC_CONTEXT + ";Ljava/lang/String;" + ioDesc + ")" + ioDesc, false);
+        if (primitiveType == UnsafeFieldDesc.PT_SHORT) mv.visitInsn(I2S);
+        else if (primitiveType == UnsafeFieldDesc.PT_BYTE) mv.visitInsn(I2B);
+
+        mv.visitMethodInsn(INVOKEVIRTUAL, UNSAFE, "put" + accessorName(primitiveType),
+                "(Ljava/lang/Object;J" + primitiveDesc(primitiveType) + ")V", false);
+    }
+
+    // set the field on the instance (local 2) to the value in local 4,
+    // null values are skipped if not nullable or set to zero for primitives
+    private static void visitSetField(MethodVisitor mv, String className, UnsafeFieldDesc desc, boolean notNullable) {
+        final byte primitiveType = desc.primitiveType;
+        final String putDesc = "(Ljava/lang/Object;J" + primitiveDesc(primitiveType) + ")V";
+        final String putName = "put" + accessorName(primitiveType);
+
+        Label isNull = new Label();
+        Label end = new Label();
+
+        if (primitiveType == UnsafeFieldDesc.PT_REFERENCE) {
+            if (notNullable) {
+                mv.visitVarInsn(ALOAD, 4);
+                mv.visitJumpInsn(IFNULL, end);
+            }
+
+            mv.visitFieldInsn(GETSTATIC, className, "UNSAFE", UNSAFE_DESC);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitLdcInsn(desc.offset);
+            mv.visitVarInsn(ALOAD, 4);
+            mv.visitMethodInsn(INVOKEVIRTUAL, UNSAFE, putName, putDesc, false);
+            mv.visitLabel(end);
+            return;
+        }
+
+        mv.visitVarInsn(ALOAD, 4);
+        mv.visitJumpInsn(IFNULL, isNull);
+        mv.visitFieldInsn(GETSTATIC, className, "UNSAFE", UNSAFE_DESC);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitLdcInsn(desc.offset);
+        mv.visitVarInsn(ALOAD, 4);
+        visitUnbox(mv, primitiveType);
+        mv.visitMethodInsn(INVOKEVIRTUAL, UNSAFE, putName, putDesc, false);
+        mv.visitJumpInsn(GOTO, end);
+
+        mv.visitLabel(isNull);
+        if (!notNullable) {
+            mv.visitFieldInsn(GETSTATIC, className, "UNSAFE", UNSAFE_DESC);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitLdcInsn(desc.offset);
+            visitZero(mv, primitiveType);
+            mv.visitMethodInsn(INVOKEVIRTUAL, UNSAFE, putName, putDesc, false);
+        }
+
+        mv.visitLabel(end);
+    }
+
+}
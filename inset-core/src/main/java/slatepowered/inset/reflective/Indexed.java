@@ -0,0 +1,50 @@
+package slatepowered.inset.reflective;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index on the annotated field, which data tables supporting
+ * indexes create when {@link slatepowered.inset.datastore.Datastore#ensureIndexes()}
+ * is called.
+ *
+ * Fields annotated with the same index name form one compound index, in which
+ * the fields are ordered by {@link #order()}. The options of a compound index
+ * are taken from its first field.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+
+    /**
+     * The name of the index, fields with the same name form a compound index.
+     * If empty the field has its own single field index.
+     */
+    String value() default "";
+
+    /**
+     * The position of the field in a compound index.
+     */
+    int order() default 0;
+
+    /**
+     * Whether the field is indexed in descending order.
+     */
+    boolean descending() default false;
+
+    /**
+     * Whether the indexed values have to be unique.
+     */
+    boolean unique() default false;
+
+    /**
+     * The amount of seconds after the date in the field at which items
+     * expire and are removed by the data source, or a negative value for
+     * no expiry. Only single field indexes on date fields can expire, declaring
+     * an expiry on a field of a compound index is rejected.
+     */
+    long expireAfterSeconds() default -1;
+
+}
@@ -25,6 +25,18 @@ public final class ReflectiveCodecFactory implements CodecFactory {
 
     @Override
     public <T> ValueCodec<T> create(CodecRegistry registry, Class<T> klass) {
+        return createReflective(klass);
+    }
+
+    /**
+     * Create a reflective value codec, or data codec if a primary key
+     * field is present, for the given class.
+     *
+     * @param klass The class.
+     * @param <T> The value type.
+     * @return The codec.
+     */
+    static <T> UnsafeReflectiveValueCodec<T> createReflective(Class<T> klass) {
         try {
             List<UnsafeFieldDesc> unsafeFields = new ArrayList<>();
             Set<Field> fields = new HashSet<>();
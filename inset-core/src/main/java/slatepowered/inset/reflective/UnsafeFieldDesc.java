@@ -1,6 +1,7 @@
 package slatepowered.inset.reflective;
 
 import lombok.Data;
+import slatepowered.inset.codec.ExpectedType;
 import slatepowered.inset.codec.support.PotentiallyTransient;
 import slatepowered.inset.util.NotNullable;
 import slatepowered.veru.reflect.UnsafeUtil;
@@ -30,6 +31,7 @@ public final class UnsafeFieldDesc {
     final String serializedName; // The serialized name of the field
     final long offset;           // The object field offset
     final Type type;             // The generic type
+    final ExpectedType expectedType; // The expected type of decoded values, resolved once
     final byte primitiveType;    // The primitive type, must be one of the above defined constants
     final long etcFlags;         // Other miscellaneous flags, such as @Nullable
 
@@ -98,7 +100,7 @@ public final class UnsafeFieldDesc {
         if (field.isAnnotationPresent(NotNullable.class)) flags |= NotNullable.FLAG;
 
         SerializedName fieldNameAnnotation = field.getAnnotation(SerializedName.class);
-        UnsafeFieldDesc desc = new UnsafeFieldDesc(field, field.getName(), fieldNameAnnotation != null ? fieldNameAnnotation.value() : field.getName(), UNSAFE.objectFieldOffset(field), field.getGenericType(), getPrimitiveType(field.getType()), flags);
+        UnsafeFieldDesc desc = new UnsafeFieldDesc(field, field.getName(), fieldNameAnnotation != null ? fieldNameAnnotation.value() : field.getName(), UNSAFE.objectFieldOffset(field), field.getGenericType(), new ExpectedType(field.getGenericType()), getPrimitiveType(field.getType()), flags);
 
         if (PotentiallyTransient.class.isAssignableFrom(field.getType())) {
             desc.isPotentiallyTransient = true;
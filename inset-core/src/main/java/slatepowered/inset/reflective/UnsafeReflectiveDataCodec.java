@@ -4,6 +4,8 @@ import slatepowered.inset.codec.CodecContext;
 import slatepowered.inset.codec.DecodeInput;
 import slatepowered.inset.datastore.DataItem;
 import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.operation.FieldOrdering;
+import slatepowered.inset.operation.IndexDefinition;
 import slatepowered.inset.operation.Projection;
 import slatepowered.inset.query.constraint.FieldConstraint;
 import slatepowered.inset.query.Query;
@@ -12,9 +14,7 @@ import slatepowered.veru.reflect.UnsafeUtil;
 import sun.misc.Unsafe;
 
 import java.lang.invoke.MethodHandle;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Predicate;
 
 /**
@@ -41,8 +41,11 @@ public class UnsafeReflectiveDataCodec<K, T> extends UnsafeReflectiveValueCodec<
     static final Unsafe UNSAFE = UnsafeUtil.getUnsafe();
 
     /** The field containing the primary key. */
-    final UnsafeFieldDesc[] allFields;
-    final UnsafeFieldDesc primaryKeyField;
+    protected final UnsafeFieldDesc[] allFields;
+    protected final UnsafeFieldDesc primaryKeyField;
+
+    // The index definitions, resolved from the field annotations when first requested
+    private volatile List<IndexDefinition> indexDefinitions;
 
     public UnsafeReflectiveDataCodec(Class<T> tClass, UnsafeFieldDesc[] fields, MethodHandle constructor, UnsafeFieldDesc primaryKeyField) {
         super(tClass, removePrimaryKeyFieldFromDefaultCodecFieldArray(fields, primaryKeyField.serializedName), constructor);
@@ -58,6 +61,27 @@ public class UnsafeReflectiveDataCodec<K, T> extends UnsafeReflectiveValueCodec<
         primaryKeyField.setFromObject(instance, input.getOrReadKey(primaryKeyField.serializedName, primaryKeyField.type));
     }
 
+    @Override
+    public boolean decodeInPlace(CodecContext context, T instance, DecodeInput input) {
+        if (!super.decodeInPlace(context, instance, input)) {
+            return false;
+        }
+
+        // decode primary key
+        primaryKeyField.setFromObject(instance, input.getOrReadKey(primaryKeyField.serializedName, primaryKeyField.type));
+        return true;
+    }
+
+    @Override
+    public T copy(CodecContext context, T instance) {
+        T copy = super.copy(context, instance);
+        if (copy != null) {
+            primaryKeyField.setFromObject(copy, primaryKeyField.getAsObject(instance));
+        }
+
+        return copy;
+    }
+
     @Override
     public K getPrimaryKey(T value) {
         return (K) primaryKeyField.getAsObject(value);
@@ -122,6 +146,53 @@ public class UnsafeReflectiveDataCodec<K, T> extends UnsafeReflectiveValueCodec<
         };
     }
 
+    @Override
+    public List<IndexDefinition> getIndexDefinitions() {
+        if (indexDefinitions != null) {
+            return indexDefinitions;
+        }
+
+        List<IndexDefinition> definitions = new ArrayList<>();
+        Map<String, List<UnsafeFieldDesc>> compoundIndexes = new LinkedHashMap<>();
+        for (UnsafeFieldDesc fieldDesc : allFields) {
+            Indexed indexed = fieldDesc.getField().getAnnotation(Indexed.class);
+            if (indexed == null) {
+                continue;
+            }
+
+            if (indexed.value().isEmpty()) {
+                definitions.add(new IndexDefinition(null,
+                        Collections.singletonList(fieldDesc.getName()),
+                        Collections.singletonList(indexed.descending() ? FieldOrdering.DESCENDING : FieldOrdering.ASCENDING),
+                        indexed.unique(), indexed.expireAfterSeconds()));
+            } else {
+                compoundIndexes.computeIfAbsent(indexed.value(), __ -> new ArrayList<>()).add(fieldDesc);
+            }
+        }
+
+        for (Map.Entry<String, List<UnsafeFieldDesc>> entry : compoundIndexes.entrySet()) {
+            List<UnsafeFieldDesc> fieldDescs = entry.getValue();
+            fieldDescs.sort(Comparator.comparingInt(fieldDesc -> fieldDesc.getField().getAnnotation(Indexed.class).order()));
+
+            IndexDefinition.Builder builder = IndexDefinition.builder().name(entry.getKey());
+            Indexed first = fieldDescs.get(0).getField().getAnnotation(Indexed.class);
+            builder.unique(first.unique()).expireAfterSeconds(first.expireAfterSeconds());
+            for (UnsafeFieldDesc fieldDesc : fieldDescs) {
+                Indexed indexed = fieldDesc.getField().getAnnotation(Indexed.class);
+                if (indexed.expireAfterSeconds() >= 0 && fieldDescs.size() > 1) {
+                    throw new IllegalArgumentException("Compound index `" + entry.getKey() + "` on " + tClass +
+                            " can not expire, only single field indexes support expireAfterSeconds");
+                }
+
+                builder.order(fieldDesc.getName(), indexed.descending() ? FieldOrdering.DESCENDING : FieldOrdering.ASCENDING);
+            }
+
+            definitions.add(builder.build());
+        }
+
+        return indexDefinitions = Collections.unmodifiableList(definitions);
+    }
+
     @Override
     public Projection createExclusiveProjection(String primaryKeyName) {
         List<String> fields = new ArrayList<>();
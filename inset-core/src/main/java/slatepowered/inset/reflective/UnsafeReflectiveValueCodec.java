@@ -10,6 +10,7 @@ import slatepowered.veru.reflect.UnsafeUtil;
 import sun.misc.Unsafe;
 
 import java.lang.invoke.MethodHandle;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,8 +41,18 @@ public class UnsafeReflectiveValueCodec<T> implements ValueCodec<T> {
     @Override
     public void encode(CodecContext context, T value, EncodeOutput output) {
         for (UnsafeFieldDesc desc : fields) {
-            Object fieldValue = desc.getAsObject(value);
-            output.set(context, desc.serializedName, fieldValue, desc.type);
+            final long offset = desc.offset;
+            switch (desc.primitiveType) {
+                // write primitives through the primitive overloads to avoid boxing
+                case UnsafeFieldDesc.PT_INT: output.setInt(context, desc.serializedName, UNSAFE.getInt(value, offset)); break;
+                case UnsafeFieldDesc.PT_LONG: output.setLong(context, desc.serializedName, UNSAFE.getLong(value, offset)); break;
+                case UnsafeFieldDesc.PT_DOUBLE: output.setDouble(context, desc.serializedName, UNSAFE.getDouble(value, offset)); break;
+                case UnsafeFieldDesc.PT_FLOAT: output.setFloat(context, desc.serializedName, UNSAFE.getFloat(value, offset)); break;
+                case UnsafeFieldDesc.PT_SHORT: output.setShort(context, desc.serializedName, UNSAFE.getShort(value, offset)); break;
+                case UnsafeFieldDesc.PT_BYTE: output.setByte(context, desc.serializedName, UNSAFE.getByte(value, offset)); break;
+                case UnsafeFieldDesc.PT_BOOLEAN: output.setBoolean(context, desc.serializedName, UNSAFE.getBoolean(value, offset)); break;
+                default: output.set(context, desc.serializedName, desc.getAsObject(value), desc.type);
+            }
         }
     }
 
@@ -57,10 +68,95 @@ public class UnsafeReflectiveValueCodec<T> implements ValueCodec<T> {
 
     @Override
     public void decode(CodecContext context, T instance, DecodeInput input) {
+        decodeFields(context, instance, input, false, null);
+    }
+
+    @Override
+    public boolean decodeInPlace(CodecContext context, T instance, DecodeInput input) {
+        if (instance.getClass() != tClass) {
+            return false;
+        }
+
+        decodeFields(context, instance, input, true, null);
+        return true;
+    }
+
+    @Override
+    public boolean decodePartial(CodecContext context, T instance, DecodeInput input, Collection<String> serializedFields) {
+        if (instance.getClass() != tClass) {
+            return false;
+        }
+
+        // the current values may be shared with another instance
+        decodeFields(context, instance, input, false, serializedFields);
+        return true;
+    }
+
+    @Override
+    public T copy(CodecContext context, T instance) {
+        if (instance.getClass() != tClass) {
+            return null;
+        }
+
+        T copy = construct(context, null);
+        copyFields(fields, instance, copy);
+        return copy;
+    }
+
+    // copy the values of the given fields from the source to the target
+    static void copyFields(UnsafeFieldDesc[] fields, Object source, Object target) {
+        for (UnsafeFieldDesc desc : fields) {
+            final long offset = desc.offset;
+            switch (desc.primitiveType) {
+                case UnsafeFieldDesc.PT_REFERENCE: UNSAFE.putObject(target, offset, UNSAFE.getObject(source, offset)); break;
+                case UnsafeFieldDesc.PT_INT: UNSAFE.putInt(target, offset, UNSAFE.getInt(source, offset)); break;
+                case UnsafeFieldDesc.PT_LONG: UNSAFE.putLong(target, offset, UNSAFE.getLong(source, offset)); break;
+                case UnsafeFieldDesc.PT_DOUBLE: UNSAFE.putDouble(target, offset, UNSAFE.getDouble(source, offset)); break;
+                default: desc.setFromObject(target, desc.getAsObject(source));
+            }
+        }
+    }
+
+    // decode the given fields or all fields if null of the given instance, if in
+    // place the current values of reference fields are reused by the input where possible
+    protected void decodeFields(CodecContext context, T instance, DecodeInput input, boolean inPlace, Collection<String> only) {
         for (UnsafeFieldDesc desc : fields) {
-            Object value = input.read(context, desc.serializedName, desc.type);
-            if (value != null || (desc.etcFlags & NotNullable.FLAG) == 0) {
-                desc.setFromObject(instance, value);
+            if (only != null && !only.contains(desc.serializedName)) {
+                continue;
+            }
+
+            final long offset = desc.offset;
+            // absent primitives are set to zero, or kept if not nullable
+            final boolean keep = (desc.etcFlags & NotNullable.FLAG) != 0;
+            switch (desc.primitiveType) {
+                case UnsafeFieldDesc.PT_INT:
+                    UNSAFE.putInt(instance, offset, input.readInt(context, desc.serializedName, keep ? UNSAFE.getInt(instance, offset) : 0));
+                    break;
+                case UnsafeFieldDesc.PT_LONG:
+                    UNSAFE.putLong(instance, offset, input.readLong(context, desc.serializedName, keep ? UNSAFE.getLong(instance, offset) : 0));
+                    break;
+                case UnsafeFieldDesc.PT_DOUBLE:
+                    UNSAFE.putDouble(instance, offset, input.readDouble(context, desc.serializedName, keep ? UNSAFE.getDouble(instance, offset) : 0));
+                    break;
+                case UnsafeFieldDesc.PT_FLOAT:
+                    UNSAFE.putFloat(instance, offset, input.readFloat(context, desc.serializedName, keep ? UNSAFE.getFloat(instance, offset) : 0));
+                    break;
+                case UnsafeFieldDesc.PT_SHORT:
+                    UNSAFE.putShort(instance, offset, (short) input.readInt(context, desc.serializedName, keep ? UNSAFE.getShort(instance, offset) : 0));
+                    break;
+                case UnsafeFieldDesc.PT_BYTE:
+                    UNSAFE.putByte(instance, offset, (byte) input.readInt(context, desc.serializedName, keep ? UNSAFE.getByte(instance, offset) : 0));
+                    break;
+                case UnsafeFieldDesc.PT_BOOLEAN:
+                    UNSAFE.putBoolean(instance, offset, input.readBoolean(context, desc.serializedName, keep && UNSAFE.getBoolean(instance, offset)));
+                    break;
+                default:
+                    Object value = inPlace ?
+                            input.readInto(context, desc.serializedName, desc.expectedType, desc.getAsObject(instance)) :
+                            input.read(context, desc.serializedName, desc.expectedType);
+                    if (value != null || !keep) {
+                        desc.setFromObject(instance, value);
+                    }
             }
         }
     }
@@ -0,0 +1,285 @@
+package slatepowered.inset.sharded;
+
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.operation.FieldOrderSorting;
+import slatepowered.inset.operation.FieldOrdering;
+import slatepowered.inset.operation.Projection;
+import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.query.PageToken;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.DataSourceBulkIterable;
+import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.KeySet;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The merged results of a find-all query on all shards of a {@link ShardedDataTable}.
+ *
+ * The options are passed on to the result of each shard, except for the skip which
+ * is applied to the merged results. When the results are sorted, each shard returns
+ * its items in order and the next item is taken from the shard with the smallest
+ * head, so the merge streams with one buffered item per shard. Unsorted results are
+ * returned shard by shard.
+ */
+final class ShardedBulkIterable implements DataSourceBulkIterable {
+
+    /**
+     * The head of the results of a shard.
+     */
+    private static final class Head {
+        final int shard;
+        final SourcedItem<?, ?> item;
+        final long[] sortKey;
+
+        Head(int shard, SourcedItem<?, ?> item, long[] sortKey) {
+            this.shard = shard;
+            this.item = item;
+            this.sortKey = sortKey;
+        }
+    }
+
+    private final ShardedDataTable table;
+    private final Query query;
+
+    // The results of each shard
+    private final List<DataSourceBulkIterable> shardIterables;
+
+    /* Options */
+    private FieldOrderSorting sorting;
+    private int skip;
+    private int limit = -1;
+
+    // The state of the merge, initialized when the first item is requested
+    private boolean started;
+    private String[] sortFields;
+    private boolean[] sortDescending;
+    private PriorityQueue<Head> heads;
+    private int currentShard; // The shard being returned when unsorted
+    private int returned;
+    private SourcedItem<?, ?> peeked; // The item to be returned next, if peeked
+
+    ShardedBulkIterable(ShardedDataTable table, Query query, List<DataSourceBulkIterable> shardIterables) {
+        this.table = table;
+        this.query = query;
+        this.shardIterables = shardIterables;
+    }
+
+    @Override
+    public String getPrimaryKeyFieldOverride() {
+        return shardIterables.get(0).getPrimaryKeyFieldOverride();
+    }
+
+    @Override
+    public Query getQuery() {
+        return query;
+    }
+
+    @Override
+    public DataSourceBulkIterable batch(int size) {
+        for (DataSourceBulkIterable iterable : shardIterables) iterable.batch(size);
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable filter(Query query) {
+        for (DataSourceBulkIterable iterable : shardIterables) iterable.filter(query);
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable projection(Projection projection) {
+        for (DataSourceBulkIterable iterable : shardIterables) iterable.projection(projection);
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable sort(Sorting sorting) {
+        if (!(sorting instanceof FieldOrderSorting)) {
+            throw new UnsupportedOperationException("Unsupported sorting type: " + sorting.getClass().getName());
+        }
+
+        this.sorting = (FieldOrderSorting) sorting;
+        for (DataSourceBulkIterable iterable : shardIterables) iterable.sort(sorting);
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable skip(int amount) {
+        this.skip = amount;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable excludeKeys(KeySet keys) {
+        for (DataSourceBulkIterable iterable : shardIterables) iterable.excludeKeys(keys);
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable after(FieldOrderSorting sorting, PageToken token) {
+        this.sorting = sorting;
+        for (DataSourceBulkIterable iterable : shardIterables) iterable.after(sorting, token);
+        return this;
+    }
+
+    // take the next item of the given shard as its head
+    private Head pull(int shard) {
+        Optional<SourcedItem<?, ?>> optional = shardIterables.get(shard).next();
+        if (!optional.isPresent()) {
+            return null;
+        }
+
+        SourcedItem<?, ?> item = optional.get().qualify(query.getDatastore());
+        return new Head(shard, item, item.getFastOrderKey(sortFields, sortDescending, sorting));
+    }
+
+    // start the merge, pulling the first item of each shard in parallel
+    private void start() {
+        started = true;
+
+        // every shard has to provide enough items to fill the skipped
+        // amount and the limit on its own
+        if (limit > 0) {
+            for (DataSourceBulkIterable iterable : shardIterables) {
+                iterable.limit(skip + limit);
+            }
+        }
+
+        if (sorting == null) {
+            return;
+        }
+
+        final int size = sorting.size();
+        sortFields = sorting.getFieldNames().toArray(new String[0]);
+        sortDescending = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            sortDescending[i] = sorting.getFieldOrderings().get(i) == FieldOrdering.DESCENDING;
+        }
+
+        heads = new PriorityQueue<>(Math.max(1, shardIterables.size()), (a, b) -> {
+            int comparison = SortKeys.compare(a.sortKey, b.sortKey);
+            return comparison != 0 ? comparison : Integer.compare(a.shard, b.shard);
+        });
+
+        for (Head head : table.fanOutIndexed(this::pull)) {
+            if (head != null) {
+                heads.add(head);
+            }
+        }
+    }
+
+    // get the next merged item, ignoring skip and limit
+    private SourcedItem<?, ?> nextMerged() {
+        if (heads != null) {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+
+            Head next = pull(head.shard);
+            if (next != null) {
+                heads.add(next);
+            }
+
+            return head.item;
+        }
+
+        while (currentShard < shardIterables.size()) {
+            Optional<SourcedItem<?, ?>> optional = shardIterables.get(currentShard).next();
+            if (optional.isPresent()) {
+                return optional.get();
+            }
+
+            currentShard++;
+        }
+
+        return null;
+    }
+
+    // get the next item, applying skip and limit
+    private SourcedItem<?, ?> peek() {
+        if (!started) {
+            start();
+        }
+
+        if (peeked != null) {
+            return peeked;
+        }
+
+        if (limit > 0 && returned >= limit) {
+            return null;
+        }
+
+        while (skip > 0) {
+            if (nextMerged() == null) return null;
+            skip--;
+        }
+
+        return peeked = nextMerged();
+    }
+
+    @Override
+    public Optional<SourcedItem<?, ?>> first() {
+        return next();
+    }
+
+    @Override
+    public Optional<SourcedItem<?, ?>> next() {
+        SourcedItem<?, ?> item = peek();
+        if (item == null) {
+            return Optional.empty();
+        }
+
+        peeked = null;
+        returned++;
+        return Optional.of(item);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peek() != null;
+    }
+
+    @Override
+    public List<SourcedItem<?, ?>> list() {
+        List<SourcedItem<?, ?>> list = new ArrayList<>();
+        Optional<SourcedItem<?, ?>> item;
+        while ((item = next()).isPresent()) {
+            list.add(item.get());
+        }
+
+        return list;
+    }
+
+    @Override
+    public Stream<SourcedItem<?, ?>> stream() {
+        Iterator<SourcedItem<?, ?>> iterator = new Iterator<SourcedItem<?, ?>>() {
+            @Override
+            public boolean hasNext() {
+                return ShardedBulkIterable.this.hasNext();
+            }
+
+            @Override
+            public SourcedItem<?, ?> next() {
+                return ShardedBulkIterable.this.next().orElseThrow(NoSuchElementException::new);
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedBulkIterable(" + table.getName() + ", " + shardIterables.size() + " shards, " + query + ")";
+    }
+
+}
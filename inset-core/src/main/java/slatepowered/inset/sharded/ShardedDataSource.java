@@ -0,0 +1,154 @@
+package slatepowered.inset.sharded;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.source.DataSource;
+import slatepowered.inset.source.DataTable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data source spreading each table over multiple shards, which can be tables
+ * in the same data source, in different databases or in separate data sources.
+ *
+ * Each table is a {@link ShardedDataTable}, which routes items to a shard by the
+ * consistent hash of their primary key. All shards have to store documents in the
+ * same format, because the outputs created by the first shard are written to all.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class ShardedDataSource implements DataSource {
+
+    /**
+     * A shard, which stores the tables in the given data source with
+     * the given suffix appended to the table names.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static final class Shard {
+        private final DataSource source;
+        private final String tableSuffix;
+
+        /**
+         * Get or create the table of this shard for the given sharded table name.
+         */
+        public DataTable table(String name) {
+            return source.table(name + tableSuffix);
+        }
+    }
+
+    // The data manager
+    private final DataManager dataManager;
+
+    // The shards in order, the position of a shard determines
+    // its position on the hash ring
+    @Getter
+    private final List<Shard> shards;
+
+    @Getter
+    private final int virtualNodes; // The amount of points of each shard on the hash ring
+
+    // All created data tables
+    private final Map<String, ShardedDataTable> dataTableMap = new ConcurrentHashMap<>();
+
+    public Collection<ShardedDataTable> allTables() {
+        return dataTableMap.values();
+    }
+
+    @Override
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+
+    @Override
+    public EncodeOutput createDocumentSerializationOutput() {
+        return shards.get(0).getSource().createDocumentSerializationOutput();
+    }
+
+    @Override
+    public ShardedDataTable table(String name) {
+        return dataTableMap.computeIfAbsent(name, __ -> {
+            List<DataTable> tables = new ArrayList<>(shards.size());
+            for (Shard shard : shards) {
+                tables.add(shard.table(name));
+            }
+
+            return new ShardedDataTable(this, name, tables);
+        });
+    }
+
+    /**
+     * Creates a new builder.
+     */
+    public static Builder builder(DataManager dataManager) {
+        return new Builder(dataManager);
+    }
+
+    @RequiredArgsConstructor
+    public static class Builder {
+        /* Options */
+        private final DataManager dataManager;
+        private final List<Shard> shards = new ArrayList<>();
+        private int virtualNodes = 128;
+
+        /**
+         * Add a shard storing the tables in the given data source with
+         * the given suffix appended to the table names.
+         *
+         * Shards should only be added at the end, so adding a shard
+         * only moves the keys which are now owned by the new shard.
+         */
+        public Builder shard(DataSource source, String tableSuffix) {
+            this.shards.add(new Shard(source, tableSuffix));
+            return this;
+        }
+
+        /**
+         * Add a shard storing the tables in the given data source.
+         */
+        public Builder shard(DataSource source) {
+            return shard(source, "");
+        }
+
+        /**
+         * Add the given amount of shards storing the tables in the given
+         * data source, with the suffixes {@code _0} to {@code _<count - 1>}.
+         */
+        public Builder shards(DataSource source, int count) {
+            for (int i = 0; i < count; i++) {
+                shard(source, "_" + i);
+            }
+
+            return this;
+        }
+
+        /**
+         * Set the amount of points of each shard on the hash ring, more
+         * points spread the keys more evenly over the shards.
+         */
+        public Builder virtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        public ShardedDataSource build() {
+            if (shards.isEmpty())
+                throw new IllegalArgumentException("At least one shard is required for a sharded data source");
+            if (virtualNodes < 1)
+                throw new IllegalArgumentException("At least one virtual node per shard is required");
+
+            return new ShardedDataSource(
+                    dataManager,
+                    new ArrayList<>(shards),
+                    virtualNodes
+            );
+        }
+    }
+
+}
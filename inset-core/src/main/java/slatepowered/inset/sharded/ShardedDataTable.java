@@ -0,0 +1,348 @@
+package slatepowered.inset.sharded;
+
+import lombok.Getter;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.operation.Projection;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A data table spread over multiple shard tables.
+ *
+ * Items are routed to the shard owning the consistent hash of their primary key
+ * on a hash ring, on which each shard has a fixed amount of virtual nodes. The hash
+ * of a key is computed from its {@link SortKeys}, so it is stable across processes
+ * and numbers with the same value route to the same shard.
+ *
+ * Operations on a single key only touch its shard, other operations are sent to all
+ * shards in parallel and their results are combined. The results of find-all queries
+ * are merged while streaming, keeping the requested sort order.
+ */
+public class ShardedDataTable implements DataTable {
+
+    // The sharded data source
+    protected final ShardedDataSource source;
+
+    @Getter
+    protected final String name;
+
+    // The shard tables in order
+    @Getter
+    protected final List<DataTable> shards;
+
+    // The points on the hash ring in ascending order
+    // and the index of the shard owning each point
+    private final long[] ringPoints;
+    private final int[] ringOwners;
+
+    ShardedDataTable(ShardedDataSource source, String name, List<DataTable> shards) {
+        this.source = source;
+        this.name = name;
+        this.shards = Collections.unmodifiableList(shards);
+
+        // build the hash ring
+        final int virtualNodes = source.getVirtualNodes();
+        final int pointCount = shards.size() * virtualNodes;
+        long[][] points = new long[pointCount][];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                points[shard * virtualNodes + node] = new long[] { hash(shard + ":" + node), shard };
+            }
+        }
+
+        Arrays.sort(points, (a, b) -> Long.compare(a[0], b[0]));
+        this.ringPoints = new long[pointCount];
+        this.ringOwners = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            ringPoints[i] = points[i][0];
+            ringOwners[i] = (int) points[i][1];
+        }
+    }
+
+    @Override
+    public ShardedDataSource getSource() {
+        return source;
+    }
+
+    // finalize the given hash, see MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Compute the stable hash of the given key.
+     *
+     * @param key The key.
+     * @return The hash.
+     */
+    static long hash(Object key) {
+        long[] sortKey = new SortKeys.Encoder().append(key, false).toArray();
+        long h = 0x9e3779b97f4a7c15L;
+        for (long l : sortKey) {
+            h = mix(h ^ l);
+        }
+
+        if (sortKey.length == 1 && key != null) {
+            // keys without a stable encoding are only
+            // encoded as their type class
+            h = mix(h ^ key.hashCode());
+        }
+
+        return h;
+    }
+
+    /**
+     * Get the index of the shard owning the given key.
+     *
+     * @param key The primary key.
+     * @return The shard index.
+     */
+    public int shardIndex(Object key) {
+        final long h = hash(key);
+        int index = Arrays.binarySearch(ringPoints, h);
+        if (index < 0) {
+            // the first point after the hash, wrapping around
+            index = -index - 1;
+            if (index == ringPoints.length) {
+                index = 0;
+            }
+        }
+
+        return ringOwners[index];
+    }
+
+    /**
+     * Get the shard table owning the given key.
+     *
+     * @param key The primary key.
+     * @return The shard table.
+     */
+    public DataTable shardFor(Object key) {
+        return shards.get(shardIndex(key));
+    }
+
+    // unwrap the given exception of a future
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return e;
+    }
+
+    /**
+     * Run the given function on all shard tables in parallel.
+     *
+     * @param function The function.
+     * @param <R> The result type.
+     * @return The results in order of the shards.
+     */
+    <R> List<R> fanOut(Function<DataTable, R> function) {
+        return fanOutIndexed(index -> function.apply(shards.get(index)));
+    }
+
+    /**
+     * Run the given function for the index of each shard in parallel.
+     *
+     * @param function The function.
+     * @param <R> The result type.
+     * @return The results in order of the shards.
+     */
+    <R> List<R> fanOutIndexed(IntFunction<R> function) {
+        final int count = shards.size();
+        if (count == 1) {
+            return Collections.singletonList(function.apply(0));
+        }
+
+        List<CompletableFuture<R>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            futures.add(CompletableFuture.supplyAsync(() -> function.apply(index), source.getExecutorService()));
+        }
+
+        List<R> results = new ArrayList<>(count);
+        try {
+            for (CompletableFuture<R> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+
+        return results;
+    }
+
+    @Override
+    public void ensureIndexes(DataCodec<?, ?> codec) throws DataSourceException {
+        fanOut(shard -> {
+            shard.ensureIndexes(codec);
+            return null;
+        });
+    }
+
+    @Override
+    public void replaceOneSync(EncodeOutput output) throws DataSourceException {
+        shardFor(output.getSetKey()).replaceOneSync(output);
+    }
+
+    @Override
+    public void replaceManySync(List<EncodeOutput> outputs) throws DataSourceException {
+        final int count = shards.size();
+        List<List<EncodeOutput>> byShard = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byShard.add(new ArrayList<>());
+        }
+
+        for (EncodeOutput output : outputs) {
+            byShard.get(shardIndex(output.getSetKey())).add(output);
+        }
+
+        fanOutIndexed(index -> {
+            List<EncodeOutput> shardOutputs = byShard.get(index);
+            if (!shardOutputs.isEmpty()) {
+                shards.get(index).replaceManySync(shardOutputs);
+            }
+
+            return null;
+        });
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query) throws DataSourceException {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).findOneSync(query);
+        }
+
+        List<DataSourceFindResult> results = fanOut(shard -> shard.findOneSync(query));
+        for (DataSourceFindResult result : results) {
+            if (result.found()) {
+                return result;
+            }
+        }
+
+        return results.get(0);
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query, Projection projection) throws DataSourceException {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).findOneSync(query, projection);
+        }
+
+        List<DataSourceFindResult> results = fanOut(shard -> shard.findOneSync(query, projection));
+        for (DataSourceFindResult result : results) {
+            if (result.found()) {
+                return result;
+            }
+        }
+
+        return results.get(0);
+    }
+
+    @Override
+    public DataSourceBulkIterable findAllSync(Query query) throws DataSourceException {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).findAllSync(query);
+        }
+
+        return new ShardedBulkIterable(this, query, fanOut(shard -> shard.findAllSync(query)));
+    }
+
+    @Override
+    public boolean deleteOne(Query query) {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).deleteOne(query);
+        }
+
+        for (DataTable shard : shards) {
+            if (shard.deleteOne(query)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public long deleteAll(Query query) {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).deleteAll(query);
+        }
+
+        long count = 0;
+        for (long shardCount : fanOut(shard -> shard.deleteAll(query))) {
+            count += shardCount;
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean exists(Query query) throws DataSourceException {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).exists(query);
+        }
+
+        for (boolean exists : fanOut(shard -> shard.exists(query))) {
+            if (exists) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public long estimatedCount() throws DataSourceException {
+        long count = 0;
+        for (long shardCount : fanOut(DataTable::estimatedCount)) {
+            if (shardCount < 0) {
+                return -1;
+            }
+
+            count += shardCount;
+        }
+
+        return count;
+    }
+
+    @Override
+    public long count(Query query) {
+        if (query.hasKey()) {
+            return shardFor(query.getKey()).count(query);
+        }
+
+        long count = 0;
+        for (long shardCount : fanOut(shard -> shard.count(query))) {
+            count += shardCount;
+        }
+
+        return count;
+    }
+
+    @Override
+    public void drop() {
+        fanOut(shard -> {
+            shard.drop();
+            return null;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedDataTable('" + name + "', " + shards.size() + " shards)";
+    }
+
+}
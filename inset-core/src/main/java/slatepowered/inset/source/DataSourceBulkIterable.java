@@ -1,8 +1,11 @@
 package slatepowered.inset.source;
 
+import slatepowered.inset.operation.FieldOrderSorting;
 import slatepowered.inset.operation.Projection;
 import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.query.PageToken;
 import slatepowered.inset.query.Query;
+import slatepowered.inset.util.KeySet;
 
 import java.util.List;
 import java.util.Optional;
@@ -109,4 +112,32 @@ public interface DataSourceBulkIterable extends DataSourceOperation {
      */
     DataSourceBulkIterable skip(int amount);
 
+    /**
+     * Exclude all items with a primary key contained by the given key set
+     * from the results of this iterable.
+     *
+     * Implementations should check the raw key of each item against the
+     * set before creating any items or inputs for it.
+     *
+     * @param keys The keys to exclude.
+     * @return This.
+     */
+    DataSourceBulkIterable excludeKeys(KeySet keys);
+
+    /**
+     * Sort the results of this iterable by the given sorting, which always ends
+     * with the primary key field (in ascending order unless the sorting already
+     * ordered it, in which case its direction is kept), and only return the items
+     * positioned after the given page token in that order.
+     *
+     * Implementations should push this down to the data source as a range
+     * filter on the sorted fields, combined with any existing filter, so the
+     * skipped items never have to be scanned.
+     *
+     * @param sorting The sorting, ending with the primary key.
+     * @param token The page token or null to start at the first item.
+     * @return This.
+     */
+    DataSourceBulkIterable after(FieldOrderSorting sorting, PageToken token);
+
 }
@@ -1,9 +1,21 @@
 package slatepowered.inset.source;
 
+import slatepowered.inset.codec.DataCodec;
 import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.internal.Aggregator;
+import slatepowered.inset.operation.Accumulator;
+import slatepowered.inset.operation.AggregateGroup;
+import slatepowered.inset.operation.Aggregation;
+import slatepowered.inset.operation.CommonProjection;
+import slatepowered.inset.operation.Projection;
 import slatepowered.inset.query.Query;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Represents a collection/table into a {@link DataSource}.
@@ -29,6 +41,20 @@ public interface DataTable {
         return CompletableFuture.runAsync(this::drop, getSource().getExecutorService());
     }
 
+    /**
+     * Ensure the indexes declared by the given codec exist in this table,
+     * see {@link DataCodec#getIndexDefinitions()}. This is called by
+     * {@link slatepowered.inset.datastore.Datastore#ensureIndexes()}.
+     *
+     * By default this does nothing, for tables which do not support indexes.
+     *
+     * @param codec The data codec.
+     * @throws DataSourceException Any errors that may occur.
+     */
+    default void ensureIndexes(DataCodec<?, ?> codec) throws DataSourceException {
+
+    }
+
     /**
      * Synchronously update the given output data in the data table.
      *
@@ -47,6 +73,31 @@ public interface DataTable {
         return CompletableFuture.runAsync(() -> this.replaceOneSync(output), getSource().getExecutorService());
     }
 
+    /**
+     * Synchronously update all the given output data in the data table.
+     *
+     * By default this replaces each output separately, implementations
+     * should send the writes to the data source in batches where possible.
+     *
+     * @param outputs The output data.
+     * @throws DataSourceException Any errors that may occur.
+     */
+    default void replaceManySync(List<EncodeOutput> outputs) throws DataSourceException {
+        for (EncodeOutput output : outputs) {
+            replaceOneSync(output);
+        }
+    }
+
+    /**
+     * Asynchronously update all the given output data in the data table.
+     *
+     * @param outputs The output data.
+     * @return The result future.
+     */
+    default CompletableFuture<Void> replaceManyAsync(final List<EncodeOutput> outputs) {
+        return CompletableFuture.runAsync(() -> this.replaceManySync(outputs), getSource().getExecutorService());
+    }
+
     /**
      * Find/load one item from the data table synchronously for
      * the given query.
@@ -68,6 +119,35 @@ public interface DataTable {
         return CompletableFuture.supplyAsync(() -> this.findOneSync(query), query.getEffectiveExecutor());
     }
 
+    /**
+     * Find/load one item from the data table synchronously for the given
+     * query, only retrieving the fields included by the given projection.
+     *
+     * By default this ignores the projection and retrieves the complete
+     * item, implementations should push the projection down to the data
+     * source where it reduces the transferred data.
+     *
+     * @param query The query.
+     * @param projection The projection or null to retrieve the complete item.
+     * @return The result.
+     * @throws DataSourceException Any errors that may occur.
+     */
+    default DataSourceFindResult findOneSync(Query query, Projection projection) throws DataSourceException {
+        return findOneSync(query);
+    }
+
+    /**
+     * Find/load one item from the data table asynchronously for the given
+     * query, only retrieving the fields included by the given projection.
+     *
+     * @param query The query.
+     * @param projection The projection or null to retrieve the complete item.
+     * @return The query result future.
+     */
+    default CompletableFuture<DataSourceFindResult> findOneAsync(final Query query, final Projection projection) {
+        return CompletableFuture.supplyAsync(() -> this.findOneSync(query, projection), query.getEffectiveExecutor());
+    }
+
     /**
      * Find/load multiple items from the data table synchronously for
      * the given query.
@@ -125,6 +205,43 @@ public interface DataTable {
         return CompletableFuture.supplyAsync(() -> this.deleteAll(query), query.getEffectiveExecutor());
     }
 
+    /**
+     * Check whether any item matches the given query synchronously.
+     *
+     * By default this finds the first matching item, implementations should
+     * avoid transferring and decoding the item where possible.
+     *
+     * @param query The query.
+     * @return Whether a matching item exists.
+     * @throws DataSourceException Any errors that may occur.
+     */
+    default boolean exists(Query query) throws DataSourceException {
+        return findOneSync(query).found();
+    }
+
+    /**
+     * Asynchronously check whether any item matches the given query.
+     *
+     * @param query The query.
+     * @return Future returning whether a matching item exists.
+     */
+    default CompletableFuture<Boolean> existsAsync(Query query) {
+        return CompletableFuture.supplyAsync(() -> this.exists(query), query.getEffectiveExecutor());
+    }
+
+    /**
+     * Estimate the amount of items in this table from the metadata of
+     * the data source, without counting the items.
+     *
+     * By default this can not be estimated.
+     *
+     * @return The estimated count or {@code -1} if it can not be estimated.
+     * @throws DataSourceException Any errors that may occur.
+     */
+    default long estimatedCount() throws DataSourceException {
+        return -1;
+    }
+
     /**
      * Count the documents matching the given query.
      *
@@ -143,4 +260,53 @@ public interface DataTable {
         return CompletableFuture.supplyAsync(() -> this.count(query), query.getEffectiveExecutor());
     }
 
+    /**
+     * Compute the given aggregation over all items matching the given query
+     * synchronously.
+     *
+     * By default this streams the matching items, projected to only the fields
+     * used by the aggregation, and reduces them client-side. Implementations
+     * should push the aggregation down to the data source where possible.
+     *
+     * @param query The query, qualified with the datastore.
+     * @param aggregation The aggregation.
+     * @return The result groups.
+     * @throws DataSourceException Any errors that may occur.
+     */
+    default List<AggregateGroup> aggregateSync(Query query, Aggregation aggregation) throws DataSourceException {
+        DataCodec<?, ?> codec = query.getDatastore().getDataCodec();
+
+        // only retrieve the fields needed for the aggregation
+        Set<String> fields = new LinkedHashSet<>();
+        for (String field : aggregation.getGroupFieldNames()) fields.add(codec.toSerializedName(field));
+        for (Accumulator accumulator : aggregation.getAccumulators()) {
+            if (accumulator.getFieldName() != null) {
+                fields.add(codec.toSerializedName(accumulator.getFieldName()));
+            }
+        }
+
+        DataSourceBulkIterable iterable = findAllSync(query);
+        if (!fields.isEmpty()) {
+            iterable = iterable.projection(new CommonProjection(CommonProjection.Action.INCLUDE, new ArrayList<>(fields)));
+        }
+
+        Aggregator aggregator = new Aggregator(aggregation);
+        try (Stream<SourcedItem<?, ?>> stream = iterable.stream()) {
+            stream.forEach(item -> aggregator.add(item.qualify(query.getDatastore())));
+        }
+        return aggregator.finish();
+    }
+
+    /**
+     * Compute the given aggregation over all items matching the given query
+     * asynchronously.
+     *
+     * @param query The query, qualified with the datastore.
+     * @param aggregation The aggregation.
+     * @return The future of the result groups.
+     */
+    default CompletableFuture<List<AggregateGroup>> aggregateAsync(Query query, Aggregation aggregation) {
+        return CompletableFuture.supplyAsync(() -> this.aggregateSync(query, aggregation), query.getEffectiveExecutor());
+    }
+
 }
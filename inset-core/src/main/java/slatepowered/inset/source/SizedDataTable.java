@@ -0,0 +1,24 @@
+package slatepowered.inset.source;
+
+/**
+ * A data table stored locally which can report the amount of storage
+ * it occupies and evict items to stay within a budget.
+ */
+public interface SizedDataTable extends DataTable {
+
+    /**
+     * Get the amount of bytes currently occupied by this table.
+     *
+     * @return The size in bytes.
+     */
+    long getStorageSize();
+
+    /**
+     * Remove stored items, oldest first, until the storage size
+     * of this table is at most the given amount of bytes.
+     *
+     * @param maxSize The maximum size in bytes.
+     */
+    void trimTo(long maxSize);
+
+}
@@ -1,12 +1,12 @@
 package slatepowered.inset.source;
 
 import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.DataCodec;
 import slatepowered.inset.codec.DecodeInput;
 import slatepowered.inset.datastore.DataItem;
 import slatepowered.inset.datastore.Datastore;
 import slatepowered.inset.datastore.PartialItem;
 import slatepowered.inset.internal.ProjectionInterface;
-import slatepowered.inset.operation.Sorting;
 import slatepowered.inset.query.*;
 
 import java.lang.reflect.Type;
@@ -36,6 +36,12 @@ public abstract class SourcedItem<K, T> extends PartialItem<K, T> {
         return (SourcedItem<K2, T2>) this;
     }
 
+    @SuppressWarnings("unchecked")
+    public  <K2, T2> SourcedItem<K2, T2> qualify(Datastore<K2, T2> source) {
+        this.source = source;
+        return (SourcedItem<K2, T2>) this;
+    }
+
     // ensure a codec context for the reading
     // of partial data exists and return it
     private CodecContext ensurePartialCodecContext() {
@@ -95,22 +101,39 @@ public abstract class SourcedItem<K, T> extends PartialItem<K, T> {
     @Override
     @SuppressWarnings("unchecked")
     protected <V> V projectInterface(ProjectionInterface projectionInterface) {
-        return (V) projectionInterface.createProxy(this::getKey, (__, serializedName, expectedType) -> getField(serializedName, expectedType));
+        // the input is immutable so each field is only decoded once
+        return (V) projectionInterface.createProjection(this::getKey, (__, serializedName, expectedType) -> getField(serializedName, expectedType), true);
     }
 
     @Override
-    public double[] createFastOrderCoefficients(String[] fields, Sorting sorting) {
-        final int len = fields.length;
-        final double[] arr = new double[len];
-
-        for (int i = 0; i < len; i++) {
-            String field = fields[i];
-            Object obj = getField(field, Number.class);
-            if (obj instanceof Number)
-                arr[i] = ((Number) obj).doubleValue();
+    public Object readOrderValue(String fieldName) {
+        final DataCodec<K, T> codec = assertQualified().getDataCodec();
+        if (codec.getPrimaryKeyFieldName().equals(fieldName)) {
+            return getKey();
         }
 
-        return arr;
+        return getField(codec.toSerializedName(fieldName), Object.class);
+    }
+
+    /**
+     * Create an unqualified item for the item found by the given result.
+     *
+     * @param result The find result, which should have found an item.
+     * @param partial Whether the result was projected.
+     * @return The item.
+     */
+    public static SourcedItem<?, ?> of(DataSourceFindResult result, boolean partial) {
+        return new SourcedItem<Object, Object>() {
+            @Override
+            public boolean isPartial() {
+                return partial;
+            }
+
+            @Override
+            public DecodeInput input() {
+                return result.input();
+            }
+        };
     }
 
     @Override
@@ -0,0 +1,210 @@
+package slatepowered.inset.tiered;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.source.DataSource;
+import slatepowered.inset.source.SizedDataTable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Data source layering a local persistent data source in front of a remote one.
+ *
+ * Each table is a {@link TieredDataTable}, which serves reads by key from the local
+ * table and writes to both. Both sources have to store documents in the same format,
+ * for example an embedded BSON data source in front of MongoDB, because the outputs
+ * created by the remote source are written to the local tables as well.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class TieredDataSource implements DataSource {
+
+    // The data manager
+    private final DataManager dataManager;
+
+    // The local and remote data sources
+    @Getter
+    private final DataSource localSource;
+    @Getter
+    private final DataSource remoteSource;
+
+    @Getter
+    private final String versionField; // The field the version stamps are stored in, in both tiers
+
+    @Getter
+    private final String validatedField; // The field the time a local item was last validated is stored in
+
+    @Getter
+    private final long maxAge; // The maximum time in milliseconds before local items are revalidated, or zero
+
+    @Getter
+    private final long storageBudget; // The maximum size of each local table in bytes, or zero
+
+    @Getter
+    private final boolean writeBehind; // Whether to write to the remote tables asynchronously
+
+    @Getter
+    private final long retryDelay; // The initial delay in milliseconds before retrying a failed write behind
+
+    // The scheduler of retried writes, created when first required
+    private volatile ScheduledExecutorService retryScheduler;
+
+    // All created data tables
+    private final Map<String, TieredDataTable> dataTableMap = new ConcurrentHashMap<>();
+
+    public Collection<TieredDataTable> allTables() {
+        return dataTableMap.values();
+    }
+
+    @Override
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+
+    @Override
+    public EncodeOutput createDocumentSerializationOutput() {
+        return remoteSource.createDocumentSerializationOutput();
+    }
+
+    /**
+     * Get the scheduler used to retry failed writes to the remote tables.
+     */
+    ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            synchronized (this) {
+                if (retryScheduler == null) {
+                    retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "inset-tiered-retry");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+
+        return retryScheduler;
+    }
+
+    @Override
+    public TieredDataTable table(String name) {
+        return dataTableMap.computeIfAbsent(name, __ -> new TieredDataTable(this, name,
+                localSource.table(name), remoteSource.table(name)));
+    }
+
+    /**
+     * Creates a new builder.
+     */
+    public static Builder builder(DataManager dataManager) {
+        return new Builder(dataManager);
+    }
+
+    @RequiredArgsConstructor
+    public static class Builder {
+        /* Options */
+        private final DataManager dataManager;
+        private DataSource localSource;
+        private DataSource remoteSource;
+        private String versionField = "_version";
+        private String validatedField = "_validated";
+        private long maxAge = 60 * 1000;
+        private long storageBudget = 0;
+        private boolean writeBehind = false;
+        private long retryDelay = 1000;
+
+        /**
+         * Set the local data source, which should persist to the local disk.
+         */
+        public Builder local(DataSource localSource) {
+            this.localSource = localSource;
+            return this;
+        }
+
+        /**
+         * Set the remote data source, which is authoritative.
+         */
+        public Builder remote(DataSource remoteSource) {
+            this.remoteSource = remoteSource;
+            return this;
+        }
+
+        /**
+         * Set the name of the field the version stamps are stored in.
+         */
+        public Builder versionField(String versionField) {
+            this.versionField = versionField;
+            return this;
+        }
+
+        /**
+         * Set the name of the field the time a local item was last validated
+         * against the remote table is stored in, only used in the local tables.
+         */
+        public Builder validatedField(String validatedField) {
+            this.validatedField = validatedField;
+            return this;
+        }
+
+        /**
+         * Set the maximum time in milliseconds after which items in the local tables
+         * are validated against the version in the remote tables, one minute by default.
+         *
+         * With zero local items are never revalidated, so changes made to the remote
+         * tables by other nodes are only seen after {@link TieredDataTable#invalidateAll()}.
+         */
+        public Builder maxAge(long maxAge) {
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * Set the maximum size in bytes of each local table, zero for no limit.
+         * Only applies to local tables implementing {@link SizedDataTable}.
+         */
+        public Builder storageBudget(long storageBudget) {
+            this.storageBudget = storageBudget;
+            return this;
+        }
+
+        /**
+         * Set whether writes are sent to the remote tables asynchronously
+         * after they have been written to the local tables.
+         */
+        public Builder writeBehind(boolean writeBehind) {
+            this.writeBehind = writeBehind;
+            return this;
+        }
+
+        /**
+         * Set the initial delay in milliseconds before a failed write to a remote
+         * table is retried when writing behind, which doubles with each failure.
+         */
+        public Builder retryDelay(long retryDelay) {
+            this.retryDelay = retryDelay;
+            return this;
+        }
+
+        public TieredDataSource build() {
+            if (localSource == null || remoteSource == null)
+                throw new IllegalArgumentException("A local and remote data source are required for a tiered data source");
+
+            return new TieredDataSource(
+                    dataManager,
+                    localSource,
+                    remoteSource,
+                    versionField,
+                    validatedField,
+                    maxAge,
+                    storageBudget,
+                    writeBehind,
+                    Math.max(1, retryDelay)
+            );
+        }
+    }
+
+}
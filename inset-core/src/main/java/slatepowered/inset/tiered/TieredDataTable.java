@@ -0,0 +1,433 @@
+package slatepowered.inset.tiered;
+
+import lombok.Getter;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.operation.Projection;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * A data table layering a local table in front of a remote table.
+ *
+ * Every written item is stamped with a version, which is the time it was written
+ * in milliseconds, made unique and increasing, and stored in both tables. Reads by
+ * key are served from the local table if it holds the item and it was validated
+ * within the maximum age of the source. Older local items are validated by loading
+ * only the version of the remote item, so they are only loaded completely again if
+ * the remote item was changed. Items which are not held locally are loaded from the
+ * remote table and stored in the local table with the remote version. When the remote
+ * table fails while a local version exists, the local version is served. All other
+ * reads go to the remote table, which is authoritative. Deletes cancel the pending
+ * writes behind of the deleted items and wait for the writes already in flight.
+ *
+ * Because the local table persists, a restarted node serves the items it stored
+ * before from the local disk, revalidating them as they age.
+ */
+public class TieredDataTable implements DataTable {
+
+    // The maximum delay between retries of a failed write behind
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+    // The tiered data source
+    protected final TieredDataSource source;
+
+    @Getter
+    protected final String name;
+
+    @Getter
+    protected final DataTable localTable;
+    @Getter
+    protected final DataTable remoteTable;
+
+    // The last version stamp handed out
+    private final AtomicLong lastVersion = new AtomicLong();
+
+    // The latest outputs waiting to be written to the remote table
+    // by their primary key, when writing behind
+    private final Map<Object, EncodeOutput> pendingWrites = new ConcurrentHashMap<>();
+
+    // Held shared by writes behind while writing to the remote table and exclusively
+    // by deletes, so a write behind in flight can not complete after a delete
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    // Whether the local table is being trimmed to the storage budget
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    TieredDataTable(TieredDataSource source, String name, DataTable localTable, DataTable remoteTable) {
+        this.source = source;
+        this.name = name;
+        this.localTable = localTable;
+        this.remoteTable = remoteTable;
+    }
+
+    @Override
+    public TieredDataSource getSource() {
+        return source;
+    }
+
+    // get a new unique version stamp
+    private long nextVersion() {
+        final long now = System.currentTimeMillis();
+        return lastVersion.updateAndGet(last -> Math.max(now, last + 1));
+    }
+
+    // read the version stamp from the given input
+    private long readVersion(CodecContext context, DecodeInput input) {
+        return input.readLong(context, source.getVersionField(), Long.MIN_VALUE);
+    }
+
+    // check whether the local item read by the given input
+    // was validated within the maximum age
+    private boolean isFresh(CodecContext context, DecodeInput input) {
+        final long maxAge = source.getMaxAge();
+        if (maxAge <= 0) {
+            return true;
+        }
+
+        // items written on this node are validated when written
+        long validated = Math.max(readVersion(context, input),
+                input.readLong(context, source.getValidatedField(), Long.MIN_VALUE));
+        return validated >= System.currentTimeMillis() - maxAge;
+    }
+
+    /**
+     * Remove all items from the local table, causing them to be
+     * reloaded from the remote table when they are read.
+     *
+     * The items which are still waiting to be written to the
+     * remote table are kept.
+     */
+    public void invalidateAll() {
+        localTable.drop();
+        for (EncodeOutput output : pendingWrites.values()) {
+            writeLocal(output);
+        }
+    }
+
+    /**
+     * Remove the items matching the given query from the local table,
+     * causing them to be reloaded from the remote table when they are read.
+     *
+     * @param query The query.
+     * @return The amount of removed items.
+     */
+    public long invalidate(Query query) {
+        return localTable.deleteAll(query);
+    }
+
+    /**
+     * Get the amount of items waiting to be written to the remote table.
+     *
+     * @return The amount of pending writes.
+     */
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    /**
+     * Synchronously write all items waiting to be written behind to the
+     * remote table, throwing the error of the first write that fails.
+     *
+     * @throws DataSourceException Any errors that may occur.
+     */
+    public void flushSync() throws DataSourceException {
+        for (Object key : pendingWrites.keySet()) {
+            flushLock.readLock().lock();
+            try {
+                EncodeOutput output = pendingWrites.get(key);
+                if (output == null) {
+                    continue;
+                }
+
+                remoteTable.replaceOneSync(output);
+                pendingWrites.remove(key, output);
+            } finally {
+                flushLock.readLock().unlock();
+            }
+        }
+    }
+
+    // write the given output to the local table
+    private void writeLocal(EncodeOutput output) {
+        localTable.replaceOneSync(output);
+
+        // trim the local table in the background when it exceeds the budget
+        final long budget = source.getStorageBudget();
+        if (budget > 0 && localTable instanceof SizedDataTable) {
+            SizedDataTable sizedTable = (SizedDataTable) localTable;
+            if (sizedTable.getStorageSize() > budget && trimming.compareAndSet(false, true)) {
+                source.getExecutorService().execute(() -> {
+                    try {
+                        sizedTable.trimTo(budget);
+                    } finally {
+                        trimming.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    // schedule the given output to be written to the remote table, coalescing
+    // writes to the same key which have not been sent yet
+    private void writeBehind(EncodeOutput output) {
+        final Object key = output.getSetKey();
+        if (pendingWrites.put(key, output) != null) {
+            // the scheduled task will write the latest output
+            return;
+        }
+
+        source.getExecutorService().execute(() -> flushBehind(key, source.getRetryDelay()));
+    }
+
+    // write the latest pending output for the given key to the remote table, a failed
+    // write is kept pending and retried after the given delay, which doubles each time
+    private void flushBehind(Object key, long delay) {
+        while (true) {
+            EncodeOutput latest;
+            flushLock.readLock().lock();
+            try {
+                // the write was cancelled by a delete
+                if ((latest = pendingWrites.get(key)) == null) {
+                    return;
+                }
+
+                remoteTable.replaceOneSync(latest);
+            } catch (Throwable t) {
+                System.err.println("Failed to write item " + key + " behind to remote table " + name + ", retrying in " + delay + "ms");
+                t.printStackTrace();
+
+                final long nextDelay = Math.min(delay * 2, MAX_RETRY_DELAY);
+                source.getRetryScheduler().schedule(() -> source.getExecutorService().execute(() -> flushBehind(key, nextDelay)),
+                        delay, TimeUnit.MILLISECONDS);
+                return;
+            } finally {
+                flushLock.readLock().unlock();
+            }
+
+            if (pendingWrites.remove(key, latest)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void ensureIndexes(DataCodec<?, ?> codec) throws DataSourceException {
+        remoteTable.ensureIndexes(codec);
+        localTable.ensureIndexes(codec);
+    }
+
+    @Override
+    public void replaceOneSync(EncodeOutput output) throws DataSourceException {
+        output.setLong(new CodecContext(source.getDataManager()), source.getVersionField(), nextVersion());
+
+        if (source.isWriteBehind()) {
+            writeLocal(output);
+            writeBehind(output);
+        } else {
+            remoteTable.replaceOneSync(output);
+            writeLocal(output);
+        }
+    }
+
+    // store the item read by the given input in the local table with
+    // the given version, marking it as validated now
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void storeLocal(CodecContext context, Query query, DecodeInput input, long version) {
+        DataCodec codec = query.getDatastore().getDataCodec();
+        Object value = codec.constructAndDecode(context, input);
+
+        EncodeOutput output = localTable.getSource().createDocumentSerializationOutput();
+        output.setSetKey(context, codec.getPrimaryKeyFieldName(), codec.getPrimaryKey(value));
+        codec.encode(context, value, output);
+        output.setLong(context, source.getVersionField(), version);
+        output.setLong(context, source.getValidatedField(), System.currentTimeMillis());
+        writeLocal(output);
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query) throws DataSourceException {
+        if (!query.hasKey()) {
+            return remoteTable.findOneSync(query);
+        }
+
+        CodecContext context = new CodecContext(source.getDataManager());
+        DataSourceFindResult localResult;
+        try {
+            localResult = localTable.findOneSync(query);
+        } catch (DataSourceException e) {
+            System.err.println("Failed to read from local table " + name + ", reading from the remote table");
+            e.printStackTrace();
+            localResult = null;
+        }
+
+        final boolean foundLocal = localResult != null && localResult.found();
+        if (foundLocal && (pendingWrites.containsKey(query.getKey()) || isFresh(context, localResult.input()))) {
+            return localResult;
+        }
+
+        try {
+            if (foundLocal) {
+                // validate the local item against the version of the remote item
+                final long localVersion = readVersion(context, localResult.input());
+                DataSourceFindResult versionResult = remoteTable.findOneSync(query, Projection.include(source.getVersionField()));
+                if (!versionResult.found()) {
+                    localTable.deleteOne(query);
+                    return versionResult;
+                }
+
+                if (localVersion != Long.MIN_VALUE && readVersion(context, versionResult.input()) == localVersion) {
+                    storeLocal(context, query, localResult.input(), localVersion);
+                    return localResult;
+                }
+            }
+
+            DataSourceFindResult remoteResult = remoteTable.findOneSync(query);
+            if (remoteResult.found()) {
+                storeLocal(context, query, remoteResult.input(), readVersion(context, remoteResult.input()));
+            }
+
+            return remoteResult;
+        } catch (DataSourceException e) {
+            if (foundLocal) {
+                // serve the local version while the remote is unavailable
+                return localResult;
+            }
+
+            throw e;
+        }
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query, Projection projection) throws DataSourceException {
+        // items by key are read from the local table
+        // completely, as the local copy has to be complete
+        return query.hasKey() ? findOneSync(query) : remoteTable.findOneSync(query, projection);
+    }
+
+    @Override
+    public DataSourceBulkIterable findAllSync(Query query) throws DataSourceException {
+        return remoteTable.findAllSync(query);
+    }
+
+    // get the keys of the pending writes of items matching the given query,
+    // the latest pending outputs are also held by the local table
+    private Set<Object> matchingPendingKeys(Query query) {
+        if (pendingWrites.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        if (query.hasKey()) {
+            return pendingWrites.containsKey(query.getKey()) ? Collections.singleton(query.getKey()) : Collections.emptySet();
+        }
+
+        if (query.fieldConstraintCount() == 0) {
+            return new HashSet<>(pendingWrites.keySet());
+        }
+
+        Set<Object> keys = new HashSet<>();
+        try (Stream<SourcedItem<?, ?>> stream = localTable.findAllSync(query).stream()) {
+            stream.forEach(item -> {
+                Object key = item.qualify(query.getDatastore()).getKey();
+                if (pendingWrites.containsKey(key)) {
+                    keys.add(key);
+                }
+            });
+        }
+
+        return keys;
+    }
+
+    @Override
+    public boolean deleteOne(Query query) {
+        flushLock.writeLock().lock();
+        try {
+            if (query.hasKey()) {
+                pendingWrites.remove(query.getKey());
+            } else {
+                // write the matching pending items first, so the remote
+                // table deletes the first match of their latest state
+                for (Object key : matchingPendingKeys(query)) {
+                    EncodeOutput output = pendingWrites.get(key);
+                    if (output != null) {
+                        remoteTable.replaceOneSync(output);
+                        pendingWrites.remove(key, output);
+                    }
+                }
+            }
+
+            // the local table may hold a different first match,
+            // so all matching local items are invalidated
+            boolean deleted = remoteTable.deleteOne(query);
+            localTable.deleteAll(query);
+            return deleted;
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long deleteAll(Query query) {
+        flushLock.writeLock().lock();
+        try {
+            // cancel the pending writes of the deleted items,
+            // otherwise they would be written again later
+            for (Object key : matchingPendingKeys(query)) {
+                pendingWrites.remove(key);
+            }
+
+            long count = remoteTable.deleteAll(query);
+            localTable.deleteAll(query);
+            return count;
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(Query query) throws DataSourceException {
+        return remoteTable.exists(query);
+    }
+
+    @Override
+    public long estimatedCount() throws DataSourceException {
+        return remoteTable.estimatedCount();
+    }
+
+    @Override
+    public long count(Query query) {
+        return remoteTable.count(query);
+    }
+
+    @Override
+    public void drop() {
+        flushLock.writeLock().lock();
+        try {
+            pendingWrites.clear();
+            remoteTable.drop();
+            localTable.drop();
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TieredDataTable('" + name + "', " + localTable + " -> " + remoteTable + ")";
+    }
+
+}
@@ -0,0 +1,65 @@
+package slatepowered.inset.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves enum constants by name, first by the exact name and then
+ * case insensitively, through a table computed once per enum class.
+ *
+ * The tables are stored in a {@link ClassValue} so they can be read
+ * concurrently without locking and do not keep the enum classes alive.
+ */
+public final class EnumLookup {
+
+    private EnumLookup() { throw new UnsupportedOperationException("Utility class"); }
+
+    // The table of constants per enum class
+    private static final ClassValue<Table> TABLES = new ClassValue<Table>() {
+        @Override
+        protected Table computeValue(Class<?> type) {
+            return new Table(type);
+        }
+    };
+
+    /**
+     * The constants of one enum class by exact and lower case name.
+     */
+    static final class Table {
+        final Map<String, Object> exact = new HashMap<>();
+        final Map<String, Object> lowerCase = new HashMap<>();
+
+        Table(Class<?> enumClass) {
+            Object[] constants = enumClass.getEnumConstants();
+            if (constants == null) {
+                return;
+            }
+
+            for (Object constant : constants) {
+                String name = ((Enum<?>) constant).name();
+                exact.put(name, constant);
+                lowerCase.putIfAbsent(name.toLowerCase(Locale.ROOT), constant);
+            }
+        }
+    }
+
+    /**
+     * Find the constant of the given enum class with the given name, the
+     * exact name is preferred over a case insensitive match.
+     *
+     * @param enumClass The enum class.
+     * @param name The name of the constant.
+     * @return The constant or null if absent.
+     */
+    public static Object find(Class<?> enumClass, String name) {
+        Table table = TABLES.get(enumClass);
+        Object constant = table.exact.get(name);
+        if (constant == null) {
+            constant = table.lowerCase.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        return constant;
+    }
+
+}
@@ -0,0 +1,223 @@
+package slatepowered.inset.util;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A set of primary keys optimized for checking raw key values read from
+ * a data source against, without having to decode them first.
+ *
+ * Integral number keys and {@link UUID} keys are stored in open addressing
+ * tables of primitive longs, all other keys are stored in a regular hash set.
+ */
+public final class KeySet {
+
+    private static final KeySet EMPTY = new KeySet();
+
+    /**
+     * Get an empty, immutable key set.
+     *
+     * @return The empty set.
+     */
+    public static KeySet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a new key set containing all the given keys.
+     *
+     * @param keys The keys.
+     * @return The key set.
+     */
+    public static KeySet of(Collection<?> keys) {
+        KeySet set = new KeySet();
+        for (Object key : keys) {
+            set.add(key);
+        }
+
+        return set;
+    }
+
+    /* Integral number keys */
+    private long[] longTable;  // The open addressing table of long keys
+    private boolean[] longUsed; // Whether the slot at the index is used
+    private int longCount;
+
+    /* UUID keys */
+    private long[] uuidTable;   // The open addressing table of UUIDs, two longs per slot
+    private boolean[] uuidUsed; // Whether the slot at the index is used
+    private int uuidCount;
+
+    /* Other keys */
+    private Set<Object> objects;
+
+    // mix the bits of the given long to spread
+    // keys with similar values across the table
+    private static int mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        return (int) x;
+    }
+
+    /**
+     * Add the given key to this set.
+     *
+     * @param key The key.
+     * @return This.
+     */
+    public KeySet add(Object key) {
+        if (this == EMPTY) {
+            throw new UnsupportedOperationException("Can not add keys to the empty key set");
+        }
+
+        if (key == null) {
+            return this;
+        }
+
+        if (isIntegral(key)) {
+            addLong(((Number) key).longValue());
+        } else if (key instanceof UUID) {
+            UUID uuid = (UUID) key;
+            addUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } else {
+            if (objects == null) objects = new HashSet<>();
+            objects.add(key);
+        }
+
+        return this;
+    }
+
+    private void addLong(long value) {
+        if (longTable == null || (longCount + 1) * 2 > longTable.length) {
+            resizeLongs(longTable == null ? 16 : longTable.length * 2);
+        }
+
+        final int mask = longTable.length - 1;
+        int i = mix(value) & mask;
+        while (longUsed[i]) {
+            if (longTable[i] == value) return;
+            i = (i + 1) & mask;
+        }
+
+        longTable[i] = value;
+        longUsed[i] = true;
+        longCount++;
+    }
+
+    private void resizeLongs(int capacity) {
+        long[] oldTable = longTable;
+        boolean[] oldUsed = longUsed;
+        longTable = new long[capacity];
+        longUsed = new boolean[capacity];
+        longCount = 0;
+
+        if (oldTable != null) {
+            for (int i = 0; i < oldTable.length; i++) {
+                if (oldUsed[i]) addLong(oldTable[i]);
+            }
+        }
+    }
+
+    private void addUuid(long msb, long lsb) {
+        if (uuidTable == null || (uuidCount + 1) * 2 > uuidUsed.length) {
+            resizeUuids(uuidTable == null ? 16 : uuidUsed.length * 2);
+        }
+
+        final int mask = uuidUsed.length - 1;
+        int i = mix(msb ^ lsb) & mask;
+        while (uuidUsed[i]) {
+            if (uuidTable[i << 1] == msb && uuidTable[(i << 1) + 1] == lsb) return;
+            i = (i + 1) & mask;
+        }
+
+        uuidTable[i << 1] = msb;
+        uuidTable[(i << 1) + 1] = lsb;
+        uuidUsed[i] = true;
+        uuidCount++;
+    }
+
+    private void resizeUuids(int capacity) {
+        long[] oldTable = uuidTable;
+        boolean[] oldUsed = uuidUsed;
+        uuidTable = new long[capacity * 2];
+        uuidUsed = new boolean[capacity];
+        uuidCount = 0;
+
+        if (oldTable != null) {
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i]) addUuid(oldTable[i << 1], oldTable[(i << 1) + 1]);
+            }
+        }
+    }
+
+    /**
+     * Check whether the given integral key is contained by this set.
+     *
+     * @param value The key value.
+     * @return Whether it is contained.
+     */
+    public boolean containsLong(long value) {
+        if (longCount == 0) return false;
+        final int mask = longTable.length - 1;
+        int i = mix(value) & mask;
+        while (longUsed[i]) {
+            if (longTable[i] == value) return true;
+            i = (i + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether the UUID key with the given bits is contained by this set.
+     *
+     * @param msb The most significant bits.
+     * @param lsb The least significant bits.
+     * @return Whether it is contained.
+     */
+    public boolean containsUuid(long msb, long lsb) {
+        if (uuidCount == 0) return false;
+        final int mask = uuidUsed.length - 1;
+        int i = mix(msb ^ lsb) & mask;
+        while (uuidUsed[i]) {
+            if (uuidTable[i << 1] == msb && uuidTable[(i << 1) + 1] == lsb) return true;
+            i = (i + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether the given raw key is contained by this set.
+     *
+     * @param key The key.
+     * @return Whether it is contained.
+     */
+    public boolean contains(Object key) {
+        if (key == null) return false;
+        if (isIntegral(key)) return containsLong(((Number) key).longValue());
+        if (key instanceof UUID) return containsUuid(((UUID) key).getMostSignificantBits(), ((UUID) key).getLeastSignificantBits());
+        return objects != null && objects.contains(key);
+    }
+
+    /**
+     * Get the amount of keys in this set.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return longCount + uuidCount + (objects != null ? objects.size() : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private static boolean isIntegral(Object key) {
+        return key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte;
+    }
+
+}
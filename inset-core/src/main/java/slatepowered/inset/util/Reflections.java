@@ -4,9 +4,8 @@ import slatepowered.veru.misc.Throwables;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Support for reflections.
@@ -20,16 +19,19 @@ public final class Reflections {
     public static final Method METHOD_OBJECT_TOSTRING = getMethod(Object.class, "toString");
     public static final Method METHOD_OBJECT_HASHCODE = getMethod(Object.class, "hashCode");
 
-    private final static Map<String, WeakReference<Class<?>>> classCache = new WeakHashMap<>();
+    // The resolved classes by name, the classes are weakly referenced
+    // so the cache does not keep their class loaders alive
+    private final static Map<String, WeakReference<Class<?>>> classCache = new ConcurrentHashMap<>();
 
     public static Class<?> findClass(String name) {
         try {
             WeakReference<Class<?>> ref = classCache.get(name);
-            if (ref != null) {
-                return ref.get();
+            Class<?> klass = ref != null ? ref.get() : null;
+            if (klass != null) {
+                return klass;
             }
 
-            Class<?> klass = Class.forName(name);
+            klass = Class.forName(name);
             classCache.put(name, new WeakReference<>(klass));
             return klass;
         } catch (ClassNotFoundException ex) {
@@ -0,0 +1,88 @@
+package slatepowered.inset.util;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Utilities for creating generic {@link Type}s without reflection,
+ * used by generated codecs to describe their field types.
+ */
+public final class Types {
+
+    private Types() { throw new UnsupportedOperationException("Utility class"); }
+
+    /**
+     * Create a parameterized type with the given raw type and type arguments.
+     *
+     * The returned type is equal to the equivalent types returned by reflection.
+     *
+     * @param rawType The raw type.
+     * @param typeArguments The type arguments.
+     * @return The parameterized type.
+     */
+    public static ParameterizedType parameterized(Class<?> rawType, Type... typeArguments) {
+        return new ParameterizedTypeImpl(rawType, typeArguments, rawType.getDeclaringClass());
+    }
+
+    static final class ParameterizedTypeImpl implements ParameterizedType {
+        final Class<?> rawType;
+        final Type[] typeArguments;
+        final Type ownerType;
+
+        ParameterizedTypeImpl(Class<?> rawType, Type[] typeArguments, Type ownerType) {
+            this.rawType = rawType;
+            this.typeArguments = typeArguments;
+            this.ownerType = ownerType;
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            return typeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return rawType;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return ownerType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ParameterizedType)) return false;
+            ParameterizedType that = (ParameterizedType) o;
+            return rawType.equals(that.getRawType()) &&
+                    Objects.equals(ownerType, that.getOwnerType()) &&
+                    Arrays.equals(typeArguments, that.getActualTypeArguments());
+        }
+
+        // matches the hash code of the JDK implementation
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(typeArguments) ^ Objects.hashCode(ownerType) ^ rawType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder(rawType.getName());
+            if (typeArguments.length > 0) {
+                b.append('<');
+                for (int i = 0; i < typeArguments.length; i++) {
+                    if (i != 0) b.append(", ");
+                    b.append(typeArguments[i].getTypeName());
+                }
+
+                b.append('>');
+            }
+
+            return b.toString();
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package slatepowered.inset.datastore;
+
+import org.junit.jupiter.api.Test;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.cache.DataCache;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.CodecRegistry;
+import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.reflective.Key;
+import slatepowered.inset.reflective.ReflectiveCodecFactory;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataItemTest {
+
+    public static class Entry {
+        @Key
+        protected String id;
+
+        protected int score;
+        protected List<String> tags;
+    }
+
+    /**
+     * Reads the values from a map by field name, reusing existing lists.
+     */
+    static class MapDecodeInput extends DecodeInput {
+        final Map<String, Object> values;
+
+        MapDecodeInput(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object read(CodecContext context, String field, Type expectedType) {
+            Object value = values.get(field);
+            return value instanceof List ? new ArrayList<>((List<?>) value) : value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object readInto(CodecContext context, String field, Type expectedType, Object existing) {
+            Object value = values.get(field);
+            if (value instanceof List && existing instanceof List) {
+                List<Object> list = (List<Object>) existing;
+                list.clear();
+                list.addAll((List<?>) value);
+                return list;
+            }
+
+            return read(context, field, expectedType);
+        }
+
+        @Override
+        protected Object readKey(String field, Type expectedType) {
+            return values.get(field);
+        }
+    }
+
+    static MapDecodeInput input(int score, String... tags) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("id", "a");
+        values.put("score", score);
+        values.put("tags", Arrays.asList(tags));
+        return new MapDecodeInput(values);
+    }
+
+    static Datastore<String, Entry> datastore(boolean inPlaceRefresh) {
+        DataManager dataManager = DataManager.builder()
+                .executorService(ForkJoinPool.commonPool())
+                .codecRegistry(new CodecRegistry(ReflectiveCodecFactory.builder().build()))
+                .build();
+        return dataManager.datastore(String.class, Entry.class)
+                .dataCache(DataCache.doubleBackedConcurrent())
+                .inPlaceRefresh(inPlaceRefresh)
+                .build();
+    }
+
+    @Test
+    void refreshReplacesValue() {
+        DataItem<String, Entry> item = datastore(false).getOrReference("a");
+        Entry first = item.decode(input(1, "x")).get();
+        Entry second = item.decode(input(2, "y")).get();
+        Entry third = item.decode(input(3, "z")).get();
+
+        // published values are never modified
+        assertNotSame(first, second);
+        assertNotSame(first, third);
+        assertEquals(1, first.score);
+        assertEquals(Arrays.asList("x"), first.tags);
+        assertEquals(3, third.score);
+    }
+
+    @Test
+    void inPlaceRefreshReusesSpareValue() {
+        DataItem<String, Entry> item = datastore(true).getOrReference("a");
+        Entry first = item.decode(input(1, "x")).get();
+        List<String> firstTags = first.tags;
+        Entry second = item.decode(input(2, "y")).get();
+
+        // the current value is not modified by the refresh replacing it
+        assertNotSame(first, second);
+        assertEquals(1, first.score);
+        assertEquals(Arrays.asList("x"), first.tags);
+
+        // the replaced value and its collections are reused by the next refresh
+        Entry third = item.decode(input(3, "z")).get();
+        assertSame(first, third);
+        assertSame(firstTags, third.tags);
+        assertEquals(3, third.score);
+        assertEquals(Arrays.asList("z"), third.tags);
+        assertEquals(2, second.score);
+        assertEquals("a", third.id);
+
+        // values set by the user are not reused
+        Entry set = new Entry();
+        item.set(set);
+        item.decode(input(4));
+        assertNotSame(second, item.get());
+        assertNull(set.tags);
+    }
+
+    @Test
+    void decodePartialReplacesValue() {
+        DataItem<String, Entry> item = datastore(true).getOrReference("a");
+        Entry first = item.decode(input(1, "x")).get();
+        List<String> firstTags = first.tags;
+        assertTrue(item.decodePartial(input(2, "y"), Arrays.asList("tags")));
+
+        // the fields are merged into a copy
+        Entry merged = item.get();
+        assertNotSame(first, merged);
+        assertEquals(Arrays.asList("x"), first.tags);
+        assertSame(firstTags, first.tags);
+        assertEquals(Arrays.asList("y"), merged.tags);
+        assertEquals(1, merged.score);
+        assertEquals("a", merged.id);
+
+        // the copied value shares fields so it is not reused
+        Entry refreshed = item.decode(input(3, "z")).get();
+        assertNotSame(first, refreshed);
+        assertEquals(Arrays.asList("x"), first.tags);
+    }
+
+}
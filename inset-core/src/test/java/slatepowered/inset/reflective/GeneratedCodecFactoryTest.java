@@ -0,0 +1,183 @@
+package slatepowered.inset.reflective;
+
+import org.junit.jupiter.api.Test;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.codec.ValueCodec;
+import slatepowered.inset.util.NotNullable;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeneratedCodecFactoryTest {
+
+    public static class Sample {
+        @Key
+        protected String id;
+
+        protected int i;
+        protected long l;
+        protected double d;
+        protected float f;
+        protected short s;
+        protected byte b;
+        protected boolean z;
+        protected char c;
+
+        protected String string;
+        protected Integer boxed;
+        protected List<String> list;
+
+        @NotNullable
+        protected int kept = 7;
+        @NotNullable
+        protected String keptString = "default";
+    }
+
+    public static class Value {
+        protected int i;
+        protected String string;
+    }
+
+    /**
+     * Records the encoded values by field name.
+     */
+    static class MapEncodeOutput extends EncodeOutput {
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        @Override
+        protected void registerKey(CodecContext context, String name, Object key) {
+            values.put(name, key);
+        }
+
+        @Override
+        public void set(CodecContext context, String field, Object value, Type definedType) {
+            values.put(field, value);
+        }
+    }
+
+    /**
+     * Reads the values from a map by field name.
+     */
+    static class MapDecodeInput extends DecodeInput {
+        final Map<String, Object> values;
+
+        MapDecodeInput(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object read(CodecContext context, String field, Type expectedType) {
+            return values.get(field);
+        }
+
+        @Override
+        protected Object readKey(String field, Type expectedType) {
+            return values.get(field);
+        }
+    }
+
+    static final CodecContext CONTEXT = new CodecContext(null);
+
+    static <T> Map<String, Object> encode(ValueCodec<T> codec, T value) {
+        MapEncodeOutput output = new MapEncodeOutput();
+        codec.encode(CONTEXT, value, output);
+        return output.values;
+    }
+
+    static <T> T decode(ValueCodec<T> codec, Map<String, Object> values) {
+        MapDecodeInput input = new MapDecodeInput(values);
+        T value = codec.construct(CONTEXT, input);
+        codec.decode(CONTEXT, value, input);
+        return value;
+    }
+
+    static Sample sample() {
+        Sample sample = new Sample();
+        sample.id = "a";
+        sample.i = -5;
+        sample.l = Long.MAX_VALUE;
+        sample.d = 2.5;
+        sample.f = -1.25f;
+        sample.s = Short.MIN_VALUE;
+        sample.b = 120;
+        sample.z = true;
+        sample.c = 'x';
+        sample.string = "string";
+        sample.boxed = 3;
+        sample.list = Arrays.asList("a", "b");
+        sample.kept = 9;
+        sample.keptString = "set";
+        return sample;
+    }
+
+    @Test
+    void generatesCodecClasses() {
+        ValueCodec<Sample> dataCodec = GeneratedCodecFactory.builder().build().create(null, Sample.class);
+        assertTrue(dataCodec instanceof UnsafeReflectiveDataCodec);
+        assertNotEquals(UnsafeReflectiveDataCodec.class, dataCodec.getClass());
+
+        ValueCodec<Value> valueCodec = GeneratedCodecFactory.builder().build().create(null, Value.class);
+        assertTrue(valueCodec instanceof UnsafeReflectiveValueCodec);
+        assertNotEquals(UnsafeReflectiveValueCodec.class, valueCodec.getClass());
+    }
+
+    @Test
+    void encodeMatchesReflective() {
+        ValueCodec<Sample> generated = GeneratedCodecFactory.builder().build().create(null, Sample.class);
+        ValueCodec<Sample> reflective = ReflectiveCodecFactory.createReflective(Sample.class);
+
+        Sample sample = sample();
+        Map<String, Object> expected = encode(reflective, sample);
+        assertEquals(expected, encode(generated, sample));
+
+        // defaults are encoded the same way too
+        assertEquals(encode(reflective, new Sample()), encode(generated, new Sample()));
+
+        Value value = new Value();
+        value.i = 42;
+        value.string = "value";
+        assertEquals(encode(ReflectiveCodecFactory.createReflective(Value.class), value),
+                encode(GeneratedCodecFactory.builder().build().create(null, Value.class), value));
+    }
+
+    @Test
+    void decodeMatchesReflective() {
+        ValueCodec<Sample> generated = GeneratedCodecFactory.builder().build().create(null, Sample.class);
+        ValueCodec<Sample> reflective = ReflectiveCodecFactory.createReflective(Sample.class);
+
+        // decoding what was encoded restores the value
+        Map<String, Object> encoded = encode(reflective, sample());
+        encoded.put("id", "a");
+        Map<String, Object> expected = encode(reflective, decode(reflective, encoded));
+        assertEquals(expected, encode(reflective, decode(generated, encoded)));
+        assertEquals("a", decode(generated, encoded).id);
+
+        // numbers of other types are converted to the field type
+        Map<String, Object> converted = new HashMap<>();
+        converted.put("id", "b");
+        converted.put("i", 5L);
+        converted.put("l", 6);
+        converted.put("d", 7);
+        converted.put("s", 8.0);
+        assertEquals(encode(reflective, decode(reflective, converted)), encode(reflective, decode(generated, converted)));
+
+        // absent fields are zero or null, unless not nullable
+        Map<String, Object> absent = new HashMap<>();
+        absent.put("id", "c");
+        Sample decoded = decode(generated, absent);
+        assertEquals(encode(reflective, decode(reflective, absent)), encode(reflective, decoded));
+        assertEquals(0, decoded.i);
+        assertNull(decoded.string);
+        assertEquals(7, decoded.kept);
+        assertEquals("default", decoded.keptString);
+    }
+
+}
@@ -0,0 +1,379 @@
+package slatepowered.inset.jdbc;
+
+import org.bson.RawBsonDocument;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.operation.FieldOrderSorting;
+import slatepowered.inset.operation.FieldOrdering;
+import slatepowered.inset.operation.Projection;
+import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.query.PageToken;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.DataSourceBulkIterable;
+import slatepowered.inset.source.DataSourceException;
+import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.KeySet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The results of a find-all query on a {@link JdbcDataTable}.
+ *
+ * The statement is executed when the first item is requested. If all constraints
+ * and sorted fields are stored in columns the sorting, paging and limits are done
+ * by the database and the rows are streamed from the result set, otherwise the
+ * matching rows are collected and sorted locally.
+ *
+ * Projections are not applied, the complete documents are always returned.
+ */
+final class JdbcBulkIterable implements DataSourceBulkIterable {
+
+    private final JdbcDataTable table;
+    private final Query query;
+
+    // The compiled filter
+    private final JdbcQueries.SqlFilter filter;
+
+    /* Options */
+    private KeySet excludedKeys;
+    private FieldOrderSorting sorting;
+    private PageToken afterToken;
+    private int batchSize;
+    private int skip;
+    private int limit = -1;
+
+    // The cursor over the result documents, opened when
+    // the first item is requested
+    private Cursor cursor;
+
+    JdbcBulkIterable(JdbcDataTable table, Query query, JdbcQueries.SqlFilter filter) {
+        this.table = table;
+        this.query = query;
+        this.filter = filter;
+        this.batchSize = table.getSource().getFetchSize();
+    }
+
+    @Override
+    public String getPrimaryKeyFieldOverride() {
+        return table.getSource().getKeyFieldOverride();
+    }
+
+    @Override
+    public Query getQuery() {
+        return query;
+    }
+
+    private DataCodec<?, ?> codec() {
+        return query.getDatastore().getDataCodec();
+    }
+
+    @Override
+    public DataSourceBulkIterable batch(int size) {
+        this.batchSize = size;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable filter(Query query) {
+        filter.and(JdbcQueries.compileFilter(table, query));
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable projection(Projection projection) {
+        // the documents are stored as a whole, so the
+        // complete documents are returned
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable sort(Sorting sorting) {
+        if (!(sorting instanceof FieldOrderSorting)) {
+            throw new UnsupportedOperationException("Unsupported sorting type: " + sorting.getClass().getName());
+        }
+
+        this.sorting = (FieldOrderSorting) sorting;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable skip(int amount) {
+        this.skip = amount;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable excludeKeys(KeySet keys) {
+        this.excludedKeys = keys;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable after(FieldOrderSorting sorting, PageToken token) {
+        this.sorting = sorting;
+        this.afterToken = token;
+        return this;
+    }
+
+    /**
+     * Iterates the documents of the rows of an executed statement, checking the
+     * residual constraints and excluded keys. The connection is closed once the
+     * rows are exhausted, the limit is reached or the cursor is closed.
+     */
+    private final class Cursor implements Iterator<RawBsonDocument>, AutoCloseable {
+        final Connection connection;
+        final PreparedStatement statement;
+        final ResultSet resultSet;
+        final String rawKeyField;
+
+        // The amount of matched rows which still have to be
+        // skipped and the remaining amount of rows to return
+        int toSkip;
+        int remaining;
+
+        RawBsonDocument next;
+        boolean closed;
+
+        Cursor(String sql, JdbcQueries.SqlFilter filter, int toSkip, int remaining) throws SQLException {
+            this.rawKeyField = table.rawKeyField(query);
+            this.toSkip = toSkip;
+            this.remaining = remaining;
+            this.connection = table.getSource().connection();
+            try {
+                // most drivers only stream results inside a transaction
+                connection.setAutoCommit(false);
+                this.statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                JdbcDataTable.bind(statement, filter.parameters);
+                statement.setFetchSize(batchSize);
+                this.resultSet = statement.executeQuery();
+            } catch (SQLException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        // advance to the next matching document
+        private void advance() {
+            try {
+                while (!closed && remaining != 0) {
+                    if (!resultSet.next()) {
+                        close();
+                        return;
+                    }
+
+                    RawBsonDocument document = new RawBsonDocument(resultSet.getBytes(1));
+                    if (!filter.isComplete() || excludedKeys != null) {
+                        RawDocumentDecodeInput input = new RawDocumentDecodeInput(getPrimaryKeyFieldOverride(), document);
+                        if (excludedKeys != null && excludedKeys.contains(input.readRaw(rawKeyField))) continue;
+                        if (!filter.test(input)) continue;
+                    }
+
+                    if (toSkip > 0) {
+                        toSkip--;
+                        continue;
+                    }
+
+                    next = document;
+                    if (remaining > 0 && --remaining == 0) {
+                        // release the connection without waiting for the next call
+                        close();
+                    }
+
+                    return;
+                }
+
+                close();
+            } catch (SQLException e) {
+                close();
+                throw new DataSourceException("Failed to read results of " + query + " in table " + table.getName(), e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) advance();
+            return next != null;
+        }
+
+        @Override
+        public RawBsonDocument next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            RawBsonDocument document = next;
+            next = null;
+            return document;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try (Connection connection = this.connection) {
+                try {
+                    resultSet.close();
+                    statement.close();
+                } finally {
+                    // end the transaction opened for streaming
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                throw new DataSourceException("Failed to close results of " + query + " in table " + table.getName(), e);
+            }
+        }
+    }
+
+    // open the cursor if it has not been opened yet
+    private Iterator<RawBsonDocument> cursor() {
+        if (cursor != null) {
+            return cursor;
+        }
+
+        JdbcQueries.SqlFilter filter = new JdbcQueries.SqlFilter().and(this.filter);
+        String[] columns = sorting != null ? JdbcQueries.sortColumns(table, codec(), sorting) : null;
+        boolean pushDown = sorting == null || columns != null;
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(table.getDocumentColumn())
+                .append(" FROM ").append(table.getQuotedName());
+        if (pushDown && afterToken != null) {
+            JdbcQueries.addAfterCondition(filter, columns, sorting, afterToken);
+        }
+
+        sql.append(filter.where());
+        if (pushDown && columns != null) {
+            sql.append(JdbcQueries.orderBy(columns, sorting));
+        }
+
+        // skip and limit can only be done by the database
+        // if no rows are filtered locally
+        boolean limitInDatabase = pushDown && filter.isComplete() && excludedKeys == null;
+        if (limitInDatabase) {
+            sql.append(table.getSource().getDialect().limit(limit, skip));
+        }
+
+        try {
+            cursor = pushDown ?
+                    new Cursor(sql.toString(), filter, limitInDatabase ? 0 : skip, limitInDatabase || limit <= 0 ? -1 : limit) :
+                    new Cursor(sql.toString(), filter, 0, -1);
+        } catch (SQLException e) {
+            throw new DataSourceException("Failed to execute " + query + " in table " + table.getName(), e);
+        }
+
+        if (pushDown) {
+            return cursor;
+        }
+
+        return sortLocally(cursor);
+    }
+
+    // sort the documents of the given cursor locally, applying
+    // the page token, skip and limit after sorting
+    private Iterator<RawBsonDocument> sortLocally(Cursor cursor) {
+        final int size = sorting.size();
+        final String keyFieldOverride = getPrimaryKeyFieldOverride();
+        String[] fields = new String[size];
+        boolean[] descending = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            fields[i] = JdbcQueries.serializedFieldName(codec(), keyFieldOverride, sorting.getFieldNames().get(i));
+            descending[i] = sorting.getFieldOrderings().get(i) == FieldOrdering.DESCENDING;
+        }
+
+        // compute each sort key once
+        List<RawBsonDocument> documents = new ArrayList<>();
+        List<long[]> keys = new ArrayList<>();
+        while (cursor.hasNext()) {
+            RawBsonDocument document = cursor.next();
+            RawDocumentDecodeInput input = new RawDocumentDecodeInput(keyFieldOverride, document);
+            SortKeys.Encoder encoder = new SortKeys.Encoder();
+            for (int i = 0; i < size; i++) {
+                encoder.append(SqlKeys.normalize(input.readRaw(fields[i])), descending[i]);
+            }
+
+            documents.add(document);
+            keys.add(encoder.toArray());
+        }
+
+        Integer[] order = new Integer[documents.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> SortKeys.compare(keys.get(a), keys.get(b)));
+
+        long[] afterKey = afterToken != null ? afterToken.toSortKey(descending) : null;
+        List<RawBsonDocument> sorted = new ArrayList<>(order.length);
+        for (Integer i : order) {
+            if (afterKey == null || SortKeys.compare(keys.get(i), afterKey) > 0) {
+                sorted.add(documents.get(i));
+            }
+        }
+
+        int from = Math.min(skip, sorted.size());
+        int to = limit > 0 ? Math.min(sorted.size(), from + limit) : sorted.size();
+        return sorted.subList(from, to).iterator();
+    }
+
+    // convert the given document to a bulk item result
+    private SourcedItem<?, ?> convert(RawBsonDocument document) {
+        return JdbcQueries.toBulkItem(() -> new RawDocumentDecodeInput(getPrimaryKeyFieldOverride(), document));
+    }
+
+    @Override
+    public Optional<SourcedItem<?, ?>> first() {
+        if (cursor == null) {
+            // only the first row is needed
+            limit = 1;
+        }
+
+        Iterator<RawBsonDocument> iterator = cursor();
+        try {
+            return iterator.hasNext() ? Optional.of(convert(iterator.next())) : Optional.empty();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public Optional<SourcedItem<?, ?>> next() {
+        Iterator<RawBsonDocument> iterator = cursor();
+        return iterator.hasNext() ? Optional.of(convert(iterator.next())) : Optional.empty();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor().hasNext();
+    }
+
+    @Override
+    public List<SourcedItem<?, ?>> list() {
+        Iterator<RawBsonDocument> iterator = cursor();
+        List<SourcedItem<?, ?>> list = new ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(convert(iterator.next()));
+        }
+
+        return list;
+    }
+
+    @Override
+    public Stream<SourcedItem<?, ?>> stream() {
+        Iterator<RawBsonDocument> iterator = cursor();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .map(this::convert)
+                .onClose(cursor::close);
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcBulkIterable(" + table.getName() + ", " + query + ")";
+    }
+
+}
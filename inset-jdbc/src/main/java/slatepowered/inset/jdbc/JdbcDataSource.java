@@ -0,0 +1,206 @@
+package slatepowered.inset.jdbc;
+
+import lombok.*;
+import org.bson.BsonDocument;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
+import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.source.DataSource;
+import slatepowered.inset.source.DataSourceException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data source using a relational database through JDBC.
+ *
+ * Each item is stored as a row with the binary key of the primary key, the
+ * encoded BSON document and one binary key column for each indexed field, see
+ * {@link JdbcDataTable}. Constraints, sorting and limits on the key and indexed
+ * fields are translated to SQL, other constraints are checked on the documents.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class JdbcDataSource implements DataSource {
+
+    /**
+     * Provides new connections to the database.
+     */
+    @FunctionalInterface
+    public interface ConnectionProvider {
+        Connection get() throws SQLException;
+    }
+
+    // The data manager
+    private final DataManager dataManager;
+
+    // The provider of database connections
+    private final ConnectionProvider connectionProvider;
+
+    // The SQL dialect of the database
+    @Getter
+    private final SqlDialect dialect;
+
+    // All created data tables
+    private final Map<String, JdbcDataTable> dataTableMap = new ConcurrentHashMap<>();
+
+    public Collection<JdbcDataTable> allTables() {
+        return dataTableMap.values();
+    }
+
+    @Getter
+    @Setter
+    private String keyFieldOverride; // The key field to use
+
+    @Getter
+    @Setter
+    private boolean streamEncoding = true; // Whether to encode documents directly to binary BSON
+
+    @Getter
+    @Setter
+    private int fetchSize = 256; // The amount of rows to fetch at once when streaming results
+
+    @Getter
+    @Setter
+    private int batchSize = 512; // The maximum amount of writes to send in one batch
+
+    @Override
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+
+    /**
+     * Get a new connection to the database, which should be closed after use.
+     *
+     * @return The connection.
+     */
+    public Connection connection() {
+        try {
+            return connectionProvider.get();
+        } catch (SQLException e) {
+            throw new DataSourceException("Failed to connect to the database", e);
+        }
+    }
+
+    @Override
+    public EncodeOutput createDocumentSerializationOutput() {
+        if (streamEncoding) {
+            return new BsonStreamEncodeOutput(keyFieldOverride);
+        }
+
+        return new DocumentEncodeOutput(
+                keyFieldOverride,
+                new BsonDocument()
+        );
+    }
+
+    @Override
+    public JdbcDataTable table(String name) {
+        return dataTableMap.computeIfAbsent(name, __ -> {
+            JdbcDataTable table = new JdbcDataTable(this, name);
+            table.create();
+            return table;
+        });
+    }
+
+    /**
+     * Creates a new builder.
+     */
+    public static Builder builder(DataManager dataManager) {
+        return new Builder(dataManager);
+    }
+
+    @RequiredArgsConstructor
+    public static class Builder {
+        /* Options */
+        private final DataManager dataManager;
+        private ConnectionProvider connectionProvider;
+        private SqlDialect dialect;
+        private String keyFieldOverride = "_id";
+        private boolean streamEncoding = true;
+        private int fetchSize = 256;
+        private int batchSize = 512;
+
+        public Builder connect(ConnectionProvider connectionProvider) {
+            this.connectionProvider = connectionProvider;
+            return this;
+        }
+
+        public Builder connect(javax.sql.DataSource dataSource) {
+            return connect(dataSource::getConnection);
+        }
+
+        public Builder connect(String url, String user, String password) {
+            if (dialect == null) {
+                dialect = SqlDialect.forUrl(url);
+            }
+
+            return connect(() -> DriverManager.getConnection(url, user, password));
+        }
+
+        public Builder connect(String url) {
+            if (dialect == null) {
+                dialect = SqlDialect.forUrl(url);
+            }
+
+            return connect(() -> DriverManager.getConnection(url));
+        }
+
+        public Builder dialect(SqlDialect dialect) {
+            this.dialect = dialect;
+            return this;
+        }
+
+        public Builder keyFieldOverride(String keyFieldOverride) {
+            this.keyFieldOverride = keyFieldOverride;
+            return this;
+        }
+
+        public Builder streamEncoding(boolean streamEncoding) {
+            this.streamEncoding = streamEncoding;
+            return this;
+        }
+
+        /**
+         * Set the amount of rows to fetch from the database at once
+         * when streaming the results of a query.
+         */
+        public Builder fetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum amount of writes to send to the database in one batch.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public JdbcDataSource build() {
+            if (connectionProvider == null)
+                throw new IllegalArgumentException("A connection is required for a JDBC data source");
+            if (dialect == null)
+                throw new IllegalArgumentException("Could not determine the SQL dialect, set it explicitly");
+
+            JdbcDataSource source = new JdbcDataSource(
+                    dataManager,
+                    connectionProvider,
+                    dialect
+            );
+
+            source.setKeyFieldOverride(keyFieldOverride);
+            source.setStreamEncoding(streamEncoding);
+            source.setFetchSize(fetchSize);
+            source.setBatchSize(batchSize);
+
+            return source;
+        }
+    }
+
+}
@@ -0,0 +1,505 @@
+package slatepowered.inset.jdbc;
+
+import lombok.Getter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
+import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.operation.IndexDefinition;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.*;
+
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Abstraction for a table in a relational database.
+ *
+ * Each item is stored as a row with the binary key of its primary key, the BSON
+ * document and the binary keys of the indexed fields, see {@link SqlKeys}. The
+ * binary keys compare like MongoDB orders the values, so constraints and sorting
+ * on the primary key and indexed fields are translated to SQL directly.
+ *
+ * Indexed fields are registered with {@link #index(String)}, the index columns
+ * are found again when the table is opened so their values keep being written.
+ * Only fields with single values should be indexed, arrays are stored as an
+ * opaque value.
+ */
+public class JdbcDataTable implements DataTable {
+
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    // The JDBC data source
+    protected final JdbcDataSource source;
+
+    @Getter
+    protected final String name;
+
+    // The quoted table and column names
+    @Getter
+    protected final String quotedName;
+    @Getter
+    protected final String keyColumn;
+    @Getter
+    protected final String documentColumn;
+
+    // The prefix of the names of index columns
+    static final String INDEX_COLUMN_PREFIX = "i_";
+
+    // The quoted index columns by serialized field name
+    protected final Map<String, String> indexColumns = new ConcurrentHashMap<>();
+
+    // The statement to insert or replace a row, recreated
+    // when the set of index columns changes
+    private volatile String upsertStatement;
+    private volatile List<String> upsertFields;
+
+    JdbcDataTable(JdbcDataSource source, String name) {
+        this.source = source;
+        this.name = name;
+
+        SqlDialect dialect = source.getDialect();
+        this.quotedName = dialect.quote(name);
+        this.keyColumn = dialect.quote("_key");
+        this.documentColumn = dialect.quote("_document");
+    }
+
+    @Override
+    public JdbcDataSource getSource() {
+        return source;
+    }
+
+    // wrap the given SQL exception
+    private DataSourceException error(String action, SQLException e) {
+        return new DataSourceException("Failed to " + action + " in table " + name, e);
+    }
+
+    /**
+     * Create the table if it does not exist yet and register
+     * the index columns which were added before.
+     */
+    void create() {
+        SqlDialect dialect = source.getDialect();
+        try (Connection connection = source.connection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + quotedName + " (" +
+                    keyColumn + " " + dialect.keyType() + " NOT NULL PRIMARY KEY, " +
+                    documentColumn + " " + dialect.documentType() + " NOT NULL)");
+
+            // the existing index columns have to be written by every
+            // upsert, otherwise they would go stale for updated rows
+            try (ResultSet resultSet = statement.executeQuery("SELECT * FROM " + quotedName + " WHERE 1 = 0")) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    String column = metaData.getColumnName(i);
+                    if (column.startsWith(INDEX_COLUMN_PREFIX)) {
+                        indexColumns.put(column.substring(INDEX_COLUMN_PREFIX.length()), dialect.quote(column));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw error("create table", e);
+        }
+
+        upsertStatement = null;
+    }
+
+    /**
+     * Index the field with the given serialized name, storing its value in a
+     * separate column so constraints and sorting on it are done by the database.
+     *
+     * If the column does not exist yet it is added and filled for all existing rows.
+     *
+     * @param fieldName The serialized field name.
+     * @return This.
+     */
+    public synchronized JdbcDataTable index(String fieldName) {
+        if (indexColumns.containsKey(fieldName)) {
+            return this;
+        }
+
+        SqlDialect dialect = source.getDialect();
+        String column = dialect.quote(INDEX_COLUMN_PREFIX + fieldName);
+        try (Connection connection = source.connection()) {
+            boolean exists;
+            try (Statement statement = connection.createStatement()) {
+                statement.executeQuery("SELECT " + column + " FROM " + quotedName + " WHERE 1 = 0").close();
+                exists = true;
+            } catch (SQLException e) {
+                exists = false;
+            }
+
+            if (!exists) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ALTER TABLE " + quotedName + " ADD COLUMN " + column + " " + dialect.keyType());
+                }
+
+                backfill(connection, fieldName, column);
+            }
+
+            String indexName = dialect.quote("idx_" + name + "_" + fieldName);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX " + (dialect.supportsCreateIndexIfNotExists() ? "IF NOT EXISTS " : "") +
+                        indexName + " ON " + quotedName + " (" + column + ")");
+            } catch (SQLException e) {
+                if (dialect.supportsCreateIndexIfNotExists()) {
+                    throw e;
+                }
+
+                // the index already exists
+            }
+        } catch (SQLException e) {
+            throw error("index field " + fieldName, e);
+        }
+
+        indexColumns.put(fieldName, column);
+        upsertStatement = null;
+        return this;
+    }
+
+    // fill the new column of the given field for all existing rows
+    private void backfill(Connection connection, String fieldName, String column) throws SQLException {
+        List<byte[][]> updates = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT " + keyColumn + ", " + documentColumn + " FROM " + quotedName)) {
+            while (resultSet.next()) {
+                RawDocumentDecodeInput input = new RawDocumentDecodeInput(null, new RawBsonDocument(resultSet.getBytes(2)));
+                updates.add(new byte[][] { SqlKeys.encodeIndex(input.readRaw(fieldName)), resultSet.getBytes(1) });
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE " + quotedName + " SET " + column + " = ? WHERE " + keyColumn + " = ?")) {
+            for (byte[][] update : updates) {
+                statement.setBytes(1, update[0]);
+                statement.setBytes(2, update[1]);
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Indexes each field of the declared indexes in its own column, uniqueness
+     * and expiry are not enforced by this table.
+     */
+    @Override
+    public void ensureIndexes(DataCodec<?, ?> codec) throws DataSourceException {
+        for (IndexDefinition definition : codec.getIndexDefinitions()) {
+            for (String field : definition.getFieldNames()) {
+                if (!field.equals(codec.getPrimaryKeyFieldName())) {
+                    index(JdbcQueries.serializedFieldName(codec, source.getKeyFieldOverride(), field));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the quoted column storing the field with the given runtime name.
+     *
+     * @param codec The data codec.
+     * @param field The runtime field name.
+     * @return The column or null if the field is not stored in a column.
+     */
+    String columnFor(DataCodec<?, ?> codec, String field) {
+        if (field.equals(codec.getPrimaryKeyFieldName())) {
+            return keyColumn;
+        }
+
+        return indexColumns.get(JdbcQueries.serializedFieldName(codec, source.getKeyFieldOverride(), field));
+    }
+
+    @Override
+    public void drop() {
+        try (Connection connection = source.connection(); Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM " + quotedName);
+        } catch (SQLException e) {
+            throw error("drop", e);
+        }
+    }
+
+    // get the bytes of the given document
+    private static byte[] bytes(RawBsonDocument document) {
+        ByteBuffer buffer = document.getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // get the encoded document of the given output
+    private static RawBsonDocument document(EncodeOutput output) {
+        if (output instanceof BsonStreamEncodeOutput) {
+            return ((BsonStreamEncodeOutput) output).finish();
+        }
+
+        DocumentEncodeOutput encodeOutput = output.requireType(DocumentEncodeOutput.class);
+        return new RawBsonDocument(encodeOutput.getOutputDocument(), BSON_DOCUMENT_CODEC);
+    }
+
+    // prepare the upsert statement for the current index columns
+    private PreparedStatement prepareUpsert(Connection connection) throws SQLException {
+        if (upsertStatement == null) {
+            synchronized (this) {
+                List<String> fields = new ArrayList<>(indexColumns.keySet());
+                List<String> columns = new ArrayList<>();
+                columns.add(keyColumn);
+                columns.add(documentColumn);
+                for (String field : fields) {
+                    columns.add(indexColumns.get(field));
+                }
+
+                upsertFields = fields;
+                upsertStatement = source.getDialect().upsert(quotedName, columns);
+            }
+        }
+
+        return connection.prepareStatement(upsertStatement);
+    }
+
+    // set the parameters of the upsert statement for the given output
+    private void bindUpsert(PreparedStatement statement, List<String> fields, EncodeOutput output) throws SQLException {
+        RawBsonDocument document = document(output);
+        statement.setBytes(1, SqlKeys.encode(output.getSetKey()));
+        statement.setBytes(2, bytes(document));
+
+        if (!fields.isEmpty()) {
+            RawDocumentDecodeInput input = new RawDocumentDecodeInput(null, document);
+            for (int i = 0; i < fields.size(); i++) {
+                statement.setBytes(3 + i, SqlKeys.encodeIndex(input.readRaw(fields.get(i))));
+            }
+        }
+    }
+
+    @Override
+    public void replaceOneSync(EncodeOutput output) throws DataSourceException {
+        try (Connection connection = source.connection(); PreparedStatement statement = prepareUpsert(connection)) {
+            bindUpsert(statement, upsertFields, output);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw error("replace item", e);
+        }
+    }
+
+    @Override
+    public void replaceManySync(List<EncodeOutput> outputs) throws DataSourceException {
+        if (outputs.isEmpty()) {
+            return;
+        }
+
+        final int batchSize = source.getBatchSize();
+        try (Connection connection = source.connection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = prepareUpsert(connection)) {
+                List<String> fields = upsertFields;
+                int count = 0;
+                for (EncodeOutput output : outputs) {
+                    bindUpsert(statement, fields, output);
+                    statement.addBatch();
+                    if (++count % batchSize == 0) {
+                        statement.executeBatch();
+                    }
+                }
+
+                if (count % batchSize != 0) {
+                    statement.executeBatch();
+                }
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw error("replace items", e);
+        }
+    }
+
+    /**
+     * Get the serialized name of the primary key field in the documents.
+     */
+    String rawKeyField(Query query) {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        return keyFieldOverride != null ? keyFieldOverride : query.getDatastore().getDataCodec().getPrimaryKeyFieldName();
+    }
+
+    // bind the given parameters to the given statement
+    static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+
+    /**
+     * Visits the rows of a query.
+     */
+    interface RowVisitor {
+        /**
+         * Visit the row with the given key and document.
+         *
+         * @return Whether to continue with the next row.
+         */
+        boolean visit(byte[] key, RawBsonDocument document) throws SQLException;
+    }
+
+    // select the key and document of all rows matching the given
+    // filter, visiting the rows matching the residual constraints
+    private void select(JdbcQueries.SqlFilter filter, int limit, RowVisitor visitor) {
+        String sql = "SELECT " + keyColumn + ", " + documentColumn + " FROM " + quotedName + filter.where() +
+                (filter.isComplete() ? source.getDialect().limit(limit, 0) : "");
+        try (Connection connection = source.connection(); PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, filter.parameters);
+            statement.setFetchSize(source.getFetchSize());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    RawBsonDocument document = new RawBsonDocument(resultSet.getBytes(2));
+                    if (!filter.isComplete() && !filter.test(new RawDocumentDecodeInput(source.getKeyFieldOverride(), document))) {
+                        continue;
+                    }
+
+                    if (!visitor.visit(resultSet.getBytes(1), document)) {
+                        break;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw error("select items", e);
+        }
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query) throws DataSourceException {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        RawBsonDocument[] result = new RawBsonDocument[1];
+        select(JdbcQueries.compileFilter(this, query), 1, (key, document) -> {
+            result[0] = document;
+            return false;
+        });
+
+        RawBsonDocument document = result[0];
+        return JdbcQueries.queryResult(query, keyFieldOverride, document != null ?
+                () -> new RawDocumentDecodeInput(keyFieldOverride, document) : null);
+    }
+
+    @Override
+    public DataSourceBulkIterable findAllSync(Query query) throws DataSourceException {
+        return new JdbcBulkIterable(this, query, JdbcQueries.compileFilter(this, query));
+    }
+
+    // delete the rows with the given keys in batches
+    private long deleteKeys(List<byte[]> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+
+        final int batchSize = source.getBatchSize();
+        long count = 0;
+        try (Connection connection = source.connection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM " + quotedName + " WHERE " + keyColumn + " = ?")) {
+            for (int i = 0; i < keys.size(); i++) {
+                statement.setBytes(1, keys.get(i));
+                statement.addBatch();
+                if ((i + 1) % batchSize == 0 || i == keys.size() - 1) {
+                    for (int updated : statement.executeBatch()) {
+                        count += Math.max(updated, 0);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw error("delete items", e);
+        }
+
+        return count;
+    }
+
+    // execute a delete of all rows matching the given complete filter
+    private long deleteWhere(JdbcQueries.SqlFilter filter) {
+        try (Connection connection = source.connection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM " + quotedName + filter.where())) {
+            bind(statement, filter.parameters);
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            throw error("delete items", e);
+        }
+    }
+
+    @Override
+    public boolean deleteOne(Query query) {
+        JdbcQueries.SqlFilter filter = JdbcQueries.compileFilter(this, query);
+        if (query.hasKey() && filter.isComplete()) {
+            return deleteWhere(filter) > 0;
+        }
+
+        List<byte[]> keys = new ArrayList<>(1);
+        select(filter, 1, (key, document) -> {
+            keys.add(key);
+            return false;
+        });
+
+        return deleteKeys(keys) > 0;
+    }
+
+    @Override
+    public long deleteAll(Query query) {
+        JdbcQueries.SqlFilter filter = JdbcQueries.compileFilter(this, query);
+        if (filter.isComplete()) {
+            return deleteWhere(filter);
+        }
+
+        List<byte[]> keys = new ArrayList<>();
+        select(filter, -1, (key, document) -> keys.add(key));
+        return deleteKeys(keys);
+    }
+
+    @Override
+    public boolean exists(Query query) throws DataSourceException {
+        JdbcQueries.SqlFilter filter = JdbcQueries.compileFilter(this, query);
+        if (!filter.isComplete()) {
+            return findOneSync(query).found();
+        }
+
+        // only select the key, so no document is transferred
+        try (Connection connection = source.connection();
+             PreparedStatement statement = connection.prepareStatement("SELECT " + keyColumn + " FROM " + quotedName +
+                     filter.where() + source.getDialect().limit(1, 0))) {
+            bind(statement, filter.parameters);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (SQLException e) {
+            throw error("check for items", e);
+        }
+    }
+
+    @Override
+    public long count(Query query) {
+        JdbcQueries.SqlFilter filter = JdbcQueries.compileFilter(this, query);
+        if (!filter.isComplete()) {
+            long[] count = new long[1];
+            select(filter, -1, (key, document) -> ++count[0] > 0);
+            return count[0];
+        }
+
+        try (Connection connection = source.connection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + quotedName + filter.where())) {
+            bind(statement, filter.parameters);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw error("count items", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcDataTable('" + name + "')";
+    }
+}
@@ -0,0 +1,310 @@
+package slatepowered.inset.jdbc;
+
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.operation.FieldOrderSorting;
+import slatepowered.inset.operation.FieldOrdering;
+import slatepowered.inset.query.PageToken;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.query.constraint.CommonFieldConstraint;
+import slatepowered.inset.query.constraint.FieldConstraint;
+import slatepowered.inset.source.DataSourceFindResult;
+import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.Range;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Translates {@link Query} abstractions to SQL for the {@link JdbcDataTable}.
+ */
+final class JdbcQueries {
+
+    private JdbcQueries() { throw new UnsupportedOperationException("Utility class"); }
+
+    /**
+     * A compiled filter, consisting of the SQL condition on the key and index
+     * columns and the residual predicate checked on the documents for the
+     * constraints which could not be translated.
+     */
+    static final class SqlFilter {
+        final StringBuilder condition = new StringBuilder();
+        final List<Object> parameters = new ArrayList<>();
+        final List<Predicate<RawDocumentDecodeInput>> residuals = new ArrayList<>();
+
+        // add a condition, combined with the existing ones by AND
+        SqlFilter and(String sql, Object... parameters) {
+            if (condition.length() > 0) condition.append(" AND ");
+            condition.append(sql);
+            this.parameters.addAll(Arrays.asList(parameters));
+            return this;
+        }
+
+        // add all conditions and residuals of the given filter
+        SqlFilter and(SqlFilter filter) {
+            if (filter.condition.length() > 0) {
+                and("(" + filter.condition + ")", filter.parameters.toArray());
+            }
+
+            residuals.addAll(filter.residuals);
+            return this;
+        }
+
+        /**
+         * Get the WHERE clause, prefixed with a space, or an empty string.
+         */
+        String where() {
+            return condition.length() > 0 ? " WHERE " + condition : "";
+        }
+
+        /**
+         * Whether all constraints were translated to SQL.
+         */
+        boolean isComplete() {
+            return residuals.isEmpty();
+        }
+
+        /**
+         * Check the residual constraints on the given document.
+         */
+        boolean test(RawDocumentDecodeInput input) {
+            for (Predicate<RawDocumentDecodeInput> residual : residuals) {
+                if (!residual.test(input)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Resolve the serialized name of the given runtime field name.
+     */
+    static String serializedFieldName(DataCodec<?, ?> codec, String keyFieldNameOverride, String field) {
+        return field.equals(codec.getPrimaryKeyFieldName()) && keyFieldNameOverride != null ?
+                keyFieldNameOverride :
+                codec.toSerializedName(field);
+    }
+
+    /**
+     * Compile the given query to a filter on the given table.
+     *
+     * @param table The table.
+     * @param query The query.
+     * @return The filter.
+     */
+    static SqlFilter compileFilter(JdbcDataTable table, Query query) {
+        SqlFilter filter = new SqlFilter();
+
+        // check for primary key
+        if (query.hasKey()) {
+            return filter.and(table.getKeyColumn() + " = ?", (Object) SqlKeys.encode(query.getKey()));
+        }
+
+        DataCodec<?, ?> codec = query.getDatastore().getDataCodec();
+        String keyFieldOverride = table.getSource().getKeyFieldOverride();
+        for (Map.Entry<String, FieldConstraint<?>> entry : query.getFieldConstraints().entrySet()) {
+            String fieldName = serializedFieldName(codec, keyFieldOverride, entry.getKey());
+            String column = table.columnFor(codec, entry.getKey());
+            FieldConstraint<?> constraint = entry.getValue();
+
+            if (column == null || !(constraint instanceof CommonFieldConstraint) || !compileColumnConstraint(filter, column, (CommonFieldConstraint<?>) constraint)) {
+                // conditions added for inexact constraints still narrow down the rows
+                filter.residuals.add(compileResidual(fieldName, constraint));
+            }
+        }
+
+        return filter;
+    }
+
+    // compile the given constraint on the given column, returning false if it can not
+    // be expressed exactly as a column condition because of prefix keys or otherwise
+    private static boolean compileColumnConstraint(SqlFilter filter, String column, CommonFieldConstraint<?> constraint) {
+        final Object operand = constraint.getOperand();
+        if (operand instanceof List) {
+            // whole arrays are not stored in the columns
+            return false;
+        }
+
+        switch (constraint.getType()) {
+            case EQUAL: {
+                byte[] key = SqlKeys.encodeIndex(operand);
+                filter.and(column + " = ?", (Object) key);
+                return !SqlKeys.isPrefix(key);
+            }
+            case NOT_EQUAL: {
+                // values sharing the prefix would be excluded
+                byte[] key = SqlKeys.encodeIndex(operand);
+                if (SqlKeys.isPrefix(key)) return false;
+                filter.and(column + " <> ?", (Object) key);
+                return true;
+            }
+            case ONE_OF: {
+                Collection<?> values = (Collection<?>) operand;
+                if (values.isEmpty()) {
+                    filter.and("1 = 0");
+                    return true;
+                }
+
+                boolean exact = true;
+                List<Object> keys = new ArrayList<>(values.size());
+                for (Object value : values) {
+                    byte[] key = SqlKeys.encodeIndex(value);
+                    exact &= !SqlKeys.isPrefix(key);
+                    keys.add(key);
+                }
+
+                filter.and(column + " IN (" + SqlDialect.placeholders(keys.size()) + ")", keys.toArray());
+                return exact;
+            }
+            case IN_RANGE: {
+                Range range = (Range) operand;
+                byte[] start = SqlKeys.encodeIndex(range.getStart());
+                byte[] end = SqlKeys.encodeIndex(range.getEnd());
+                filter.and(column + " >= ? AND " + column + " <= ?", start, end);
+                return !SqlKeys.isPrefix(start) && !SqlKeys.isPrefix(end);
+            }
+            case EXISTS: return false;
+        }
+
+        if (operand == null) {
+            // like the common constraints, null operands match everything
+            return true;
+        }
+
+        // ordering comparisons only match values of the same type class,
+        // values sharing a prefix operand may be on either side of it
+        byte[] key = SqlKeys.encodeIndex(operand);
+        boolean prefix = SqlKeys.isPrefix(key);
+        switch (constraint.getType()) {
+            case GREATER: filter.and(column + (prefix ? " >= ?" : " > ?") + " AND " + column + " < ?", key, SqlKeys.typeClassEnd(operand)); return !prefix;
+            case GREATER_OR_EQUAL: filter.and(column + " >= ? AND " + column + " < ?", key, SqlKeys.typeClassEnd(operand)); return !prefix;
+            case LESS: filter.and(column + " >= ? AND " + column + (prefix ? " <= ?" : " < ?"), SqlKeys.typeClassStart(operand), key); return !prefix;
+            case LESS_OR_EQUAL: filter.and(column + " >= ? AND " + column + " <= ?", SqlKeys.typeClassStart(operand), key); return !prefix;
+        }
+
+        return false;
+    }
+
+    // compile the given constraint to a predicate on the documents
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Predicate<RawDocumentDecodeInput> compileResidual(String fieldName, FieldConstraint<?> constraint) {
+        if (constraint instanceof CommonFieldConstraint) {
+            CommonFieldConstraint<?> commonConstraint = (CommonFieldConstraint<?>) constraint;
+            switch (commonConstraint.getType()) {
+                case EXISTS: return input -> input.contains(fieldName);
+                default: return input -> SqlKeys.matches(commonConstraint, input.readRaw(fieldName));
+            }
+        }
+
+        final Predicate predicate = constraint;
+        return input -> predicate.test(input.readRaw(fieldName));
+    }
+
+    /**
+     * Resolve the columns of the fields in the given sorting.
+     *
+     * @return The columns or null if any sorted field has no column.
+     */
+    static String[] sortColumns(JdbcDataTable table, DataCodec<?, ?> codec, FieldOrderSorting sorting) {
+        final int size = sorting.size();
+        String[] columns = new String[size];
+        for (int i = 0; i < size; i++) {
+            columns[i] = table.columnFor(codec, sorting.getFieldNames().get(i));
+            if (columns[i] == null) {
+                return null;
+            }
+        }
+
+        return columns;
+    }
+
+    /**
+     * Create the ORDER BY clause for the given sorted columns.
+     */
+    static String orderBy(String[] columns, FieldOrderSorting sorting) {
+        StringBuilder b = new StringBuilder(" ORDER BY ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i != 0) b.append(", ");
+            b.append(columns[i]).append(sorting.getFieldOrderings().get(i) == FieldOrdering.DESCENDING ? " DESC" : " ASC");
+        }
+
+        return b.toString();
+    }
+
+    /**
+     * Add the condition matching only the rows positioned after the given page
+     * token in the sorting of the given columns, which ends with the key column.
+     *
+     * For the sorted columns {@code c1..cn} with the token values {@code v1..vn} this
+     * adds {@code (c1 > v1) or (c1 = v1 and c2 > v2) or ...}, where {@code >} becomes
+     * {@code <} for descending columns.
+     */
+    static void addAfterCondition(SqlFilter filter, String[] columns, FieldOrderSorting sorting, PageToken token) {
+        Object[] values = token.getValues();
+        StringBuilder condition = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            if (i != 0) condition.append(" OR ");
+            condition.append('(');
+            for (int j = 0; j < i; j++) {
+                condition.append(columns[j]).append(" = ? AND ");
+                parameters.add(SqlKeys.encodeIndex(j < values.length ? values[j] : token.getKey()));
+            }
+
+            boolean descending = sorting.getFieldOrderings().get(i) == FieldOrdering.DESCENDING;
+            condition.append(columns[i]).append(descending ? " < ?" : " > ?").append(')');
+            parameters.add(SqlKeys.encodeIndex(i < values.length ? values[i] : token.getKey()));
+        }
+
+        filter.and("(" + condition + ")", parameters.toArray());
+    }
+
+    /**
+     * Create the result of a find-one query.
+     */
+    static DataSourceFindResult queryResult(Query query, String keyFieldOverride, Supplier<? extends DecodeInput> inputSupplier) {
+        return new DataSourceFindResult() {
+            @Override
+            public String getPrimaryKeyFieldOverride() {
+                return keyFieldOverride;
+            }
+
+            @Override
+            public Query getQuery() {
+                return query;
+            }
+
+            @Override
+            public boolean found() {
+                return inputSupplier != null;
+            }
+
+            @Override
+            public DecodeInput input() {
+                return inputSupplier != null ? inputSupplier.get() : null;
+            }
+        };
+    }
+
+    /**
+     * Convert the document read by the given inputs to a found bulk item.
+     */
+    static SourcedItem<?, ?> toBulkItem(Supplier<? extends DecodeInput> inputSupplier) {
+        return new SourcedItem<Object, Object>() {
+            @Override
+            public boolean isPartial() {
+                return false;
+            }
+
+            @Override
+            public DecodeInput input() {
+                return inputSupplier.get();
+            }
+        };
+    }
+
+}
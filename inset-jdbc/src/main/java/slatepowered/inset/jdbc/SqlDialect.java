@@ -0,0 +1,176 @@
+package slatepowered.inset.jdbc;
+
+import java.util.List;
+
+/**
+ * The SQL dialects supported by the JDBC data source, providing the
+ * column types and statements which differ between databases.
+ */
+public enum SqlDialect {
+
+    H2 {
+        @Override
+        public String upsert(String table, List<String> columns) {
+            return "MERGE INTO " + table + " (" + String.join(", ", columns) + ") KEY (" + columns.get(0) + ") VALUES (" + placeholders(columns.size()) + ")";
+        }
+    },
+
+    SQLITE {
+        @Override
+        public String keyType() {
+            return "BLOB";
+        }
+
+        @Override
+        public String upsert(String table, List<String> columns) {
+            return "INSERT OR REPLACE INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns.size()) + ")";
+        }
+
+        @Override
+        public String limit(int limit, int offset) {
+            // an offset requires a limit in sqlite
+            return " LIMIT " + (limit > 0 ? limit : -1) + (offset > 0 ? " OFFSET " + offset : "");
+        }
+    },
+
+    POSTGRESQL {
+        @Override
+        public String keyType() {
+            return "BYTEA";
+        }
+
+        @Override
+        public String documentType() {
+            return "BYTEA";
+        }
+
+        @Override
+        public String upsert(String table, List<String> columns) {
+            StringBuilder b = new StringBuilder("INSERT INTO ").append(table)
+                    .append(" (").append(String.join(", ", columns)).append(") VALUES (").append(placeholders(columns.size()))
+                    .append(") ON CONFLICT (").append(columns.get(0)).append(") DO UPDATE SET ");
+            for (int i = 1; i < columns.size(); i++) {
+                if (i != 1) b.append(", ");
+                b.append(columns.get(i)).append(" = EXCLUDED.").append(columns.get(i));
+            }
+
+            return b.toString();
+        }
+    },
+
+    MYSQL {
+        @Override
+        public String quote(String identifier) {
+            return "`" + identifier.replace("`", "``") + "`";
+        }
+
+        @Override
+        public String documentType() {
+            return "LONGBLOB";
+        }
+
+        @Override
+        public String upsert(String table, List<String> columns) {
+            return "REPLACE INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders(columns.size()) + ")";
+        }
+
+        @Override
+        public String limit(int limit, int offset) {
+            // an offset requires a limit in mysql
+            return " LIMIT " + (limit > 0 ? Integer.toString(limit) : "18446744073709551615") + (offset > 0 ? " OFFSET " + offset : "");
+        }
+
+        @Override
+        public boolean supportsCreateIndexIfNotExists() {
+            return false;
+        }
+    }
+
+    ;
+
+    // create a list of the given amount of parameter placeholders
+    static String placeholders(int count) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i != 0) b.append(", ");
+            b.append('?');
+        }
+
+        return b.toString();
+    }
+
+    /**
+     * Quote the given table or column name.
+     *
+     * @param identifier The identifier.
+     * @return The quoted identifier.
+     */
+    public String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Get the column type of the encoded keys, which are compared as
+     * unsigned bytes and have to be usable as a primary key.
+     *
+     * @return The column type.
+     */
+    public String keyType() {
+        return "VARBINARY(" + SqlKeys.MAX_KEY_LENGTH + ")";
+    }
+
+    /**
+     * Get the column type of the encoded documents.
+     *
+     * @return The column type.
+     */
+    public String documentType() {
+        return "BLOB";
+    }
+
+    /**
+     * Create a statement inserting or replacing a row with the given columns, the
+     * first of which is the primary key, with one parameter for each column.
+     *
+     * @param table The quoted table name.
+     * @param columns The quoted column names.
+     * @return The statement.
+     */
+    public abstract String upsert(String table, List<String> columns);
+
+    /**
+     * Create the clause limiting the results to the given amount after skipping
+     * the given amount of rows.
+     *
+     * @param limit The limit or a value smaller than one for no limit.
+     * @param offset The amount of rows to skip.
+     * @return The clause, prefixed with a space, or an empty string.
+     */
+    public String limit(int limit, int offset) {
+        return (limit > 0 ? " LIMIT " + limit : "") + (offset > 0 ? " OFFSET " + offset : "");
+    }
+
+    /**
+     * Get whether indexes can be created with {@code CREATE INDEX IF NOT EXISTS}.
+     *
+     * @return Whether it is supported.
+     */
+    public boolean supportsCreateIndexIfNotExists() {
+        return true;
+    }
+
+    /**
+     * Guess the dialect of the database with the given JDBC connection URL.
+     *
+     * @param url The URL.
+     * @return The dialect or null if unknown.
+     */
+    public static SqlDialect forUrl(String url) {
+        if (url.startsWith("jdbc:h2:")) return H2;
+        if (url.startsWith("jdbc:sqlite:")) return SQLITE;
+        if (url.startsWith("jdbc:postgresql:")) return POSTGRESQL;
+        if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) return MYSQL;
+        return null;
+    }
+
+}
@@ -0,0 +1,185 @@
+package slatepowered.inset.jdbc;
+
+import org.bson.types.Binary;
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.query.constraint.CommonConstraintType;
+import slatepowered.inset.query.constraint.CommonFieldConstraint;
+import slatepowered.inset.util.Range;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes values to the binary keys stored in the key and index columns.
+ *
+ * The keys are the {@link SortKeys} of the values written as big endian bytes,
+ * so comparing them as unsigned bytes, which is how databases compare binary
+ * columns, orders them like MongoDB would order the values. Numbers of any
+ * type with the same value have equal keys and ordering comparisons can be
+ * bounded to values of the same type class by the first 8 bytes of the key.
+ *
+ * Keys in index columns are cut to {@link #MAX_KEY_LENGTH} bytes, so a stored key
+ * of that length may be the prefix of the keys of multiple values. Comparisons with
+ * such prefixes only narrow down the rows and the constraint is checked on the
+ * documents too, values sharing a prefix are ordered by the following columns.
+ */
+final class SqlKeys {
+
+    private SqlKeys() { throw new UnsupportedOperationException("Utility class"); }
+
+    /**
+     * The maximum length of an encoded key in bytes.
+     */
+    static final int MAX_KEY_LENGTH = 512;
+
+    // normalize the given raw value to a value the sort keys support
+    static Object normalize(Object value) {
+        if (value instanceof Binary) return ((Binary) value).getData();
+        return value;
+    }
+
+    /**
+     * Get the sort key of the given value.
+     */
+    static long[] sortKey(Object value) {
+        return new SortKeys.Encoder().append(normalize(value), false).toArray();
+    }
+
+    /**
+     * Write the given sort key as big endian bytes.
+     */
+    static byte[] toBytes(long[] key) {
+        byte[] bytes = new byte[key.length * 8];
+        for (int i = 0; i < key.length; i++) {
+            long l = key[i];
+            for (int j = 0; j < 8; j++) {
+                bytes[i * 8 + j] = (byte) (l >>> (56 - j * 8));
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Encode the given value to its binary key, used for the key column
+     * which requires unique and therefore complete keys.
+     */
+    static byte[] encode(Object value) {
+        byte[] bytes = toBytes(sortKey(value));
+        if (bytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Encoded key of value exceeds " + MAX_KEY_LENGTH + " bytes");
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Encode the given value to the binary key stored in index columns and
+     * compared to them, keys longer than the maximum length are cut.
+     */
+    static byte[] encodeIndex(Object value) {
+        byte[] bytes = toBytes(sortKey(value));
+        return bytes.length > MAX_KEY_LENGTH ? Arrays.copyOf(bytes, MAX_KEY_LENGTH) : bytes;
+    }
+
+    /**
+     * Whether the given index key may be the prefix of longer keys.
+     */
+    static boolean isPrefix(byte[] indexKey) {
+        return indexKey.length >= MAX_KEY_LENGTH;
+    }
+
+    /**
+     * Get the binary key which follows all keys of values of the same
+     * type class as the given value.
+     */
+    static byte[] typeClassEnd(Object value) {
+        return toBytes(new long[] { sortKey(value)[0] + 1 });
+    }
+
+    /**
+     * Get the binary key which precedes all keys of values of the same
+     * type class as the given value.
+     */
+    static byte[] typeClassStart(Object value) {
+        return toBytes(new long[] { sortKey(value)[0] });
+    }
+
+    // check whether the given constraint matches the given single value
+    private static boolean matchesSingle(CommonFieldConstraint<?> constraint, long[] key) {
+        Object operand = constraint.getOperand();
+        switch (constraint.getType()) {
+            case EQUAL: return SortKeys.compare(key, sortKey(operand)) == 0;
+            case ONE_OF: {
+                for (Object o : (Collection<?>) operand) {
+                    if (SortKeys.compare(key, sortKey(o)) == 0) return true;
+                }
+
+                return false;
+            }
+            case IN_RANGE: {
+                Range range = (Range) operand;
+                return SortKeys.compare(key, sortKey(range.getStart())) >= 0 && SortKeys.compare(key, sortKey(range.getEnd())) <= 0;
+            }
+        }
+
+        if (operand == null) {
+            return true;
+        }
+
+        long[] operandKey = sortKey(operand);
+        if (operandKey[0] != key[0]) {
+            // ordering comparisons only match values of the same type class
+            return false;
+        }
+
+        int comparison = SortKeys.compare(key, operandKey);
+        switch (constraint.getType()) {
+            case GREATER: return comparison > 0;
+            case LESS: return comparison < 0;
+            case GREATER_OR_EQUAL: return comparison >= 0;
+            case LESS_OR_EQUAL: return comparison <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether the given common constraint, other than {@code EXISTS},
+     * matches the given raw value, following the semantics of MongoDB.
+     *
+     * @param constraint The constraint.
+     * @param value The raw value.
+     * @return Whether it matches.
+     */
+    static boolean matches(CommonFieldConstraint<?> constraint, Object value) {
+        if (constraint.getType() == CommonConstraintType.NOT_EQUAL) {
+            long[] operandKey = sortKey(constraint.getOperand());
+            if (SortKeys.compare(sortKey(value), operandKey) == 0) return false;
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (SortKeys.compare(sortKey(element), operandKey) == 0) return false;
+                }
+            }
+
+            return true;
+        }
+
+        if (matchesSingle(constraint, sortKey(value))) {
+            return true;
+        }
+
+        // constraints on arrays match if any element matches
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (matchesSingle(constraint, sortKey(element))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+}
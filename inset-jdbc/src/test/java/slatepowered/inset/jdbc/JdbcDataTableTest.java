@@ -0,0 +1,250 @@
+package slatepowered.inset.jdbc;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.cache.DataCache;
+import slatepowered.inset.codec.CodecRegistry;
+import slatepowered.inset.datastore.Datastore;
+import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.reflective.Key;
+import slatepowered.inset.reflective.ReflectiveCodecFactory;
+import slatepowered.inset.source.DataSourceBulkIterable;
+import slatepowered.inset.source.DataSourceFindResult;
+import slatepowered.inset.source.SourcedItem;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JdbcDataTableTest {
+
+    public static class Entry {
+        @Key
+        protected String id;
+
+        protected String name;
+        protected Integer score;
+
+        public Entry() { }
+
+        public Entry(String id, String name, Integer score) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+        }
+    }
+
+    static final AtomicInteger DATABASE_ID = new AtomicInteger();
+
+    DataManager dataManager;
+    String url;
+
+    @BeforeEach
+    void setUp() {
+        dataManager = DataManager.builder()
+                .executorService(ForkJoinPool.commonPool())
+                .codecRegistry(new CodecRegistry(ReflectiveCodecFactory.builder().build()))
+                .build();
+
+        // a new in-memory database which is kept until the jvm exits
+        url = "jdbc:h2:mem:inset" + DATABASE_ID.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    JdbcDataTable open() {
+        return JdbcDataSource.builder(dataManager)
+                .connect(url)
+                .build()
+                .table("entries");
+    }
+
+    Datastore<String, Entry> datastore(JdbcDataTable table) {
+        return dataManager.datastore(String.class, Entry.class)
+                .sourceTable(table)
+                .dataCache(DataCache.doubleBackedConcurrent())
+                .build();
+    }
+
+    static void save(Datastore<String, Entry> datastore, String id, String name, Integer score) {
+        datastore.getOrCreate(id).set(new Entry(id, name, score)).saveSync();
+    }
+
+    // save entries a to j with the scores 1 to 10
+    static void saveAll(Datastore<String, Entry> datastore) {
+        for (int i = 0; i < 10; i++) {
+            String id = String.valueOf((char) ('a' + i));
+            save(datastore, id, "name" + (9 - i), i + 1);
+        }
+    }
+
+    static List<String> keys(Datastore<String, Entry> datastore, DataSourceBulkIterable iterable) {
+        List<String> keys = new ArrayList<>();
+        for (SourcedItem<?, ?> item : iterable.list()) {
+            keys.add(item.qualify(datastore).getKey());
+        }
+
+        return keys;
+    }
+
+    @Test
+    void roundTrip() {
+        JdbcDataTable table = open();
+        Datastore<String, Entry> datastore = datastore(table);
+        save(datastore, "a", "first", 1);
+        save(datastore, "a", "second", 2);
+
+        DataSourceFindResult result = table.findOneSync(Query.byKey("a").qualify(datastore));
+        assertTrue(result.found());
+
+        Entry entry = datastore.getDataCodec().constructAndDecode(datastore.newCodecContext(), result.input());
+        assertEquals("a", entry.id);
+        assertEquals("second", entry.name);
+        assertEquals(Integer.valueOf(2), entry.score);
+
+        assertFalse(table.findOneSync(Query.byKey("b").qualify(datastore)).found());
+        assertEquals(1, table.count(Query.all().qualify(datastore)));
+    }
+
+    @Test
+    void rangeQuery() {
+        JdbcDataTable table = open().index("score");
+        Datastore<String, Entry> datastore = datastore(table);
+        saveAll(datastore);
+
+        // constraints on the key and indexed fields are done in SQL
+        Query indexed = Query.builder().greaterOrEq("score", 4).less("score", 8).build().qualify(datastore);
+        assertTrue(JdbcQueries.compileFilter(table, indexed).isComplete());
+        assertEquals(Arrays.asList("d", "e", "f", "g"), keys(datastore, table.findAllSync(indexed)
+                .sort(Sorting.builder().ascend("id").build())));
+        assertEquals(4, table.count(indexed));
+
+        Query byKey = Query.builder().greater("id", "h").build().qualify(datastore);
+        assertEquals(Arrays.asList("i", "j"), keys(datastore, table.findAllSync(byKey)
+                .sort(Sorting.builder().ascend("id").build())));
+
+        // other constraints are checked on the documents
+        Query residual = Query.builder().lessOrEq("name", "name2").greater("score", 8).build().qualify(datastore);
+        assertFalse(JdbcQueries.compileFilter(table, residual).isComplete());
+        assertEquals(Arrays.asList("i", "j"), keys(datastore, table.findAllSync(residual)
+                .sort(Sorting.builder().ascend("id").build())));
+        assertEquals(2, table.deleteAll(residual));
+        assertEquals(8, table.count(Query.all().qualify(datastore)));
+    }
+
+    @Test
+    void sortAndLimit() {
+        JdbcDataTable table = open().index("score");
+        Datastore<String, Entry> datastore = datastore(table);
+        saveAll(datastore);
+
+        // sorted by an index column in SQL
+        assertEquals(Arrays.asList("j", "i", "h"), keys(datastore, table.findAllSync(Query.all().qualify(datastore))
+                .sort(Sorting.builder().descend("score").build())
+                .limit(3)));
+
+        // sorted locally by a field without a column
+        assertEquals(Arrays.asList("j", "i", "h"), keys(datastore, table.findAllSync(Query.all().qualify(datastore))
+                .sort(Sorting.builder().ascend("name").build())
+                .limit(3)));
+    }
+
+    @Test
+    void sortKeysOrderLikeValues() {
+        // numbers of any type with the same value have the same key
+        assertArrayEquals(SqlKeys.encode(3), SqlKeys.encode(3L));
+        assertArrayEquals(SqlKeys.encode(3), SqlKeys.encode(3.0));
+
+        // keys compare as unsigned bytes like the values
+        List<Object> ordered = Arrays.asList(null, -1000L, -2.5, 0, 1, 2.5, 1000L, "", "a", "ab", "b", false, true);
+        for (int i = 1; i < ordered.size(); i++) {
+            byte[] previous = SqlKeys.encode(ordered.get(i - 1));
+            byte[] current = SqlKeys.encode(ordered.get(i));
+            assertTrue(compareUnsigned(previous, current) < 0, ordered.get(i - 1) + " should sort before " + ordered.get(i));
+        }
+
+        // the type class bounds enclose all values of the type class
+        assertTrue(compareUnsigned(SqlKeys.typeClassStart(5), SqlKeys.encode(-1000L)) <= 0);
+        assertTrue(compareUnsigned(SqlKeys.encode(1000L), SqlKeys.typeClassEnd(5)) < 0);
+        assertTrue(compareUnsigned(SqlKeys.typeClassEnd(5), SqlKeys.encode("")) <= 0);
+    }
+
+    @Test
+    void longIndexedValues() {
+        JdbcDataTable table = open().index("name");
+        Datastore<String, Entry> datastore = datastore(table);
+
+        // the keys of these names share the stored prefix
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 600; i++) b.append('x');
+        String prefix = b.toString();
+        save(datastore, "a", prefix + "a", 1);
+        save(datastore, "b", prefix + "b", 2);
+        save(datastore, "c", "short", 3);
+        assertTrue(SqlKeys.isPrefix(SqlKeys.encodeIndex(prefix + "a")));
+
+        // constraints on prefixes are also checked on the documents
+        Query equal = Query.builder().eq("name", prefix + "a").build().qualify(datastore);
+        assertFalse(JdbcQueries.compileFilter(table, equal).isComplete());
+        assertEquals(Arrays.asList("a"), keys(datastore, table.findAllSync(equal)));
+        assertEquals(Arrays.asList("b"), keys(datastore, table.findAllSync(Query.builder()
+                .greater("name", prefix + "a").build().qualify(datastore))));
+        assertEquals(Arrays.asList("b", "c"), keys(datastore, table.findAllSync(Query.builder()
+                .neq("name", prefix + "a").build().qualify(datastore))
+                .sort(Sorting.builder().ascend("id").build())));
+
+        // constraints on short values are still exact
+        Query shortEqual = Query.builder().eq("name", "short").build().qualify(datastore);
+        assertTrue(JdbcQueries.compileFilter(table, shortEqual).isComplete());
+        assertEquals(Arrays.asList("c"), keys(datastore, table.findAllSync(shortEqual)));
+    }
+
+    static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int comparison = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+
+        return Integer.compare(a.length, b.length);
+    }
+
+    @Test
+    void indexColumnsAreMaintainedAfterReopening() throws SQLException {
+        JdbcDataTable table = open().index("score");
+        save(datastore(table), "a", "first", 1);
+
+        // the index is not registered again after opening the table
+        JdbcDataTable reopened = open();
+        assertTrue(reopened.indexColumns.containsKey("score"));
+
+        Datastore<String, Entry> datastore = datastore(reopened);
+        save(datastore, "a", "first", 5);
+        save(datastore, "b", "second", 6);
+
+        try (Connection connection = reopened.getSource().connection();
+             PreparedStatement statement = connection.prepareStatement("SELECT " + reopened.indexColumns.get("score") +
+                     " FROM " + reopened.getQuotedName() + " ORDER BY " + reopened.getKeyColumn())) {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertTrue(resultSet.next());
+                assertArrayEquals(SqlKeys.encode(5), resultSet.getBytes(1));
+                assertTrue(resultSet.next());
+                assertArrayEquals(SqlKeys.encode(6), resultSet.getBytes(1));
+            }
+        }
+
+        Query query = Query.builder().greater("score", 4).build().qualify(datastore);
+        assertTrue(JdbcQueries.compileFilter(reopened, query).isComplete());
+        assertEquals(2, reopened.count(query));
+    }
+
+}
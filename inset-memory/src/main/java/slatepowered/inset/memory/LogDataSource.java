@@ -0,0 +1,186 @@
+package slatepowered.inset.memory;
+
+import lombok.*;
+import org.bson.BsonDocument;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
+import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.source.DataSource;
+import slatepowered.inset.source.DataSourceException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded data source persisting each table as a log of raw BSON documents
+ * in memory mapped segment files on the local disk.
+ *
+ * Each table is stored in a directory named after the table, see {@link LogDataTable}
+ * for the storage format. This is meant for single node deployments where the
+ * tables do not have to be shared, finding a document by key is a lookup in
+ * memory followed by a read from the mapped file.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class LogDataSource implements DataSource {
+
+    // The data manager
+    private final DataManager dataManager;
+
+    // The directory containing the table directories
+    @Getter
+    private final Path directory;
+
+    // All opened data tables
+    private final Map<String, LogDataTable> dataTableMap = new ConcurrentHashMap<>();
+
+    public Collection<LogDataTable> allTables() {
+        return dataTableMap.values();
+    }
+
+    @Getter
+    private final String keyFieldOverride; // The key field to use, always set
+
+    @Getter
+    private final int segmentSize; // The capacity of new segment files in bytes
+
+    @Getter
+    private final double compactionThreshold; // The fraction of garbage in a segment to compact it at
+
+    @Getter
+    private final boolean syncWrites; // Whether to flush every write to the disk
+
+    @Getter
+    @Setter
+    private boolean streamEncoding = true; // Whether to encode documents directly to binary BSON
+
+    @Override
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+
+    @Override
+    public EncodeOutput createDocumentSerializationOutput() {
+        if (streamEncoding) {
+            return new BsonStreamEncodeOutput(keyFieldOverride);
+        }
+
+        return new DocumentEncodeOutput(
+                keyFieldOverride,
+                new BsonDocument()
+        );
+    }
+
+    @Override
+    public LogDataTable table(String name) {
+        return dataTableMap.computeIfAbsent(name, __ -> {
+            try {
+                return new LogDataTable(this, name, directory.resolve(name));
+            } catch (IOException e) {
+                throw new DataSourceException("Failed to open table " + name + " in " + directory, e);
+            }
+        });
+    }
+
+    /**
+     * Flush and close all opened tables.
+     */
+    public void close() {
+        for (LogDataTable table : dataTableMap.values()) {
+            table.close();
+        }
+
+        dataTableMap.clear();
+    }
+
+    /**
+     * Creates a new builder.
+     */
+    public static Builder builder(DataManager dataManager) {
+        return new Builder(dataManager);
+    }
+
+    @RequiredArgsConstructor
+    public static class Builder {
+        /* Options */
+        private final DataManager dataManager;
+        private Path directory;
+        private String keyFieldOverride = "_id";
+        private int segmentSize = 64 * 1024 * 1024;
+        private double compactionThreshold = 0.5;
+        private boolean syncWrites = false;
+        private boolean streamEncoding = true;
+
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder directory(String directory) {
+            return directory(Paths.get(directory));
+        }
+
+        public Builder keyFieldOverride(String keyFieldOverride) {
+            this.keyFieldOverride = keyFieldOverride;
+            return this;
+        }
+
+        /**
+         * Set the capacity of new segment files in bytes, records which
+         * are larger than this get a segment sized to fit them.
+         */
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Set the fraction of overwritten or deleted records in a sealed
+         * segment at which it is compacted.
+         */
+        public Builder compactionThreshold(double compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Set whether every write should be flushed to the disk before
+         * returning, otherwise this is left to the operating system.
+         */
+        public Builder syncWrites(boolean syncWrites) {
+            this.syncWrites = syncWrites;
+            return this;
+        }
+
+        public Builder streamEncoding(boolean streamEncoding) {
+            this.streamEncoding = streamEncoding;
+            return this;
+        }
+
+        public LogDataSource build() {
+            if (directory == null)
+                throw new IllegalArgumentException("A directory is required for a log data source");
+            if (keyFieldOverride == null)
+                throw new IllegalArgumentException("A key field is required for a log data source");
+            if (segmentSize < LogSegment.HEADER_SIZE + LogSegment.RECORD_HEADER_SIZE)
+                throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+
+            LogDataSource source = new LogDataSource(
+                    dataManager,
+                    directory,
+                    keyFieldOverride,
+                    segmentSize,
+                    compactionThreshold,
+                    syncWrites
+            );
+
+            source.setStreamEncoding(streamEncoding);
+            return source;
+        }
+    }
+
+}
@@ -0,0 +1,455 @@
+package slatepowered.inset.memory;
+
+import lombok.Getter;
+import org.bson.RawBsonDocument;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
+import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.operation.CommonProjection;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * A data table persisted as a log of records in memory mapped segment files.
+ *
+ * Every write appends the encoded document to the active segment and points the
+ * in-memory hash index from the primary key to the record, so finding a document
+ * by key is a single lookup and the document is read directly from the mapped
+ * file without copying it. Deletes append a tombstone record. When the table is
+ * opened the segments are replayed in order to rebuild the index, records which
+ * fail their checksum mark the end of the log. Segments which consist mostly of
+ * overwritten records are compacted in the background by moving the live records
+ * to the active segment and deleting the file.
+ *
+ * The table can be bounded in size with {@link #trimTo(long)}, which deletes the
+ * oldest segments, so the items which were written the longest ago are evicted.
+ */
+public class LogDataTable implements SizedDataTable {
+
+    // The suffix of segment file names
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Points to a record in a segment.
+     */
+    static final class Pointer {
+        final LogSegment segment;
+        final int offset;
+
+        Pointer(LogSegment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        ByteBuffer payload() {
+            return segment.payload(offset);
+        }
+    }
+
+    // The log data source
+    protected final LogDataSource source;
+
+    @Getter
+    protected final String name;
+
+    // The directory containing the segment files
+    @Getter
+    protected final Path directory;
+
+    // The serialized name of the primary key field
+    protected final String keyField;
+
+    // The index of the live records by the hash key of their primary key
+    protected final Map<Object, Pointer> index = new ConcurrentHashMap<>();
+
+    // The segments in order, the last one is the active segment
+    // which is appended to, guarded by this table
+    protected final List<LogSegment> segments = new ArrayList<>();
+    protected LogSegment activeSegment;
+    private long nextSegmentId;
+
+    // Whether a compaction is scheduled or running
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    LogDataTable(LogDataSource source, String name, Path directory) throws IOException {
+        this.source = source;
+        this.name = name;
+        this.directory = directory;
+        this.keyField = source.getKeyFieldOverride();
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public DataSource getSource() {
+        return source;
+    }
+
+    // get the path of the segment file with the given id
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%016x", id) + SEGMENT_SUFFIX);
+    }
+
+    // read the hash key of the document in the given payload
+    private Object readKey(ByteBuffer payload) {
+        return MemoryQueries.hashKey(new RawDocumentDecodeInput(keyField, payload).readRaw(keyField));
+    }
+
+    // open all segment files in order and rebuild the index
+    private synchronized void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+
+        // the ids are fixed width so the names sort in order
+        paths.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            long id = Long.parseUnsignedLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()), 16);
+
+            LogSegment segment = LogSegment.open(id, path);
+            segment.recover((type, offset, payload) -> {
+                Object key = readKey(payload);
+                Pointer old = type == LogSegment.TYPE_PUT ?
+                        index.put(key, new Pointer(segment, offset)) :
+                        index.remove(key);
+                if (old != null) {
+                    old.segment.addDeadBytes(old.segment.recordSize(old.offset));
+                }
+
+                if (type == LogSegment.TYPE_DELETE) {
+                    segment.addDeadBytes(segment.recordSize(offset));
+                }
+            });
+
+            segments.add(segment);
+            nextSegmentId = id + 1;
+        }
+
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            activeSegment = segments.get(segments.size() - 1);
+        }
+    }
+
+    // create a new active segment which fits a record with the given payload length
+    private void roll(int length) throws IOException {
+        long id = nextSegmentId++;
+        int capacity = Math.max(source.getSegmentSize(), LogSegment.HEADER_SIZE + LogSegment.RECORD_HEADER_SIZE + length);
+        activeSegment = LogSegment.create(id, segmentPath(id), capacity);
+        segments.add(activeSegment);
+    }
+
+    // append the given record to the active segment, caller must hold the lock
+    private Pointer append(byte type, ByteBuffer payload) {
+        try {
+            if (!activeSegment.fits(payload.remaining())) {
+                if (source.isSyncWrites()) {
+                    activeSegment.force();
+                }
+
+                roll(payload.remaining());
+                scheduleCompaction();
+            }
+
+            Pointer pointer = new Pointer(activeSegment, activeSegment.append(type, payload));
+            if (source.isSyncWrites()) {
+                activeSegment.force();
+            }
+
+            return pointer;
+        } catch (IOException e) {
+            throw new DataSourceException("Failed to append record to table " + name, e);
+        }
+    }
+
+    // mark the record at the given pointer as garbage
+    private static void kill(Pointer pointer) {
+        if (pointer != null) {
+            pointer.segment.addDeadBytes(pointer.segment.recordSize(pointer.offset));
+        }
+    }
+
+    @Override
+    public void replaceOneSync(EncodeOutput output) throws DataSourceException {
+        Object key = MemoryQueries.hashKey(output.getSetKey());
+
+        RawBsonDocument document;
+        if (output instanceof BsonStreamEncodeOutput) {
+            document = ((BsonStreamEncodeOutput) output).finish();
+        } else {
+            DocumentEncodeOutput encodeOutput = output.requireType(DocumentEncodeOutput.class);
+            document = new RawBsonDocument(encodeOutput.getOutputDocument(), MemoryQueries.BSON_DOCUMENT_CODEC);
+        }
+
+        synchronized (this) {
+            kill(index.put(key, append(LogSegment.TYPE_PUT, document.getByteBuffer().asNIO())));
+        }
+    }
+
+    // remove the document with the given key, appending a tombstone
+    private synchronized boolean remove(Object key) {
+        Pointer pointer = index.get(key);
+        if (pointer == null) {
+            return false;
+        }
+
+        // the tombstone only holds the primary key of the document
+        RawBsonDocument tombstone = MemoryQueries.project(
+                new RawDocumentDecodeInput(keyField, pointer.payload()).getRawDocument(), keyField,
+                new CommonProjection(CommonProjection.Action.INCLUDE, Collections.singletonList(keyField)));
+        Pointer tombstonePointer = append(LogSegment.TYPE_DELETE, tombstone.getByteBuffer().asNIO());
+        tombstonePointer.segment.addDeadBytes(tombstonePointer.segment.recordSize(tombstonePointer.offset));
+
+        index.remove(key);
+        kill(pointer);
+        return true;
+    }
+
+    // create an input reading the record at the given pointer
+    private RawDocumentDecodeInput read(Pointer pointer) {
+        return new RawDocumentDecodeInput(keyField, pointer.payload());
+    }
+
+    // select the records which may match the given query
+    private Collection<Pointer> select(Query query) {
+        if (query.hasKey()) {
+            Pointer pointer = index.get(MemoryQueries.hashKey(query.getKey()));
+            return pointer != null ? Collections.singletonList(pointer) : Collections.emptyList();
+        }
+
+        return index.values();
+    }
+
+    // find the first record matching the given query
+    private Pointer findFirst(Query query) {
+        Predicate<RawDocumentDecodeInput> filter = MemoryQueries.compileFilter(query.getDatastore().getDataCodec(), keyField, query);
+        for (Pointer pointer : select(query)) {
+            if (filter.test(read(pointer))) {
+                return pointer;
+            }
+        }
+
+        return null;
+    }
+
+    // find all keys of the records matching the given query
+    private List<Object> findKeys(Query query) {
+        Predicate<RawDocumentDecodeInput> filter = MemoryQueries.compileFilter(query.getDatastore().getDataCodec(), keyField, query);
+        List<Object> keys = new ArrayList<>();
+        for (Pointer pointer : select(query)) {
+            RawDocumentDecodeInput input = read(pointer);
+            if (filter.test(input)) {
+                keys.add(MemoryQueries.hashKey(input.readRaw(keyField)));
+            }
+        }
+
+        return keys;
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query) throws DataSourceException {
+        Pointer pointer = findFirst(query);
+        return MemoryQueries.queryResult(query, keyField, pointer != null ? () -> read(pointer) : null);
+    }
+
+    @Override
+    public DataSourceBulkIterable findAllSync(Query query) throws DataSourceException {
+        Predicate<RawDocumentDecodeInput> filter = MemoryQueries.compileFilter(query.getDatastore().getDataCodec(), keyField, query);
+        return new MemoryBulkIterable<>(name, keyField, query, select(query), this::read, filter);
+    }
+
+    @Override
+    public boolean deleteOne(Query query) {
+        Pointer pointer = findFirst(query);
+        return pointer != null && remove(MemoryQueries.hashKey(read(pointer).readRaw(keyField)));
+    }
+
+    @Override
+    public long deleteAll(Query query) {
+        long count = 0;
+        for (Object key : findKeys(query)) {
+            if (remove(key)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean exists(Query query) throws DataSourceException {
+        return findFirst(query) != null;
+    }
+
+    @Override
+    public long estimatedCount() {
+        return index.size();
+    }
+
+    @Override
+    public long count(Query query) {
+        if (query.fieldConstraintCount() == 0) {
+            return index.size();
+        }
+
+        return findKeys(query).size();
+    }
+
+    @Override
+    public synchronized void drop() {
+        try {
+            for (LogSegment segment : segments) {
+                segment.delete();
+            }
+
+            segments.clear();
+            index.clear();
+            activeSegment = null;
+            roll(0);
+        } catch (IOException e) {
+            throw new DataSourceException("Failed to drop table " + name, e);
+        }
+    }
+
+    // schedule a compaction if any sealed segment exceeds the garbage threshold
+    private void scheduleCompaction() {
+        if (!needsCompaction() || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        source.getExecutorService().execute(() -> {
+            try {
+                compact();
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    private synchronized boolean needsCompaction() {
+        for (LogSegment segment : segments) {
+            if (segment != activeSegment && segment.deadRatio() >= source.getCompactionThreshold()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Compact all sealed segments which exceed the garbage threshold by moving
+     * their live records to the active segment and deleting the segment files.
+     *
+     * Each segment is compacted while holding the lock of this table, reads are
+     * not blocked and keep reading from the mapped segments.
+     */
+    public void compact() {
+        List<LogSegment> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (LogSegment segment : segments) {
+                if (segment != activeSegment && segment.deadRatio() >= source.getCompactionThreshold()) {
+                    candidates.add(segment);
+                }
+            }
+        }
+
+        for (LogSegment segment : candidates) {
+            compact(segment);
+        }
+    }
+
+    // move the live records of the given sealed segment and delete it
+    private synchronized void compact(LogSegment segment) {
+        try {
+            // whether any older segment may still contain records
+            // for deleted keys, in which case tombstones are kept
+            final boolean keepTombstones = segments.get(0) != segment;
+
+            segment.forEachRecord((type, offset, payload) -> {
+                Object key = readKey(payload);
+                if (type == LogSegment.TYPE_PUT) {
+                    Pointer pointer = index.get(key);
+                    if (pointer != null && pointer.segment == segment && pointer.offset == offset) {
+                        index.put(key, append(LogSegment.TYPE_PUT, payload));
+                    }
+                } else if (keepTombstones && !index.containsKey(key)) {
+                    Pointer tombstone = append(LogSegment.TYPE_DELETE, payload);
+                    tombstone.segment.addDeadBytes(tombstone.segment.recordSize(tombstone.offset));
+                }
+            });
+
+            segments.remove(segment);
+            if (source.isSyncWrites()) {
+                activeSegment.force();
+            }
+
+            segment.delete();
+        } catch (IOException e) {
+            throw new DataSourceException("Failed to compact segment " + segment.getPath(), e);
+        }
+    }
+
+    @Override
+    public synchronized long getStorageSize() {
+        long size = 0;
+        for (LogSegment segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public synchronized void trimTo(long maxSize) {
+        try {
+            long size = getStorageSize();
+            while (size > maxSize && segments.size() > 1) {
+                // no segment is older than the first one, so its records can be
+                // dropped without keeping tombstones, the live records in it are
+                // evicted and the active segment is never deleted
+                LogSegment segment = segments.remove(0);
+                index.values().removeIf(pointer -> pointer.segment == segment);
+                size -= segment.size();
+                segment.delete();
+            }
+        } catch (IOException e) {
+            throw new DataSourceException("Failed to trim table " + name, e);
+        }
+    }
+
+    /**
+     * Flush all written records to the segment files and close them.
+     */
+    public synchronized void close() {
+        try {
+            for (LogSegment segment : segments) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LogDataTable('" + name + "')";
+    }
+}
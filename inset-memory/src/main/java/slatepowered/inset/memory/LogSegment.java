@@ -0,0 +1,278 @@
+package slatepowered.inset.memory;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * One memory mapped, append only segment file of a {@link LogDataTable}.
+ *
+ * The file starts with a header of the magic number and the format version,
+ * followed by the records. Each record consists of the payload length, the
+ * CRC32 of the type and payload, the record type and the payload, which is
+ * a BSON document. The file is allocated to its full capacity up front so
+ * the zeroed space following the last record marks the end of the log.
+ */
+final class LogSegment {
+
+    // The magic number identifying segment files
+    static final int MAGIC = 0x49534547; // ISEG
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    /* Record Layout */
+    static final int RECORD_HEADER_SIZE = 9; // length, crc, type
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_DELETE = 2;
+
+    /**
+     * The sequence number of this segment, segments are replayed in this order.
+     */
+    @Getter
+    private final long id;
+
+    @Getter
+    private final Path path;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+
+    // The little endian view of the mapped buffer
+    private final ByteBuffer buffer;
+
+    // The offset to append the next record at
+    private volatile int writeOffset;
+
+    // The amount of bytes of records which have been overwritten or deleted
+    private final AtomicLong deadBytes = new AtomicLong();
+
+    private LogSegment(long id, Path path, FileChannel channel, MappedByteBuffer mapped) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.mapped = mapped;
+        this.buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Create a new segment file with the given capacity.
+     */
+    static LogSegment create(long id, Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.writeOffset = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Open an existing segment file, the records have to be
+     * recovered with {@link #recover(RecordVisitor)} before appending.
+     */
+    static LogSegment open(long id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        if (channel.size() < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not a segment file: " + path);
+        }
+
+        if (segment.buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Unsupported segment version " + segment.buffer.getInt(4) + " in " + path);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Visits the records of a segment during recovery.
+     */
+    interface RecordVisitor {
+        void visit(byte type, int offset, ByteBuffer payload) throws IOException;
+    }
+
+    // compute the checksum of the record with
+    // the given type and payload at the given offset
+    private int checksum(int payloadOffset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        // cast to Buffer as the covariant overrides do not exist on Java 8
+        ((Buffer) view).limit(payloadOffset + length);
+        ((Buffer) view).position(payloadOffset - 1);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Read all intact records in this segment in order, stopping at the first
+     * record which is incomplete or fails the checksum.
+     *
+     * @param visitor The visitor of the records.
+     * @return The offset following the last intact record.
+     */
+    int forEachRecord(RecordVisitor visitor) throws IOException {
+        final int capacity = buffer.capacity();
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > capacity - offset - RECORD_HEADER_SIZE) {
+                break;
+            }
+
+            int payloadOffset = offset + RECORD_HEADER_SIZE;
+            byte type = buffer.get(offset + 8);
+            if ((type != TYPE_PUT && type != TYPE_DELETE) || checksum(payloadOffset, length) != buffer.getInt(offset + 4)) {
+                break;
+            }
+
+            visitor.visit(type, offset, slice(payloadOffset, length));
+            offset = payloadOffset + length;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Read all intact records in this segment when opening it. A record which
+     * is incomplete or fails the checksum would be the result of a crash during
+     * a write, the space following the last intact record is cleared so it is
+     * overwritten by the next appended record.
+     *
+     * @param visitor The visitor of the records.
+     */
+    void recover(RecordVisitor visitor) throws IOException {
+        int offset = forEachRecord(visitor);
+
+        // clear the torn record, if any
+        if (offset + 4 <= buffer.capacity()) {
+            buffer.putInt(offset, 0);
+        }
+
+        writeOffset = offset;
+    }
+
+    /**
+     * Get whether a record with a payload of the given length fits in this segment.
+     */
+    boolean fits(int length) {
+        return writeOffset + RECORD_HEADER_SIZE + length <= buffer.capacity();
+    }
+
+    /**
+     * Append a record with the given payload, the caller is responsible for
+     * making sure the record fits and for serializing all appends.
+     *
+     * @param type The record type.
+     * @param payload The payload.
+     * @return The offset of the record.
+     */
+    int append(byte type, ByteBuffer payload) {
+        final int offset = writeOffset;
+        final int length = payload.remaining();
+        final int payloadOffset = offset + RECORD_HEADER_SIZE;
+
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(payloadOffset);
+        view.put(payload.duplicate());
+        buffer.put(offset + 8, type);
+        buffer.putInt(offset + 4, checksum(payloadOffset, length));
+
+        // clear the length of the following record before
+        // publishing this one so the end is always marked
+        int next = payloadOffset + length;
+        if (next + 4 <= buffer.capacity()) {
+            buffer.putInt(next, 0);
+        }
+
+        buffer.putInt(offset, length);
+        writeOffset = next;
+        return offset;
+    }
+
+    /**
+     * Get a read only view of the bytes at the given offset, without copying them.
+     */
+    ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        ((Buffer) view).limit(offset + length);
+        ((Buffer) view).position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Get the payload of the record at the given offset, without copying it.
+     */
+    ByteBuffer payload(int recordOffset) {
+        return slice(recordOffset + RECORD_HEADER_SIZE, buffer.getInt(recordOffset));
+    }
+
+    /**
+     * Get the total size of the record at the given offset.
+     */
+    int recordSize(int recordOffset) {
+        return RECORD_HEADER_SIZE + buffer.getInt(recordOffset);
+    }
+
+    /**
+     * Mark the given amount of bytes in this segment as garbage.
+     */
+    void addDeadBytes(int bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Get the fraction of the written bytes in this segment which are garbage.
+     */
+    double deadRatio() {
+        int written = writeOffset - HEADER_SIZE;
+        return written > 0 ? (double) deadBytes.get() / written : 0;
+    }
+
+    /**
+     * Get the amount of bytes written to this segment.
+     */
+    int size() {
+        return writeOffset;
+    }
+
+    /**
+     * Flush the written records to the file.
+     */
+    void force() {
+        mapped.force();
+    }
+
+    /**
+     * Close the file channel and delete the segment file. The mapping is
+     * released when the buffer is collected, so previously handed out
+     * views of the records stay readable.
+     */
+    void delete() throws IOException {
+        channel.close();
+        if (!path.toFile().delete()) {
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    void close() throws IOException {
+        mapped.force();
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "LogSegment(" + path + ")";
+    }
+
+}
@@ -0,0 +1,265 @@
+package slatepowered.inset.memory;
+
+import org.bson.RawBsonDocument;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.operation.FieldOrderSorting;
+import slatepowered.inset.operation.FieldOrdering;
+import slatepowered.inset.operation.Projection;
+import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.query.PageToken;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.source.DataSourceBulkIterable;
+import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.KeySet;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * The results of a find-all query on a data table storing raw documents locally.
+ *
+ * The candidate documents are selected when the iterable is created, the filters,
+ * sorting, paging and limits are applied when the first item is requested.
+ *
+ * @param <D> The type of the stored documents.
+ */
+final class MemoryBulkIterable<D> implements DataSourceBulkIterable {
+
+    private final String tableName;
+    private final String keyFieldNameOverride;
+    private final Query query;
+
+    // The candidate documents and the function
+    // creating an input to read them
+    private final Collection<D> candidates;
+    private final Function<D, RawDocumentDecodeInput> reader;
+
+    // The filters to apply to the candidates
+    private final List<Predicate<RawDocumentDecodeInput>> filters = new ArrayList<>();
+
+    /* Options */
+    private KeySet excludedKeys;
+    private FieldOrderSorting sorting;
+    private PageToken afterToken;
+    private Projection projection;
+    private int skip;
+    private int limit = -1;
+
+    // The evaluated result documents and the
+    // position of the cursor in them
+    private List<D> results;
+    private int position;
+
+    MemoryBulkIterable(String tableName, String keyFieldNameOverride, Query query,
+                       Collection<D> candidates, Function<D, RawDocumentDecodeInput> reader,
+                       Predicate<RawDocumentDecodeInput> filter) {
+        this.tableName = tableName;
+        this.keyFieldNameOverride = keyFieldNameOverride;
+        this.query = query;
+        this.candidates = candidates;
+        this.reader = reader;
+        this.filters.add(filter);
+    }
+
+    @Override
+    public String getPrimaryKeyFieldOverride() {
+        return keyFieldNameOverride;
+    }
+
+    @Override
+    public Query getQuery() {
+        return query;
+    }
+
+    private DataCodec<?, ?> codec() {
+        return query.getDatastore().getDataCodec();
+    }
+
+    // get the serialized name of the raw primary key field
+    private String rawKeyField() {
+        return keyFieldNameOverride != null ? keyFieldNameOverride : codec().getPrimaryKeyFieldName();
+    }
+
+    @Override
+    public DataSourceBulkIterable batch(int size) {
+        // all documents are already in memory
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable filter(Query query) {
+        filters.add(MemoryQueries.compileFilter(codec(), keyFieldNameOverride, query));
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable projection(Projection projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable sort(Sorting sorting) {
+        if (!(sorting instanceof FieldOrderSorting)) {
+            throw new UnsupportedOperationException("Unsupported sorting type: " + sorting.getClass().getName());
+        }
+
+        this.sorting = (FieldOrderSorting) sorting;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable skip(int amount) {
+        this.skip = amount;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable excludeKeys(KeySet keys) {
+        this.excludedKeys = keys;
+        return this;
+    }
+
+    @Override
+    public DataSourceBulkIterable after(FieldOrderSorting sorting, PageToken token) {
+        this.sorting = sorting;
+        this.afterToken = token;
+        return this;
+    }
+
+    // encode the sort key of the given document in the current sorting
+    private long[] sortKey(RawDocumentDecodeInput input, String[] fields, boolean[] descending) {
+        SortKeys.Encoder encoder = new SortKeys.Encoder();
+        for (int i = 0; i < fields.length; i++) {
+            encoder.append(MemoryQueries.normalize(input.readRaw(fields[i])), descending[i]);
+        }
+
+        return encoder.toArray();
+    }
+
+    // evaluate the results if they have not been evaluated yet
+    private List<D> results() {
+        if (results != null) {
+            return results;
+        }
+
+        final String rawKeyField = rawKeyField();
+
+        // filter the candidates, the inputs are kept
+        // to read the sort keys from
+        List<D> documents = new ArrayList<>();
+        List<RawDocumentDecodeInput> inputs = new ArrayList<>();
+        outer: for (D document : candidates) {
+            RawDocumentDecodeInput input = reader.apply(document);
+            if (excludedKeys != null && excludedKeys.contains(input.readRaw(rawKeyField))) {
+                continue;
+            }
+
+            for (Predicate<RawDocumentDecodeInput> filter : filters) {
+                if (!filter.test(input)) {
+                    continue outer;
+                }
+            }
+
+            documents.add(document);
+            inputs.add(input);
+        }
+
+        if (sorting != null) {
+            final int size = sorting.size();
+            String[] fields = new String[size];
+            boolean[] descending = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                fields[i] = MemoryQueries.serializedFieldName(codec(), keyFieldNameOverride, sorting.getFieldNames().get(i));
+                descending[i] = sorting.getFieldOrderings().get(i) == FieldOrdering.DESCENDING;
+            }
+
+            // compute each sort key once
+            final int count = documents.size();
+            long[][] keys = new long[count][];
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = sortKey(inputs.get(i), fields, descending);
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (a, b) -> SortKeys.compare(keys[a], keys[b]));
+
+            long[] afterKey = afterToken != null ? afterToken.toSortKey(descending) : null;
+            List<D> sorted = new ArrayList<>(count);
+            for (Integer i : order) {
+                if (afterKey == null || SortKeys.compare(keys[i], afterKey) > 0) {
+                    sorted.add(documents.get(i));
+                }
+            }
+
+            documents = sorted;
+        }
+
+        int from = Math.min(skip, documents.size());
+        int to = limit > 0 ? Math.min(documents.size(), from + limit) : documents.size();
+        return results = documents.subList(from, to);
+    }
+
+    // convert the given document to a bulk item result
+    private SourcedItem<?, ?> convert(D document) {
+        if (projection != null) {
+            RawBsonDocument projected = MemoryQueries.project(reader.apply(document).getRawDocument(), rawKeyField(), projection);
+            return MemoryQueries.toBulkItem(() -> new RawDocumentDecodeInput(keyFieldNameOverride, projected), true);
+        }
+
+        return MemoryQueries.toBulkItem(() -> reader.apply(document), false);
+    }
+
+    @Override
+    public Optional<SourcedItem<?, ?>> first() {
+        List<D> results = results();
+        return results.isEmpty() ? Optional.empty() : Optional.of(convert(results.get(0)));
+    }
+
+    @Override
+    public Optional<SourcedItem<?, ?>> next() {
+        List<D> results = results();
+        return position < results.size() ? Optional.of(convert(results.get(position++))) : Optional.empty();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < results().size();
+    }
+
+    @Override
+    public List<SourcedItem<?, ?>> list() {
+        List<D> results = results();
+        List<SourcedItem<?, ?>> list = new ArrayList<>(results.size() - position);
+        while (position < results.size()) {
+            list.add(convert(results.get(position++)));
+        }
+
+        return list;
+    }
+
+    @Override
+    public Stream<SourcedItem<?, ?>> stream() {
+        List<D> results = results();
+        Stream<SourcedItem<?, ?>> stream = results.subList(position, results.size()).stream().map(this::convert);
+        position = results.size();
+        return stream;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBulkIterable(" + tableName + ", " + query + ")";
+    }
+
+}
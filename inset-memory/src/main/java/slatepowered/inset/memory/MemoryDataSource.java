@@ -0,0 +1,102 @@
+package slatepowered.inset.memory;
+
+import lombok.*;
+import org.bson.BsonDocument;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
+import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.source.DataSource;
+import slatepowered.inset.source.DataTable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data source storing all data in memory as raw BSON documents.
+ *
+ * The documents are encoded and decoded exactly like they would be for
+ * MongoDB, so this can be used in place of a database for tests and caches.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class MemoryDataSource implements DataSource {
+
+    // The data manager
+    private final DataManager dataManager;
+
+    // All created data tables
+    private final Map<String, MemoryDataTable> dataTableMap = new ConcurrentHashMap<>();
+
+    public Collection<MemoryDataTable> allTables() {
+        return dataTableMap.values();
+    }
+
+    @Getter
+    @Setter
+    private String keyFieldOverride; // The key field to use
+
+    @Getter
+    @Setter
+    private boolean streamEncoding = true; // Whether to encode documents directly to binary BSON
+
+    @Override
+    public DataManager getDataManager() {
+        return dataManager;
+    }
+
+    @Override
+    public EncodeOutput createDocumentSerializationOutput() {
+        if (streamEncoding) {
+            return new BsonStreamEncodeOutput(keyFieldOverride);
+        }
+
+        return new DocumentEncodeOutput(
+                keyFieldOverride,
+                new BsonDocument()
+        );
+    }
+
+    @Override
+    public MemoryDataTable table(String name) {
+        return dataTableMap.computeIfAbsent(name, __ -> new MemoryDataTable(this, name));
+    }
+
+    /**
+     * Creates a new builder.
+     */
+    public static Builder builder(DataManager dataManager) {
+        return new Builder(dataManager);
+    }
+
+    @RequiredArgsConstructor
+    public static class Builder {
+        /* Options */
+        private final DataManager dataManager;
+        private String keyFieldOverride = "_id";
+        private boolean streamEncoding = true;
+
+        public Builder keyFieldOverride(String keyFieldOverride) {
+            this.keyFieldOverride = keyFieldOverride;
+            return this;
+        }
+
+        /**
+         * Set whether documents should be encoded directly to binary BSON, if disabled
+         * the documents are built as {@link BsonDocument} trees and converted.
+         */
+        public Builder streamEncoding(boolean streamEncoding) {
+            this.streamEncoding = streamEncoding;
+            return this;
+        }
+
+        public MemoryDataSource build() {
+            MemoryDataSource source = new MemoryDataSource(dataManager);
+            source.setKeyFieldOverride(keyFieldOverride);
+            source.setStreamEncoding(streamEncoding);
+
+            return source;
+        }
+    }
+
+}
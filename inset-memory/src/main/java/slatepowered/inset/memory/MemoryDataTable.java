@@ -0,0 +1,316 @@
+package slatepowered.inset.memory;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.bson.RawBsonDocument;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
+import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.operation.IndexDefinition;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.query.constraint.CommonFieldConstraint;
+import slatepowered.inset.query.constraint.FieldConstraint;
+import slatepowered.inset.source.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A data table storing the encoded documents in memory.
+ *
+ * Queries are evaluated natively on the raw documents, queries by primary key
+ * look up the document directly and constraints on indexed fields only check
+ * the documents found through the index instead of scanning the whole table.
+ */
+@RequiredArgsConstructor
+@Getter
+public class MemoryDataTable implements DataTable {
+
+    // The memory data source
+    protected final MemoryDataSource source;
+    protected final String name;
+
+    // The documents by the hash key of their primary key
+    protected final Map<Object, RawBsonDocument> documents = new ConcurrentHashMap<>();
+
+    // The secondary indexes by serialized field name
+    protected final Map<String, MemoryIndex> indexes = new ConcurrentHashMap<>();
+
+    @Override
+    public DataSource getSource() {
+        return source;
+    }
+
+    /**
+     * Create a hash index on the field with the given serialized name, which
+     * answers equality constraints on the field.
+     *
+     * @param fieldName The serialized field name.
+     * @return This.
+     */
+    public MemoryDataTable hashIndex(String fieldName) {
+        return createIndex(fieldName, false);
+    }
+
+    /**
+     * Create a range index on the field with the given serialized name, which
+     * answers both equality and ordering constraints on the field.
+     *
+     * @param fieldName The serialized field name.
+     * @return This.
+     */
+    public MemoryDataTable rangeIndex(String fieldName) {
+        return createIndex(fieldName, true);
+    }
+
+    private synchronized MemoryDataTable createIndex(String fieldName, boolean ordered) {
+        MemoryIndex index = new MemoryIndex(fieldName, ordered);
+        for (Map.Entry<Object, RawBsonDocument> entry : documents.entrySet()) {
+            index.add(entry.getKey(), new RawDocumentDecodeInput(null, entry.getValue()).readRaw(fieldName));
+        }
+
+        indexes.put(fieldName, index);
+        return this;
+    }
+
+    /**
+     * Creates a range index on the first field of each declared index, the
+     * remaining fields of compound indexes are checked on the documents.
+     */
+    @Override
+    public void ensureIndexes(DataCodec<?, ?> codec) throws DataSourceException {
+        for (IndexDefinition definition : codec.getIndexDefinitions()) {
+            String field = definition.getFieldNames().get(0);
+            String fieldName = MemoryQueries.serializedFieldName(codec, source.getKeyFieldOverride(), field);
+            MemoryIndex index = indexes.get(fieldName);
+            if (field.equals(codec.getPrimaryKeyFieldName()) || (index != null && index.isOrdered())) {
+                continue;
+            }
+
+            rangeIndex(fieldName);
+        }
+    }
+
+    // get the serialized name of the raw primary key field
+    private String rawKeyField(Query query) {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        return keyFieldOverride != null ? keyFieldOverride : query.getDatastore().getDataCodec().getPrimaryKeyFieldName();
+    }
+
+    // add the values of the given document to all indexes
+    private void index(Object key, RawBsonDocument document) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        RawDocumentDecodeInput input = new RawDocumentDecodeInput(null, document);
+        for (MemoryIndex index : indexes.values()) {
+            index.add(key, input.readRaw(index.getFieldName()));
+        }
+    }
+
+    // remove the values of the given document from all indexes
+    private void unindex(Object key, RawBsonDocument document) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        RawDocumentDecodeInput input = new RawDocumentDecodeInput(null, document);
+        for (MemoryIndex index : indexes.values()) {
+            index.remove(key, input.readRaw(index.getFieldName()));
+        }
+    }
+
+    // remove the document with the given key
+    private synchronized boolean remove(Object key) {
+        RawBsonDocument document = documents.remove(key);
+        if (document == null) {
+            return false;
+        }
+
+        unindex(key, document);
+        return true;
+    }
+
+    @Override
+    public synchronized void drop() {
+        documents.clear();
+        for (MemoryIndex index : indexes.values()) {
+            index.clear();
+        }
+    }
+
+    @Override
+    public void replaceOneSync(EncodeOutput output) throws DataSourceException {
+        Object key = MemoryQueries.hashKey(output.getSetKey());
+
+        RawBsonDocument document;
+        if (output instanceof BsonStreamEncodeOutput) {
+            document = ((BsonStreamEncodeOutput) output).finish();
+        } else {
+            DocumentEncodeOutput encodeOutput = output.requireType(DocumentEncodeOutput.class);
+            document = new RawBsonDocument(encodeOutput.getOutputDocument(), MemoryQueries.BSON_DOCUMENT_CODEC);
+        }
+
+        synchronized (this) {
+            RawBsonDocument old = documents.put(key, document);
+            if (old != null) {
+                unindex(key, old);
+            }
+
+            index(key, document);
+        }
+    }
+
+    /**
+     * Select the documents which may match the given query, this is either the
+     * document with the queried key, the smallest set of documents found through
+     * the indexes or all documents.
+     *
+     * @param query The query.
+     * @return The candidate documents.
+     */
+    protected Collection<RawBsonDocument> select(Query query) {
+        if (query.hasKey()) {
+            RawBsonDocument document = documents.get(MemoryQueries.hashKey(query.getKey()));
+            return document != null ? Collections.singletonList(document) : Collections.emptyList();
+        }
+
+        if (indexes.isEmpty() || query.fieldConstraintCount() == 0) {
+            return documents.values();
+        }
+
+        // find the smallest candidate set
+        DataCodec<?, ?> codec = query.getDatastore().getDataCodec();
+        Set<Object> best = null;
+        for (Map.Entry<String, FieldConstraint<?>> entry : query.getFieldConstraints().entrySet()) {
+            if (!(entry.getValue() instanceof CommonFieldConstraint)) {
+                continue;
+            }
+
+            MemoryIndex index = indexes.get(MemoryQueries.serializedFieldName(codec, source.getKeyFieldOverride(), entry.getKey()));
+            if (index == null) {
+                continue;
+            }
+
+            Set<Object> candidates = index.candidates((CommonFieldConstraint<?>) entry.getValue());
+            if (candidates != null && (best == null || candidates.size() < best.size())) {
+                best = candidates;
+            }
+        }
+
+        if (best == null) {
+            return documents.values();
+        }
+
+        List<RawBsonDocument> list = new ArrayList<>(best.size());
+        for (Object key : best) {
+            RawBsonDocument document = documents.get(key);
+            if (document != null) {
+                list.add(document);
+            }
+        }
+
+        return list;
+    }
+
+    // find the first document matching the given query
+    private RawBsonDocument findFirst(Query query) {
+        Predicate<RawDocumentDecodeInput> filter = MemoryQueries.compileFilter(query.getDatastore().getDataCodec(), source.getKeyFieldOverride(), query);
+        for (RawBsonDocument document : select(query)) {
+            if (filter.test(new RawDocumentDecodeInput(source.getKeyFieldOverride(), document))) {
+                return document;
+            }
+        }
+
+        return null;
+    }
+
+    // find all keys of the documents matching the given query
+    private List<Object> findKeys(Query query) {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        String rawKeyField = rawKeyField(query);
+        Predicate<RawDocumentDecodeInput> filter = MemoryQueries.compileFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+
+        List<Object> keys = new ArrayList<>();
+        for (RawBsonDocument document : select(query)) {
+            RawDocumentDecodeInput input = new RawDocumentDecodeInput(keyFieldOverride, document);
+            if (filter.test(input)) {
+                keys.add(MemoryQueries.hashKey(input.readRaw(rawKeyField)));
+            }
+        }
+
+        return keys;
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query) throws DataSourceException {
+        return MemoryQueries.queryResult(query, source.getKeyFieldOverride(), findFirst(query));
+    }
+
+    @Override
+    public DataSourceBulkIterable findAllSync(Query query) throws DataSourceException {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        Predicate<RawDocumentDecodeInput> filter = MemoryQueries.compileFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+        return new MemoryBulkIterable<>(name, keyFieldOverride, query, select(query),
+                document -> new RawDocumentDecodeInput(keyFieldOverride, document), filter);
+    }
+
+    @Override
+    public boolean deleteOne(Query query) {
+        RawBsonDocument document = findFirst(query);
+        if (document == null) {
+            return false;
+        }
+
+        Object key = new RawDocumentDecodeInput(source.getKeyFieldOverride(), document).readRaw(rawKeyField(query));
+        return remove(MemoryQueries.hashKey(key));
+    }
+
+    @Override
+    public long deleteAll(Query query) {
+        if (query.fieldConstraintCount() == 0) {
+            synchronized (this) {
+                long count = documents.size();
+                drop();
+                return count;
+            }
+        }
+
+        long count = 0;
+        for (Object key : findKeys(query)) {
+            if (remove(key)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public boolean exists(Query query) throws DataSourceException {
+        return findFirst(query) != null;
+    }
+
+    @Override
+    public long estimatedCount() {
+        return documents.size();
+    }
+
+    @Override
+    public long count(Query query) {
+        if (query.fieldConstraintCount() == 0) {
+            return documents.size();
+        }
+
+        return findKeys(query).size();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryDataTable('" + name + "')";
+    }
+}
@@ -0,0 +1,209 @@
+package slatepowered.inset.memory;
+
+import lombok.Getter;
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.query.constraint.CommonConstraintType;
+import slatepowered.inset.query.constraint.CommonFieldConstraint;
+import slatepowered.inset.util.Range;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * A secondary index on one field of a {@link MemoryDataTable}, mapping the
+ * values of the field to the keys of the documents containing them.
+ *
+ * Hash indexes answer equality constraints, range indexes are ordered by
+ * the sort keys of the values so they can also answer ordering constraints.
+ * Array values are indexed by each of their elements and absent fields are
+ * indexed as null, like MongoDB does. The candidates produced by an index are
+ * always a superset of the matching documents, the constraints are checked
+ * on each candidate document afterwards.
+ */
+public final class MemoryIndex {
+
+    // The key used for null values in the hash index,
+    // as concurrent maps can not contain null keys
+    private static final Object NULL = new Object();
+
+    /**
+     * The serialized name of the indexed field.
+     */
+    @Getter
+    private final String fieldName;
+
+    /**
+     * Whether this is an ordered range index.
+     */
+    @Getter
+    private final boolean ordered;
+
+    /* Index Tables */
+    private final ConcurrentHashMap<Object, Set<Object>> hashTable;
+    private final ConcurrentSkipListMap<long[], Set<Object>> rangeTable;
+
+    MemoryIndex(String fieldName, boolean ordered) {
+        this.fieldName = fieldName;
+        this.ordered = ordered;
+        this.hashTable = ordered ? null : new ConcurrentHashMap<>();
+        this.rangeTable = ordered ? new ConcurrentSkipListMap<>(SortKeys::compare) : null;
+    }
+
+    // get the key of the given single value in the index table
+    private Object indexKey(Object value) {
+        if (ordered) {
+            return MemoryQueries.sortKey(value);
+        }
+
+        value = MemoryQueries.hashKey(value);
+        return value != null ? value : NULL;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Set<Object>> table() {
+        return ordered ? (Map<Object, Set<Object>>) (Map<?, ?>) rangeTable : hashTable;
+    }
+
+    // call the given consumer for each indexed value of the given field value
+    private void forEachValue(Object value, Consumer<Object> consumer) {
+        if (value instanceof List && !((List<?>) value).isEmpty()) {
+            for (Object element : (List<?>) value) {
+                consumer.accept(element);
+            }
+        } else {
+            consumer.accept(value);
+        }
+    }
+
+    /**
+     * Add the document with the given key and field value to this index.
+     *
+     * @param documentKey The hash key of the document.
+     * @param value The raw value of the field.
+     */
+    void add(Object documentKey, Object value) {
+        Map<Object, Set<Object>> table = table();
+        forEachValue(value, v -> table.computeIfAbsent(indexKey(v), __ -> ConcurrentHashMap.newKeySet()).add(documentKey));
+    }
+
+    /**
+     * Remove the document with the given key and field value from this index.
+     *
+     * @param documentKey The hash key of the document.
+     * @param value The raw value of the field.
+     */
+    void remove(Object documentKey, Object value) {
+        Map<Object, Set<Object>> table = table();
+        forEachValue(value, v -> table.computeIfPresent(indexKey(v), (__, keys) -> {
+            keys.remove(documentKey);
+            return keys.isEmpty() ? null : keys;
+        }));
+    }
+
+    /**
+     * Remove all documents from this index.
+     */
+    void clear() {
+        table().clear();
+    }
+
+    // collect all document keys in the given sets
+    private static Set<Object> union(Collection<Set<Object>> sets) {
+        Set<Object> result = new HashSet<>();
+        for (Set<Object> set : sets) {
+            result.addAll(set);
+        }
+
+        return result;
+    }
+
+    // get the sort key which precedes all values of
+    // the type class following the type of the given key
+    private static long[] nextTypeClass(long[] key) {
+        return new long[] { key[0] + 1 };
+    }
+
+    /**
+     * Get the keys of the documents which may match the given constraint.
+     *
+     * @param constraint The constraint.
+     * @return The candidate document keys or null if this index can not answer the constraint.
+     */
+    @SuppressWarnings("unchecked")
+    Set<Object> candidates(CommonFieldConstraint<?> constraint) {
+        final Object operand = constraint.getOperand();
+        if (operand instanceof List) {
+            // whole arrays are not indexed, only their elements
+            return null;
+        }
+
+        switch (constraint.getType()) {
+            case EQUAL: {
+                Set<Object> keys = table().get(indexKey(operand));
+                return keys != null ? keys : Collections.emptySet();
+            }
+
+            case ONE_OF: {
+                Set<Object> result = new HashSet<>();
+                for (Object value : (Collection<?>) operand) {
+                    Set<Object> keys = table().get(indexKey(value));
+                    if (keys != null) {
+                        result.addAll(keys);
+                    }
+                }
+
+                return result;
+            }
+        }
+
+        if (!ordered || operand == null) {
+            return null;
+        }
+
+        // ordering comparisons only match values of the same type class
+        ConcurrentNavigableMap<long[], Set<Object>> range;
+        switch (constraint.getType()) {
+            case GREATER:
+            case GREATER_OR_EQUAL: {
+                long[] key = MemoryQueries.sortKey(operand);
+                range = rangeTable.subMap(key, constraint.getType() == CommonConstraintType.GREATER_OR_EQUAL, nextTypeClass(key), false);
+                break;
+            }
+
+            case LESS:
+            case LESS_OR_EQUAL: {
+                long[] key = MemoryQueries.sortKey(operand);
+                range = rangeTable.subMap(new long[] { key[0] }, true, key, constraint.getType() == CommonConstraintType.LESS_OR_EQUAL);
+                break;
+            }
+
+            case IN_RANGE: {
+                Range r = (Range) operand;
+                range = rangeTable.subMap(MemoryQueries.sortKey(r.getStart()), true, MemoryQueries.sortKey(r.getEnd()), true);
+                break;
+            }
+
+            default: return null;
+        }
+
+        return union(range.values());
+    }
+
+    /**
+     * Get the amount of distinct values in this index.
+     *
+     * @return The value count.
+     */
+    public int size() {
+        return table().size();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryIndex(" + fieldName + ", " + (ordered ? "range" : "hash") + ")";
+    }
+
+}
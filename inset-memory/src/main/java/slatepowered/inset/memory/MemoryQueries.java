@@ -0,0 +1,332 @@
+package slatepowered.inset.memory;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Binary;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.internal.SortKeys;
+import slatepowered.inset.operation.CommonProjection;
+import slatepowered.inset.operation.Projection;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.query.constraint.CommonFieldConstraint;
+import slatepowered.inset.query.constraint.FieldConstraint;
+import slatepowered.inset.source.DataSourceFindResult;
+import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.Range;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates {@link Query} abstractions natively on the raw documents
+ * stored by the in-memory data tables, following the semantics of MongoDB.
+ *
+ * Values are compared like MongoDB would, numbers of any type are compared
+ * by their numeric value, ordering comparisons only match values of the same
+ * type class and constraints on array fields match if any element matches.
+ */
+final class MemoryQueries {
+
+    private MemoryQueries() { throw new UnsupportedOperationException("Utility class"); }
+
+    static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    /**
+     * Resolve the serialized name of the given runtime field name.
+     */
+    static String serializedFieldName(DataCodec<?, ?> codec, String keyFieldNameOverride, String field) {
+        return field.equals(codec.getPrimaryKeyFieldName()) && keyFieldNameOverride != null ?
+                keyFieldNameOverride :
+                codec.toSerializedName(field);
+    }
+
+    /**
+     * Normalize the given value to the form it would be read from a raw document in.
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Enum) return ((Enum<?>) value).name();
+        if (value instanceof Instant) return new Date(((Instant) value).toEpochMilli());
+        if (value instanceof OffsetDateTime) return new Date(((OffsetDateTime) value).toInstant().toEpochMilli());
+        if (value instanceof ZonedDateTime) return new Date(((ZonedDateTime) value).toInstant().toEpochMilli());
+        if (value instanceof Binary) return ((Binary) value).getData();
+        return value;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Get the key to hash the given value by, values which are equal
+     * by {@link #valuesEqual(Object, Object)} have equal hash keys.
+     */
+    static Object hashKey(Object value) {
+        value = normalize(value);
+        if (isIntegral(value)) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            long l = (long) d;
+            return l == d ? (Object) l : (Object) d;
+        }
+
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Get the ascending sort key of the given single value.
+     */
+    static long[] sortKey(Object value) {
+        return new SortKeys.Encoder().append(normalize(value), false).toArray();
+    }
+
+    /**
+     * Check whether the two given values are equal.
+     */
+    static boolean valuesEqual(Object a, Object b) {
+        a = normalize(a);
+        b = normalize(b);
+        if (a instanceof Number && b instanceof Number) {
+            return isIntegral(a) && isIntegral(b) ?
+                    ((Number) a).longValue() == ((Number) b).longValue() :
+                    ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * Compare the two given values if they are of the same type class.
+     *
+     * @return The comparison result or null if the values can not be compared.
+     */
+    static Integer compareSameType(Object a, Object b) {
+        long[] ka = sortKey(a);
+        long[] kb = sortKey(b);
+        if (ka[0] != kb[0]) {
+            return null;
+        }
+
+        return SortKeys.compare(ka, kb);
+    }
+
+    // test the given predicate on the value or
+    // any of its elements if the value is an array
+    private static boolean matchesAny(Object value, Predicate<Object> predicate) {
+        if (predicate.test(value)) {
+            return true;
+        }
+
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (predicate.test(element)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Compile the given query to a predicate on the raw documents.
+     *
+     * @param codec The data codec.
+     * @param keyFieldNameOverride The primary key field name override.
+     * @param query The query.
+     * @return The predicate.
+     */
+    static Predicate<RawDocumentDecodeInput> compileFilter(DataCodec<?, ?> codec, String keyFieldNameOverride, Query query) {
+        // check for primary key
+        if (query.hasKey()) {
+            String keyField = keyFieldNameOverride != null ? keyFieldNameOverride : query.getKeyField();
+            Object key = query.getKey();
+            return input -> valuesEqual(input.readRaw(keyField), key);
+        }
+
+        Map<String, FieldConstraint<?>> constraintMap = query.getFieldConstraints();
+        if (constraintMap.isEmpty()) {
+            return input -> true;
+        }
+
+        List<Predicate<RawDocumentDecodeInput>> predicates = new ArrayList<>(constraintMap.size());
+        for (Map.Entry<String, FieldConstraint<?>> entry : constraintMap.entrySet()) {
+            predicates.add(compileConstraint(serializedFieldName(codec, keyFieldNameOverride, entry.getKey()), entry.getValue()));
+        }
+
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+
+        return input -> {
+            for (Predicate<RawDocumentDecodeInput> predicate : predicates) {
+                if (!predicate.test(input)) {
+                    return false;
+                }
+            }
+
+            return true;
+        };
+    }
+
+    /**
+     * Compile the given field constraint for the field with the given
+     * serialized name to a predicate on the raw documents.
+     *
+     * @param fieldName The serialized field name.
+     * @param constraint The constraint.
+     * @return The predicate.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Predicate<RawDocumentDecodeInput> compileConstraint(String fieldName, FieldConstraint<?> constraint) {
+        /* Common Constraints */
+        if (constraint instanceof CommonFieldConstraint) {
+            CommonFieldConstraint<?> commonConstraint = (CommonFieldConstraint<?>) constraint;
+            final Object operand = commonConstraint.getOperand();
+
+            switch (commonConstraint.getType()) {
+                case EQUAL: return input -> matchesAny(input.readRaw(fieldName), v -> valuesEqual(v, operand));
+                case NOT_EQUAL: return input -> !matchesAny(input.readRaw(fieldName), v -> valuesEqual(v, operand));
+                case GREATER: return compileComparison(fieldName, operand, c -> c > 0);
+                case LESS: return compileComparison(fieldName, operand, c -> c < 0);
+                case GREATER_OR_EQUAL: return compileComparison(fieldName, operand, c -> c >= 0);
+                case LESS_OR_EQUAL: return compileComparison(fieldName, operand, c -> c <= 0);
+                case EXISTS: return input -> input.contains(fieldName);
+                case ONE_OF: {
+                    Set<Object> keys = new HashSet<>();
+                    for (Object o : (Collection<?>) operand) keys.add(hashKey(o));
+                    return input -> matchesAny(input.readRaw(fieldName), v -> keys.contains(hashKey(v)));
+                }
+                case IN_RANGE: {
+                    Range range = (Range) operand;
+                    return input -> matchesAny(input.readRaw(fieldName), v -> v instanceof Number &&
+                            ((Number) v).doubleValue() >= range.getStart() && ((Number) v).doubleValue() <= range.getEnd());
+                }
+            }
+        }
+
+        // test other constraints on the raw value
+        final Predicate predicate = constraint;
+        return input -> predicate.test(input.readRaw(fieldName));
+    }
+
+    // compile an ordering comparison, which like the common
+    // constraints matches everything for a null operand
+    private static Predicate<RawDocumentDecodeInput> compileComparison(String fieldName, Object operand, Predicate<Integer> test) {
+        if (operand == null) {
+            return input -> true;
+        }
+
+        return input -> matchesAny(input.readRaw(fieldName), v -> {
+            Integer comparison = compareSameType(v, operand);
+            return comparison != null && test.test(comparison);
+        });
+    }
+
+    /**
+     * Apply the given projection to the given document, the primary
+     * key field is always included unless explicitly excluded.
+     *
+     * @param document The document.
+     * @param keyField The serialized primary key field name.
+     * @param projection The projection.
+     * @return The projected document.
+     */
+    static RawBsonDocument project(RawBsonDocument document, String keyField, Projection projection) {
+        if (!(projection instanceof CommonProjection)) {
+            throw new UnsupportedOperationException("Unsupported projection type: " + projection.getClass().getName());
+        }
+
+        CommonProjection commonProjection = (CommonProjection) projection;
+        Set<String> fields = new HashSet<>(commonProjection.getFieldNames());
+        boolean include = commonProjection.getAction() == CommonProjection.Action.INCLUDE;
+        if (include && keyField != null) {
+            fields.add(keyField);
+        }
+
+        BsonDocument projected = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+            if (fields.contains(entry.getKey()) == include) {
+                projected.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return new RawBsonDocument(projected, BSON_DOCUMENT_CODEC);
+    }
+
+    static DataSourceFindResult queryResult(Query query, String keyFieldOverride, RawBsonDocument document) {
+        Supplier<DecodeInput> inputSupplier = document != null ? () -> new RawDocumentDecodeInput(keyFieldOverride, document) : null;
+        return queryResult(query, keyFieldOverride, inputSupplier);
+    }
+
+    /**
+     * Create the result of a find-one query, reading the found
+     * document with inputs from the given supplier.
+     *
+     * @param query The query.
+     * @param keyFieldOverride The primary key field name override.
+     * @param inputSupplier The input supplier or null if no document was found.
+     * @return The result.
+     */
+    static DataSourceFindResult queryResult(Query query, String keyFieldOverride, Supplier<? extends DecodeInput> inputSupplier) {
+        return new DataSourceFindResult() {
+            @Override
+            public String getPrimaryKeyFieldOverride() {
+                return keyFieldOverride;
+            }
+
+            @Override
+            public Query getQuery() {
+                return query;
+            }
+
+            @Override
+            public boolean found() {
+                return inputSupplier != null;
+            }
+
+            @Override
+            public DecodeInput input() {
+                return inputSupplier != null ? inputSupplier.get() : null;
+            }
+        };
+    }
+
+    /**
+     * Convert the document read by the given inputs to a found bulk item.
+     */
+    static SourcedItem<?, ?> toBulkItem(Supplier<? extends DecodeInput> inputSupplier,
+                                        boolean partial) {
+        return new SourcedItem<Object, Object>() {
+            @Override
+            public boolean isPartial() {
+                return partial;
+            }
+
+            @Override
+            public DecodeInput input() {
+                return inputSupplier.get();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,144 @@
+package slatepowered.inset.memory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import slatepowered.inset.DataManager;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.EncodeOutput;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogDataTableTest {
+
+    @TempDir
+    Path directory;
+
+    ExecutorService executor;
+    DataManager dataManager;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        dataManager = DataManager.builder()
+                .executorService(executor)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // open the table with small segments so writes roll over quickly
+    LogDataTable open() {
+        return LogDataSource.builder(dataManager)
+                .directory(directory)
+                .segmentSize(128)
+                .build()
+                .table("test");
+    }
+
+    static void put(LogDataTable table, String key, long value) {
+        CodecContext context = new CodecContext(null);
+        EncodeOutput output = table.getSource().createDocumentSerializationOutput();
+        output.setSetKey(context, "_id", key);
+        output.setLong(context, "value", value);
+        table.replaceOneSync(output);
+    }
+
+    static long get(LogDataTable table, String key) {
+        LogDataTable.Pointer pointer = table.index.get(MemoryQueries.hashKey(key));
+        assertNotNull(pointer, "no record for " + key);
+        return ((Number) new RawDocumentDecodeInput("_id", pointer.payload()).readRaw("value")).longValue();
+    }
+
+    static boolean contains(LogDataTable table, String key) {
+        return table.index.containsKey(MemoryQueries.hashKey(key));
+    }
+
+    // wait for background compactions to finish
+    void awaitExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void reopenRebuildsIndex() {
+        LogDataTable table = open();
+        for (int i = 0; i < 10; i++) put(table, "k" + i, i);
+        for (int i = 0; i < 5; i++) put(table, "k" + i, i + 100);
+        assertTrue(table.segments.size() > 1);
+        table.close();
+
+        LogDataTable reopened = open();
+        assertEquals(10, reopened.estimatedCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i < 5 ? i + 100 : i, get(reopened, "k" + i));
+        }
+
+        // new records are appended after the recovered ones
+        put(reopened, "k0", 200);
+        reopened.close();
+        assertEquals(200, get(open(), "k0"));
+    }
+
+    @Test
+    void compactionKeepsLatestRecords() throws InterruptedException {
+        LogDataTable table = open();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) put(table, "k" + i, round * 10 + i);
+        }
+
+        table.compact();
+        awaitExecutor();
+
+        // only the records which were written last are left
+        for (LogSegment segment : table.segments) {
+            if (segment != table.activeSegment) {
+                assertTrue(segment.deadRatio() < 0.5, segment + " was not compacted");
+            }
+        }
+
+        assertTrue(table.getStorageSize() < 3 * 128);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(90 + i, get(table, "k" + i));
+        }
+
+        table.close();
+        LogDataTable reopened = open();
+        assertEquals(3, reopened.estimatedCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(90 + i, get(reopened, "k" + i));
+        }
+    }
+
+    @Test
+    void trimEvictsOldestSegments() {
+        LogDataTable table = open();
+        for (int i = 0; i < 10; i++) put(table, "k" + i, i);
+        assertTrue(table.segments.size() > 2);
+
+        table.trimTo(0);
+        assertEquals(1, table.segments.size());
+        assertSame(table.activeSegment, table.segments.get(0));
+
+        // the items in the active segment, which were written last, are kept
+        assertFalse(contains(table, "k0"));
+        assertEquals(9, get(table, "k9"));
+        for (LogDataTable.Pointer pointer : table.index.values()) {
+            assertSame(table.activeSegment, pointer.segment);
+        }
+
+        table.close();
+        assertEquals(table.estimatedCount(), open().estimatedCount());
+    }
+
+}
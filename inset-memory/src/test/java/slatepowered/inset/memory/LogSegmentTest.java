@@ -0,0 +1,131 @@
+package slatepowered.inset.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogSegmentTest {
+
+    @TempDir
+    Path directory;
+
+    static ByteBuffer payload(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // recover the given segment, collecting the payloads as strings
+    static List<String> recover(LogSegment segment) throws IOException {
+        List<String> records = new ArrayList<>();
+        segment.recover((type, offset, payload) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            records.add(type + ":" + new String(bytes, StandardCharsets.UTF_8));
+        });
+
+        return records;
+    }
+
+    // overwrite the byte at the given offset of the given file
+    static void corrupt(Path path, int offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, offset);
+            b.put(0, (byte) ~b.get(0));
+            channel.write(b, offset);
+        }
+    }
+
+    @Test
+    void recoverAfterReopen() throws IOException {
+        Path path = directory.resolve("0.seg");
+        LogSegment segment = LogSegment.create(0, path, 1024);
+        int first = segment.append(LogSegment.TYPE_PUT, payload("a"));
+        int second = segment.append(LogSegment.TYPE_DELETE, payload("bc"));
+        assertEquals(LogSegment.HEADER_SIZE, first);
+        assertEquals(first + LogSegment.RECORD_HEADER_SIZE + 1, second);
+        int size = segment.size();
+        segment.close();
+
+        LogSegment reopened = LogSegment.open(0, path);
+        assertEquals(Arrays.asList("1:a", "2:bc"), recover(reopened));
+        assertEquals(size, reopened.size());
+
+        // appending continues after the recovered records
+        assertEquals(size, reopened.append(LogSegment.TYPE_PUT, payload("d")));
+        reopened.close();
+
+        assertEquals(Arrays.asList("1:a", "2:bc", "1:d"), recover(LogSegment.open(0, path)));
+    }
+
+    @Test
+    void tornWriteEndsLog() throws IOException {
+        Path path = directory.resolve("0.seg");
+        LogSegment segment = LogSegment.create(0, path, 1024);
+        segment.append(LogSegment.TYPE_PUT, payload("a"));
+        int torn = segment.append(LogSegment.TYPE_PUT, payload("torn"));
+        segment.append(LogSegment.TYPE_PUT, payload("after"));
+        segment.close();
+
+        // a partially written payload fails the checksum
+        corrupt(path, torn + LogSegment.RECORD_HEADER_SIZE + 1);
+
+        LogSegment reopened = LogSegment.open(0, path);
+        assertEquals(Arrays.asList("1:a"), recover(reopened));
+        assertEquals(torn, reopened.size());
+
+        // the next record overwrites the torn one and ends the log again
+        assertEquals(torn, reopened.append(LogSegment.TYPE_PUT, payload("b")));
+        reopened.close();
+
+        assertEquals(Arrays.asList("1:a", "1:b"), recover(LogSegment.open(0, path)));
+    }
+
+    @Test
+    void incompleteLengthEndsLog() throws IOException {
+        Path path = directory.resolve("0.seg");
+        LogSegment segment = LogSegment.create(0, path, 64);
+        segment.append(LogSegment.TYPE_PUT, payload("a"));
+        int torn = segment.append(LogSegment.TYPE_PUT, payload("b"));
+        segment.close();
+
+        // a length pointing past the end of the segment
+        corrupt(path, torn + 3);
+
+        LogSegment reopened = LogSegment.open(0, path);
+        assertEquals(Arrays.asList("1:a"), recover(reopened));
+        assertEquals(torn, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    void fitsCapacity() throws IOException {
+        LogSegment segment = LogSegment.create(0, directory.resolve("0.seg"), LogSegment.HEADER_SIZE + LogSegment.RECORD_HEADER_SIZE + 4);
+        assertTrue(segment.fits(4));
+        assertFalse(segment.fits(5));
+        segment.append(LogSegment.TYPE_PUT, payload("abcd"));
+        assertFalse(segment.fits(1));
+        segment.close();
+    }
+
+    @Test
+    void openRejectsOtherFiles() throws IOException {
+        Path path = directory.resolve("0.seg");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(16));
+        }
+
+        assertThrows(IOException.class, () -> LogSegment.open(0, path));
+    }
+
+}
@@ -6,8 +6,10 @@ import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 import lombok.*;
 import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import slatepowered.inset.DataManager;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
 import slatepowered.inset.bson.DocumentEncodeOutput;
 import slatepowered.inset.codec.EncodeOutput;
 import slatepowered.inset.source.DataSource;
@@ -54,6 +56,18 @@ public class MongoDataSource implements DataSource {
     @Setter
     private String keyFieldOverride; // The key field to use
 
+    @Getter
+    @Setter
+    private boolean streamEncoding = true; // Whether to encode documents directly to binary BSON
+
+    @Getter
+    @Setter
+    private boolean indexAdvisor; // Whether to log query shapes without a supporting index
+
+    @Getter
+    @Setter
+    private boolean metadataCounts; // Whether to count all documents from the collection metadata
+
     @Override
     public DataManager getDataManager() {
         return dataManager;
@@ -61,6 +75,10 @@ public class MongoDataSource implements DataSource {
 
     @Override
     public EncodeOutput createDocumentSerializationOutput() {
+        if (streamEncoding) {
+            return new BsonStreamEncodeOutput(keyFieldOverride);
+        }
+
         return new DocumentEncodeOutput(
                 keyFieldOverride,
                 new BsonDocument()
@@ -72,8 +90,8 @@ public class MongoDataSource implements DataSource {
         return dataTableMap.computeIfAbsent(name, __ -> new MongoDataTable(
                 this,
                 name,
-                database.getCollection(name, BsonDocument.class),
-                database.getCollection(name)
+                database.getCollection(name),
+                database.getCollection(name, RawBsonDocument.class)
         ));
     }
 
@@ -90,6 +108,9 @@ public class MongoDataSource implements DataSource {
         private final DataManager dataManager;
         private MongoDatabase database;
         private String keyFieldOverride = "_id";
+        private boolean streamEncoding = true;
+        private boolean indexAdvisor = false;
+        private boolean metadataCounts = false;
 
         public Builder connect(MongoDatabase database) {
             this.database = database;
@@ -121,6 +142,35 @@ public class MongoDataSource implements DataSource {
             return this;
         }
 
+        /**
+         * Set whether documents should be encoded directly to binary BSON, if disabled
+         * the documents are built as {@link BsonDocument} trees like before.
+         */
+        public Builder streamEncoding(boolean streamEncoding) {
+            this.streamEncoding = streamEncoding;
+            return this;
+        }
+
+        /**
+         * Set whether the shapes of executed queries which are not supported by
+         * any index of their collection should be logged, once per shape.
+         */
+        public Builder indexAdvisor(boolean indexAdvisor) {
+            this.indexAdvisor = indexAdvisor;
+            return this;
+        }
+
+        /**
+         * Set whether counts of all documents in a collection should be read from the
+         * collection metadata instead of counting the keys of the {@code _id} index. The
+         * metadata count is only exact if the server was shut down cleanly and, for
+         * sharded collections, no orphaned documents exist.
+         */
+        public Builder metadataCounts(boolean metadataCounts) {
+            this.metadataCounts = metadataCounts;
+            return this;
+        }
+
         public MongoDataSource build() {
             MongoDataSource source = new MongoDataSource(
                     dataManager,
@@ -128,6 +178,9 @@ public class MongoDataSource implements DataSource {
             );
 
             source.setKeyFieldOverride(keyFieldOverride);
+            source.setStreamEncoding(streamEncoding);
+            source.setIndexAdvisor(indexAdvisor);
+            source.setMetadataCounts(metadataCounts);
 
             return source;
         }
@@ -2,18 +2,35 @@ package slatepowered.inset.mongodb;
 
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReplaceOptions;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 import org.bson.conversions.Bson;
+import slatepowered.inset.bson.BsonStreamEncodeOutput;
 import slatepowered.inset.bson.DocumentEncodeOutput;
+import slatepowered.inset.codec.DataCodec;
 import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.operation.AggregateGroup;
+import slatepowered.inset.operation.Aggregation;
+import slatepowered.inset.operation.FieldOrdering;
+import slatepowered.inset.operation.IndexDefinition;
+import slatepowered.inset.operation.Projection;
 import slatepowered.inset.query.Query;
 import slatepowered.inset.source.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Abstraction for a MongoDB collection.
  */
@@ -25,15 +42,80 @@ public class MongoDataTable implements DataTable {
     protected final MongoDataSource source;
     protected final String name;
 
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    // Counts all documents by the keys of the _id index, so no documents are fetched
+    private static final CountOptions COUNT_ALL_OPTIONS = new CountOptions().hint(Indexes.ascending("_id"));
+
     // The MongoDB collection
-    protected final MongoCollection<BsonDocument> bsonCollection; // TODO: switch everything to this
-    protected final MongoCollection<Document> collection;
+    protected final MongoCollection<Document> collection; // Used for commands which do not transfer items
+    protected final MongoCollection<RawBsonDocument> rawCollection; // Used to read and write raw binary documents
+
+    // The index advisor, created when first required if enabled on the source
+    private volatile MongoIndexAdvisor indexAdvisor;
 
     @Override
     public DataSource getSource() {
         return source;
     }
 
+    // get the index advisor or null if disabled
+    private MongoIndexAdvisor indexAdvisor() {
+        if (!source.isIndexAdvisor()) {
+            return null;
+        }
+
+        if (indexAdvisor == null) {
+            synchronized (this) {
+                if (indexAdvisor == null) {
+                    indexAdvisor = new MongoIndexAdvisor(this);
+                }
+            }
+        }
+
+        return indexAdvisor;
+    }
+
+    // serialize the given query to a filter, reporting its shape to the index advisor
+    private Bson findFilter(Query query) {
+        MongoIndexAdvisor advisor = indexAdvisor();
+        if (advisor != null) {
+            advisor.observe(query, null);
+        }
+
+        return MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), source.getKeyFieldOverride(), query);
+    }
+
+    @Override
+    public void ensureIndexes(DataCodec<?, ?> codec) throws DataSourceException {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        for (IndexDefinition definition : codec.getIndexDefinitions()) {
+            final int size = definition.size();
+            List<Bson> keys = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String fieldName = MongoQueries.serializedFieldName(codec, keyFieldOverride, definition.getFieldNames().get(i));
+                keys.add(definition.getFieldOrderings().get(i) == FieldOrdering.DESCENDING ?
+                        Indexes.descending(fieldName) : Indexes.ascending(fieldName));
+            }
+
+            IndexOptions options = new IndexOptions().unique(definition.isUnique());
+            if (definition.getName() != null) {
+                options.name(definition.getName());
+            }
+
+            if (definition.getExpireAfterSeconds() >= 0) {
+                options.expireAfter(definition.getExpireAfterSeconds(), TimeUnit.SECONDS);
+            }
+
+            // creating an existing index is a no-op
+            collection.createIndex(size == 1 ? keys.get(0) : Indexes.compoundIndex(keys), options);
+        }
+
+        if (indexAdvisor != null) {
+            indexAdvisor.refresh();
+        }
+    }
+
     @Override
     public void drop() {
         collection.drop();
@@ -41,22 +123,40 @@ public class MongoDataTable implements DataTable {
 
     @Override
     public void replaceOneSync(EncodeOutput output) throws DataSourceException {
-        DocumentEncodeOutput encodeOutput = output.requireType(DocumentEncodeOutput.class);
-        BsonDocument document = encodeOutput.getOutputDocument();
         Object key = output.getSetKey();
         String keyField = output.getSetKeyField();
 
         // create filter for item
-        bsonCollection.replaceOne(Filters.eq(keyField, key), document, new ReplaceOptions().upsert(true));
+        Bson filter = Filters.eq(keyField, key);
+
+        if (output instanceof BsonStreamEncodeOutput) {
+            // the encoded bytes are piped directly to the connection
+            RawBsonDocument document = ((BsonStreamEncodeOutput) output).finish();
+            rawCollection.replaceOne(filter, document, new ReplaceOptions().upsert(true));
+            return;
+        }
+
+        DocumentEncodeOutput encodeOutput = output.requireType(DocumentEncodeOutput.class);
+        RawBsonDocument document = new RawBsonDocument(encodeOutput.getOutputDocument(), BSON_DOCUMENT_CODEC);
+        rawCollection.replaceOne(filter, document, new ReplaceOptions().upsert(true));
     }
 
     @Override
     public DataSourceFindResult findOneSync(Query query) throws DataSourceException {
+        return findOneSync(query, null);
+    }
+
+    @Override
+    public DataSourceFindResult findOneSync(Query query, Projection projection) throws DataSourceException {
         String keyFieldOverride = source.getKeyFieldOverride();
-        Bson filter = MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+        Bson filter = findFilter(query);
 
-        FindIterable<Document> iterable = collection.find(filter);
-        Document result = iterable.first();
+        FindIterable<RawBsonDocument> iterable = rawCollection.find(filter);
+        if (projection != null) {
+            iterable = iterable.projection(MongoQueries.serializeProjection(projection));
+        }
+
+        RawBsonDocument result = iterable.first();
 
         return result != null ?
                 MongoQueries.foundQueryResult(query, keyFieldOverride, result) :
@@ -66,50 +166,94 @@ public class MongoDataTable implements DataTable {
     @Override
     public DataSourceBulkIterable findAllSync(Query query) throws DataSourceException {
         String keyFieldOverride = source.getKeyFieldOverride();
-        FindIterable<Document> iterable;
+        FindIterable<RawBsonDocument> iterable;
+        Bson filter = null;
 
         if (query.fieldConstraintCount() > 0) {
-            Bson filter = MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
-            iterable = collection.find(filter);
+            filter = MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+            iterable = rawCollection.find(filter);
         } else {
-            iterable = collection.find();
+            iterable = rawCollection.find();
         }
 
-        return MongoQueries.createBulkIterable(keyFieldOverride, query, iterable);
+        return MongoQueries.createBulkIterable(keyFieldOverride, query, filter, iterable, indexAdvisor());
     }
 
     @Override
     public boolean deleteOne(Query query) {
-        String keyFieldOverride = source.getKeyFieldOverride();
-        Bson filter = MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+        Bson filter = findFilter(query);
 
         return collection.deleteOne(filter).getDeletedCount() > 0;
     }
 
     @Override
     public long deleteAll(Query query) {
-        if (query.fieldConstraintCount() > 0) {
-            String keyFieldOverride = source.getKeyFieldOverride();
-            Bson filter = MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+        // deleting with an empty filter keeps the collection and
+        // its indexes, which dropping the collection would remove
+        Bson filter = query.hasKey() || query.fieldConstraintCount() > 0 ?
+                findFilter(query) :
+                new Document();
 
-            return collection.deleteMany(filter).getDeletedCount();
-        } else {
-            long count = collection.countDocuments();
-            collection.drop();
-            return count;
+        return collection.deleteMany(filter).getDeletedCount();
+    }
+
+    // count all documents in the collection, from the collection
+    // metadata if enabled or the keys of the _id index otherwise
+    private long countAll() {
+        if (source.isMetadataCounts()) {
+            return collection.estimatedDocumentCount();
         }
+
+        return collection.countDocuments(new Document(), COUNT_ALL_OPTIONS);
+    }
+
+    @Override
+    public boolean exists(Query query) throws DataSourceException {
+        // only the key of the first match is returned, which
+        // can be read from the index for most queries
+        DataCodec<?, ?> codec = query.getDatastore().getDataCodec();
+        String keyField = MongoQueries.serializedFieldName(codec, source.getKeyFieldOverride(), codec.getPrimaryKeyFieldName());
+        FindIterable<RawBsonDocument> iterable = query.fieldConstraintCount() > 0 ?
+                rawCollection.find(findFilter(query)) : rawCollection.find();
+        return iterable.projection(Projections.include(keyField)).limit(1).first() != null;
+    }
+
+    @Override
+    public long estimatedCount() throws DataSourceException {
+        // read from the collection metadata
+        return collection.estimatedDocumentCount();
     }
 
     @Override
     public long count(Query query) {
         if (query.fieldConstraintCount() > 0) {
-            String keyFieldOverride = source.getKeyFieldOverride();
-            Bson filter = MongoQueries.serializeQueryToFindFilter(query.getDatastore().getDataCodec(), keyFieldOverride, query);
+            // filters on indexed fields are counted from the index by the server
+            Bson filter = findFilter(query);
 
             return collection.countDocuments(filter);
         } else {
-            return collection.countDocuments();
+            return countAll();
+        }
+    }
+
+    @Override
+    public List<AggregateGroup> aggregateSync(Query query, Aggregation aggregation) throws DataSourceException {
+        String keyFieldOverride = source.getKeyFieldOverride();
+        DataCodec<?, ?> codec = query.getDatastore().getDataCodec();
+
+        List<Bson> pipeline = new ArrayList<>(2);
+        if (query.fieldConstraintCount() > 0) {
+            pipeline.add(Aggregates.match(findFilter(query)));
         }
+
+        pipeline.add(MongoQueries.serializeGroupStage(codec, keyFieldOverride, aggregation));
+
+        List<AggregateGroup> groups = new ArrayList<>();
+        for (Document document : collection.aggregate(pipeline)) {
+            groups.add(MongoQueries.toAggregateGroup(aggregation, document));
+        }
+
+        return groups;
     }
 
     @Override
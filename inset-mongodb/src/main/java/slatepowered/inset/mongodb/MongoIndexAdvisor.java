@@ -0,0 +1,120 @@
+package slatepowered.inset.mongodb;
+
+import org.bson.Document;
+import slatepowered.inset.codec.DataCodec;
+import slatepowered.inset.operation.FieldOrderSorting;
+import slatepowered.inset.operation.Sorting;
+import slatepowered.inset.query.Query;
+import slatepowered.inset.util.DebugLogging;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Observes the shapes of the queries executed on a collection, which are the
+ * constrained and sorted fields, and logs each shape once if no index of the
+ * collection supports it.
+ *
+ * An index is considered to support a shape if its first field is constrained
+ * or is the first sorted field, which is enough for MongoDB to avoid a scan
+ * of the whole collection.
+ */
+final class MongoIndexAdvisor implements DebugLogging {
+
+    // The table to advise on
+    private final MongoDataTable table;
+
+    // The fields of each index of the collection in order,
+    // loaded from the collection when first required
+    private volatile List<List<String>> indexFields;
+
+    // Whether each observed shape is supported by an index
+    private final Map<String, Boolean> checkedShapes = new ConcurrentHashMap<>();
+
+    MongoIndexAdvisor(MongoDataTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Reload the indexes of the collection and check all shapes again,
+     * should be called after the indexes changed.
+     */
+    void refresh() {
+        indexFields = null;
+        checkedShapes.clear();
+    }
+
+    private List<List<String>> indexFields() {
+        List<List<String>> fields = indexFields;
+        if (fields == null) {
+            fields = new ArrayList<>();
+            for (Document index : table.getCollection().listIndexes()) {
+                Document key = index.get("key", Document.class);
+                if (key != null && !key.isEmpty()) {
+                    fields.add(new ArrayList<>(key.keySet()));
+                }
+            }
+
+            indexFields = fields;
+        }
+
+        return fields;
+    }
+
+    // check whether any index supports the given shape
+    private boolean isSupported(Set<String> filterFields, List<String> sortFields) {
+        for (List<String> fields : indexFields()) {
+            String first = fields.get(0);
+            if (filterFields.contains(first) || (!sortFields.isEmpty() && sortFields.get(0).equals(first))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Observe the execution of the given query with the given sorting.
+     *
+     * @param query The query.
+     * @param sorting The sorting or null if unsorted.
+     */
+    void observe(Query query, Sorting sorting) {
+        if (query.hasKey()) {
+            // served by the primary key index
+            return;
+        }
+
+        DataCodec<?, ?> codec = query.getDatastore().getDataCodec();
+        String keyFieldOverride = table.source.getKeyFieldOverride();
+
+        Set<String> filterFields = new TreeSet<>();
+        for (String field : query.getFieldConstraints().keySet()) {
+            filterFields.add(MongoQueries.serializedFieldName(codec, keyFieldOverride, field));
+        }
+
+        List<String> sortFields = new ArrayList<>();
+        if (sorting instanceof FieldOrderSorting) {
+            for (String field : ((FieldOrderSorting) sorting).getFieldNames()) {
+                sortFields.add(MongoQueries.serializedFieldName(codec, keyFieldOverride, field));
+            }
+        }
+
+        if (filterFields.isEmpty() && sortFields.isEmpty()) {
+            // a scan of the whole collection was requested
+            return;
+        }
+
+        String shape = "filter " + filterFields + (sortFields.isEmpty() ? "" : " sort " + sortFields);
+        if (checkedShapes.containsKey(shape)) {
+            return;
+        }
+
+        boolean supported = isSupported(filterFields, sortFields);
+        if (checkedShapes.putIfAbsent(shape, supported) == null && !supported) {
+            // the advisor is opt in, so this is logged regardless of the debug level
+            log("Query shape " + shape + " on collection " + table.getName() + " has no supporting index");
+        }
+    }
+
+}
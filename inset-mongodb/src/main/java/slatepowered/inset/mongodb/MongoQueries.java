@@ -2,22 +2,33 @@ package slatepowered.inset.mongodb;
 
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BsonField;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Projections;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
 import org.bson.BsonDocument;
 import org.bson.BsonInt32;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
-import slatepowered.inset.bson.DocumentDecodeInput;
+import org.bson.types.Binary;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
 import slatepowered.inset.codec.DataCodec;
 import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.internal.Aggregator;
 import slatepowered.inset.operation.*;
+import slatepowered.inset.query.PageToken;
 import slatepowered.inset.query.Query;
 import slatepowered.inset.source.SourcedItem;
 import slatepowered.inset.query.constraint.CommonFieldConstraint;
 import slatepowered.inset.query.constraint.FieldConstraint;
 import slatepowered.inset.source.DataSourceBulkIterable;
 import slatepowered.inset.source.DataSourceFindResult;
+import slatepowered.inset.util.KeySet;
 import slatepowered.inset.util.Range;
 
 import java.util.*;
@@ -52,7 +63,7 @@ final class MongoQueries {
         Bson[] bsonArray = new Bson[count];
         int i = 0;
         for (Map.Entry<String, FieldConstraint<?>> entry : constraintMap.entrySet()) {
-            String serializedName = codec.getPrimaryKeyFieldName().equals(entry.getKey()) ? keyFieldNameOverride : codec.toSerializedName(entry.getKey());
+            String serializedName = serializedFieldName(codec, keyFieldNameOverride, entry.getKey());
             bsonArray[i] = constraintToBson(serializedName, entry.getValue());
             i++;
         }
@@ -127,7 +138,7 @@ final class MongoQueries {
         };
     }
 
-    public static DataSourceFindResult foundQueryResult(Query query, String keyFieldOverride, Document document) {
+    public static DataSourceFindResult foundQueryResult(Query query, String keyFieldOverride, RawBsonDocument document) {
         return new DataSourceFindResult() {
             @Override
             public String getPrimaryKeyFieldOverride() {
@@ -146,7 +157,7 @@ final class MongoQueries {
 
             @Override
             public DecodeInput input() {
-                return new DocumentDecodeInput(keyFieldOverride, document);
+                return new RawDocumentDecodeInput(keyFieldOverride, document);
             }
         };
     }
@@ -204,23 +215,294 @@ final class MongoQueries {
         throw new UnsupportedOperationException("Unsupported sorting type: " + sorting.getClass().getName());
     }
 
+    /**
+     * Serialize a filter matching only the documents positioned after the given page
+     * token in the given sorting, which should end with the primary key field.
+     *
+     * For the sorted fields {@code f1..fn} with the token values {@code v1..vn} this
+     * creates the compound range filter {@code (f1 > v1) or (f1 = v1 and f2 > v2) or ...},
+     * where {@code >} becomes {@code <} for descending fields.
+     *
+     * @param codec The data codec.
+     * @param keyFieldNameOverride The primary key field name override.
+     * @param sorting The sorting.
+     * @param token The page token.
+     * @return The BSON filter.
+     */
+    public static Bson serializeAfterFilter(DataCodec<?, ?> codec, String keyFieldNameOverride,
+                                            FieldOrderSorting sorting, PageToken token) {
+        final int size = sorting.size();
+        List<String> fieldNames = sorting.getFieldNames();
+        List<FieldOrdering> fieldOrderings = sorting.getFieldOrderings();
+        Object[] values = token.getValues();
+
+        List<Bson> branches = new ArrayList<>(size);
+        List<Bson> equalities = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String field = serializedFieldName(codec, keyFieldNameOverride, fieldNames.get(i));
+            Object value = i < values.length ? values[i] : token.getKey();
+            boolean descending = fieldOrderings.get(i) == FieldOrdering.DESCENDING;
+
+            // ascending fields continue with greater values ($gt) and descending
+            // fields with lesser values ($lt), null and missing values are ordered
+            // before all other values, so in ascending order every non null value
+            // follows a null value while in descending order nothing does, and the
+            // null values follow every other value in descending order
+            Bson range;
+            if (value == null) {
+                range = descending ? null : Filters.ne(field, null);
+            } else {
+                range = descending ?
+                        Filters.or(Filters.lt(field, value), Filters.eq(field, null)) :
+                        Filters.gt(field, value);
+            }
+
+            if (range != null) {
+                List<Bson> branch = new ArrayList<>(equalities);
+                branch.add(range);
+                branches.add(branch.size() == 1 ? range : Filters.and(branch));
+            }
+
+            equalities.add(Filters.eq(field, value));
+        }
+
+        return branches.size() == 1 ? branches.get(0) : Filters.or(branches);
+    }
+
+    // resolve the serialized name of the given runtime field name
+    static String serializedFieldName(DataCodec<?, ?> codec, String keyFieldNameOverride, String field) {
+        return field.equals(codec.getPrimaryKeyFieldName()) && keyFieldNameOverride != null ?
+                keyFieldNameOverride :
+                codec.toSerializedName(field);
+    }
+
+    /**
+     * Serialize the given aggregation to a MongoDB {@code $group} stage.
+     *
+     * The group key is null without group fields, the field value with one group
+     * field or a document keyed by the runtime field names otherwise.
+     *
+     * @param codec The data codec.
+     * @param keyFieldNameOverride The primary key field name override.
+     * @param aggregation The aggregation.
+     * @return The BSON group stage.
+     */
+    public static Bson serializeGroupStage(DataCodec<?, ?> codec, String keyFieldNameOverride, Aggregation aggregation) {
+        List<String> groupFields = aggregation.getGroupFieldNames();
+        Object groupId;
+        if (groupFields.isEmpty()) {
+            groupId = null;
+        } else if (groupFields.size() == 1) {
+            groupId = "$" + serializedFieldName(codec, keyFieldNameOverride, groupFields.get(0));
+        } else {
+            Document document = new Document();
+            for (String field : groupFields) {
+                document.put(field, "$" + serializedFieldName(codec, keyFieldNameOverride, field));
+            }
+
+            groupId = document;
+        }
+
+        List<BsonField> fields = new ArrayList<>();
+        for (Accumulator accumulator : aggregation.getAccumulators()) {
+            String name = accumulator.getName();
+            String operand = accumulator.getFieldName() != null ?
+                    "$" + serializedFieldName(codec, keyFieldNameOverride, accumulator.getFieldName()) : null;
+
+            switch (accumulator.getType()) {
+                case COUNT: fields.add(Accumulators.sum(name, 1)); break;
+                case SUM: fields.add(Accumulators.sum(name, operand)); break;
+                case AVG: fields.add(Accumulators.avg(name, operand)); break;
+                case MIN: fields.add(Accumulators.min(name, operand)); break;
+                case MAX: fields.add(Accumulators.max(name, operand)); break;
+                default: throw new UnsupportedOperationException("Unsupported accumulator type: " + accumulator.getType());
+            }
+        }
+
+        return Aggregates.group(groupId, fields);
+    }
+
+    /**
+     * Convert the given result document of a group stage created by
+     * {@link #serializeGroupStage(DataCodec, String, Aggregation)} to a group.
+     *
+     * @param aggregation The aggregation.
+     * @param document The result document.
+     * @return The group.
+     */
+    public static AggregateGroup toAggregateGroup(Aggregation aggregation, Document document) {
+        List<String> groupFields = aggregation.getGroupFieldNames();
+        Map<String, Object> groupValues = new LinkedHashMap<>();
+        Object groupId = document.get(AggregateGroup.GROUP_FIELD);
+        if (groupFields.size() == 1) {
+            groupValues.put(groupFields.get(0), groupId);
+        } else if (groupId instanceof Document) {
+            for (String field : groupFields) {
+                groupValues.put(field, ((Document) groupId).get(field));
+            }
+        }
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (Accumulator accumulator : aggregation.getAccumulators()) {
+            Object value = document.get(accumulator.getName());
+
+            // numbers are returned in the stored type or summed as 32-bit integers by
+            // MongoDB, normalize them to the types of the client side aggregation
+            if (accumulator.getType() != Accumulator.Type.AVG) {
+                value = Aggregator.normalizeResult(value);
+            }
+
+            results.put(accumulator.getName(), value);
+        }
+
+        return new AggregateGroup(groupValues, results);
+    }
+
     /**
      * Creates a new {@link DataSourceBulkIterable} from the given MongoDB
      * result iterable.
      *
+     * @param filter The filter the iterable was created with, may be null.
      * @param iterable The MongoDB iterable.
      * @return The result set.
      */
     public static DataSourceBulkIterable createBulkIterable(final String keyFieldNameOverride,
                                                             final Query query,
-                                                            final FindIterable<Document> iterable) {
-        MongoCursor<Document> cursor = iterable.cursor();
+                                                            final Bson filter,
+                                                            final FindIterable<RawBsonDocument> iterable) {
+        return createBulkIterable(keyFieldNameOverride, query, filter, iterable, null);
+    }
+
+    /**
+     * Creates a new {@link DataSourceBulkIterable} from the given MongoDB
+     * result iterable, reporting the shape of the query to the given index
+     * advisor when it is executed.
+     *
+     * @param filter The filter the iterable was created with, may be null.
+     * @param iterable The MongoDB iterable.
+     * @param indexAdvisor The index advisor, may be null.
+     * @return The result set.
+     */
+    static DataSourceBulkIterable createBulkIterable(final String keyFieldNameOverride,
+                                                     final Query query,
+                                                     final Bson filter,
+                                                     final FindIterable<RawBsonDocument> iterable,
+                                                     final MongoIndexAdvisor indexAdvisor) {
         return new DataSourceBulkIterable() {
             @Override
             public String getPrimaryKeyFieldOverride() {
                 return keyFieldNameOverride;
             }
 
+            // The filters applied to the iterable, setting a filter on the
+            // iterable replaces the previous one so they are combined
+            final List<Bson> filters = new ArrayList<>(filter != null ? Collections.singletonList(filter) : Collections.emptyList());
+
+            // add the given filter to the filters applied to the iterable
+            private void addFilter(Bson filter) {
+                filters.add(filter);
+                iterable.filter(filters.size() == 1 ? filters.get(0) : Filters.and(filters));
+            }
+
+            // The cursor, this is opened lazily when the first item is
+            // requested so the sorting, limit, etc. are applied server side
+            MongoCursor<RawBsonDocument> cursor;
+
+            // The sorting applied to the iterable, reported to the index advisor
+            Sorting sorting;
+
+            // report the shape of the query when it is executed
+            private void observe() {
+                if (indexAdvisor != null && cursor == null) {
+                    indexAdvisor.observe(query, sorting);
+                }
+            }
+
+            private MongoCursor<RawBsonDocument> cursor() {
+                if (cursor == null) {
+                    observe();
+                    cursor = iterable.cursor();
+                }
+
+                return cursor;
+            }
+
+            // The keys of the items to exclude from the results
+            KeySet excludedKeys;
+
+            // The name of the raw primary key field in the documents
+            String rawKeyField;
+
+            // check whether the given document should be excluded by
+            // reading only the raw primary key value
+            private boolean isExcluded(RawBsonDocument document) {
+                if (excludedKeys == null) {
+                    return false;
+                }
+
+                if (rawKeyField == null) {
+                    rawKeyField = keyFieldNameOverride != null ? keyFieldNameOverride :
+                            query.getDatastore().getDataCodec().getPrimaryKeyFieldName();
+                }
+
+                // read the key value directly, only converting uncommon key types
+                BsonValue key = document.get(rawKeyField);
+                if (key != null && !isCommonKeyType(key)) {
+                    return containsRawKey(excludedKeys, new RawDocumentDecodeInput(keyFieldNameOverride, document).readRaw(rawKeyField));
+                }
+
+                return containsBsonKey(excludedKeys, key);
+            }
+
+            // The next document which is not excluded, read ahead by hasNextDocument()
+            RawBsonDocument peeked;
+
+            // get the next document which is not excluded
+            private RawBsonDocument nextDocument() {
+                if (peeked != null) {
+                    RawBsonDocument document = peeked;
+                    peeked = null;
+                    return document;
+                }
+
+                MongoCursor<RawBsonDocument> cursor = cursor();
+                RawBsonDocument document;
+                do {
+                    document = cursor.tryNext();
+                } while (document != null && isExcluded(document));
+                return document;
+            }
+
+            // check whether a next document which is not excluded exists,
+            // reading it ahead so excluded documents are skipped
+            private boolean hasNextDocument() {
+                if (peeked == null) {
+                    peeked = nextDocument();
+                }
+
+                return peeked != null;
+            }
+
+            // iterate over the remaining documents which are not excluded
+            private Iterator<RawBsonDocument> documents() {
+                return new Iterator<RawBsonDocument>() {
+                    @Override
+                    public boolean hasNext() {
+                        return hasNextDocument();
+                    }
+
+                    @Override
+                    public RawBsonDocument next() {
+                        RawBsonDocument document = nextDocument();
+                        if (document == null) {
+                            throw new NoSuchElementException();
+                        }
+
+                        return document;
+                    }
+                };
+            }
+
             // Whether any projections happened causing the
             // data to only be partial.
             boolean partial = false;
@@ -238,7 +520,7 @@ final class MongoQueries {
 
             @Override
             public DataSourceBulkIterable filter(Query query) {
-                iterable.filter(serializeQueryToFindFilter(getQuery().getDatastore().getDataCodec(), keyFieldNameOverride, query));
+                addFilter(serializeQueryToFindFilter(getQuery().getDatastore().getDataCodec(), keyFieldNameOverride, query));
                 return this;
             }
 
@@ -249,12 +531,12 @@ final class MongoQueries {
             }
 
             // convert the given document to a bulk item result
-            private SourcedItem<?, ?> convert(Document document) {
+            private SourcedItem<?, ?> convert(RawBsonDocument document) {
                 return toBulkItem(document, keyFieldNameOverride, partial);
             }
 
             // convert the given optional document to a bulk item result
-            private Optional<SourcedItem<?, ?>> convertNullable(Document document) {
+            private Optional<SourcedItem<?, ?>> convertNullable(RawBsonDocument document) {
                 return document == null ? Optional.empty() : Optional.of(convert(document));
             }
 
@@ -267,33 +549,44 @@ final class MongoQueries {
 
             @Override
             public DataSourceBulkIterable sort(Sorting sorting) {
+                this.sorting = sorting;
                 iterable.sort(serializeSorting(getQuery().getDatastore().getDataCodec(), keyFieldNameOverride, sorting));
                 return this;
             }
 
+            @Override
+            public DataSourceBulkIterable after(FieldOrderSorting sorting, PageToken token) {
+                DataCodec<?, ?> codec = getQuery().getDatastore().getDataCodec();
+                this.sorting = sorting;
+                iterable.sort(serializeSorting(codec, keyFieldNameOverride, sorting));
+                if (token != null) {
+                    addFilter(serializeAfterFilter(codec, keyFieldNameOverride, sorting, token));
+                }
+
+                return this;
+            }
+
             @Override
             public Optional<SourcedItem<?, ?>> first() {
-                return convertNullable(iterable.first());
+                observe();
+                return convertNullable(excludedKeys == null ? iterable.first() : nextDocument());
             }
 
             @Override
             public Optional<SourcedItem<?, ?>> next() {
-                return convertNullable(cursor.tryNext());
+                return convertNullable(nextDocument());
             }
 
             @Override
             public boolean hasNext() {
-                return cursor.hasNext();
+                return hasNextDocument();
             }
 
             @Override
             public List<SourcedItem<?, ?>> list() {
                 List<SourcedItem<?, ?>> list = new ArrayList<>();
-                while (cursor.hasNext()) {
-                    Document doc = cursor.tryNext();
-                    if (doc == null)
-                        continue;
-
+                RawBsonDocument doc;
+                while ((doc = nextDocument()) != null) {
                     list.add(convert(doc));
                 }
 
@@ -303,8 +596,7 @@ final class MongoQueries {
             @Override
             public Stream<SourcedItem<?, ?>> stream() {
                 return StreamSupport
-                        .stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
-                        .filter(Objects::nonNull)
+                        .stream(() -> Spliterators.spliteratorUnknownSize(documents(), Spliterator.ORDERED), Spliterator.ORDERED, false)
                         .map(this::convert);
             }
 
@@ -313,13 +605,89 @@ final class MongoQueries {
                 iterable.skip(amount);
                 return this;
             }
+
+            @Override
+            public DataSourceBulkIterable excludeKeys(KeySet keys) {
+                this.excludedKeys = keys != null && !keys.isEmpty() ? keys : null;
+                return this;
+            }
         };
     }
 
+    /**
+     * Check whether the given raw primary key value read from a document is
+     * contained by the given key set, without decoding or allocating it.
+     *
+     * @param keys The key set.
+     * @param rawKey The raw key value.
+     * @return Whether the key is contained.
+     */
+    public static boolean containsRawKey(KeySet keys, Object rawKey) {
+        if (rawKey instanceof Binary) {
+            Binary binary = (Binary) rawKey;
+            byte[] data = binary.getData();
+            if (binary.getType() == BsonBinarySubType.UUID_STANDARD.getValue() && data.length == 16) {
+                return keys.containsUuid(readLongBigEndian(data, 0), readLongBigEndian(data, 8));
+            }
+        }
+
+        return keys.contains(rawKey);
+    }
+
+    static boolean isCommonKeyType(BsonValue key) {
+        switch (key.getBsonType()) {
+            case STRING:
+            case INT32:
+            case INT64:
+            case OBJECT_ID:
+            case BINARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Check whether the given BSON primary key value is contained by the given
+     * key set without decoding the document it was read from.
+     *
+     * Only string, integral, object ID and binary keys are supported.
+     *
+     * @param keys The key set.
+     * @param key The BSON key value, may be null if absent.
+     * @return Whether the key is contained.
+     */
+    public static boolean containsBsonKey(KeySet keys, BsonValue key) {
+        if (key == null) {
+            return false;
+        }
+
+        switch (key.getBsonType()) {
+            case STRING: return keys.contains(key.asString().getValue());
+            case INT32: return keys.containsLong(key.asInt32().getValue());
+            case INT64: return keys.containsLong(key.asInt64().getValue());
+            case OBJECT_ID: return keys.contains(key.asObjectId().getValue());
+            case BINARY: {
+                BsonBinary binary = key.asBinary();
+                return containsRawKey(keys, new Binary(binary.getType(), binary.getData()));
+            }
+            default: throw new IllegalArgumentException("Unsupported key type " + key.getBsonType());
+        }
+    }
+
+    private static long readLongBigEndian(byte[] bytes, int offset) {
+        long x = 0;
+        for (int i = 0; i < 8; i++) {
+            x = (x << 8) | (bytes[offset + i] & 0xFFL);
+        }
+
+        return x;
+    }
+
     /**
      * Convert the given document with the given metadata to a found bulk item.
      */
-    public static SourcedItem<?, ?> toBulkItem(Document document,
+    public static SourcedItem<?, ?> toBulkItem(RawBsonDocument document,
                                                String keyFieldOverride,
                                                boolean partial) {
         return new SourcedItem<Object, Object>() {
@@ -330,7 +698,7 @@ final class MongoQueries {
 
             @Override
             public DecodeInput input() {
-                return new DocumentDecodeInput(keyFieldOverride, document);
+                return new RawDocumentDecodeInput(keyFieldOverride, document);
             }
         };
     }
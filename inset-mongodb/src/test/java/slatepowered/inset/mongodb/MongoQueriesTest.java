@@ -0,0 +1,138 @@
+package slatepowered.inset.mongodb;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonBinary;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+import slatepowered.inset.bson.RawDocumentDecodeInput;
+import slatepowered.inset.operation.AggregateGroup;
+import slatepowered.inset.operation.Aggregation;
+import slatepowered.inset.source.DataSourceBulkIterable;
+import slatepowered.inset.source.SourcedItem;
+import slatepowered.inset.util.KeySet;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MongoQueriesTest {
+
+    // create a find iterable which returns a cursor over documents with the given keys
+    @SuppressWarnings("unchecked")
+    static FindIterable<RawBsonDocument> findIterable(String... keys) {
+        List<RawBsonDocument> documents = new ArrayList<>();
+        for (String key : keys) {
+            documents.add(RawBsonDocument.parse("{ \"_id\": \"" + key + "\" }"));
+        }
+
+        return (FindIterable<RawBsonDocument>) Proxy.newProxyInstance(MongoQueriesTest.class.getClassLoader(),
+                new Class[] { FindIterable.class }, (proxy, method, args) -> {
+                    if (!method.getName().equals("cursor")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+
+                    Iterator<RawBsonDocument> iterator = documents.iterator();
+                    return Proxy.newProxyInstance(MongoQueriesTest.class.getClassLoader(),
+                            new Class[] { MongoCursor.class }, (cursorProxy, cursorMethod, cursorArgs) -> {
+                                switch (cursorMethod.getName()) {
+                                    case "hasNext": return iterator.hasNext();
+                                    case "next": return iterator.next();
+                                    case "tryNext": return iterator.hasNext() ? iterator.next() : null;
+                                    case "close": return null;
+                                    default: throw new UnsupportedOperationException(cursorMethod.getName());
+                                }
+                            });
+                });
+    }
+
+    static String key(SourcedItem<?, ?> item) {
+        return (String) ((RawDocumentDecodeInput) item.input()).readRaw("_id");
+    }
+
+    static DataSourceBulkIterable excluding(String... keys) {
+        return MongoQueries.createBulkIterable("_id", null, null, findIterable("a", "b", "c", "d"))
+                .excludeKeys(KeySet.of(Arrays.asList(keys)));
+    }
+
+    @Test
+    void hasNextSkipsExcludedKeys() {
+        DataSourceBulkIterable iterable = excluding("b", "d");
+        assertTrue(iterable.hasNext());
+        assertEquals("a", key(iterable.next().get()));
+        assertTrue(iterable.hasNext());
+        assertTrue(iterable.hasNext());
+        assertEquals("c", key(iterable.next().get()));
+
+        // only excluded documents are left
+        assertFalse(iterable.hasNext());
+        assertFalse(iterable.next().isPresent());
+
+        // documents read ahead are not lost by the other methods
+        iterable = excluding("a");
+        assertTrue(iterable.hasNext());
+        assertEquals(Arrays.asList("b", "c", "d"), iterable.list().stream().map(MongoQueriesTest::key).collect(Collectors.toList()));
+
+        iterable = excluding("c");
+        assertTrue(iterable.hasNext());
+        assertEquals(Arrays.asList("a", "b", "d"), iterable.stream().map(MongoQueriesTest::key).collect(Collectors.toList()));
+    }
+
+    @Test
+    void containsBsonKeys() {
+        UUID uuid = UUID.randomUUID();
+        KeySet keys = KeySet.of(Arrays.asList("a", 5, uuid));
+        assertTrue(MongoQueries.containsBsonKey(keys, new BsonString("a")));
+        assertTrue(MongoQueries.containsBsonKey(keys, new BsonInt32(5)));
+        assertTrue(MongoQueries.containsBsonKey(keys, new BsonInt64(5)));
+        assertTrue(MongoQueries.containsBsonKey(keys, new BsonBinary(uuid)));
+        assertFalse(MongoQueries.containsBsonKey(keys, new BsonString("b")));
+        assertFalse(MongoQueries.containsBsonKey(keys, new BsonBinary(UUID.randomUUID())));
+        assertFalse(MongoQueries.containsBsonKey(keys, null));
+    }
+
+    @Test
+    void aggregateResultsAreNormalized() {
+        Aggregation aggregation = Aggregation.builder()
+                .groupBy("kind")
+                .count("count")
+                .sum("intSum", "score")
+                .sum("doubleSum", "ratio")
+                .avg("avg", "score")
+                .min("min", "score")
+                .max("max", "ratio")
+                .min("name", "name")
+                .build();
+
+        // the types returned by MongoDB for int and float fields
+        Document document = new Document(AggregateGroup.GROUP_FIELD, "a")
+                .append("count", 3)
+                .append("intSum", 12)
+                .append("doubleSum", 1.5f)
+                .append("avg", 4.0)
+                .append("min", 2)
+                .append("max", 0.75f)
+                .append("name", "first");
+
+        AggregateGroup group = MongoQueries.toAggregateGroup(aggregation, document);
+        assertEquals("a", group.getGroupValue("kind"));
+        assertEquals(Long.valueOf(3), group.get("count"));
+        assertEquals(Long.valueOf(12), group.get("intSum"));
+        assertEquals(Double.valueOf(1.5), group.get("doubleSum"));
+        assertEquals(Double.valueOf(4.0), group.get("avg"));
+        assertEquals(Long.valueOf(2), group.get("min"));
+        assertEquals(Double.valueOf(0.75), group.get("max"));
+        assertEquals("first", group.get("name"));
+    }
+
+}
@@ -0,0 +1,258 @@
+package slatepowered.inset.processor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates {@code ValueCodec}/{@code DataCodec} implementations for all classes annotated
+ * with {@code @GenerateCodec} at compile time, and an index of the generated codecs which
+ * is registered as a service so {@code CodecRegistry#registerGenerated()} can load them
+ * without any reflection.
+ */
+@SupportedAnnotationTypes(CodecProcessor.GENERATE_CODEC)
+public final class CodecProcessor extends AbstractProcessor {
+
+    /* Annotations, referenced by name so the processor does not depend on inset-core */
+    static final String GENERATE_CODEC = "slatepowered.inset.codec.GenerateCodec";
+    static final String KEY = "slatepowered.inset.reflective.Key";
+    static final String SERIALIZED_NAME = "slatepowered.inset.reflective.SerializedName";
+    static final String NOT_NULLABLE = "slatepowered.inset.util.NotNullable";
+
+    static final String CODEC_INDEX = "slatepowered.inset.codec.CodecIndex";
+    static final String CODEC_SUFFIX = "_InsetCodec";
+
+    // The data class and codec class names of the codecs generated this round
+    private final Map<String, String> generatedCodecs = new LinkedHashMap<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    // The names of all generated index classes
+    private final List<String> generatedIndices = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement generateCodec = processingEnv.getElementUtils().getTypeElement(GENERATE_CODEC);
+        if (generateCodec != null) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(generateCodec)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@GenerateCodec can only be applied to classes");
+                    continue;
+                }
+
+                generateCodec((TypeElement) element);
+            }
+        }
+
+        // an index is written for the codecs of each round, as sources created
+        // in the last round are not processed, and all indices are
+        // registered as services once processing is over
+        if (!generatedCodecs.isEmpty()) {
+            writeIndex();
+            generatedCodecs.clear();
+            originatingElements.clear();
+        }
+
+        if (roundEnv.processingOver() && !generatedIndices.isEmpty()) {
+            writeServices();
+        }
+
+        return generateCodec != null && annotations.contains(generateCodec);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    // warn that no codec is generated for the given class, in
+    // which case the runtime codec factory is used for it
+    private void skip(Element element, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                "Not generating a codec, falling back to the runtime codec factory: " + reason, element);
+    }
+
+    // find the annotation mirror by the given name on the element
+    static AnnotationMirror findAnnotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+
+        return null;
+    }
+
+    // get the string value of the given annotation
+    static String annotationValue(AnnotationMirror mirror) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+
+        return null;
+    }
+
+    private void generateCodec(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+
+        // check whether the class can be constructed and accessed from its package
+        if (type.getModifiers().contains(Modifier.PRIVATE) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            skip(type, "the class must not be private or abstract");
+            return;
+        }
+
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+            skip(type, "nested classes must be static");
+            return;
+        }
+
+        if (!type.getTypeParameters().isEmpty()) {
+            skip(type, "generic classes are not supported");
+            return;
+        }
+
+        boolean hasConstructor = false;
+        for (Element enclosed : type.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.CONSTRUCTOR &&
+                    ((ExecutableElement) enclosed).getParameters().isEmpty() &&
+                    !enclosed.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+
+        if (!hasConstructor) {
+            skip(type, "the class needs a non-private no-args constructor");
+            return;
+        }
+
+        // collect the serialized fields, including the fields
+        // of the super classes like the reflective codec factory
+        List<CodecWriter.FieldModel> fields = new ArrayList<>();
+        Set<String> fieldNames = new HashSet<>();
+        CodecWriter.FieldModel keyField = null;
+        for (TypeElement t = type; t != null && !t.getQualifiedName().contentEquals("java.lang.Object"); t = superclassOf(t)) {
+            boolean samePackage = processingEnv.getElementUtils().getPackageOf(t).equals(pkg);
+            for (Element enclosed : t.getEnclosedElements()) {
+                if (enclosed.getKind() != ElementKind.FIELD) continue;
+                Set<Modifier> modifiers = enclosed.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+                if (!fieldNames.add(enclosed.getSimpleName().toString())) continue;
+
+                if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) ||
+                        (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+                    skip(type, "field `" + enclosed.getSimpleName() + "` must be accessible from the package and not final");
+                    return;
+                }
+
+                CodecWriter.FieldModel field = new CodecWriter.FieldModel();
+                field.name = enclosed.getSimpleName().toString();
+                field.type = enclosed.asType();
+
+                AnnotationMirror serializedName = findAnnotation(enclosed, SERIALIZED_NAME);
+                field.serializedName = serializedName != null ? annotationValue(serializedName) : field.name;
+                field.notNullable = findAnnotation(enclosed, NOT_NULLABLE) != null;
+
+                if (findAnnotation(enclosed, KEY) != null) {
+                    keyField = field;
+                } else {
+                    fields.add(field);
+                }
+            }
+        }
+
+        String codecSimpleName = codecSimpleName(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String codecName = packageName.isEmpty() ? codecSimpleName : packageName + "." + codecSimpleName;
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(codecName, type);
+            try (Writer writer = file.openWriter()) {
+                new CodecWriter(processingEnv, type, packageName, codecSimpleName, fields, keyField).write(writer);
+            }
+        } catch (IOException e) {
+            error(type, "Failed to write generated codec " + codecName + ": " + e);
+            return;
+        }
+
+        generatedCodecs.put(type.getQualifiedName().toString(), codecName);
+        originatingElements.add(type);
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) return null;
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    // get the simple name of the codec for the given class,
+    // nested classes include the names of the enclosing classes
+    static String codecSimpleName(TypeElement type) {
+        StringBuilder b = new StringBuilder(type.getSimpleName());
+        for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            b.insert(0, e.getSimpleName() + "_");
+        }
+
+        return b.append(CODEC_SUFFIX).toString();
+    }
+
+    // write the codec index for the codecs generated this round
+    private void writeIndex() {
+        String firstCodec = generatedCodecs.values().iterator().next();
+        int lastDot = firstCodec.lastIndexOf('.');
+        String packageName = lastDot == -1 ? "" : firstCodec.substring(0, lastDot);
+        String simpleName = "InsetCodecIndex_" + Integer.toHexString(generatedCodecs.keySet().hashCode());
+        String indexName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        Element[] originating = originatingElements.toArray(new Element[0]);
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(indexName, originating);
+            try (Writer writer = file.openWriter()) {
+                if (!packageName.isEmpty()) writer.write("package " + packageName + ";\n\n");
+                writer.write("/**\n * Index of the codecs generated by the inset annotation processor.\n */\n");
+                writer.write("public final class " + simpleName + " implements " + CODEC_INDEX + " {\n\n");
+                writer.write("    @Override\n");
+                writer.write("    public void registerAll(slatepowered.inset.codec.CodecRegistry registry) {\n");
+                for (Map.Entry<String, String> entry : generatedCodecs.entrySet()) {
+                    writer.write("        registry.register(" + entry.getKey() + ".class, new " + entry.getValue() + "());\n");
+                }
+
+                writer.write("    }\n\n}\n");
+            }
+
+            generatedIndices.add(indexName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write generated codec index: " + e);
+        }
+    }
+
+    // write the service file registering all generated indices
+    private void writeServices() {
+        try {
+            FileObject services = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + CODEC_INDEX);
+            try (Writer writer = services.openWriter()) {
+                for (String indexName : generatedIndices) {
+                    writer.write(indexName + "\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write codec index services: " + e);
+        }
+    }
+
+}
@@ -0,0 +1,452 @@
+package slatepowered.inset.processor;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the source of a generated codec for one data class.
+ */
+final class CodecWriter {
+
+    /**
+     * A serialized field of the data class.
+     */
+    static final class FieldModel {
+        String name;           // The name of the field
+        String serializedName; // The serialized name of the field
+        TypeMirror type;       // The generic type
+        boolean notNullable;   // Whether null values should be ignored when decoding
+    }
+
+    static final String CORE = "slatepowered.inset.";
+
+    final ProcessingEnvironment env;
+    final TypeElement type;
+    final String packageName;
+    final String simpleName;
+    final List<FieldModel> fields; // The fields, excluding the key field
+    final FieldModel keyField;     // The primary key field, null for value codecs
+    final String className;        // The name of the data class
+
+    CodecWriter(ProcessingEnvironment env, TypeElement type, String packageName, String simpleName,
+                List<FieldModel> fields, FieldModel keyField) {
+        this.env = env;
+        this.type = type;
+        this.packageName = packageName;
+        this.simpleName = simpleName;
+        this.fields = fields;
+        this.keyField = keyField;
+        this.className = type.getQualifiedName().toString();
+    }
+
+    // escape the given string as a Java string literal
+    static String literal(String str) {
+        StringBuilder b = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            switch (c) {
+                case '"': b.append("\\\""); break;
+                case '\\': b.append("\\\\"); break;
+                case '\n': b.append("\\n"); break;
+                case '\r': b.append("\\r"); break;
+                case '\t': b.append("\\t"); break;
+                default:
+                    if (c < 0x20) b.append(String.format("\\u%04x", (int) c));
+                    else b.append(c);
+            }
+        }
+
+        return b.append('"').toString();
+    }
+
+    // get the source name of the erasure of the given type
+    String erasure(TypeMirror t) {
+        TypeMirror erased = env.getTypeUtils().erasure(t);
+        if (erased.getKind() == TypeKind.DECLARED) {
+            return ((TypeElement) ((DeclaredType) erased).asElement()).getQualifiedName().toString();
+        } else if (erased.getKind() == TypeKind.ARRAY) {
+            return erasure(((ArrayType) erased).getComponentType()) + "[]";
+        }
+
+        return erased.toString();
+    }
+
+    // get the source name of the boxed type of the given type
+    String boxed(TypeMirror t) {
+        if (t.getKind().isPrimitive()) {
+            return env.getTypeUtils().boxedClass((PrimitiveType) t).getQualifiedName().toString();
+        }
+
+        return erasure(t);
+    }
+
+    // create an expression constructing the java.lang.reflect.Type for the given type
+    String typeExpression(TypeMirror t) {
+        switch (t.getKind()) {
+            case DECLARED: {
+                DeclaredType declared = (DeclaredType) t;
+                String raw = erasure(t) + ".class";
+                if (declared.getTypeArguments().isEmpty()) {
+                    return raw;
+                }
+
+                StringBuilder b = new StringBuilder(CORE + "util.Types.parameterized(" + raw);
+                for (TypeMirror argument : declared.getTypeArguments()) {
+                    b.append(", ").append(typeExpression(argument));
+                }
+
+                return b.append(')').toString();
+            }
+
+            case WILDCARD: {
+                TypeMirror bound = ((WildcardType) t).getExtendsBound();
+                return bound != null ? typeExpression(bound) : "java.lang.Object.class";
+            }
+
+            case TYPEVAR:
+                return typeExpression(env.getTypeUtils().erasure(t));
+
+            default:
+                // primitives and arrays
+                return erasure(t) + ".class";
+        }
+    }
+
+    // create the expression to convert the decoded object in
+    // the `value` variable to the type of the given field
+    String convertExpression(FieldModel field) {
+        switch (field.type.getKind()) {
+            case BOOLEAN: return "(java.lang.Boolean) value";
+            case CHAR: return "(java.lang.Character) value";
+            case BYTE: return "((java.lang.Number) value).byteValue()";
+            case SHORT: return "((java.lang.Number) value).shortValue()";
+            case INT: return "((java.lang.Number) value).intValue()";
+            case LONG: return "((java.lang.Number) value).longValue()";
+            case FLOAT: return "((java.lang.Number) value).floatValue()";
+            case DOUBLE: return "((java.lang.Number) value).doubleValue()";
+            default: return "(" + erasure(field.type) + ") value";
+        }
+    }
+
+    // get the name of the primitive overload on the input/output for the given
+    // field type, or null if the value has to be passed as an object
+    static String primitiveIOName(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return "Boolean";
+            case BYTE:
+            case SHORT:
+            case INT: return "Int";
+            case LONG: return "Long";
+            case FLOAT: return "Float";
+            case DOUBLE: return "Double";
+            default: return null;
+        }
+    }
+
+    // get the name of the primitive overload on the output for the given field type,
+    // shorts and bytes have their own overloads to keep their stored type
+    static String primitiveOutputName(TypeMirror type) {
+        switch (type.getKind()) {
+            case SHORT: return "Short";
+            case BYTE: return "Byte";
+            default: return primitiveIOName(type);
+        }
+    }
+
+    // get the zero value of the given field type
+    static String zeroValue(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return "false";
+            case CHAR: return "'\\0'";
+            case BYTE: return "(byte) 0";
+            case SHORT: return "(short) 0";
+            case LONG: return "0L";
+            case FLOAT: return "0F";
+            case DOUBLE: return "0D";
+            case INT: return "0";
+            default: return "null";
+        }
+    }
+
+    // write the statements setting the field from the decoded `value`
+    void writeSetField(Writer w, String indent, FieldModel field) throws IOException {
+        String target = "instance." + field.name;
+        if (!field.type.getKind().isPrimitive() && !field.notNullable) {
+            w.write(indent + target + " = " + convertExpression(field) + ";\n");
+            return;
+        }
+
+        w.write(indent + "if (value != null) " + target + " = " + convertExpression(field) + ";\n");
+        if (!field.notNullable) {
+            w.write(indent + "else " + target + " = " + zeroValue(field.type) + ";\n");
+        }
+    }
+
+    // write the statement decoding the primary key into the instance
+    void writeDecodeKey(Writer w) throws IOException {
+        FieldModel key = new FieldModel();
+        key.name = keyField.name;
+        key.type = keyField.type;
+        w.write("        Object value = input.getOrReadKey(" + literal(keyField.serializedName) + ", TYPE_" + fields.size() + ");\n");
+        writeSetField(w, "        ", key);
+    }
+
+    void write(Writer w) throws IOException {
+        final boolean isData = keyField != null;
+        final String codecInterface = isData ?
+                CORE + "codec.DataCodec<" + boxed(keyField.type) + ", " + className + ">" :
+                CORE + "codec.ValueCodec<" + className + ">";
+
+        // all fields including the key, for field lookups
+        FieldModel[] allFields = fields.toArray(new FieldModel[fields.size() + (isData ? 1 : 0)]);
+        if (isData) allFields[fields.size()] = keyField;
+
+        if (!packageName.isEmpty()) w.write("package " + packageName + ";\n\n");
+        w.write("/**\n * Codec for {@link " + className + "}, generated by the inset annotation processor.\n */\n");
+        w.write("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        w.write("public final class " + simpleName + " implements " + codecInterface + " {\n\n");
+
+        // field types
+        for (int i = 0; i < allFields.length; i++) {
+            w.write("    private static final java.lang.reflect.Type TYPE_" + i + " = " + typeExpression(allFields[i].type) + ";\n");
+        }
+
+        // expected types of the fields not read through primitive overloads,
+        // which keep the state compiled by the inputs for decoding the field
+        for (int i = 0; i < fields.size(); i++) {
+            if (primitiveIOName(fields.get(i).type) == null) {
+                w.write("    private static final " + CORE + "codec.ExpectedType EXPECTED_" + i + " = new " + CORE + "codec.ExpectedType(TYPE_" + i + ");\n");
+            }
+        }
+
+        w.write("\n");
+
+        // encode
+        w.write("    @Override\n");
+        w.write("    public void encode(" + CORE + "codec.CodecContext context, " + className + " value, " + CORE + "codec.EncodeOutput output) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            FieldModel field = fields.get(i);
+            String io = primitiveOutputName(field.type);
+            if (io != null) {
+                // write through the primitive overload without boxing
+                w.write("        output.set" + io + "(context, " + literal(field.serializedName) + ", value." + field.name + ");\n");
+                continue;
+            }
+
+            w.write("        output.set(context, " + literal(field.serializedName) + ", value." + field.name + ", TYPE_" + i + ");\n");
+        }
+
+        w.write("    }\n\n");
+
+        // construct
+        w.write("    @Override\n");
+        w.write("    public " + className + " construct(" + CORE + "codec.CodecContext context, " + CORE + "codec.DecodeInput input) {\n");
+        w.write("        return new " + className + "();\n");
+        w.write("    }\n\n");
+
+        // decode the given fields or all fields if null, if in place the current
+        // values of reference fields are reused by the input where possible
+        w.write("    private static void decodeFields(" + CORE + "codec.CodecContext context, " + className + " instance, " + CORE + "codec.DecodeInput input,\n");
+        w.write("                                     boolean inPlace, java.util.Collection<String> only) {\n");
+        w.write("        Object value;\n");
+        for (int i = 0; i < fields.size(); i++) {
+            FieldModel field = fields.get(i);
+            w.write("        if (only == null || only.contains(" + literal(field.serializedName) + ")) {\n");
+            String io = primitiveIOName(field.type);
+            if (io != null) {
+                // read through the primitive overload, absent values
+                // are zero or keep the current value if not nullable
+                String cast = field.type.getKind() == TypeKind.BYTE ? "(byte) " : field.type.getKind() == TypeKind.SHORT ? "(short) " : "";
+                w.write("            instance." + field.name + " = " + cast + "input.read" + io + "(context, " + literal(field.serializedName) + ", " +
+                        (field.notNullable ? "instance." + field.name : zeroValue(field.type)) + ");\n");
+            } else {
+                w.write("            value = inPlace ?\n");
+                w.write("                    input.readInto(context, " + literal(field.serializedName) + ", EXPECTED_" + i + ", instance." + field.name + ") :\n");
+                w.write("                    input.read(context, " + literal(field.serializedName) + ", EXPECTED_" + i + ");\n");
+                writeSetField(w, "            ", field);
+            }
+
+            w.write("        }\n");
+        }
+
+        w.write("    }\n\n");
+
+        // decode
+        w.write("    @Override\n");
+        w.write("    public void decode(" + CORE + "codec.CodecContext context, " + className + " instance, " + CORE + "codec.DecodeInput input) {\n");
+        w.write("        decodeFields(context, instance, input, false, null);\n");
+        if (isData) {
+            // decode primary key, this is always set
+            writeDecodeKey(w);
+        }
+
+        w.write("    }\n\n");
+
+        // decodeInPlace, instances of subclasses have other fields
+        w.write("    @Override\n");
+        w.write("    public boolean decodeInPlace(" + CORE + "codec.CodecContext context, " + className + " instance, " + CORE + "codec.DecodeInput input) {\n");
+        w.write("        if (instance.getClass() != " + className + ".class) {\n");
+        w.write("            return false;\n");
+        w.write("        }\n\n");
+        w.write("        decodeFields(context, instance, input, true, null);\n");
+        if (isData) {
+            writeDecodeKey(w);
+        }
+
+        w.write("        return true;\n");
+        w.write("    }\n\n");
+
+        // decodePartial, the primary key is left unchanged and the current
+        // values may be shared with a copied instance so they are not reused
+        w.write("    @Override\n");
+        w.write("    public boolean decodePartial(" + CORE + "codec.CodecContext context, " + className + " instance, " + CORE + "codec.DecodeInput input,\n");
+        w.write("                                 java.util.Collection<String> serializedFields) {\n");
+        w.write("        if (instance.getClass() != " + className + ".class) {\n");
+        w.write("            return false;\n");
+        w.write("        }\n\n");
+        w.write("        decodeFields(context, instance, input, false, serializedFields);\n");
+        w.write("        return true;\n");
+        w.write("    }\n\n");
+
+        // copy, sharing the values of all fields including the primary key
+        w.write("    @Override\n");
+        w.write("    public " + className + " copy(" + CORE + "codec.CodecContext context, " + className + " instance) {\n");
+        w.write("        if (instance.getClass() != " + className + ".class) {\n");
+        w.write("            return null;\n");
+        w.write("        }\n\n");
+        w.write("        " + className + " copy = new " + className + "();\n");
+        for (FieldModel field : allFields) {
+            w.write("        copy." + field.name + " = instance." + field.name + ";\n");
+        }
+
+        w.write("        return copy;\n");
+        w.write("    }\n\n");
+
+        // field index lookup by runtime or serialized name
+        w.write("    private static int fieldIndex(String field) {\n");
+        w.write("        switch (field) {\n");
+        Set<String> labels = new LinkedHashSet<>();
+        for (int i = 0; i < allFields.length; i++) {
+            StringBuilder line = new StringBuilder("           ");
+            for (String label : new String[] { allFields[i].name, allFields[i].serializedName }) {
+                if (labels.add(label)) {
+                    line.append(" case ").append(literal(label)).append(':');
+                }
+            }
+
+            if (line.length() > 11) w.write(line + " return " + i + ";\n");
+        }
+
+        w.write("            default: return -1;\n");
+        w.write("        }\n");
+        w.write("    }\n\n");
+
+        // boxed field read by index
+        w.write("    private static Object readField(" + className + " instance, int index) {\n");
+        w.write("        switch (index) {\n");
+        for (int i = 0; i < allFields.length; i++) {
+            w.write("            case " + i + ": return instance." + allFields[i].name + ";\n");
+        }
+
+        w.write("            default: throw new IllegalArgumentException(\"No field by index \" + index);\n");
+        w.write("        }\n");
+        w.write("    }\n\n");
+
+        // getField
+        w.write("    @Override\n");
+        w.write("    public <V> V getField(" + className + " instance, String field) {\n");
+        w.write("        int index = fieldIndex(field);\n");
+        w.write("        if (index == -1)\n");
+        w.write("            throw new IllegalArgumentException(\"No field by name `\" + field + \"` on \" + " + className + ".class);\n");
+        w.write("        return (V) readField(instance, index);\n");
+        w.write("    }\n\n");
+
+        // toSerializedName
+        w.write("    @Override\n");
+        w.write("    public String toSerializedName(String name) {\n");
+        w.write("        switch (name) {\n");
+        Set<String> names = new LinkedHashSet<>();
+        for (FieldModel field : allFields) {
+            if (!field.name.equals(field.serializedName) && names.add(field.name)) {
+                w.write("            case " + literal(field.name) + ": return " + literal(field.serializedName) + ";\n");
+            }
+        }
+
+        w.write("            default: return name;\n");
+        w.write("        }\n");
+        w.write("    }\n\n");
+
+        if (isData) {
+            writeDataCodecMethods(w);
+        }
+
+        w.write("    @Override\n");
+        w.write("    public String toString() {\n");
+        w.write("        return " + literal("GeneratedCodec(for class: " + className + ")") + ";\n");
+        w.write("    }\n\n");
+        w.write("}\n");
+    }
+
+    private void writeDataCodecMethods(Writer w) throws IOException {
+        final String keyType = boxed(keyField.type);
+
+        w.write("    @Override\n");
+        w.write("    public " + keyType + " getPrimaryKey(" + className + " value) {\n");
+        w.write("        return value." + keyField.name + ";\n");
+        w.write("    }\n\n");
+
+        w.write("    @Override\n");
+        w.write("    public String getPrimaryKeyFieldName() {\n");
+        w.write("        return " + literal(keyField.name) + ";\n");
+        w.write("    }\n\n");
+
+        w.write("    @Override\n");
+        w.write("    public " + className + " createDefault(" + CORE + "datastore.DataItem<" + keyType + ", " + className + "> item) {\n");
+        w.write("        " + className + " instance = new " + className + "();\n");
+        w.write("        instance." + keyField.name + " = item.key();\n");
+        w.write("        return instance;\n");
+        w.write("    }\n\n");
+
+        w.write("    @Override\n");
+        w.write("    public java.util.function.Predicate<" + className + "> getFilterPredicate(" + CORE + "query.Query query) {\n");
+        w.write("        final java.util.Map<String, " + CORE + "query.constraint.FieldConstraint<?>> fieldConstraints = query.getFieldConstraints();\n");
+        w.write("        final int count = fieldConstraints.size();\n");
+        w.write("        final int[] indices = new int[count];\n");
+        w.write("        final " + CORE + "query.constraint.FieldConstraint[] constraints = new " + CORE + "query.constraint.FieldConstraint[count];\n");
+        w.write("        int i = 0;\n");
+        w.write("        for (java.util.Map.Entry<String, " + CORE + "query.constraint.FieldConstraint<?>> entry : fieldConstraints.entrySet()) {\n");
+        w.write("            int index = fieldIndex(entry.getKey());\n");
+        w.write("            if (index == -1)\n");
+        w.write("                throw new IllegalArgumentException(\"Query field `\" + entry.getKey() + \"` could not be resolved to a field on \" + " + className + ".class);\n");
+        w.write("            indices[i] = index;\n");
+        w.write("            constraints[i] = entry.getValue();\n");
+        w.write("            i++;\n");
+        w.write("        }\n\n");
+        w.write("        return value -> {\n");
+        w.write("            for (int n = 0; n < count; n++) {\n");
+        w.write("                if (!constraints[n].test(readField(value, indices[n]))) {\n");
+        w.write("                    return false;\n");
+        w.write("                }\n");
+        w.write("            }\n\n");
+        w.write("            return true;\n");
+        w.write("        };\n");
+        w.write("    }\n\n");
+
+        w.write("    @Override\n");
+        w.write("    public " + CORE + "operation.Projection createExclusiveProjection(String primaryKeyName) {\n");
+        w.write("        java.util.List<String> fields = new java.util.ArrayList<>();\n");
+        for (FieldModel field : fields) {
+            w.write("        fields.add(" + literal(field.serializedName) + ");\n");
+        }
+
+        w.write("        fields.add(primaryKeyName != null ? primaryKeyName : " + literal(keyField.serializedName) + ");\n");
+        w.write("        return " + CORE + "operation.Projection.include(fields);\n");
+        w.write("    }\n\n");
+    }
+
+}
@@ -0,0 +1,266 @@
+package slatepowered.inset.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import slatepowered.inset.codec.CodecContext;
+import slatepowered.inset.codec.CodecRegistry;
+import slatepowered.inset.codec.DecodeInput;
+import slatepowered.inset.codec.EncodeOutput;
+import slatepowered.inset.codec.ValueCodec;
+import slatepowered.inset.reflective.ReflectiveCodecFactory;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class CodecProcessorTest {
+
+    static final String ENTRY_SOURCE = String.join("\n",
+            "package test;",
+            "",
+            "import slatepowered.inset.codec.GenerateCodec;",
+            "import slatepowered.inset.reflective.Key;",
+            "import slatepowered.inset.reflective.SerializedName;",
+            "import slatepowered.inset.util.NotNullable;",
+            "",
+            "import java.util.List;",
+            "",
+            "@GenerateCodec",
+            "public class Entry {",
+            "    @Key",
+            "    protected String id;",
+            "",
+            "    protected int i;",
+            "    protected long l;",
+            "    protected double d;",
+            "    protected short s;",
+            "    protected byte b;",
+            "    protected boolean z;",
+            "",
+            "    @SerializedName(\"n\")",
+            "    protected String name;",
+            "    protected List<String> list;",
+            "",
+            "    @NotNullable",
+            "    protected int kept = 7;",
+            "",
+            "    public static class Nested {",
+            "        protected String value;",
+            "    }",
+            "}");
+
+    static final String HIDDEN_SOURCE = String.join("\n",
+            "package test;",
+            "",
+            "@slatepowered.inset.codec.GenerateCodec",
+            "public class Hidden {",
+            "    private int value;",
+            "}");
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Records the encoded values by field name.
+     */
+    static class MapEncodeOutput extends EncodeOutput {
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        @Override
+        protected void registerKey(CodecContext context, String name, Object key) {
+            values.put(name, key);
+        }
+
+        @Override
+        public void set(CodecContext context, String field, Object value, Type definedType) {
+            values.put(field, value);
+        }
+    }
+
+    /**
+     * Reads the values from a map by field name.
+     */
+    static class MapDecodeInput extends DecodeInput {
+        final Map<String, Object> values;
+
+        MapDecodeInput(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object read(CodecContext context, String field, Type expectedType) {
+            return values.get(field);
+        }
+
+        @Override
+        protected Object readKey(String field, Type expectedType) {
+            return values.get(field);
+        }
+    }
+
+    static final CodecContext CONTEXT = new CodecContext(null);
+
+    // an in memory source file
+    static JavaFileObject source(String name, String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    /**
+     * The result of compiling sources with the processor.
+     */
+    static class Compilation {
+        boolean success;
+        final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+        Path classes;
+        Path sources;
+        ClassLoader classLoader;
+
+        boolean hasWarning(String message) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+                if (diagnostic.getKind() == Diagnostic.Kind.WARNING && diagnostic.getMessage(Locale.ROOT).contains(message)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    // compile the given sources with the codec processor against the test classpath
+    Compilation compile(JavaFileObject... sources) throws IOException {
+        Compilation compilation = new Compilation();
+        compilation.classes = Files.createDirectories(directory.resolve("classes"));
+        compilation.sources = Files.createDirectories(directory.resolve("generated"));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(compilation.diagnostics::add, Locale.ROOT, null)) {
+            List<String> options = Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-d", compilation.classes.toString(),
+                    "-s", compilation.sources.toString());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, compilation.diagnostics::add,
+                    options, null, Arrays.asList(sources));
+            task.setProcessors(Collections.singletonList(new CodecProcessor()));
+            compilation.success = task.call();
+        }
+
+        compilation.classLoader = new URLClassLoader(new URL[] { compilation.classes.toUri().toURL() }, getClass().getClassLoader());
+        return compilation;
+    }
+
+    static Map<String, Object> encode(ValueCodec codec, Object value) {
+        MapEncodeOutput output = new MapEncodeOutput();
+        codec.encode(CONTEXT, value, output);
+        return output.values;
+    }
+
+    static Object decode(ValueCodec codec, Map<String, Object> values) {
+        return codec.constructAndDecode(CONTEXT, new MapDecodeInput(values));
+    }
+
+    static Map<String, Object> entryValues() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("id", "a");
+        values.put("i", 5L);
+        values.put("l", 6);
+        values.put("d", 2.5);
+        values.put("s", 7);
+        values.put("b", 8);
+        values.put("z", true);
+        values.put("n", "name");
+        values.put("list", Arrays.asList("x", "y"));
+        return values;
+    }
+
+    @Test
+    void generatesCodecs() throws Exception {
+        Compilation compilation = compile(source("test.Entry", ENTRY_SOURCE));
+        assertTrue(compilation.success, () -> compilation.diagnostics.toString());
+        assertTrue(Files.exists(compilation.sources.resolve("test" + File.separator + "Entry_InsetCodec.java")));
+
+        Class<?> entryClass = compilation.classLoader.loadClass("test.Entry");
+        ValueCodec generated = (ValueCodec) compilation.classLoader.loadClass("test.Entry_InsetCodec").getConstructor().newInstance();
+        ValueCodec reflective = ReflectiveCodecFactory.builder().build().create(null, entryClass);
+
+        // the generated codec encodes and decodes like the reflective codec
+        Object decoded = decode(generated, entryValues());
+        assertEquals(encode(reflective, decode(reflective, entryValues())), encode(reflective, decoded));
+        assertEquals(encode(reflective, decoded), encode(generated, decoded));
+        assertEquals("a", generated.getField(decoded, "id"));
+        assertEquals("name", generated.getField(decoded, "n"));
+        assertEquals("n", generated.toSerializedName("name"));
+
+        // absent fields are zero or null, unless not nullable
+        decoded = decode(generated, Collections.singletonMap("id", "b"));
+        assertEquals(0, (int) generated.getField(decoded, "i"));
+        assertNull(generated.getField(decoded, "name"));
+        assertEquals(7, (int) generated.getField(decoded, "kept"));
+
+        // the nested class without the annotation has no codec
+        assertThrows(ClassNotFoundException.class, () -> compilation.classLoader.loadClass("test.Entry_Nested_InsetCodec"));
+    }
+
+    @Test
+    void decodesInPlaceAndPartially() throws Exception {
+        Compilation compilation = compile(source("test.Entry", ENTRY_SOURCE));
+        assertTrue(compilation.success, () -> compilation.diagnostics.toString());
+        ValueCodec generated = (ValueCodec) compilation.classLoader.loadClass("test.Entry_InsetCodec").getConstructor().newInstance();
+
+        Object instance = decode(generated, Collections.singletonMap("id", "b"));
+        assertTrue(generated.decodeInPlace(CONTEXT, instance, new MapDecodeInput(entryValues())));
+        assertEquals("a", generated.getField(instance, "id"));
+        assertEquals(5, (int) generated.getField(instance, "i"));
+        assertEquals(Arrays.asList("x", "y"), generated.getField(instance, "list"));
+
+        // only the given fields are decoded into a copy, the key is left unchanged
+        Object original = instance;
+        instance = generated.copy(CONTEXT, original);
+        assertNotSame(original, instance);
+        assertSame(generated.getField(original, "list"), generated.getField(instance, "list"));
+        Map<String, Object> partial = new HashMap<>();
+        partial.put("id", "c");
+        partial.put("i", 9);
+        partial.put("n", "other");
+        assertTrue(generated.decodePartial(CONTEXT, instance, new MapDecodeInput(partial), Arrays.asList("i", "l")));
+        assertEquals(5, (int) generated.getField(original, "i"));
+        assertEquals("a", generated.getField(instance, "id"));
+        assertEquals(9, (int) generated.getField(instance, "i"));
+        assertEquals(0L, (long) generated.getField(instance, "l"));
+        assertEquals("name", generated.getField(instance, "name"));
+    }
+
+    @Test
+    void registersGeneratedCodecs() throws Exception {
+        Compilation compilation = compile(source("test.Entry", ENTRY_SOURCE));
+        assertTrue(compilation.success, () -> compilation.diagnostics.toString());
+
+        Class<?> entryClass = compilation.classLoader.loadClass("test.Entry");
+        CodecRegistry registry = new CodecRegistry(ReflectiveCodecFactory.builder().build())
+                .registerGenerated(compilation.classLoader);
+        assertEquals("test.Entry_InsetCodec", registry.getCodec(entryClass).getClass().getName());
+    }
+
+    @Test
+    void skipsInaccessibleClasses() throws Exception {
+        Compilation compilation = compile(source("test.Hidden", HIDDEN_SOURCE));
+        assertTrue(compilation.success, () -> compilation.diagnostics.toString());
+        assertTrue(compilation.hasWarning("falling back to the runtime codec factory"));
+        assertThrows(ClassNotFoundException.class, () -> compilation.classLoader.loadClass("test.Hidden_InsetCodec"));
+    }
+
+}